@@ -0,0 +1,51 @@
+package benchmark;
+
+/**
+ * A single microbenchmark run by the BenchmarkRunner. Any state the benchmark needs is created
+ * in setup(), which is not timed, and each call to run() performs one operation. run() should return
+ * some value that depends on the work done (a count, a position, etc), these are summed by the runner
+ * so the JIT can't decide the work is unnecessary and remove it.
+ * @author brendan
+ *
+ */
+public abstract class Benchmark {
+
+	private final String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Name used to identify this benchmark in results, this should not change between builds
+	 * so results can be compared
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Create any state needed by run(). Not timed
+	 * @param fixtures
+	 * @throws Exception
+	 */
+	public void setup(Fixtures fixtures) throws Exception {
+		//Nothing by default
+	}
+
+	/**
+	 * Perform one operation
+	 * @return A value that depends on the work done
+	 * @throws Exception
+	 */
+	public abstract long run() throws Exception;
+
+	/**
+	 * Release any resources created in setup(). Not timed
+	 * @throws Exception
+	 */
+	public void teardown() throws Exception {
+		//Nothing by default
+	}
+}
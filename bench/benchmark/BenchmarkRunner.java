@@ -0,0 +1,279 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs benchmarks and reports the average time per operation of each, in the same way as JMH's
+ * average time mode. Each benchmark is run for a few warmup iterations, whose times are discarded so
+ * the JIT has a chance to compile everything, and then for several measured iterations. Each iteration
+ * calls run() repeatedly for a fixed amount of time, in batches large enough that reading the clock
+ * doesn't affect the result. The score is the mean time per operation over all measured iterations.
+ *
+ * Results are written as tab-separated lines (benchmark, mode, iterations, score, stdev, units) so
+ * results from two builds can be compared with the -compare option, or with any diff tool.
+ *
+ * Usage:
+ *   java benchmark.BenchmarkRunner [-o results.tsv] [-b name.prefix] [-wi warmup.iterations]
+ *                                  [-i iterations] [-t iteration.millis] [-size contig.length]
+ *   java benchmark.BenchmarkRunner -compare base.tsv new.tsv
+ * @author brendan
+ *
+ */
+public class BenchmarkRunner {
+
+	public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+	public static final int DEFAULT_ITERATIONS = 5;
+	public static final long DEFAULT_ITERATION_MILLIS = 1000;
+	public static final long MIN_BATCH_NANOS = 1000000; //Batches of calls to run() take at least this long
+	public static final String MODE = "avgt";
+	public static final String UNITS = "ns/op";
+
+	//Results of run() are summed here so the work can't be optimized away
+	public static volatile long sink = 0;
+
+	private int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+	private int iterations = DEFAULT_ITERATIONS;
+	private long iterationNanos = DEFAULT_ITERATION_MILLIS * 1000000L;
+
+	/**
+	 * All benchmarks, in the order they're run
+	 * @return
+	 */
+	public static List<Benchmark> allBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.addAll(VCFParserBenchmarks.benchmarks());
+		list.addAll(VariantPoolBenchmarks.benchmarks());
+		list.addAll(IntervalsBenchmarks.benchmarks());
+		list.addAll(FlatFilesBenchmarks.benchmarks());
+		list.addAll(HistogramBenchmarks.benchmarks());
+		list.addAll(NCBIBenchmarks.benchmarks());
+		return list;
+	}
+
+	/**
+	 * Run a single benchmark, returning the time per operation in nanoseconds of each measured iteration
+	 * @param bench
+	 * @param fixtures
+	 * @return
+	 * @throws Exception
+	 */
+	public double[] runBenchmark(Benchmark bench, Fixtures fixtures) throws Exception {
+		bench.setup(fixtures);
+		try {
+			//Find a batch size large enough that timing each batch is accurate
+			long batch = 1;
+			while(timeBatch(bench, batch) < MIN_BATCH_NANOS) {
+				batch *= 2;
+			}
+
+			for(int i=0; i<warmupIterations; i++) {
+				runIteration(bench, batch);
+			}
+
+			double[] times = new double[iterations];
+			for(int i=0; i<iterations; i++) {
+				times[i] = runIteration(bench, batch);
+			}
+			return times;
+		}
+		finally {
+			bench.teardown();
+		}
+	}
+
+	/**
+	 * Call run() in batches until the iteration time has passed, returning the mean time per call
+	 */
+	private double runIteration(Benchmark bench, long batch) throws Exception {
+		long elapsed = 0;
+		long ops = 0;
+		while(elapsed < iterationNanos) {
+			elapsed += timeBatch(bench, batch);
+			ops += batch;
+		}
+		return (double)elapsed / (double)ops;
+	}
+
+	private static long timeBatch(Benchmark bench, long batch) throws Exception {
+		long sum = 0;
+		long start = System.nanoTime();
+		for(long i=0; i<batch; i++) {
+			sum += bench.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += sum;
+		return elapsed;
+	}
+
+	public static double mean(double[] vals) {
+		double sum = 0;
+		for(double val : vals) {
+			sum += val;
+		}
+		return sum / vals.length;
+	}
+
+	public static double stdev(double[] vals) {
+		if (vals.length < 2)
+			return 0;
+		double mean = mean(vals);
+		double sum = 0;
+		for(double val : vals) {
+			sum += (val - mean)*(val - mean);
+		}
+		return Math.sqrt(sum / (vals.length - 1));
+	}
+
+	/**
+	 * Run all benchmarks whose names start with the given prefix (or all benchmarks if the prefix is null),
+	 * writing results to the given stream
+	 * @param prefix
+	 * @param fixtures
+	 * @param out
+	 * @throws Exception
+	 */
+	public void runAll(String prefix, Fixtures fixtures, PrintStream out) throws Exception {
+		out.println("#Benchmarks run " + new Date() + " with java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ")");
+		out.println("#warmup.iterations=" + warmupIterations + " iterations=" + iterations + " iteration.millis=" + (iterationNanos / 1000000));
+		out.println("#benchmark\tmode\titerations\tscore\tstdev\tunits");
+		for(Benchmark bench : allBenchmarks()) {
+			if (prefix != null && (! bench.getName().startsWith(prefix)))
+				continue;
+
+			System.err.println("Running " + bench.getName() + "...");
+			double[] times = runBenchmark(bench, fixtures);
+			out.println(bench.getName() + "\t" + MODE + "\t" + times.length + "\t" + String.format("%.3f", mean(times)) + "\t" + String.format("%.3f", stdev(times)) + "\t" + UNITS);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Read results written by runAll into a map from benchmark name to {score, stdev}
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Map<String, double[]> readResults(File file) throws IOException {
+		Map<String, double[]> results = new HashMap<String, double[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line = reader.readLine();
+		while(line != null) {
+			if (line.length() > 0 && (! line.startsWith("#"))) {
+				String[] toks = line.split("\t");
+				if (toks.length < 5) {
+					reader.close();
+					throw new IOException("Could not read benchmark result from line : " + line);
+				}
+				results.put(toks[0], new double[]{Double.parseDouble(toks[3]), Double.parseDouble(toks[4])});
+			}
+			line = reader.readLine();
+		}
+		reader.close();
+		return results;
+	}
+
+	/**
+	 * Print the scores from two result files side by side, with the ratio of the new score to the
+	 * base score. Differences larger than twice the sum of the stdevs are marked with a *
+	 * @param baseFile
+	 * @param newFile
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void compare(File baseFile, File newFile, PrintStream out) throws IOException {
+		Map<String, double[]> base = readResults(baseFile);
+		Map<String, double[]> current = readResults(newFile);
+		out.println("#benchmark\tbase\tnew\tratio\tunits");
+		List<String> names = new ArrayList<String>(base.keySet());
+		for(String name : current.keySet()) {
+			if (! base.containsKey(name))
+				names.add(name);
+		}
+		Collections.sort(names);
+		for(String name : names) {
+			double[] b = base.get(name);
+			double[] c = current.get(name);
+			if (b == null || c == null) {
+				out.println(name + "\t" + (b == null ? "-" : String.format("%.3f", b[0])) + "\t" + (c == null ? "-" : String.format("%.3f", c[0])) + "\t-\t" + UNITS);
+				continue;
+			}
+			String mark = Math.abs(c[0] - b[0]) > 2*(b[1] + c[1]) ? " *" : "";
+			out.println(name + "\t" + String.format("%.3f", b[0]) + "\t" + String.format("%.3f", c[0]) + "\t" + String.format("%.3f", c[0] / b[0]) + mark + "\t" + UNITS);
+		}
+	}
+
+	public static void usage() {
+		System.out.println("Usage: java benchmark.BenchmarkRunner [-o results.tsv] [-b name.prefix] [-wi warmup.iterations] [-i iterations] [-t iteration.millis] [-size contig.length]");
+		System.out.println("       java benchmark.BenchmarkRunner -compare base.tsv new.tsv");
+	}
+
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String outputPath = null;
+		String prefix = null;
+		int contigLength = Fixtures.DEFAULT_CONTIG_LENGTH;
+
+		try {
+			for(int i=0; i<args.length; i++) {
+				if (args[i].equals("-compare") && i+2 < args.length) {
+					compare(new File(args[i+1]), new File(args[i+2]), System.out);
+					return;
+				}
+				else if (args[i].equals("-o") && i+1 < args.length) {
+					outputPath = args[++i];
+				}
+				else if (args[i].equals("-b") && i+1 < args.length) {
+					prefix = args[++i];
+				}
+				else if (args[i].equals("-wi") && i+1 < args.length) {
+					runner.warmupIterations = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-i") && i+1 < args.length) {
+					runner.iterations = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-t") && i+1 < args.length) {
+					runner.iterationNanos = Long.parseLong(args[++i]) * 1000000L;
+				}
+				else if (args[i].equals("-size") && i+1 < args.length) {
+					contigLength = Integer.parseInt(args[++i]);
+				}
+				else {
+					usage();
+					return;
+				}
+			}
+
+			PrintStream out = System.out;
+			if (outputPath != null) {
+				try {
+					out = new PrintStream(new FileOutputStream(outputPath));
+				}
+				catch (FileNotFoundException e) {
+					System.err.println("Could not open output file " + outputPath);
+					return;
+				}
+			}
+
+			System.err.println("Generating fixtures...");
+			Fixtures fixtures = new Fixtures(contigLength);
+			runner.runAll(prefix, fixtures, out);
+			if (out != System.out)
+				out.close();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for NCBI's eutils efetch, so code that downloads pubmed abstracts and gene summaries
+ * can be tested and benchmarked offline. The stub serves canned PubmedArticle and Entrezgene elements,
+ * which can be loaded from saved efetch responses or generated, and answers GET or POST requests for
+ * db=pubmed or db=gene with a response containing the elements for the requested ids that it has, as
+ * efetch does. Each request can be delayed to mimic network latency, and every nth request can be
+ * answered with a 503 to exercise retries.
+ *
+ * Point an ncbi.EutilsClient at getURL() to use it.
+ * @author brendan
+ *
+ */
+public class EutilsStub {
+
+	public static final String PATH = "/entrez/eutils/";
+	static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	static final String PUBMED_DOCTYPE = "<!DOCTYPE PubmedArticleSet PUBLIC \"-//NLM//DTD PubMedArticle, 1st January 2013//EN\" \"http://www.ncbi.nlm.nih.gov/corehtml/query/DTD/pubmed_130101.dtd\">\n";
+	static final String GENE_DOCTYPE = "<!DOCTYPE Entrezgene-Set PUBLIC \"-//NLM//DTD NCBI-Entrezgene, 21st January 2005//EN\" \"http://www.ncbi.nlm.nih.gov/data_specs/dtd/NCBI_Entrezgene.dtd\">\n";
+	static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+	static final Pattern PMID = Pattern.compile("<PMID[^>]*>\\s*(\\d+)\\s*</PMID>");
+	static final Pattern GENE = Pattern.compile("<Entrezgene>.*?</Entrezgene>", Pattern.DOTALL);
+	static final Pattern GENE_ID = Pattern.compile("<Gene-track_geneid>\\s*(\\d+)\\s*</Gene-track_geneid>");
+
+	static final String[] WORDS = new String[]{"mutation", "variant", "gene", "protein", "expression", "patients",
+		"disease", "syndrome", "cardiomyopathy", "epilepsy", "kinase", "receptor", "pathway", "cells", "analysis",
+		"associated", "phenotype", "deficiency", "mitochondrial", "neuronal", "function", "loss", "novel", "family"};
+
+	private final HttpServer server;
+	private final ExecutorService threads;
+	private final Map<String, String> articles = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> genes = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger requests = new AtomicInteger(0);
+	private volatile long latencyMillis = 0;
+	private volatile int failEvery = 0;
+
+	/**
+	 * Start a stub on a free local port
+	 * @throws IOException
+	 */
+	public EutilsStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(PATH + "efetch.fcgi", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		threads = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "eutils-stub");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(threads);
+		server.start();
+	}
+
+	/**
+	 * Base eutils URL of this stub
+	 * @return
+	 */
+	public String getURL() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	/**
+	 * Delay every response by this long
+	 * @param latencyMillis
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Answer every nth request with a 503, or never if n is zero
+	 * @param n
+	 */
+	public void setFailEvery(int n) {
+		this.failEvery = n;
+	}
+
+	/**
+	 * Number of requests received so far, including failed ones
+	 * @return
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	public void addArticle(int pubmedID, String articleXML) {
+		articles.put("" + pubmedID, articleXML);
+	}
+
+	public void addGene(String geneID, String geneXML) {
+		genes.put(geneID, geneXML);
+	}
+
+	/**
+	 * Add every PubmedArticle and Entrezgene found in a saved efetch response
+	 * @param response
+	 * @return Number of elements added
+	 * @throws IOException
+	 */
+	public int loadResponse(File response) throws IOException {
+		InputStream in = new FileInputStream(response);
+		String xml;
+		try {
+			xml = new String(readAll(in), "UTF-8");
+		}
+		finally {
+			in.close();
+		}
+
+		int added = 0;
+		Matcher article = ARTICLE.matcher(xml);
+		while(article.find()) {
+			Matcher id = PMID.matcher(article.group());
+			if (id.find()) {
+				articles.put(id.group(1), article.group());
+				added++;
+			}
+		}
+		Matcher gene = GENE.matcher(xml);
+		while(gene.find()) {
+			Matcher id = GENE_ID.matcher(gene.group());
+			if (id.find()) {
+				genes.put(id.group(1), gene.group());
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * A PubmedArticle element with a random title and abstract made of common abstract words
+	 * @param pubmedID
+	 * @param rand
+	 * @return
+	 */
+	public static String syntheticArticle(int pubmedID, Random rand) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<PubmedArticle>\n<MedlineCitation Owner=\"NLM\" Status=\"MEDLINE\">\n");
+		xml.append("<PMID Version=\"1\">").append(pubmedID).append("</PMID>\n");
+		xml.append("<Article PubModel=\"Print\">\n<Journal>\n<JournalIssue CitedMedium=\"Internet\">\n");
+		xml.append("<Volume>").append(1 + rand.nextInt(80)).append("</Volume>\n");
+		xml.append("<Issue>").append(1 + rand.nextInt(12)).append("</Issue>\n");
+		xml.append("<PubDate><Year>").append(1990 + rand.nextInt(24)).append("</Year><Month>Jan</Month></PubDate>\n");
+		xml.append("</JournalIssue>\n<Title>Journal of ").append(WORDS[rand.nextInt(WORDS.length)]).append(" research</Title>\n</Journal>\n");
+		xml.append("<ArticleTitle>").append(words(rand, 12)).append("</ArticleTitle>\n");
+		xml.append("<Abstract>\n");
+		for(int i=0; i<3; i++)
+			xml.append("<AbstractText>").append(words(rand, 60)).append("</AbstractText>\n");
+		xml.append("</Abstract>\n</Article>\n");
+		xml.append("<CommentsCorrectionsList><CommentsCorrections RefType=\"Cites\"><PMID Version=\"1\">").append(rand.nextInt(20000000)).append("</PMID></CommentsCorrections></CommentsCorrectionsList>\n");
+		xml.append("</MedlineCitation>\n</PubmedArticle>\n");
+		return xml.toString();
+	}
+
+	/**
+	 * An Entrezgene element with the given id and symbol and a random summary
+	 * @param geneID
+	 * @param symbol
+	 * @param rand
+	 * @return
+	 */
+	public static String syntheticGene(String geneID, String symbol, Random rand) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<Entrezgene>\n<Entrezgene_track-info>\n<Gene-track>\n<Gene-track_geneid>").append(geneID).append("</Gene-track_geneid>\n</Gene-track>\n</Entrezgene_track-info>\n");
+		xml.append("<Entrezgene_gene>\n<Gene-ref>\n<Gene-ref_locus>").append(symbol).append("</Gene-ref_locus>\n");
+		xml.append("<Gene-ref_desc>").append(words(rand, 4)).append("</Gene-ref_desc>\n</Gene-ref>\n</Entrezgene_gene>\n");
+		xml.append("<Entrezgene_summary>").append(words(rand, 80)).append("</Entrezgene_summary>\n");
+		xml.append("</Entrezgene>\n");
+		return xml.toString();
+	}
+
+	private static String words(Random rand, int count) {
+		StringBuilder str = new StringBuilder();
+		for(int i=0; i<count; i++) {
+			if (i > 0)
+				str.append(' ');
+			str.append(WORDS[rand.nextInt(WORDS.length)]);
+		}
+		return str.toString();
+	}
+
+	public void stop() {
+		server.stop(0);
+		threads.shutdownNow();
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		try {
+			int request = requests.incrementAndGet();
+			String body = new String(readAll(exchange.getRequestBody()), "UTF-8");
+			if (latencyMillis > 0)
+				Thread.sleep(latencyMillis);
+
+			if (failEvery > 0 && request % failEvery == 0) {
+				send(exchange, 503, "Service unavailable");
+				return;
+			}
+
+			Map<String, String> params = new HashMap<String, String>();
+			parseParams(exchange.getRequestURI().getRawQuery(), params);
+			if ("POST".equals(exchange.getRequestMethod()))
+				parseParams(body, params);
+			String db = params.get("db");
+			String ids = params.get("id");
+
+			StringBuilder xml = new StringBuilder(XML_HEADER);
+			Map<String, String> source;
+			if ("pubmed".equals(db)) {
+				xml.append(PUBMED_DOCTYPE).append("<PubmedArticleSet>\n");
+				source = articles;
+			}
+			else if ("gene".equals(db)) {
+				xml.append(GENE_DOCTYPE).append("<Entrezgene-Set>\n");
+				source = genes;
+			}
+			else {
+				send(exchange, 400, "Unknown db : " + db);
+				return;
+			}
+			if (ids != null) {
+				for(String id : ids.split(",")) {
+					String element = source.get(id.trim());
+					if (element != null)
+						xml.append(element);
+				}
+			}
+			xml.append("pubmed".equals(db) ? "</PubmedArticleSet>\n" : "</Entrezgene-Set>\n");
+			send(exchange, 200, xml.toString());
+		}
+		catch (InterruptedException e) {
+			send(exchange, 503, "Interrupted");
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", code == 200 ? "text/xml; charset=UTF-8" : "text/plain");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static void parseParams(String str, Map<String, String> params) throws IOException {
+		if (str == null)
+			return;
+		for(String pair : str.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while((read = in.read(buf)) > 0)
+			bytes.write(buf, 0, read);
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,246 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import simulation.GenerateVCF;
+import simulation.GenerateVCF.MutRec;
+import util.VCFLineParser;
+import util.flatFilesReader.FlatFilesReader;
+import buffer.BEDFile;
+import buffer.variant.VariantPool;
+import buffer.variant.VariantRec;
+
+/**
+ * Synthetic input files shared by all benchmarks. Sites are generated with simulation.GenerateVCF on
+ * random reference sequences, then written as a GATK-style VCF, a BED file of exon-sized intervals
+ * and a directory of dbNSFP-style flat files with a row for every alt base at every SNP site.
+ * Everything is generated from a fixed seed, so the same sites are used in every run. (Indel
+ * placement also uses Math.random() inside GenerateVCF, so indels may vary slightly.)
+ *
+ * Files are written to a temporary directory that is deleted when the JVM exits.
+ * @author brendan
+ *
+ */
+public class Fixtures {
+
+	public static final int SEED = 12345;
+	public static final String[] CONTIGS = new String[]{"1", "2", "3"};
+	public static final int DEFAULT_CONTIG_LENGTH = 2000000;
+	public static final double SNP_RATE = 0.003;
+	public static final double TT_RATIO = 2.5;
+	public static final double INDEL_RATE = 0.0003;
+	public static final double INDEL_MEAN_SIZE = 3.0;
+	public static final int DBNSFP_EXTRA_COLUMNS = 40; //Columns after chr, pos, ref, and alt
+
+	private final File dir;
+	private final File vcf;
+	private final File bed;
+	private final File dbnsfpDir;
+	private final Random rand = new Random(SEED);
+
+	public Fixtures() throws IOException {
+		this(DEFAULT_CONTIG_LENGTH);
+	}
+
+	public Fixtures(int contigLength) throws IOException {
+		dir = File.createTempFile("pipeline_bench", "");
+		dir.delete();
+		dir.mkdirs();
+		vcf = new File(dir, "sites.vcf");
+		bed = new File(dir, "intervals.bed");
+		dbnsfpDir = new File(dir, "dbnsfp");
+		dbnsfpDir.mkdirs();
+
+		GenerateVCF.setSeed(SEED);
+		PrintWriter vcfOut = new PrintWriter(new BufferedWriter(new FileWriter(vcf)));
+		writeVCFHeader(vcfOut);
+		PrintWriter bedOut = new PrintWriter(new BufferedWriter(new FileWriter(bed)));
+		for(String contig : CONTIGS) {
+			StringBuilder ref = randomSequence(contigLength);
+			List<MutRec> sites = new ArrayList<MutRec>();
+			sites.addAll(GenerateVCF.generateSNPs(ref, SNP_RATE, TT_RATIO));
+			sites.addAll(GenerateVCF.generateIndels(ref, INDEL_RATE, INDEL_MEAN_SIZE));
+			Collections.sort(sites);
+
+			writeVCFRecords(vcfOut, contig, sites);
+			writeIntervals(bedOut, contig, contigLength);
+			writeDBNSFP(contig, sites);
+		}
+		vcfOut.close();
+		bedOut.close();
+
+		deleteOnExit(dir);
+	}
+
+	public File getVCF() {
+		return vcf;
+	}
+
+	public File getBED() {
+		return bed;
+	}
+
+	/**
+	 * A new BEDFile for the intervals file, with its intervals map already built
+	 * @return
+	 * @throws IOException
+	 */
+	public BEDFile getBEDFile() throws IOException {
+		BEDFile bedFile = new BEDFile(bed);
+		bedFile.buildIntervalsMap();
+		return bedFile;
+	}
+
+	public File getDBNSFPDir() {
+		return dbnsfpDir;
+	}
+
+	/**
+	 * A new pool containing all variants in the VCF
+	 * @return
+	 * @throws IOException
+	 */
+	public VariantPool getVariants() throws IOException {
+		return new VariantPool(new VCFLineParser(vcf));
+	}
+
+	/**
+	 * All variants in the VCF, in file order
+	 * @return
+	 * @throws IOException
+	 */
+	public List<VariantRec> getVariantList() throws IOException {
+		List<VariantRec> vars = new ArrayList<VariantRec>();
+		VariantPool pool = getVariants();
+		for(String contig : CONTIGS) {
+			vars.addAll(pool.getVariantsForContig(contig));
+		}
+		return vars;
+	}
+
+	/**
+	 * A random number generator with a fixed seed, for benchmarks that need random queries
+	 * @return
+	 */
+	public Random newRandom() {
+		return new Random(SEED);
+	}
+
+	private StringBuilder randomSequence(int length) {
+		char[] bases = new char[]{'A', 'C', 'G', 'T'};
+		StringBuilder seq = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			seq.append(bases[rand.nextInt(4)]);
+		}
+		return seq;
+	}
+
+	private static void writeVCFHeader(PrintWriter out) {
+		out.println("##fileformat=VCFv4.1");
+		out.println("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count in genotypes\">");
+		out.println("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele Frequency\">");
+		out.println("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Approximate read depth\">");
+		out.println("##INFO=<ID=FS,Number=1,Type=Float,Description=\"Phred-scaled p-value using Fisher's exact test to detect strand bias\">");
+		out.println("##INFO=<ID=MQ,Number=1,Type=Float,Description=\"RMS Mapping Quality\">");
+		out.println("##INFO=<ID=ReadPosRankSum,Number=1,Type=Float,Description=\"Z-score from Wilcoxon rank sum test of Alt vs. Ref read position bias\">");
+		out.println("##INFO=<ID=VQSLOD,Number=1,Type=Float,Description=\"Log odds ratio of being a true variant versus being false\">");
+		out.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+		out.println("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths for the ref and alt alleles in the order listed\">");
+		out.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Approximate read depth\">");
+		out.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">");
+		out.println("##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Normalized, Phred-scaled likelihoods for genotypes\">");
+		out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1");
+	}
+
+	private void writeVCFRecords(PrintWriter out, String contig, List<MutRec> sites) {
+		for(MutRec site : sites) {
+			boolean het = rand.nextDouble() < 0.6;
+			int depth = 10 + rand.nextInt(200);
+			int altDepth = het ? depth / 2 : depth;
+			StringBuilder line = new StringBuilder();
+			line.append(contig).append('\t').append(site.getPos()).append("\t.\t");
+			line.append(site.getRef()).append('\t').append(site.getAlt()).append('\t');
+			line.append(String.format("%.2f", 30 + rand.nextDouble()*3000)).append("\tPASS\t");
+			line.append("AC=").append(het ? 1 : 2).append(";AF=").append(het ? "0.500" : "1.00");
+			line.append(";DP=").append(depth);
+			line.append(";FS=").append(String.format("%.3f", rand.nextDouble()*20));
+			line.append(";MQ=").append(String.format("%.2f", 40 + rand.nextDouble()*20));
+			line.append(";ReadPosRankSum=").append(String.format("%.3f", rand.nextGaussian()));
+			line.append(";VQSLOD=").append(String.format("%.4f", rand.nextGaussian()*4));
+			line.append("\tGT:AD:DP:GQ:PL\t");
+			line.append(het ? "0/1" : "1/1").append(':').append(depth - altDepth).append(',').append(altDepth);
+			line.append(':').append(depth).append(':').append(rand.nextInt(100));
+			line.append(':').append(rand.nextInt(1000)).append(",0,").append(rand.nextInt(1000));
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Exon-like intervals, 100-300 bases long and separated by 1-10kb
+	 */
+	private void writeIntervals(PrintWriter out, String contig, int contigLength) {
+		int start = rand.nextInt(10000);
+		while(start < contigLength) {
+			int end = start + 100 + rand.nextInt(200);
+			out.println(contig + "\t" + start + "\t" + end);
+			start = end + 1000 + rand.nextInt(9000);
+		}
+	}
+
+	/**
+	 * A dbNSFP-style file with three rows (one for each alt base) at every SNP site
+	 */
+	private void writeDBNSFP(String contig, List<MutRec> sites) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(dbnsfpDir, FlatFilesReader.FILENAME_BASE + contig))));
+		StringBuilder header = new StringBuilder("#chr\tpos(1-coor)\tref\talt");
+		for(int i=0; i<DBNSFP_EXTRA_COLUMNS; i++) {
+			header.append("\tcol" + i);
+		}
+		out.println(header);
+
+		int prevPos = -1;
+		for(MutRec site : sites) {
+			if (site.getRef().length() != 1 || site.getAlt().length() != 1 || site.getPos() == prevPos)
+				continue;
+			prevPos = site.getPos();
+			char refBase = site.getRef().charAt(0);
+			for(char alt : new char[]{'A', 'C', 'G', 'T'}) {
+				if (alt == refBase)
+					continue;
+				StringBuilder line = new StringBuilder();
+				line.append(contig).append('\t').append(site.getPos()).append('\t').append(refBase).append('\t').append(alt);
+				for(int i=0; i<DBNSFP_EXTRA_COLUMNS; i++) {
+					line.append('\t');
+					if (i % 4 == 0)
+						line.append(rand.nextInt(10) == 0 ? "." : String.format("%.3f", rand.nextDouble()));
+					else if (i % 4 == 1)
+						line.append(rand.nextInt(1000));
+					else if (i % 4 == 2)
+						line.append(rand.nextBoolean() ? "D" : "T");
+					else
+						line.append("ENSG0000").append(rand.nextInt(100000));
+				}
+				out.println(line);
+			}
+		}
+		out.close();
+	}
+
+	private static void deleteOnExit(File file) {
+		file.deleteOnExit();
+		File[] children = file.listFiles();
+		if (children != null) {
+			for(File child : children) {
+				deleteOnExit(child);
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.flatFilesReader.FlatFilesReader;
+import buffer.variant.VariantRec;
+
+/**
+ * Benchmarks for reading rows of the dbNSFP flat files
+ * @author brendan
+ *
+ */
+public class FlatFilesBenchmarks {
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Find the row for each SNP in order, as the DBNSFPAnnotator does. After the last SNP we start
+		//over at the first, which makes the reader go back to the beginning of the first contig
+		list.add(new Benchmark("FlatFilesReader.getRow") {
+			FlatFilesReader reader;
+			List<VariantRec> snps = new ArrayList<VariantRec>();
+			int next = 0;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				reader = new FlatFilesReader(fixtures.getDBNSFPDir());
+				for(VariantRec rec : fixtures.getVariantList()) {
+					if (rec.getRef().length()==1 && rec.getAlt().length()==1)
+						snps.add(rec);
+				}
+			}
+
+			public long run() throws Exception {
+				VariantRec rec = snps.get(next);
+				next = (next + 1) % snps.size();
+				String row = reader.getRow(rec.getContig(), rec.getStart(), rec.getAlt().charAt(0));
+				return row == null ? 0 : row.length();
+			}
+		});
+
+		return list;
+	}
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import math.Histogram;
+import math.LongHistogram;
+
+/**
+ * Benchmarks for adding values to histograms, as the BAM metrics code does for every base
+ * @author brendan
+ *
+ */
+public class HistogramBenchmarks {
+
+	public static final int VALUES = 4096;
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Add base qualities to a histogram with one bin per quality
+		list.add(new Benchmark("Histogram.addValue") {
+			Histogram hist;
+			double[] values = new double[VALUES];
+			int next = 0;
+
+			public void setup(Fixtures fixtures) {
+				hist = new Histogram(0, 50, 50);
+				Random rand = fixtures.newRandom();
+				for(int i=0; i<VALUES; i++) {
+					values[i] = rand.nextInt(45);
+				}
+			}
+
+			public long run() {
+				hist.addValue(values[next]);
+				next = (next + 1) % VALUES;
+				return next;
+			}
+		});
+
+		//The same values added to a LongHistogram, which bins integers without floating point math
+		list.add(new Benchmark("LongHistogram.addValue") {
+			LongHistogram hist;
+			int[] values = new int[VALUES];
+			int next = 0;
+
+			public void setup(Fixtures fixtures) {
+				hist = new LongHistogram(0, 50, 50);
+				Random rand = fixtures.newRandom();
+				for(int i=0; i<VALUES; i++) {
+					values[i] = rand.nextInt(45);
+				}
+			}
+
+			public long run() {
+				hist.addValue(values[next]);
+				next = (next + 1) % VALUES;
+				return next;
+			}
+		});
+
+		return list;
+	}
+}
@@ -0,0 +1,48 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import util.Interval;
+import buffer.BEDFile;
+
+/**
+ * Benchmarks for looking up positions in the intervals of a BED file
+ * @author brendan
+ *
+ */
+public class IntervalsBenchmarks {
+
+	public static final int QUERIES = 4096;
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Test whether random positions are in any interval
+		list.add(new Benchmark("IntervalsFile.contains") {
+			BEDFile bed;
+			String[] contigs = new String[QUERIES];
+			int[] positions = new int[QUERIES];
+			int next = 0;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				bed = fixtures.getBEDFile();
+				Random rand = fixtures.newRandom();
+				for(int i=0; i<QUERIES; i++) {
+					contigs[i] = Fixtures.CONTIGS[rand.nextInt(Fixtures.CONTIGS.length)];
+					List<Interval> intervals = bed.getIntervalsForContig(contigs[i]);
+					positions[i] = rand.nextInt(intervals.get(intervals.size()-1).end);
+				}
+			}
+
+			public long run() {
+				boolean found = bed.contains(contigs[next], positions[next], false);
+				next = (next + 1) % QUERIES;
+				return found ? 1 : 0;
+			}
+		});
+
+		return list;
+	}
+}
@@ -0,0 +1,144 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ncbi.CachedPubmedAbstractDB;
+import ncbi.EutilsClient;
+import ncbi.EutilsXMLParser;
+
+/**
+ * Benchmarks for downloading and caching pubmed abstracts, run against a local EutilsStub so they
+ * don't depend on (or bother) NCBI. The stub serves synthetic abstracts with a few milliseconds of
+ * latency per request, so warming a cache measures batching and concurrent requests rather than the
+ * network.
+ * @author brendan
+ *
+ */
+public class NCBIBenchmarks {
+
+	public static final int ARTICLES = 2000;
+	public static final int BATCH_ARTICLES = 200;
+	public static final long LATENCY_MS = 5;
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Parse one efetch response of BATCH_ARTICLES abstracts
+		list.add(new Benchmark("EutilsXMLParser.parsePubMed") {
+			byte[] response;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				Random rand = fixtures.newRandom();
+				StringBuilder xml = new StringBuilder(EutilsStub.XML_HEADER + EutilsStub.PUBMED_DOCTYPE + "<PubmedArticleSet>\n");
+				for(int i=0; i<BATCH_ARTICLES; i++)
+					xml.append(EutilsStub.syntheticArticle(i+1, rand));
+				xml.append("</PubmedArticleSet>\n");
+				response = xml.toString().getBytes("UTF-8");
+			}
+
+			public long run() throws Exception {
+				return EutilsXMLParser.parsePubMed(new ByteArrayInputStream(response)).size();
+			}
+		});
+
+		//Fill an empty abstract cache with ARTICLES abstracts
+		list.add(new PubmedCacheBenchmark("CachedPubmedAbstractDB.warmup") {
+			public long run() throws Exception {
+				CachedPubmedAbstractDB db = openEmptyDB();
+				try {
+					return db.getRecordForIDs(ids).size();
+				}
+				finally {
+					db.close();
+				}
+			}
+		});
+
+		//Look up ARTICLES abstracts in a cache that already has them all
+		list.add(new PubmedCacheBenchmark("CachedPubmedAbstractDB.cachedLookup") {
+			CachedPubmedAbstractDB db;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				super.setup(fixtures);
+				db = openEmptyDB();
+				db.getRecordForIDs(ids);
+				db.close();
+				db = new CachedPubmedAbstractDB(gene2pubmed.getAbsolutePath());
+				db.setProhibitNewDownloads(true);
+			}
+
+			public long run() throws Exception {
+				return db.getRecordForIDs(ids).size();
+			}
+
+			public void teardown() throws Exception {
+				db.close();
+				super.teardown();
+			}
+		});
+
+		return list;
+	}
+
+	/**
+	 * Starts a stub serving ARTICLES synthetic abstracts and creates a directory for the cache
+	 */
+	static abstract class PubmedCacheBenchmark extends Benchmark {
+		EutilsStub stub;
+		EutilsClient client;
+		File dir;
+		File gene2pubmed;
+		List<Integer> ids = new ArrayList<Integer>();
+
+		PubmedCacheBenchmark(String name) {
+			super(name);
+		}
+
+		public void setup(Fixtures fixtures) throws Exception {
+			Random rand = fixtures.newRandom();
+			stub = new EutilsStub();
+			stub.setLatency(LATENCY_MS);
+			client = new EutilsClient(stub.getURL(), EutilsClient.DEFAULT_BATCH_SIZE, EutilsClient.DEFAULT_MAX_IN_FLIGHT, 1000.0, EutilsClient.DEFAULT_MAX_RETRIES);
+
+			dir = File.createTempFile("pubmed_bench", "");
+			dir.delete();
+			dir.mkdirs();
+			gene2pubmed = new File(dir, "gene2pubmed_human");
+			PrintWriter out = new PrintWriter(new FileWriter(gene2pubmed));
+			for(int i=0; i<ARTICLES; i++) {
+				int id = 10000000 + i;
+				ids.add(id);
+				stub.addArticle(id, EutilsStub.syntheticArticle(id, rand));
+				out.println("9606\t" + (1 + i/20) + "\t" + id);
+			}
+			out.close();
+		}
+
+		/**
+		 * A new db with an empty cache, which downloads from the stub
+		 * @return
+		 * @throws IOException
+		 */
+		CachedPubmedAbstractDB openEmptyDB() throws IOException {
+			new File(dir, CachedPubmedAbstractDB.STORE_NAME).delete();
+			CachedPubmedAbstractDB db = new CachedPubmedAbstractDB(gene2pubmed.getAbsolutePath());
+			db.setClient(client);
+			return db;
+		}
+
+		public void teardown() throws Exception {
+			client.shutdown();
+			stub.stop();
+			for(File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import buffer.variant.VariantRec;
+
+/**
+ * A compact copy of the hot path of the old VCFLineParser, kept as a baseline for VCFParserBenchmarks:
+ * each line is split on tabs with a regular expression, and the sample and INFO columns are split
+ * again by each getter that reads them
+ * @author brendan
+ *
+ */
+class SplitLineParser {
+
+	private final BufferedReader reader;
+	private String[] toks = null;
+	private String[] formatToks = null;
+	private String formatStr = null;
+	private int gtCol = -1;
+	private int gqCol = -1;
+	private int adCol = -1;
+	private int dpCol = -1;
+
+	SplitLineParser(File file) throws IOException {
+		reader = new BufferedReader(new FileReader(file));
+	}
+
+	boolean advanceLine() throws IOException {
+		String line = reader.readLine();
+		while(line != null && line.startsWith("#")) {
+			line = reader.readLine();
+		}
+		toks = line == null ? null : line.split("\\t");
+		return line != null;
+	}
+
+	void close() throws IOException {
+		reader.close();
+	}
+
+	VariantRec toVariantRec() {
+		try {
+			updateFormat();
+			String ref = toks[3];
+			String alt = toks[4];
+			int start = Integer.parseInt(toks[1]);
+			double quality;
+			try {
+				quality = Double.parseDouble(toks[5]);
+			}
+			catch (NumberFormatException nfe) {
+				quality = -1.0;
+			}
+			VariantRec rec = new VariantRec(toks[0].replace("chr", ""), start, start + ref.length(), ref, alt, quality, isHetero());
+			Integer depth = getDepth();
+			if (depth != null)
+				rec.addProperty(VariantRec.DEPTH, Double.valueOf(depth));
+			if (formatToks != null && adCol >= 0) {
+				String[] depths = toks[9].split(":")[adCol].split(",");
+				if (depths.length > 1)
+					rec.addProperty(VariantRec.VAR_DEPTH, Double.valueOf(Integer.parseInt(depths[1])));
+			}
+			if (formatToks != null && gqCol >= 0)
+				rec.addProperty(VariantRec.GENOTYPE_QUALITY, Double.parseDouble(toks[9].split(":")[gqCol]));
+			addInfo(rec, "VQSLOD=", VariantRec.VQSR);
+			addInfo(rec, "FS=", VariantRec.FS_SCORE);
+			addInfo(rec, "ReadPosRankSum=", VariantRec.RP_SCORE);
+			addInfo(rec, "LOGFS=", VariantRec.LOGFS_SCORE);
+			return rec;
+		}
+		catch (RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private void updateFormat() {
+		if (toks.length <= 8) {
+			formatToks = null;
+			return;
+		}
+		if (toks[8].equals(formatStr))
+			return;
+		formatStr = toks[8];
+		formatToks = formatStr.split(":");
+		gtCol = gqCol = adCol = dpCol = -1;
+		for(int i=0; i<formatToks.length; i++) {
+			if (formatToks[i].equals("GT"))
+				gtCol = i;
+			if (formatToks[i].equals("GQ"))
+				gqCol = i;
+			if (formatToks[i].equals("AD"))
+				adCol = i;
+			if (formatToks[i].equals("DP"))
+				dpCol = i;
+		}
+	}
+
+	private boolean isHetero() {
+		if (formatToks == null)
+			return false;
+		String gt = toks[9].split(":")[gtCol];
+		return gt.charAt(0) != gt.charAt(2);
+	}
+
+	private Integer getDepth() {
+		for(String tok : toks[7].split(";")) {
+			if (tok.startsWith("DP="))
+				return Integer.parseInt(tok.substring(3));
+		}
+		if (formatToks == null || dpCol < 0)
+			return null;
+		return Integer.parseInt(toks[9].split(":")[dpCol]);
+	}
+
+	private void addInfo(VariantRec rec, String prefix, String key) {
+		for(String tok : toks[7].split(";")) {
+			if (tok.startsWith(prefix)) {
+				rec.addProperty(key, Double.parseDouble(tok.replace(prefix, "")));
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.VCFLineParser;
+
+/**
+ * Benchmarks for reading variants from VCF files
+ * @author brendan
+ *
+ */
+public class VCFParserBenchmarks {
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Read every variant in the fixture VCF
+		list.add(new Benchmark("VCFLineParser.readAll") {
+			Fixtures fixtures;
+
+			public void setup(Fixtures fixtures) {
+				this.fixtures = fixtures;
+			}
+
+			public long run() throws Exception {
+				VCFLineParser parser = new VCFLineParser(fixtures.getVCF());
+				long count = 0;
+				while(parser.hasLine()) {
+					if (parser.toVariantRec() != null)
+						count++;
+					parser.advanceLine();
+				}
+				return count;
+			}
+		});
+
+		//Read every variant with the old split-based parser, as a baseline for readAll
+		list.add(new Benchmark("SplitLineParser.readAll") {
+			Fixtures fixtures;
+
+			public void setup(Fixtures fixtures) {
+				this.fixtures = fixtures;
+			}
+
+			public long run() throws Exception {
+				SplitLineParser parser = new SplitLineParser(fixtures.getVCF());
+				long count = 0;
+				while(parser.advanceLine()) {
+					if (parser.toVariantRec() != null)
+						count++;
+				}
+				parser.close();
+				return count;
+			}
+		});
+
+		//Only tokenize each line and read the position, no VariantRecs are created
+		list.add(new Benchmark("VCFLineParser.positions") {
+			Fixtures fixtures;
+
+			public void setup(Fixtures fixtures) {
+				this.fixtures = fixtures;
+			}
+
+			public long run() throws Exception {
+				VCFLineParser parser = new VCFLineParser(fixtures.getVCF());
+				long sum = 0;
+				while(parser.hasLine()) {
+					sum += parser.getPosition();
+					parser.advanceLine();
+				}
+				return sum;
+			}
+		});
+
+		return list;
+	}
+}
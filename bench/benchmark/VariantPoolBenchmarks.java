@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import buffer.variant.VariantPool;
+import buffer.variant.VariantRec;
+
+/**
+ * Benchmarks for finding, merging and intersecting variants in VariantPools
+ * @author brendan
+ *
+ */
+public class VariantPoolBenchmarks {
+
+	public static final int QUERIES = 4096;
+	public static final int SUBSET_SIZE = 2000;
+
+	public static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+
+		//Look up a variant at a random site, three quarters of which are in the pool
+		list.add(new Benchmark("VariantPool.findRecord") {
+			VariantPool pool;
+			String[] contigs = new String[QUERIES];
+			int[] positions = new int[QUERIES];
+			int next = 0;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				pool = fixtures.getVariants();
+				List<VariantRec> vars = fixtures.getVariantList();
+				Random rand = fixtures.newRandom();
+				for(int i=0; i<QUERIES; i++) {
+					VariantRec rec = vars.get(rand.nextInt(vars.size()));
+					contigs[i] = rec.getContig();
+					positions[i] = rand.nextInt(4) == 0 ? rec.getStart() + 1 : rec.getStart();
+				}
+			}
+
+			public long run() {
+				VariantRec rec = pool.findRecord(contigs[next], positions[next]);
+				next = (next + 1) % QUERIES;
+				return rec == null ? 0 : rec.getStart();
+			}
+		});
+
+		//Merge all variants into an empty pool and then into a pool that already has them
+		list.add(new Benchmark("VariantPool.addAll") {
+			VariantPool pool;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				pool = fixtures.getVariants();
+			}
+
+			public long run() {
+				VariantPool merged = new VariantPool();
+				merged.addAll(pool);
+				merged.addAll(pool, false);
+				return merged.size();
+			}
+		});
+
+		//Intersect a random subset of the variants with all of them
+		list.add(new Benchmark("VariantPool.intersect") {
+			VariantPool pool;
+			VariantPool subset;
+
+			public void setup(Fixtures fixtures) throws Exception {
+				pool = fixtures.getVariants();
+				List<VariantRec> vars = fixtures.getVariantList();
+				Random rand = fixtures.newRandom();
+				subset = new VariantPool();
+				for(int i=0; i<SUBSET_SIZE; i++) {
+					subset.addRecordNoSort(vars.get(rand.nextInt(vars.size())));
+				}
+				subset.sortAllContigs();
+			}
+
+			public long run() {
+				return subset.intersect(pool).size();
+			}
+		});
+
+		return list;
+	}
+}
@@ -76,6 +76,7 @@ public class BEDFile extends IntervalsFile {
 		
 		reader.close();
 		sortAllContigs();
+		buildIndex();
 		
 //		logger.info("Done building intervals map for " + getFilename() + " Interval count: " + this.getIntervalCount() + " extent: " + this.getExtent());
 //		for(String contig : intervals.keySet()) {
@@ -11,6 +11,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import math.graph.CompactGraph;
+import math.graph.DistanceMatrix;
 import math.graph.Graph;
 import math.graph.GraphFactory;
 import ncbi.GeneInfoDB;
@@ -30,12 +32,16 @@ import stringdb.FetchInteractions;
 public class GeneInteractionGraph extends PipelineObject {
 
 	protected Graph graph = null;
+	protected CompactGraph compactGraph = null;
+	protected DistanceMatrix distanceMatrix = null;
+	protected boolean distanceMatrixChecked = false;
 	protected Map<String, String> props = new HashMap<String, String>(); 
 	protected FileBuffer source = null;
 	protected GeneInfoDB geneInfo = null; //Used to look up synonyms for genes
 	
 	public static final String KEY_GENES = "key.genes";
 	public static final String GRAPH_SIZE = "graph.size";
+	public static final String DISTANCE_MATRIX = "distance.matrix"; //Defaults to the source file + DistanceMatrix.SUFFIX
 	
 	
 	public Graph getGraph() throws IOException {
@@ -45,6 +51,44 @@ public class GeneInteractionGraph extends PipelineObject {
 		return graph;
 	}
 	
+	/**
+	 * The graph in int-indexed form, for shortest path computations. If the graph is read from a file
+	 * and getGraph() hasn't been called, this is built straight from the file
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized CompactGraph getCompactGraph() throws IOException {
+		if (compactGraph == null) {
+			if (graph == null && source != null) {
+				Logger.getLogger(Pipeline.primaryLoggerName).info("Constructing compact gene graph from " + source.getAbsolutePath());
+				compactGraph = GraphFactory.constructCompactGraphFromFile(source.getFile());
+			}
+			else {
+				compactGraph = CompactGraph.fromGraph(getGraph());
+			}
+		}
+		return compactGraph;
+	}
+	
+	/**
+	 * Precomputed distances for this graph, read from the file given by the distance.matrix attribute
+	 * or from the default location next to the source file. This is null if the graph isn't read from
+	 * a file or there's no matrix that was computed from the current version of the file
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized DistanceMatrix getDistanceMatrix() throws IOException {
+		if (! distanceMatrixChecked && source != null) {
+			String path = getAttribute(DISTANCE_MATRIX);
+			File matrixFile = path != null ? new File(path) : DistanceMatrix.defaultFileFor(source.getFile());
+			distanceMatrix = DistanceMatrix.load(matrixFile, source.getFile());
+			if (distanceMatrix != null)
+				Logger.getLogger(Pipeline.primaryLoggerName).info("Using precomputed gene distances from " + matrixFile.getAbsolutePath());
+		}
+		distanceMatrixChecked = true;
+		return distanceMatrix;
+	}
+	
 	/**
 	 * Construct a graph, either from a CSV file if the source file is set, or dynamically, by looking
 	 * fetching info from string-db based on a list of 'key genes' and an (optional) graph size attribute 
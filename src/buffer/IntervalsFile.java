@@ -12,9 +12,12 @@ import java.util.List;
 import java.util.Map;
 
 import util.Interval;
+import util.IntervalIndex;
 
 /**
  * Any file that describes a list of genomic intervals
+ * Overlap queries go through an IntervalIndex for each contig, which is built by buildIndex() once
+ * the intervals have been read (or lazily on the first query), and is discarded whenever intervals are added.
  * @author brendan
  *
  */
@@ -22,6 +25,8 @@ public abstract class IntervalsFile extends FileBuffer {
 
 	protected Map<String, List<Interval>> intervals = null;
 	protected final IntervalComparator intComp = new IntervalComparator();
+	private volatile Map<String, IntervalIndex> index = null;
+	private Map<String, List<Interval>> indexedIntervals = null; //The map the index was built from
 	
 	public IntervalsFile(File source) {
 		super(source);
@@ -93,6 +98,7 @@ public abstract class IntervalsFile extends FileBuffer {
 			Collections.sort(oldInts);
 			mergeIntervals(oldInts);
 		}
+		index = null;
 	}
 	
 	/**
@@ -147,6 +153,35 @@ public abstract class IntervalsFile extends FileBuffer {
 		return intervals != null;
 	}
 
+	/**
+	 * Build the overlap index for all contigs from the current intervals. Subclasses should call this
+	 * at the end of buildIntervalsMap(), otherwise it's built when the first query is made
+	 */
+	protected synchronized void buildIndex() {
+		Map<String, IntervalIndex> newIndex = new HashMap<String, IntervalIndex>();
+		if (intervals != null) {
+			for(String contig : intervals.keySet()) {
+				newIndex.put(contig, new IntervalIndex(intervals.get(contig)));
+			}
+		}
+		indexedIntervals = intervals;
+		index = newIndex;
+	}
+	
+	/**
+	 * Return the overlap index for the given contig, or null if there are no intervals in the contig
+	 * @param contig
+	 * @return
+	 */
+	public IntervalIndex getIndex(String contig) {
+		Map<String, IntervalIndex> idx = index;
+		if (idx == null || indexedIntervals != intervals) {
+			buildIndex();
+			idx = index;
+		}
+		return idx.get(contig);
+	}
+	
 	/**
 	 * Returns a list of all intervals overlapping the given position
 	 * @param contig
@@ -154,21 +189,26 @@ public abstract class IntervalsFile extends FileBuffer {
 	 * @return
 	 */
 	public List<Interval> getOverlappingIntervals(String contig, int pos) {
-		List<Interval> cInts = intervals.get(contig);
-		List<Interval> intervals = new ArrayList<Interval>();
-		
-		if (cInts == null) {
-			return intervals;
+		IntervalIndex cIndex = getIndex(contig);
+		if (cIndex == null) {
+			return new ArrayList<Interval>();
 		}
-		else {
-			for (Interval inter : cInts) {
-				if (inter.contains(pos)) {
-					intervals.add(inter);
-				}
-			}
-			
+		return cIndex.getOverlapping(pos);
+	}
+	
+	/**
+	 * Returns a list of all intervals overlapping the half-open range [start, end)
+	 * @param contig
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public List<Interval> getOverlappingIntervals(String contig, int start, int end) {
+		IntervalIndex cIndex = getIndex(contig);
+		if (cIndex == null) {
+			return new ArrayList<Interval>();
 		}
-		return intervals;
+		return cIndex.getOverlapping(start, end);
 	}
 	
 	public boolean contains(String contig, int pos) {
@@ -176,38 +216,21 @@ public abstract class IntervalsFile extends FileBuffer {
 	}
 	
 	public boolean contains(String contig, int pos, boolean warn) {
-		List<Interval> cInts = intervals.get(contig);
-		Interval qInterval = new Interval(pos, pos);
-		if (cInts == null) {
+		IntervalIndex cIndex = getIndex(contig);
+		if (cIndex == null) {
 			if (warn)
 				System.out.println("Contig " + contig + " is not in BED file!");
 			return false;
 		}
-		else {
-			int index = Collections.binarySearch(cInts, qInterval, intComp);
-			if (index >= 0) {
-				//System.out.println("Interval " + cInts.get(index) + " contains the position " + pos);
-				//An interval starts with the query position so we do contain the given pos
-				return true;
-			}
-			else {
-				//No interval starts with the query pos, but we 
-				int keyIndex = -index-1 -1;
-				if (keyIndex < 0) {
-					//System.out.println("Interval #0 does NOT contain the position " + pos);
-					return false;
-				}
-				Interval cInterval = cInts.get(keyIndex);
-				if (pos >= cInterval.begin && pos < cInterval.end) {
-					//System.out.println("Interval " + cInterval + " contains the position " + pos);
-					return true;
-				}
-				else {
-					//System.out.println("Interval " + cInterval + " does NOT contain the position " + pos);
-					return false;
-				}
-			}
-		}
+		return cIndex.contains(pos);
+	}
+	
+	/**
+	 * Create a new Sweep for testing many positions in sorted order
+	 * @return
+	 */
+	public Sweep sweep() {
+		return new Sweep();
 	}
 	
 	/**
@@ -266,6 +289,32 @@ public abstract class IntervalsFile extends FileBuffer {
 	
 	
 	
+	/**
+	 * Tests positions given in sorted order (by contig, then position) against the intervals,
+	 * which is much faster than querying each position separately when testing every variant 
+	 * in a sorted VCF or VariantPool. Positions that are out of order still give the right answer,
+	 * they're just slower. Not thread-safe.
+	 */
+	public class Sweep {
+		private String contig = null;
+		private IntervalIndex.Cursor cursor = null;
+		
+		public List<Interval> getOverlappingIntervals(String contig, int pos) {
+			if (! contig.equals(this.contig)) {
+				this.contig = contig;
+				IntervalIndex cIndex = getIndex(contig);
+				cursor = cIndex == null ? null : cIndex.cursor();
+			}
+			if (cursor == null)
+				return Collections.emptyList();
+			return cursor.getOverlapping(pos);
+		}
+		
+		public boolean contains(String contig, int pos) {
+			return getOverlappingIntervals(contig, pos).size() > 0;
+		}
+	}
+	
 	public class IntervalComparator implements Comparator<Interval> {
 
 		@Override
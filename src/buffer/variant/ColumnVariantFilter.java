@@ -0,0 +1,21 @@
+package buffer.variant;
+
+/**
+ * A VariantFilter that can also read the values it needs straight from the columns of a
+ * VariantColumnStore, which ColumnarVariantPool.filterPool uses instead of going through
+ * the VariantRec for every variant
+ * @author brendan
+ *
+ */
+public interface ColumnVariantFilter extends VariantFilter {
+
+	/**
+	 * Whether the record stored in the given row of the store passes this filter, which must
+	 * be the same as passes(rec)
+	 * @param store
+	 * @param row
+	 * @param rec
+	 * @return
+	 */
+	public boolean passes(VariantColumnStore store, int row, VariantRec rec);
+}
@@ -0,0 +1,179 @@
+package buffer.variant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.VCFLineParser;
+import buffer.CSVFile;
+import buffer.VCFFile;
+
+/**
+ * A VariantPool that stores variant properties and annotations in a shared, column-oriented
+ * VariantColumnStore instead of in per-variant HashMaps. Every record added to this pool is converted
+ * to a ColumnarVariantRec (if it isn't one already), so properties are kept as primitive doubles and
+ * alleles, contigs and annotation values are interned. For large pools (whole genomes, big cohorts)
+ * this uses several times less memory than a regular VariantPool, and scans over the pool generate
+ * far less garbage.
+ * 
+ * This can be used anywhere a VariantPool is used, including from the input xml file. The one difference
+ * in behavior is that records added to this pool are copies of the records passed to addRecord / addAll 
+ * unless they already belong to this pool, so later changes to the original records are not seen by the pool.
+ * 
+ * Pool-wide counts (SNPs, transitions, insertions, etc.) read the variant class column of the store rather
+ * than comparing allele strings, and filterPool reads property and annotation columns directly for
+ * filters that implement ColumnVariantFilter. Records in the contig lists that don't belong to this pool's
+ * store (because a caller added them to a list directly) are handled through the VariantRec API as usual.
+ * @author brendan
+ *
+ */
+public class ColumnarVariantPool extends VariantPool {
+
+	private final VariantColumnStore store = new VariantColumnStore();
+	
+	public ColumnarVariantPool() {
+		//blank on purpose
+	}
+	
+	public ColumnarVariantPool(VariantLineReader reader) throws IOException {
+		importFromVariantReader(reader);
+	}
+	
+	public ColumnarVariantPool(VCFFile file) throws IOException {
+		importFromVariantReader(new VCFLineParser(file));
+	}
+	
+	public ColumnarVariantPool(CSVFile file) throws IOException {
+		importFromVariantReader(new CSVLineReader(file.getFile()));
+	}
+	
+	public ColumnarVariantPool(List<VariantRec> varList) {
+		for(VariantRec rec : varList) {
+			addRecordNoSort(rec);
+		}
+	}
+	
+	/**
+	 * Obtain the column store that holds the properties and annotations of the variants in this pool
+	 * @return
+	 */
+	public VariantColumnStore getColumnStore() {
+		return store;
+	}
+	
+	@Override
+	public void addRecordNoSort(VariantRec rec) {
+		super.addRecordNoSort( toColumnar(rec) );
+	}
+	
+	@Override
+	public void addAll(VariantPool source, boolean allowDups) {
+		//Convert the records first, contigs in source are already sorted so order is preserved
+		VariantPool converted = new VariantPool();
+		for(String contig : source.getContigs()) {
+			for(VariantRec rec : source.getVariantsForContig(contig)) {
+				converted.addRecordNoSort( toColumnar(rec) );
+			}
+		}
+		super.addAll(converted, allowDups);
+	}
+	
+	@Override
+	public List<VariantRec> filterPool(VariantFilter filter) {
+		if (! (filter instanceof ColumnVariantFilter))
+			return super.filterPool(filter);
+		
+		ColumnVariantFilter cFilter = (ColumnVariantFilter)filter;
+		List<VariantRec> passing = new ArrayList<VariantRec>(1024);
+		for(List<VariantRec> contigVars : vars.values()) {
+			for(VariantRec rec : contigVars) {
+				boolean passes;
+				if (isStored(rec))
+					passes = cFilter.passes(store, ((ColumnarVariantRec)rec).row, rec);
+				else
+					passes = filter.passes(rec);
+				if (passes)
+					passing.add(rec);
+			}
+		}
+		return passing;
+	}
+	
+	@Override
+	public double computeTTRatio() {
+		int[] counts = countClasses();
+		if (counts[VariantColumnStore.CLASS_TRANSVERSION] == 0)
+			return Double.NaN;
+		return (double)counts[VariantColumnStore.CLASS_TRANSITION] / (double)counts[VariantColumnStore.CLASS_TRANSVERSION];
+	}
+	
+	@Override
+	public int countTransitions() {
+		return countClasses()[VariantColumnStore.CLASS_TRANSITION];
+	}
+	
+	@Override
+	public int countTransverions() {
+		return countClasses()[VariantColumnStore.CLASS_TRANSVERSION];
+	}
+	
+	@Override
+	public int countSNPs() {
+		int[] counts = countClasses();
+		return counts[VariantColumnStore.CLASS_SNP] + counts[VariantColumnStore.CLASS_TRANSITION] + counts[VariantColumnStore.CLASS_TRANSVERSION];
+	}
+	
+	@Override
+	public int countInsertions() {
+		return countClasses()[VariantColumnStore.CLASS_INSERTION];
+	}
+	
+	@Override
+	public int countDeletions() {
+		return countClasses()[VariantColumnStore.CLASS_DELETION];
+	}
+	
+	/**
+	 * Number of variants in the pool in each variant class, indexed by the VariantColumnStore.CLASS_ constants
+	 * @return
+	 */
+	public int[] countClasses() {
+		int[] counts = new int[VariantColumnStore.CLASS_DELETION + 1];
+		for(List<VariantRec> contigVars : vars.values()) {
+			for(VariantRec rec : contigVars) {
+				if (isStored(rec))
+					counts[store.getVariantClass(((ColumnarVariantRec)rec).row)]++;
+				else
+					counts[VariantColumnStore.classify(rec.getRef(), rec.getAlt())]++;
+			}
+		}
+		return counts;
+	}
+	
+	private boolean isStored(VariantRec rec) {
+		return rec instanceof ColumnarVariantRec && ((ColumnarVariantRec)rec).store == store;
+	}
+	
+	/**
+	 * Returns the given record if it's already stored in this pool's column store, otherwise
+	 * creates and returns a new ColumnarVariantRec with all the same data
+	 * @param rec
+	 * @return
+	 */
+	protected ColumnarVariantRec toColumnar(VariantRec rec) {
+		if (isStored(rec)) {
+			return (ColumnarVariantRec)rec;
+		}
+		
+		ColumnarVariantRec cRec = new ColumnarVariantRec(store, store.addRow(), rec.getContig(), rec.getStart(), rec.getEnd(), rec.getRef(), rec.getAlt(), rec.getQuality(), rec.isHetero());
+		for(String key : rec.getPropertyKeys()) {
+			cRec.addProperty(key, rec.getProperty(key));
+		}
+		for(String key : rec.getAnnotationKeys()) {
+			cRec.addAnnotation(key, rec.getAnnotation(key));
+		}
+		if (rec.getGene() != null)
+			cRec.gene = rec.getGene();
+		return cRec;
+	}
+}
@@ -0,0 +1,76 @@
+package buffer.variant;
+
+import java.util.Collection;
+
+/**
+ * A VariantRec whose properties and annotations live in a row of a VariantColumnStore, rather
+ * than in a pair of HashMaps owned by the record. These are created by ColumnarVariantPool and
+ * behave exactly like regular VariantRecs, except that properties set to NaN are
+ * indistinguishable from missing properties.
+ * @author brendan
+ *
+ */
+public class ColumnarVariantRec extends VariantRec {
+
+	final VariantColumnStore store;
+	final int row;
+	
+	ColumnarVariantRec(VariantColumnStore store, 
+							int row,
+							String contig, 
+							int start, 
+							int end, 
+							String ref, 
+							String alt, 
+							Double qual, 
+							boolean isHetero) {
+		super(store.intern(contig), start, end, store.intern(ref), store.intern(alt), qual, isHetero);
+		this.store = store;
+		this.row = row;
+		store.setAlleles(row, ref, alt);
+	}
+	
+	/**
+	 * The index of the row in the column store that holds the data for this variant
+	 * @return
+	 */
+	public int getRow() {
+		return row;
+	}
+	
+	@Override
+	public synchronized void addProperty(String key, Double val) {
+		store.setProperty(row, key, val);
+	}
+	
+	@Override
+	public synchronized void addAnnotation(String key, String anno) {
+		store.setAnnotation(row, key, anno);
+	}
+	
+	@Override
+	public Double getProperty(String key) {
+		return store.getProperty(row, key);
+	}
+	
+	@Override
+	public Collection<String> getPropertyKeys() {
+		return store.getPropertyKeys(row);
+	}
+	
+	@Override
+	public Collection<String> getAnnotationKeys() {
+		return store.getAnnotationKeys(row);
+	}
+	
+	@Override
+	public String getAnnotation(String key) {
+		return store.getAnnotation(row, key);
+	}
+	
+	@Override
+	public void setAlt(String newAlt) {
+		super.setAlt(store.intern(newAlt));
+		store.setAlleles(row, getRef(), newAlt);
+	}
+}
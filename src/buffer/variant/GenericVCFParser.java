@@ -57,7 +57,7 @@ public class GenericVCFParser extends VCFLineParser {
 					end = start + ref.length();
 			}
 
-			String qualStr = lineToks[5];
+			String qualStr = getField(5);
 			Double quality = 1e6;
 			try {
 				quality = Double.parseDouble(qualStr);
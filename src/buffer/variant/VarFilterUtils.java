@@ -43,7 +43,7 @@ public class VarFilterUtils {
 	}
 
 
-	static class PopFreqFilter implements VariantFilter {
+	static class PopFreqFilter implements ColumnVariantFilter {
 
 		final double maxFreq;
 		
@@ -57,6 +57,12 @@ public class VarFilterUtils {
 			return freq == null || freq < maxFreq;
 		}
 		
+		@Override
+		public boolean passes(VariantColumnStore store, int row, VariantRec rec) {
+			double freq = store.getPropertyValue(row, VariantRec.POP_FREQUENCY);
+			return Double.isNaN(freq) || freq < maxFreq;
+		}
+		
 	}
 	
 	static class HomFilter implements VariantFilter {
@@ -68,11 +74,19 @@ public class VarFilterUtils {
 		
 	}
 
-	static class NonSynFilter implements VariantFilter {
+	static class NonSynFilter implements ColumnVariantFilter {
 
 		@Override
 		public boolean passes(VariantRec rec) {
-			String func = rec.getAnnotation(VariantRec.EXON_FUNCTION);
+			return isNonSyn(rec.getAnnotation(VariantRec.EXON_FUNCTION));
+		}
+		
+		@Override
+		public boolean passes(VariantColumnStore store, int row, VariantRec rec) {
+			return isNonSyn(store.getAnnotation(row, VariantRec.EXON_FUNCTION));
+		}
+		
+		private static boolean isNonSyn(String func) {
 			return func.contains("nonsyn") || func.contains("delet") || func.contains("insert") || func.contains("frame") || func.contains("splice");
 		}
 		
@@ -0,0 +1,354 @@
+package buffer.variant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column-oriented storage for the properties and annotations of a large number of variants. Each
+ * variant is assigned a row, and each property key gets its own column of primitive doubles (NaN
+ * indicates that the property is missing). Annotations are stored the same way, in columns of Strings,
+ * and all annotation values and alleles are interned in a pool owned by the store so that repeated
+ * values (gene names, variant types, 'A', 'C', 'G', 'T', etc.) are only stored once.
+ *
+ * Columns are allocated in fixed-size chunks so that adding rows never requires copying existing data,
+ * which also means that reading and writing values in existing rows never has to wait on a lock. Chunks
+ * are only allocated when the first value is written to them, so keys that are present for only a few
+ * variants take up very little space. Adding new rows, columns, and chunks is synchronized.
+ *
+ * Each row also has a one-byte variant class (transition, transversion, insertion, etc.) computed
+ * once from the alleles, so that pool-wide counts don't have to compare allele strings for every variant.
+ *
+ * This is used by ColumnarVariantPool, which hands out ColumnarVariantRecs that read from and
+ * write to a single row of the store.
+ * @author brendan
+ *
+ */
+public class VariantColumnStore {
+
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	//Values of the variant class column
+	public static final byte CLASS_OTHER = 0; //Multi-base substitutions, or undefined alleles
+	public static final byte CLASS_SNP = 1; //Single base substitution that's neither a transition nor a transversion
+	public static final byte CLASS_TRANSITION = 2;
+	public static final byte CLASS_TRANSVERSION = 3;
+	public static final byte CLASS_INSERTION = 4;
+	public static final byte CLASS_DELETION = 5;
+
+	//These are replaced, never modified, when a column is added so they can be read without locking
+	private volatile Map<String, Integer> propKeyIndex = new HashMap<String, Integer>();
+	private volatile Map<String, Integer> annoKeyIndex = new HashMap<String, Integer>();
+	private volatile String[] propKeys = new String[0];
+	private volatile String[] annoKeys = new String[0];
+
+	//Indexed by [column][chunk][row within chunk], chunks are null until written to
+	private volatile double[][][] propColumns = new double[0][][];
+	private volatile String[][][] annoColumns = new String[0][][];
+	private volatile byte[][] classColumn = new byte[0][]; //Indexed by [chunk][row within chunk], always allocated
+
+	private final ConcurrentHashMap<String, String> stringPool = new ConcurrentHashMap<String, String>();
+	private int rowCount = 0;
+	private int chunkCount = 0;
+
+	public VariantColumnStore() {
+		//Create columns for the commonly used keys up front, so they're in a predictable order
+		addPropertyColumn(VariantRec.DEPTH);
+		addPropertyColumn(VariantRec.VAR_DEPTH);
+		addPropertyColumn(VariantRec.GENOTYPE_QUALITY);
+		addPropertyColumn(VariantRec.POP_FREQUENCY);
+		addAnnotationColumn(VariantRec.GENE_NAME);
+		addAnnotationColumn(VariantRec.VARIANT_TYPE);
+		addAnnotationColumn(VariantRec.EXON_FUNCTION);
+	}
+
+	/**
+	 * Allocate a new row and return its index
+	 * @return
+	 */
+	public synchronized int addRow() {
+		int row = rowCount;
+		if ((row >> CHUNK_BITS) >= chunkCount) {
+			addChunk();
+		}
+		rowCount++;
+		return row;
+	}
+
+	/**
+	 * Total number of rows allocated
+	 * @return
+	 */
+	public synchronized int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Return the canonical instance of the given string, so that equal strings stored
+	 * in this pool share a single instance
+	 * @param str
+	 * @return
+	 */
+	public String intern(String str) {
+		if (str == null)
+			return null;
+		String existing = stringPool.putIfAbsent(str, str);
+		if (existing == null)
+			return str;
+		return existing;
+	}
+
+	/**
+	 * Compute the variant class for a pair of alleles, which agrees with VariantRec.isSNP(),
+	 * isTransition(), isTransversion(), isInsertion() and isDeletion()
+	 * @param ref
+	 * @param alt
+	 * @return
+	 */
+	public static byte classify(String ref, String alt) {
+		if (ref == null || alt == null)
+			return CLASS_OTHER;
+		if (ref.equals("-"))
+			return alt.equals("-") ? CLASS_OTHER : CLASS_INSERTION;
+		if (alt.equals("-"))
+			return CLASS_DELETION;
+		if (ref.length() != 1 || alt.length() != 1)
+			return CLASS_OTHER;
+		
+		char r = ref.charAt(0);
+		char a = alt.charAt(0);
+		if ((r=='A' && a=='G') || (r=='G' && a=='A') || (r=='T' && a=='C') || (r=='C' && a=='T'))
+			return CLASS_TRANSITION;
+		if (((r=='A' || r=='G') && (a=='C' || a=='T')) || ((r=='T' || r=='C') && (a=='A' || a=='G')))
+			return CLASS_TRANSVERSION;
+		return CLASS_SNP;
+	}
+
+	/**
+	 * Set the variant class of the row from its alleles
+	 * @param row
+	 * @param ref
+	 * @param alt
+	 */
+	public void setAlleles(int row, String ref, String alt) {
+		classColumn[row >> CHUNK_BITS][row & CHUNK_MASK] = classify(ref, alt);
+	}
+
+	/**
+	 * One of the CLASS_ constants, describing the alleles last given to setAlleles for the row
+	 * @param row
+	 * @return
+	 */
+	public byte getVariantClass(int row) {
+		return classColumn[row >> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	public void setProperty(int row, String key, Double val) {
+		int col = getPropertyColumn(key, val != null);
+		if (col < 0)
+			return;
+		double[] chunk = propColumns[col][row >> CHUNK_BITS];
+		if (chunk == null) {
+			if (val == null)
+				return;
+			chunk = allocatePropChunk(col, row >> CHUNK_BITS);
+		}
+		chunk[row & CHUNK_MASK] = val == null ? Double.NaN : val;
+	}
+
+	/**
+	 * Returns the value of the given property at the row, or null if there is no value
+	 * @param row
+	 * @param key
+	 * @return
+	 */
+	public Double getProperty(int row, String key) {
+		double val = getPropertyValue(row, key);
+		if (Double.isNaN(val))
+			return null;
+		return val;
+	}
+
+	/**
+	 * Returns the primitive value of the property at the given row, or NaN if there is no value.
+	 * This avoids creating a Double for each lookup, and is what full-pool scans should use
+	 * @param row
+	 * @param key
+	 * @return
+	 */
+	public double getPropertyValue(int row, String key) {
+		Integer col = propKeyIndex.get(key);
+		if (col == null)
+			return Double.NaN;
+		double[] chunk = propColumns[col][row >> CHUNK_BITS];
+		if (chunk == null)
+			return Double.NaN;
+		return chunk[row & CHUNK_MASK];
+	}
+
+	public void setAnnotation(int row, String key, String anno) {
+		int col = getAnnotationColumn(key, anno != null);
+		if (col < 0)
+			return;
+		String[] chunk = annoColumns[col][row >> CHUNK_BITS];
+		if (chunk == null) {
+			if (anno == null)
+				return;
+			chunk = allocateAnnoChunk(col, row >> CHUNK_BITS);
+		}
+		chunk[row & CHUNK_MASK] = intern(anno);
+	}
+
+	public String getAnnotation(int row, String key) {
+		Integer col = annoKeyIndex.get(key);
+		if (col == null)
+			return null;
+		String[] chunk = annoColumns[col][row >> CHUNK_BITS];
+		if (chunk == null)
+			return null;
+		return chunk[row & CHUNK_MASK];
+	}
+
+	/**
+	 * Return all property keys that have a value at the given row
+	 * @param row
+	 * @return
+	 */
+	public List<String> getPropertyKeys(int row) {
+		String[] keys = propKeys;
+		double[][][] cols = propColumns;
+		List<String> present = new ArrayList<String>();
+		for(int i=0; i<keys.length; i++) {
+			double[] chunk = cols[i][row >> CHUNK_BITS];
+			if (chunk != null && (! Double.isNaN(chunk[row & CHUNK_MASK])))
+				present.add(keys[i]);
+		}
+		return present;
+	}
+
+	/**
+	 * Return all annotation keys that have a value at the given row
+	 * @param row
+	 * @return
+	 */
+	public List<String> getAnnotationKeys(int row) {
+		String[] keys = annoKeys;
+		String[][][] cols = annoColumns;
+		List<String> present = new ArrayList<String>();
+		for(int i=0; i<keys.length; i++) {
+			String[] chunk = cols[i][row >> CHUNK_BITS];
+			if (chunk != null && chunk[row & CHUNK_MASK] != null)
+				present.add(keys[i]);
+		}
+		return present;
+	}
+
+	/**
+	 * Return the index of the column for the given key, creating it if create is true, or
+	 * -1 if there's no such column and create is false
+	 */
+	private int getPropertyColumn(String key, boolean create) {
+		Integer col = propKeyIndex.get(key);
+		if (col != null)
+			return col;
+		if (! create)
+			return -1;
+		synchronized(this) {
+			col = propKeyIndex.get(key);
+			if (col == null)
+				col = addPropertyColumn(key);
+			return col;
+		}
+	}
+
+	private int getAnnotationColumn(String key, boolean create) {
+		Integer col = annoKeyIndex.get(key);
+		if (col != null)
+			return col;
+		if (! create)
+			return -1;
+		synchronized(this) {
+			col = annoKeyIndex.get(key);
+			if (col == null)
+				col = addAnnotationColumn(key);
+			return col;
+		}
+	}
+
+	private synchronized int addPropertyColumn(String key) {
+		int col = propKeys.length;
+		double[][] chunks = new double[chunkCount][];
+		double[][][] newCols = Arrays.copyOf(propColumns, col+1);
+		newCols[col] = chunks;
+		String[] newKeys = Arrays.copyOf(propKeys, col+1);
+		newKeys[col] = key;
+		propColumns = newCols;
+		propKeys = newKeys;
+		Map<String, Integer> newIndex = new HashMap<String, Integer>(propKeyIndex);
+		newIndex.put(key, col);
+		propKeyIndex = newIndex;
+		return col;
+	}
+
+	private synchronized int addAnnotationColumn(String key) {
+		int col = annoKeys.length;
+		String[][] chunks = new String[chunkCount][];
+		String[][][] newCols = Arrays.copyOf(annoColumns, col+1);
+		newCols[col] = chunks;
+		String[] newKeys = Arrays.copyOf(annoKeys, col+1);
+		newKeys[col] = key;
+		annoColumns = newCols;
+		annoKeys = newKeys;
+		Map<String, Integer> newIndex = new HashMap<String, Integer>(annoKeyIndex);
+		newIndex.put(key, col);
+		annoKeyIndex = newIndex;
+		return col;
+	}
+
+	/**
+	 * Add a new (empty) chunk of rows to every column
+	 */
+	private void addChunk() {
+		double[][][] newProps = new double[propColumns.length][][];
+		for(int i=0; i<propColumns.length; i++) {
+			newProps[i] = Arrays.copyOf(propColumns[i], chunkCount+1);
+		}
+		String[][][] newAnnos = new String[annoColumns.length][][];
+		for(int i=0; i<annoColumns.length; i++) {
+			newAnnos[i] = Arrays.copyOf(annoColumns[i], chunkCount+1);
+		}
+		byte[][] newClasses = Arrays.copyOf(classColumn, chunkCount+1);
+		newClasses[chunkCount] = new byte[CHUNK_SIZE];
+		chunkCount++;
+		propColumns = newProps;
+		annoColumns = newAnnos;
+		classColumn = newClasses;
+	}
+
+	/**
+	 * Create the given chunk for a property column if no other thread has done so already
+	 */
+	private synchronized double[] allocatePropChunk(int col, int chunkIndex) {
+		double[] chunk = propColumns[col][chunkIndex];
+		if (chunk == null) {
+			chunk = new double[CHUNK_SIZE];
+			Arrays.fill(chunk, Double.NaN);
+			propColumns[col][chunkIndex] = chunk;
+		}
+		return chunk;
+	}
+
+	private synchronized String[] allocateAnnoChunk(int col, int chunkIndex) {
+		String[] chunk = annoColumns[col][chunkIndex];
+		if (chunk == null) {
+			chunk = new String[CHUNK_SIZE];
+			annoColumns[col][chunkIndex] = chunk;
+		}
+		return chunk;
+	}
+}
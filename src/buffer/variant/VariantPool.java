@@ -30,6 +30,7 @@ import util.VCFLineParser;
 import buffer.BEDFile;
 import buffer.CSVFile;
 import buffer.FileBuffer;
+import buffer.IntervalsFile;
 import buffer.ReferenceFile;
 import buffer.VCFFile;
 
@@ -105,7 +106,7 @@ public class VariantPool extends Operator  {
 		return "Pool with " + this.size() + " variants in " + vars.size() + " contigs "; 
 	}
 	
-	private void importFromVariantReader(VariantLineReader reader) throws IOException {
+	protected void importFromVariantReader(VariantLineReader reader) throws IOException {
 		int lineNumber = 0;
 		do {
 			VariantRec rec = reader.toVariantRec();
@@ -921,11 +922,12 @@ public class VariantPool extends Operator  {
 	 */
 	public VariantPool filterByBED(BEDFile bedFile) throws IOException {
 		bedFile.buildIntervalsMap();
+		IntervalsFile.Sweep sweep = bedFile.sweep();
 		VariantPool pool = new VariantPool();
 		for(String contig : getContigs()) {
 			List<VariantRec> vars = getVariantsForContig(contig);
 			for(VariantRec rec : vars) {
-				if (bedFile.contains(contig, rec.getStart(), false)) {
+				if (sweep.contains(contig, rec.getStart())) {
 					pool.addRecordNoSort(rec);
 				}
 			}
@@ -941,13 +943,17 @@ public class VariantPool extends Operator  {
 	 */
 	public void removeVariantNotInBED(BEDFile bedFile) throws IOException {
 		bedFile.buildIntervalsMap();
+		IntervalsFile.Sweep sweep = bedFile.sweep();
 		for(String contig : getContigs()) {
 			List<VariantRec> vars = getVariantsForContig(contig);
+			List<VariantRec> kept = new ArrayList<VariantRec>(vars.size());
 			for(VariantRec rec : vars) {
-				if (! bedFile.contains(contig, rec.getStart(), false)) {
-					removeVariant(rec); 
+				if (sweep.contains(contig, rec.getStart())) {
+					kept.add(rec);
 				}
 			}
+			vars.clear();
+			vars.addAll(kept);
 		}
 	}
 	
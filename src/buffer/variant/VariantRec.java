@@ -3,6 +3,7 @@ package buffer.variant;
 import gene.Gene;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -22,8 +23,8 @@ public class VariantRec {
 	String alt;
 	Double qual;
 	boolean isHetero;
-	private Map<String, Double> props = new HashMap<String, Double>();
-	private Map<String, String> annotations = new HashMap<String, String>();
+	private Map<String, Double> props = null; //Created when the first property is added
+	private Map<String, String> annotations = null; //Created when the first annotation is added
 	Gene gene;
 	
 	public VariantRec(String contig, 
@@ -57,10 +58,14 @@ public class VariantRec {
 	}
 	
 	public synchronized void addProperty(String key, Double val) {
+		if (props == null)
+			props = new HashMap<String, Double>();
 		props.put(key, val);
 	}
 	
 	public synchronized void addAnnotation(String key, String anno) {
+		if (annotations == null)
+			annotations = new HashMap<String, String>();
 		annotations.put(key, anno);
 	}
 	
@@ -225,6 +230,8 @@ public class VariantRec {
 	}
 	
 	public Double getProperty(String key) {
+		if (props == null)
+			return null;
 		return props.get(key);
 	}
 	
@@ -256,6 +263,8 @@ public class VariantRec {
 	 * @return
 	 */
 	public Collection<String> getPropertyKeys() {
+		if (props == null)
+			return Collections.emptySet();
 		return props.keySet();
 	}
 	
@@ -264,15 +273,19 @@ public class VariantRec {
 	 * @return
 	 */
 	public Collection<String> getAnnotationKeys() {
+		if (annotations == null)
+			return Collections.emptySet();
 		return annotations.keySet();
 	}
 	
 	public String getAnnotation(String key) {
+		if (annotations == null)
+			return null;
 		return annotations.get(key);
 	}
 	
 	public boolean hasProperty(String key) {
-		return props.get(key)!=null;
+		return getProperty(key)!=null;
 	}
 	
 	/**
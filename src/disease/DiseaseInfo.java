@@ -52,6 +52,20 @@ public class DiseaseInfo {
 		}
 	}
 
+	/**
+	 * Create an info object from values previously obtained from another one
+	 * @param id
+	 * @param name
+	 * @param inheritance As returned by getInheritance()
+	 * @param phenotypes
+	 */
+	DiseaseInfo(String id, String name, String inheritance, List<String> phenotypes) {
+		this.omimID = id;
+		this.name = name;
+		this.inheritance = Inheritance.valueOf(inheritance);
+		this.phenotypes = phenotypes;
+	}
+
 	/**
 	 * Disease name
 	 * @return
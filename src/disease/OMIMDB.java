@@ -7,31 +7,50 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import json.JSONException;
 import json.JSONObject;
 import json.JSONTokener;
+import util.ReferenceTable;
 
 /**
- * Object representation of all OMIM info
+ * Object representation of all OMIM info. The morbidmap and omim.json files are each read into a
+ * ReferenceTable, which is saved as a snapshot next to the file, so after the first time they're read
+ * later runs just map the snapshots. Entries and disease infos are created as they're asked for
  * @author brendan
  *
  */
 public class OMIMDB {
 	
+	//Columns of the morbidmap table
+	static final int DISEASE_NAME = 0;
+	static final int DISEASE_ID = 1;
+	static final int GENE = 2;
+	static final int GENE_ID = 3;
+	static final String MORBIDMAP_FORMAT = "omim.morbidmap.1";
+	
+	//Columns of the disease info table
+	static final int INFO_ID = 0;
+	static final int INFO_NAME = 1;
+	static final int INFO_INHERITANCE = 2;
+	static final int INFO_PHENOTYPES = 3;
+	static final String DISEASE_INFO_FORMAT = "omim.json.1";
+	static final String PHENOTYPE_SEPARATOR = "\u0001";
+	
 	private File rootDir = null;
 	
-	//Map from gene name to list of OMIM entries
-	private Map<String, List<OMIMEntry>> geneMap = new HashMap<String, List<OMIMEntry>>();
+	//Morbidmap entries, indexed by gene name
+	private ReferenceTable entryTable = null;
+	
+	//Disease info, indexed by disease id
+	private ReferenceTable diseaseTable = null;
 	
-	private Map<String, DiseaseInfo> diseaseMap = new HashMap<String, DiseaseInfo>();
 	/**
 	 * Create an OMIM DB based on info in the directory provided
 	 * @param omimDir
@@ -44,12 +63,7 @@ public class OMIMDB {
 		
 		rootDir = omimDir;
 		readMorbidMap();
-		
-		try {
-			readDiseaseInfo();
-		} catch (JSONException e) {
-			e.printStackTrace();
-		}
+		readDiseaseInfo();
 	}
 
 	/**
@@ -60,37 +74,51 @@ public class OMIMDB {
 	 */
 	public List<OMIMEntry> getEntriesForGene(Gene g) {
 		String name = g.getName();
-		return geneMap.get(name);
+		return getEntriesForGene(name);
 	}
 	
 	/**
 	 * Parse the omim.json file to read disease and phenotype information
 	 * @throws IOException
-	 * @throws JSONException
 	 */
-	private void readDiseaseInfo() throws IOException, JSONException {
+	private void readDiseaseInfo() throws IOException {
 		String pathToOMIMJSON = rootDir.getAbsolutePath() + "/omim.json";
 		File omimJSON = new File(pathToOMIMJSON);
 		if (! omimJSON.exists()) {
 			throw new IllegalArgumentException("OMIM json file at path " + pathToOMIMJSON + " does not exist");
 		}
 		
-		BufferedReader reader = new BufferedReader(new FileReader(omimJSON));
-		JSONTokener jsonReader = new JSONTokener(reader);
-		
-		JSONObject omim = new JSONObject(jsonReader);
-		
-		Iterator it = omim.keys();
-		while(it.hasNext()) {
-			Object key = it.next();
-			String id = key.toString();
-			JSONObject jobj = omim.getJSONObject(id);
-			DiseaseInfo disInfo = new DiseaseInfo(id, jobj);
-			diseaseMap.put(id, disInfo);
-		}
+		diseaseTable = ReferenceTable.load(omimJSON, DISEASE_INFO_FORMAT, new ReferenceTable.Parser() {
+			public void parse(File source, ReferenceTable.Builder builder) throws IOException {
+				BufferedReader reader = new BufferedReader(new FileReader(source));
+				try {
+					JSONTokener jsonReader = new JSONTokener(reader);
+					JSONObject omim = new JSONObject(jsonReader);
+
+					Iterator it = omim.keys();
+					while(it.hasNext()) {
+						Object key = it.next();
+						String id = key.toString();
+						JSONObject jobj = omim.getJSONObject(id);
+						DiseaseInfo disInfo = new DiseaseInfo(id, jobj);
+						StringBuilder phenotypes = new StringBuilder();
+						for(String pheno : disInfo.getPhenotypes()) {
+							if (phenotypes.length() > 0)
+								phenotypes.append(PHENOTYPE_SEPARATOR);
+							phenotypes.append(pheno);
+						}
+						builder.add("", 0, id, disInfo.getName(), disInfo.getInheritance(), phenotypes.toString());
+					}
+				} catch (JSONException e) {
+					throw new IOException("Error parsing OMIM json : " + e.getMessage(), e);
+				}
+				finally {
+					reader.close();
+				}
+			}
+		}, 4, INFO_ID);
 		
-		System.out.println("Found " + diseaseMap.size() + " disease descriptions");
-		reader.close();
+		System.out.println("Found " + diseaseTable.size() + " disease descriptions");
 	}
 	
 	private void readMorbidMap() throws IOException {
@@ -101,54 +129,48 @@ public class OMIMDB {
 			throw new IllegalArgumentException("OMIM 'morbidmap' file at path " + pathToMorbidMap + " does not exist");
 		}
 		
-		int entryCount = 0; //Count total entries
-		
-		BufferedReader reader = new BufferedReader(new FileReader(morbidmap));
-		String line = reader.readLine();
-		while(line != null) {
-			String[] toks = line.split("\\|");
-			String diseaseStr = toks[0];
-			String genesStr = toks[1];
-			String geneOMIMId = toks[2];
-			
-			//Parse disease name,  
-			int lastCommaIndex = diseaseStr.lastIndexOf(',');
-			if (lastCommaIndex == -1) {
-				//In cases where there's no gene associated the phenotype id will not be in the disease name,
-				//so skip these
-				line = reader.readLine();
-				continue;
-			}
-			String disName = diseaseStr.substring(0, lastCommaIndex);
-			//Try to parse a six-digit number from string
-			String disID = parseID(diseaseStr.substring(lastCommaIndex));
-			if (disID != null && disID.length() == 6) {
-				String gene;
-				if (genesStr.contains(",")) {
-					gene = genesStr.substring(0, genesStr.indexOf(',')).trim();
-				}
-				else {
-					gene = genesStr.trim();
-				}
+		entryTable = ReferenceTable.load(morbidmap, MORBIDMAP_FORMAT, new ReferenceTable.Parser() {
+			public void parse(File source, ReferenceTable.Builder builder) throws IOException {
+				BufferedReader reader = new BufferedReader(new FileReader(source));
+				String line = reader.readLine();
+				while(line != null) {
+					String[] toks = line.split("\\|");
+					String diseaseStr = toks[0];
+					String genesStr = toks[1];
+					String geneOMIMId = toks[2];
 
+					//Parse disease name,  
+					int lastCommaIndex = diseaseStr.lastIndexOf(',');
+					if (lastCommaIndex == -1) {
+						//In cases where there's no gene associated the phenotype id will not be in the disease name,
+						//so skip these
+						line = reader.readLine();
+						continue;
+					}
+					String disName = diseaseStr.substring(0, lastCommaIndex);
+					//Try to parse a six-digit number from string
+					String disID = parseID(diseaseStr.substring(lastCommaIndex));
+					if (disID != null && disID.length() == 6) {
+						String gene;
+						if (genesStr.contains(",")) {
+							gene = genesStr.substring(0, genesStr.indexOf(',')).trim();
+						}
+						else {
+							gene = genesStr.trim();
+						}
 
-				OMIMEntry entry = new OMIMEntry(disName, disID, gene, geneOMIMId);
-				List<OMIMEntry> entries = geneMap.get(gene);
-				if (entries == null) {
-					entries = new ArrayList<OMIMEntry>(4);
-					geneMap.put(gene, entries);
+						builder.add("", 0, disName, disID, gene, geneOMIMId);
+					}
+					else {
+						System.out.println("Skipping entry " + diseaseStr + ", could not parse phenotype id");
+					}
+					line = reader.readLine();
 				}
-				entries.add(entry);
-				entryCount++;
-			}
-			else {
-				System.out.println("Skipping entry " + diseaseStr + ", could not parse phenotype id");
+				reader.close();
 			}
-			line = reader.readLine();
-		}
-		reader.close();
+		}, 4, GENE);
 		
-		System.out.println("Found " + entryCount + " total disease entries with " + geneMap.size() + " genes");
+		System.out.println("Found " + entryTable.size() + " total disease entries with " + entryTable.getValues(GENE).size() + " genes");
 		
 	}
 
@@ -158,7 +180,7 @@ public class OMIMDB {
 	 * @param substring
 	 * @return
 	 */
-	private String parseID(String str) {
+	private static String parseID(String str) {
 		Pattern pat = Pattern.compile("\\d{6}");
 		Matcher matcher = pat.matcher(str);
 		boolean found = matcher.find();
@@ -175,16 +197,23 @@ public class OMIMDB {
 	 * @return
 	 */
 	public Collection<String> allGenes() {
-		return geneMap.keySet();
+		return entryTable.getValues(GENE);
 	}
 	
 	/**
-	 * List of entries associated with given gene
+	 * List of entries associated with given gene, or null if there are none
 	 * @param gene
 	 * @return
 	 */
 	public List<OMIMEntry> getEntriesForGene(String gene) {
-		return geneMap.get(gene);
+		int[] rows = entryTable.getRows(GENE, gene);
+		if (rows.length == 0)
+			return null;
+		List<OMIMEntry> entries = new ArrayList<OMIMEntry>(rows.length);
+		for(int row : rows) {
+			entries.add(new OMIMEntry(entryTable.get(row, DISEASE_NAME), entryTable.get(row, DISEASE_ID), entryTable.get(row, GENE), entryTable.get(row, GENE_ID)));
+		}
+		return entries;
 	}
 	
 	/**
@@ -207,7 +236,16 @@ public class OMIMDB {
 	}
 	
 	public DiseaseInfo getDiseaseInfoForID(String id) {
-		return diseaseMap.get(id);
+		int[] rows = diseaseTable.getRows(INFO_ID, id);
+		if (rows.length == 0)
+			return null;
+		int row = rows[rows.length-1]; //Later entries replaced earlier ones when these were kept in a map
+		List<String> phenotypes = new ArrayList<String>();
+		String phenoStr = diseaseTable.get(row, INFO_PHENOTYPES);
+		if (phenoStr.length() > 0) {
+			phenotypes.addAll(Arrays.asList(phenoStr.split(PHENOTYPE_SEPARATOR)));
+		}
+		return new DiseaseInfo(id, diseaseTable.get(row, INFO_NAME), diseaseTable.get(row, INFO_INHERITANCE), phenotypes);
 	}
 
 	
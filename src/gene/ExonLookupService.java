@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 
 import util.Interval;
+import util.IntervalIndex;
 
 /**
  * A class to facilitate lookups of gene and exon (but not c.dot or p.dot) information based on
@@ -23,6 +24,7 @@ public class ExonLookupService {
 
 	
 	private Map<String, List<Interval>> exonMap = null;
+	private Map<String, IntervalIndex> exonIndex = null;
 	
 	/**
 	 * Read all info from file into exonMap
@@ -58,11 +60,13 @@ public class ExonLookupService {
 		
 		reader.close();
 		
-		//Sort all intervals within contigs by start position. 
+		//Sort all intervals within contigs by start position and build an index for overlap queries 
 		if (exonMap != null) {
+			exonIndex = new HashMap<String, IntervalIndex>();
 			for(String contig : exonMap.keySet()) {
 				List<Interval> intervals = exonMap.get(contig);
 				Collections.sort(intervals);
+				exonIndex.put(contig, new IntervalIndex(intervals));
 			}
 		}
 	}
@@ -72,23 +76,23 @@ public class ExonLookupService {
 			throw new IllegalStateException("Exon information has not been initialized");
 		}
 		
-		List<Interval> intervals = exonMap.get(contig);
+		IntervalIndex index = exonIndex.get(contig);
 		
-		if (intervals == null) {
+		if (index == null) {
 			return new String[]{};
 		}
 		
-		//Find all intervals that contain pos and store their info in a list
-		List<String> exons = new ArrayList<String>(4);
-		for(Interval inter : intervals) {
-			if (inter.intersects(start, end)) {
-				exons.add( inter.getInfo() != null 
+		//Find all intervals that overlap the range and store their info in a list
+		List<Interval> intervals = index.getOverlapping(start, end);
+		String[] exons = new String[intervals.size()];
+		for(int i=0; i<exons.length; i++) {
+			Interval inter = intervals.get(i);
+			exons[i] = inter.getInfo() != null 
 						? inter.getInfo().toString()
-						: "");
-			}
+						: "";
 		}
 		
-		return exons.toArray(new String[exons.size()]);
+		return exons;
 	}
 
 	/**
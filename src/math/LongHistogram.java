@@ -0,0 +1,354 @@
+package math;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A histogram with the same bins as Histogram, but which stores counts in a long[] and keeps only
+ * the count, sum and sum of squares of the values added, so adding a value is just a few arithmetic
+ * operations. If the minimum and the bin width are both whole numbers integer values are binned with
+ * integer arithmetic, which makes this a good fit for small integer domains like base and mapping qualities.
+ *
+ * A value goes in bin floor((val - min) / binWidth) whether it's added as an int or a double. This
+ * differs slightly from Histogram.getBin(...), which scales by the range before dividing and so can
+ * put a value lying exactly on a bin boundary in the bin below (in a 51 bin histogram from 0 to 51,
+ * Histogram puts 31 in bin 30, while this class puts it in bin 31).
+ *
+ * LongHistograms with the same binning can be combined with merge(...), so counts can be tallied
+ * separately on several threads and summed at the end (as BamMetricsEngine does for each shard), and
+ * they can be written to and read from a compact binary form. toHistogram() converts to a regular
+ * Histogram for code that uses that API, such as the QC report.
+ *
+ * This class is not thread-safe.
+ * @author brendan
+ *
+ */
+public class LongHistogram {
+
+	private static final int SERIAL_VERSION = 1;
+
+	final double minValue;
+	final double maxValue;
+	final double binSpacing;
+	final long[] hist;
+
+	//When the minimum and bin width are whole numbers these are used for integer binning, otherwise intWidth is 0
+	final int intMin;
+	final int intWidth;
+
+	long count = 0;
+	long lessThanMin = 0;
+	long moreThanMax = 0;
+	double sum = 0;
+	double sumOfSquares = 0;
+	double minValueAdded = Double.NaN;
+	double maxValueAdded = Double.NaN;
+
+	public LongHistogram(double minValue, double maxValue, int bins) {
+		if (bins < 1)
+			throw new IllegalArgumentException("Histogram must have at least one bin");
+		if (maxValue <= minValue)
+			throw new IllegalArgumentException("Histogram maximum must be greater than minimum");
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.binSpacing = (maxValue - minValue)/(double)bins;
+		this.hist = new long[bins];
+
+		double width = binSpacing;
+		if (minValue == Math.rint(minValue) && width == Math.rint(width) && width >= 1
+				&& Math.abs(minValue) < Integer.MAX_VALUE / 2 && width < Integer.MAX_VALUE) {
+			intMin = (int)minValue;
+			intWidth = (int)width;
+		}
+		else {
+			intMin = 0;
+			intWidth = 0;
+		}
+	}
+
+	/**
+	 * Create a new, empty histogram with the same binning as the given Histogram
+	 * @param histo
+	 */
+	public LongHistogram(Histogram histo) {
+		this(histo.getMin(), histo.getMax(), histo.getBinCount());
+	}
+
+	public int getBinCount() {
+		return hist.length;
+	}
+
+	public double getMin() {
+		return minValue;
+	}
+
+	public double getMax() {
+		return maxValue;
+	}
+
+	public double getBinWidth() {
+		return binSpacing;
+	}
+
+	/**
+	 * Total number of values added
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Number of values added in the given bin
+	 * @param whichBin
+	 * @return
+	 */
+	public long getCount(int whichBin) {
+		return hist[whichBin];
+	}
+
+	public long getLessThanMin() {
+		return lessThanMin;
+	}
+
+	public long getMoreThanMax() {
+		return moreThanMax;
+	}
+
+	public double getMinValueAdded() {
+		return minValueAdded;
+	}
+
+	public double getMaxValueAdded() {
+		return maxValueAdded;
+	}
+
+	public double getMean() {
+		return sum / (double)count;
+	}
+
+	/**
+	 * Standard deviation of all values added, computed in the same way as Histogram.getStdev()
+	 * @return
+	 */
+	public double getStdev() {
+		return Math.sqrt( sumOfSquaredDeviations() / (double)count );
+	}
+
+	private double sumOfSquaredDeviations() {
+		if (count == 0)
+			return 0;
+		return Math.max(0, sumOfSquares - sum*sum/(double)count);
+	}
+
+	public void addValue(double val) {
+		addValue(val, 1);
+	}
+
+	/**
+	 * Add the given value the given number of times
+	 * @param val
+	 * @param times
+	 */
+	public void addValue(double val, long times) {
+		count += times;
+		sum += val*times;
+		sumOfSquares += val*val*times;
+		if (Double.isNaN(minValueAdded) || val < minValueAdded)
+			minValueAdded = val;
+		if (Double.isNaN(maxValueAdded) || val > maxValueAdded)
+			maxValueAdded = val;
+
+		if (val < minValue) {
+			lessThanMin += times;
+			return;
+		}
+		if (val >= maxValue) {
+			moreThanMax += times;
+			return;
+		}
+		int bin = (int)Math.floor( (val-minValue)/binSpacing );
+		if (bin >= hist.length) //Possible through rounding for values just below maxValue
+			bin = hist.length-1;
+		else if (bin < 0)
+			bin = 0;
+		hist[bin] += times;
+	}
+
+	/**
+	 * Add an integer value. If the minimum and bin width of this histogram are whole numbers
+	 * this uses only integer arithmetic, and the value goes in the same bin as addValue((double)val)
+	 * @param val
+	 */
+	public void addValue(int val) {
+		if (intWidth == 0) {
+			addValue((double)val, 1);
+			return;
+		}
+
+		count++;
+		sum += val;
+		sumOfSquares += (double)val*(double)val;
+		if (count == 1 || val < minValueAdded)
+			minValueAdded = val;
+		if (count == 1 || val > maxValueAdded)
+			maxValueAdded = val;
+
+		int offset = val - intMin;
+		if (offset < 0) {
+			lessThanMin++;
+			return;
+		}
+		int bin = intWidth == 1 ? offset : offset / intWidth;
+		if (bin >= hist.length) {
+			moreThanMax++;
+			return;
+		}
+		hist[bin]++;
+	}
+
+	/**
+	 * True if the given histogram has the same bins as this one
+	 * @param other
+	 * @return
+	 */
+	public boolean hasSameBins(LongHistogram other) {
+		return other.minValue == minValue && other.maxValue == maxValue && other.hist.length == hist.length;
+	}
+
+	/**
+	 * Add all counts and values in the other histogram to this one. The other histogram must have the
+	 * same bins as this one
+	 * @param other
+	 */
+	public void merge(LongHistogram other) {
+		if (! hasSameBins(other))
+			throw new IllegalArgumentException("Cannot merge histograms with different bins");
+		if (other.count == 0)
+			return;
+
+		for(int i=0; i<hist.length; i++) {
+			hist[i] += other.hist[i];
+		}
+		if (count == 0 || other.minValueAdded < minValueAdded)
+			minValueAdded = other.minValueAdded;
+		if (count == 0 || other.maxValueAdded > maxValueAdded)
+			maxValueAdded = other.maxValueAdded;
+		count += other.count;
+		lessThanMin += other.lessThanMin;
+		moreThanMax += other.moreThanMax;
+		sum += other.sum;
+		sumOfSquares += other.sumOfSquares;
+	}
+
+	/**
+	 * Set all counts to zero
+	 */
+	public void clear() {
+		for(int i=0; i<hist.length; i++) {
+			hist[i] = 0;
+		}
+		count = 0;
+		lessThanMin = 0;
+		moreThanMax = 0;
+		sum = 0;
+		sumOfSquares = 0;
+		minValueAdded = Double.NaN;
+		maxValueAdded = Double.NaN;
+	}
+
+	/**
+	 * Create a new Histogram with the same bins, counts and summary statistics as this one
+	 * @return
+	 */
+	public Histogram toHistogram() {
+		Histogram histo = new Histogram(minValue, maxValue, hist.length);
+		for(int i=0; i<hist.length; i++) {
+			histo.hist[i] = hist[i];
+			if (hist[i] > 0 && (histo.maxCountBin < 0 || hist[i] > hist[histo.maxCountBin]))
+				histo.maxCountBin = i;
+		}
+		histo.count = count;
+		histo.lessThanMin = lessThanMin;
+		histo.moreThanMax = moreThanMax;
+		histo.currentSum = sum;
+		histo.currentStdev = sumOfSquaredDeviations();
+		histo.minValueAdded = minValueAdded;
+		histo.maxValueAdded = maxValueAdded;
+		return histo;
+	}
+
+	/**
+	 * Write this histogram in a compact binary form that can be read by read(...). Counts are written
+	 * as variable-length integers, so empty and small bins take a single byte
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(SERIAL_VERSION);
+		out.writeDouble(minValue);
+		out.writeDouble(maxValue);
+		writeVarLong(out, hist.length);
+		writeVarLong(out, count);
+		writeVarLong(out, lessThanMin);
+		writeVarLong(out, moreThanMax);
+		out.writeDouble(sum);
+		out.writeDouble(sumOfSquares);
+		out.writeDouble(minValueAdded);
+		out.writeDouble(maxValueAdded);
+		for(int i=0; i<hist.length; i++) {
+			writeVarLong(out, hist[i]);
+		}
+	}
+
+	/**
+	 * Read a histogram written by write(...)
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static LongHistogram read(DataInput in) throws IOException {
+		int version = in.readByte();
+		if (version != SERIAL_VERSION)
+			throw new IOException("Unrecognized histogram version : " + version);
+		double min = in.readDouble();
+		double max = in.readDouble();
+		long bins = readVarLong(in);
+		if (bins < 1 || bins > Integer.MAX_VALUE)
+			throw new IOException("Invalid number of histogram bins : " + bins);
+		LongHistogram histo = new LongHistogram(min, max, (int)bins);
+		histo.count = readVarLong(in);
+		histo.lessThanMin = readVarLong(in);
+		histo.moreThanMax = readVarLong(in);
+		histo.sum = in.readDouble();
+		histo.sumOfSquares = in.readDouble();
+		histo.minValueAdded = in.readDouble();
+		histo.maxValueAdded = in.readDouble();
+		for(int i=0; i<histo.hist.length; i++) {
+			histo.hist[i] = readVarLong(in);
+		}
+		return histo;
+	}
+
+	private static void writeVarLong(DataOutput out, long val) throws IOException {
+		if (val < 0)
+			throw new IOException("Cannot write negative count " + val);
+		while((val & ~0x7FL) != 0) {
+			out.writeByte((int)((val & 0x7F) | 0x80));
+			val >>>= 7;
+		}
+		out.writeByte((int)val);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long val = 0;
+		for(int shift=0; shift<64; shift+=7) {
+			int b = in.readByte() & 0xFF;
+			val |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return val;
+		}
+		throw new IOException("Malformed variable-length count");
+	}
+}
@@ -0,0 +1,210 @@
+package math.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, int-indexed form of a Graph for algorithms that visit every edge, such as shortest paths.
+ * Nodes are numbered 0..n-1 and edges are stored in compressed sparse row form: the neighbors of node i
+ * are getTarget(e) for e in getEdgeStart(i) .. getEdgeStart(i+1)-1, so iterating over a node's edges
+ * reads a few adjacent array elements instead of following object references. As in Graph, edges are
+ * undirected and appear in the lists of both of their nodes.
+ *
+ * Along with the weight of each edge the graph stores its length, GraphUtils.weightToDist(weight),
+ * which is what shortest path computations use.
+ * @author brendan
+ *
+ */
+public class CompactGraph {
+
+	private final String[] labels;
+	private final Map<String, Integer> indexForLabel;
+	private final int[] edgeStart;
+	private final int[] targets;
+	private final double[] weights;
+	private final double[] lengths;
+
+	private CompactGraph(String[] labels, Map<String, Integer> indexForLabel, int[] edgeStart, int[] targets, double[] weights) {
+		this.labels = labels;
+		this.indexForLabel = indexForLabel;
+		this.edgeStart = edgeStart;
+		this.targets = targets;
+		this.weights = weights;
+		this.lengths = new double[weights.length];
+		for(int i=0; i<weights.length; i++)
+			lengths[i] = GraphUtils.weightToDist(weights[i]);
+	}
+
+	/**
+	 * Number of nodes in the graph
+	 * @return
+	 */
+	public int getNodeCount() {
+		return labels.length;
+	}
+
+	/**
+	 * Number of entries in the edge lists, which is twice the number of edges (except for
+	 * edges connecting a node to itself, which appear once)
+	 * @return
+	 */
+	public int getEdgeEntryCount() {
+		return targets.length;
+	}
+
+	public String getLabel(int node) {
+		return labels[node];
+	}
+
+	/**
+	 * Number of the node with the given label, or -1 if there's no such node
+	 * @param label
+	 * @return
+	 */
+	public int indexOf(String label) {
+		Integer index = indexForLabel.get(label);
+		return index == null ? -1 : index;
+	}
+
+	public int getEdgeStart(int node) {
+		return edgeStart[node];
+	}
+
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	public double getWeight(int edge) {
+		return weights[edge];
+	}
+
+	/**
+	 * The distance corresponding to the weight of the edge
+	 * @param edge
+	 * @return
+	 */
+	public double getLength(int edge) {
+		return lengths[edge];
+	}
+
+	/**
+	 * Build a CompactGraph with the same nodes and edges as the given graph. Nodes are numbered in the
+	 * order of g.getNodes()
+	 * @param g
+	 * @return
+	 */
+	public static CompactGraph fromGraph(Graph g) {
+		List<GraphNode> nodes = g.getNodes();
+		String[] labels = new String[nodes.size()];
+		Map<GraphNode, Integer> indexForNode = new HashMap<GraphNode, Integer>();
+		Map<String, Integer> indexForLabel = new HashMap<String, Integer>();
+		int entries = 0;
+		for(int i=0; i<labels.length; i++) {
+			GraphNode node = nodes.get(i);
+			labels[i] = node.getLabel();
+			indexForNode.put(node, i);
+			indexForLabel.put(labels[i], i);
+			entries += node.getNeighborCount();
+		}
+
+		int[] edgeStart = new int[labels.length + 1];
+		int[] targets = new int[entries];
+		double[] weights = new double[entries];
+		int e = 0;
+		for(int i=0; i<labels.length; i++) {
+			GraphNode node = nodes.get(i);
+			edgeStart[i] = e;
+			for(int j=0; j<node.getNeighborCount(); j++) {
+				GraphNode neighbor = node.getNeighbor(j);
+				targets[e] = indexForNode.get(neighbor);
+				weights[e] = node.getWeight(neighbor);
+				e++;
+			}
+		}
+		edgeStart[labels.length] = e;
+		return new CompactGraph(labels, indexForLabel, edgeStart, targets, weights);
+	}
+
+	/**
+	 * Collects nodes and edges for a CompactGraph without creating GraphNodes. Like
+	 * Graph.createNodesAndEdge, adding an edge between two nodes that are already connected
+	 * replaces the weight of the existing edge
+	 */
+	public static class Builder {
+
+		private final List<String> labels = new ArrayList<String>();
+		private final Map<String, Integer> indexForLabel = new HashMap<String, Integer>();
+		private final Map<Long, Integer> edgeForPair = new HashMap<Long, Integer>();
+		private int[] edgeA = new int[1024];
+		private int[] edgeB = new int[1024];
+		private double[] edgeWeight = new double[1024];
+		private int edges = 0;
+
+		/**
+		 * Number of the node with the given label, creating it if necessary
+		 * @param label
+		 * @return
+		 */
+		public int addNode(String label) {
+			Integer index = indexForLabel.get(label);
+			if (index == null) {
+				index = labels.size();
+				labels.add(label);
+				indexForLabel.put(label, index);
+			}
+			return index;
+		}
+
+		public void addEdge(String aLabel, String bLabel, double weight) {
+			int a = addNode(aLabel);
+			int b = addNode(bLabel);
+			long pair = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+			Integer edge = edgeForPair.get(pair);
+			if (edge != null) {
+				edgeWeight[edge] = weight;
+				return;
+			}
+
+			if (edges == edgeA.length) {
+				edgeA = Arrays.copyOf(edgeA, edges * 2);
+				edgeB = Arrays.copyOf(edgeB, edges * 2);
+				edgeWeight = Arrays.copyOf(edgeWeight, edges * 2);
+			}
+			edgeA[edges] = a;
+			edgeB[edges] = b;
+			edgeWeight[edges] = weight;
+			edgeForPair.put(pair, edges);
+			edges++;
+		}
+
+		public CompactGraph build() {
+			int n = labels.size();
+			int[] edgeStart = new int[n + 1];
+			for(int e=0; e<edges; e++) {
+				edgeStart[edgeA[e] + 1]++;
+				if (edgeB[e] != edgeA[e])
+					edgeStart[edgeB[e] + 1]++;
+			}
+			for(int i=0; i<n; i++)
+				edgeStart[i+1] += edgeStart[i];
+
+			int[] next = Arrays.copyOf(edgeStart, n);
+			int[] targets = new int[edgeStart[n]];
+			double[] weights = new double[edgeStart[n]];
+			for(int e=0; e<edges; e++) {
+				int a = edgeA[e];
+				int b = edgeB[e];
+				targets[next[a]] = b;
+				weights[next[a]++] = edgeWeight[e];
+				if (b != a) {
+					targets[next[b]] = a;
+					weights[next[b]++] = edgeWeight[e];
+				}
+			}
+			return new CompactGraph(labels.toArray(new String[n]), new HashMap<String, Integer>(indexForLabel), edgeStart, targets, weights);
+		}
+	}
+}
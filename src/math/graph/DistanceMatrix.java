@@ -0,0 +1,279 @@
+package math.graph;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import pipeline.Pipeline;
+
+/**
+ * Precomputed shortest path distances from some or all nodes of a gene interaction graph to every
+ * node, stored in a file that is memory-mapped when loaded. Since the graph is undirected the distance
+ * between a gene with a row and any other gene is a single lookup, so if all source genes of a panel have
+ * rows, the distance from every gene to the nearest source can be found without reading the graph or
+ * running any shortest path computations.
+ *
+ * The file starts with a header giving the size and modification time of the graph file the distances
+ * were computed from, so stale matrices are ignored. Then come the node number of each row and the
+ * distances as a row-major float matrix (unreachable nodes have infinite distance), and finally the
+ * node labels. Distances are stored as floats, so they match those computed by GraphUtils to about
+ * seven significant digits.
+ * @author brendan
+ *
+ */
+public class DistanceMatrix {
+
+	static final int MAGIC = 0x47444d31; //"GDM1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int ROWS_PER_PASS = 64; //Rows computed at once when writing a matrix
+	public static final String SUFFIX = ".distances";
+
+	private final int nodes;
+	private final int rows;
+	private final int[] rowForNode; //Row of each node, or -1 if it has none
+	private final FloatBuffer matrix;
+	private final String[] labels;
+	private final Map<String, Integer> indexForLabel;
+
+	/**
+	 * Default location of the matrix for the given graph file
+	 * @param graphFile
+	 * @return
+	 */
+	public static File defaultFileFor(File graphFile) {
+		return new File(graphFile.getAbsolutePath() + SUFFIX);
+	}
+
+	/**
+	 * Compute the distances from each of the row nodes to all nodes of the graph and write them to the
+	 * destination file, stamped with the size and modification time of the source graph file. Rows are
+	 * computed a few dozen at a time on the given number of threads
+	 * @param g Graph read from source
+	 * @param source File the graph was read from
+	 * @param rowNodes Node numbers to compute rows for
+	 * @param dest
+	 * @param threads
+	 * @throws IOException
+	 */
+	public static void write(CompactGraph g, File source, int[] rowNodes, File dest, int threads) throws IOException {
+		int n = g.getNodeCount();
+		byte[][] labels = new byte[n][];
+		long labelBytes = 0;
+		for(int i=0; i<n; i++) {
+			labels[i] = g.getLabel(i).getBytes("UTF-8");
+			labelBytes += 4 + labels[i].length;
+		}
+		//The whole file is mapped at once when it's loaded
+		if (HEADER_SIZE + 4L*rowNodes.length + 4L*n*rowNodes.length + labelBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A matrix of " + rowNodes.length + " x " + n + " distances is too large, compute distances for fewer genes");
+
+		File tmp = File.createTempFile(dest.getName(), ".tmp", dest.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4*rowNodes.length);
+			header.putInt(MAGIC).putInt(VERSION).putLong(source.length()).putLong(source.lastModified());
+			header.putInt(n).putInt(rowNodes.length);
+			for(int node : rowNodes)
+				header.putInt(node);
+			header.flip();
+			writeFully(channel, header);
+
+			ByteBuffer rowBytes = ByteBuffer.allocate(4*n);
+			for(int start=0; start<rowNodes.length; start+=ROWS_PER_PASS) {
+				int[] pass = Arrays.copyOfRange(rowNodes, start, Math.min(rowNodes.length, start + ROWS_PER_PASS));
+				double[][] dists = GraphUtils.shortestDistancesFromEach(g, pass, threads);
+				for(double[] row : dists) {
+					rowBytes.clear();
+					for(int i=0; i<n; i++)
+						rowBytes.putFloat((float)row[i]);
+					rowBytes.flip();
+					writeFully(channel, rowBytes);
+				}
+			}
+
+			for(byte[] label : labels) {
+				ByteBuffer labelBuf = ByteBuffer.allocate(4 + label.length);
+				labelBuf.putInt(label.length).put(label).flip();
+				writeFully(channel, labelBuf);
+			}
+			out.close();
+
+			if (dest.exists())
+				dest.delete();
+			if (! tmp.renameTo(dest))
+				throw new IOException("Could not move distance matrix to " + dest.getAbsolutePath());
+			written = true;
+		}
+		finally {
+			out.close();
+			if (! written)
+				tmp.delete();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	/**
+	 * Map the matrix in the given file, or return null if the file doesn't exist, is damaged, or wasn't
+	 * computed from the current version of the source graph file
+	 * @param file
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public static DistanceMatrix load(File file, File source) throws IOException {
+		if (! file.exists())
+			return null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Ignoring distance matrix " + file.getAbsolutePath() + ", it's too large to map");
+				return null;
+			}
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Ignoring " + file.getAbsolutePath() + ", it's not a distance matrix");
+				return null;
+			}
+			if (data.getLong(8) != source.length() || data.getLong(16) != source.lastModified()) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Ignoring distance matrix " + file.getAbsolutePath() + ", it was computed from a different version of " + source.getAbsolutePath());
+				return null;
+			}
+			int nodes = data.getInt(24);
+			int rows = data.getInt(28);
+			if (nodes < 0 || rows < 0 || rows > nodes || HEADER_SIZE + 4L*rows + 4L*nodes*rows + 4L*nodes > data.capacity()) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Ignoring distance matrix " + file.getAbsolutePath() + ", the file is truncated or damaged");
+				return null;
+			}
+			try {
+				return new DistanceMatrix(data);
+			}
+			catch (RuntimeException e) {
+				//Bad row numbers or label lengths
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Ignoring distance matrix " + file.getAbsolutePath() + ", the file is damaged : " + e);
+				return null;
+			}
+		}
+		finally {
+			raf.close(); //The mapping stays valid after the file is closed
+		}
+	}
+
+	private DistanceMatrix(ByteBuffer data) {
+		nodes = data.getInt(24);
+		rows = data.getInt(28);
+		rowForNode = new int[nodes];
+		Arrays.fill(rowForNode, -1);
+		for(int r=0; r<rows; r++)
+			rowForNode[data.getInt(HEADER_SIZE + 4*r)] = r;
+
+		int matrixStart = HEADER_SIZE + 4*rows;
+		ByteBuffer matrixBytes = data.duplicate();
+		matrixBytes.position(matrixStart);
+		matrixBytes.limit(matrixStart + 4*nodes*rows);
+		matrix = matrixBytes.slice().asFloatBuffer();
+
+		labels = new String[nodes];
+		indexForLabel = new HashMap<String, Integer>(nodes * 2);
+		int pos = matrixStart + 4*nodes*rows;
+		for(int i=0; i<nodes; i++) {
+			byte[] label = new byte[data.getInt(pos)];
+			ByteBuffer dup = data.duplicate();
+			dup.position(pos + 4);
+			dup.get(label);
+			pos += 4 + label.length;
+			try {
+				labels[i] = new String(label, "UTF-8");
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			indexForLabel.put(labels[i], i);
+		}
+	}
+
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public String getLabel(int node) {
+		return labels[node];
+	}
+
+	/**
+	 * Number of the node with the given label, or -1 if there's no such node
+	 * @param label
+	 * @return
+	 */
+	public int indexOf(String label) {
+		Integer index = indexForLabel.get(label);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * True if distances from this node to all others were computed
+	 * @param node
+	 * @return
+	 */
+	public boolean hasRow(int node) {
+		return rowForNode[node] >= 0;
+	}
+
+	/**
+	 * Distance between the two nodes, at least one of which must have a row
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public double getDistance(int a, int b) {
+		int row = rowForNode[a];
+		if (row < 0) {
+			row = rowForNode[b];
+			b = a;
+		}
+		if (row < 0)
+			throw new IllegalArgumentException("Neither " + labels[a] + " nor " + labels[b] + " has precomputed distances");
+		return matrix.get(row * nodes + b);
+	}
+
+	/**
+	 * Distance from each node to the nearest of the given sources, the same as GraphUtils.shortestDistances
+	 * computes (but at float precision). All sources must have rows
+	 * @param sources
+	 * @return
+	 */
+	public double[] distancesToNearest(int... sources) {
+		double[] dist = new double[nodes];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		for(int source : sources) {
+			int row = rowForNode[source];
+			if (row < 0)
+				throw new IllegalArgumentException("Node " + labels[source] + " has no precomputed distances");
+			int offset = row * nodes;
+			for(int i=0; i<nodes; i++) {
+				double d = matrix.get(offset + i);
+				if (d < dist[i])
+					dist[i] = d;
+			}
+		}
+		return dist;
+	}
+}
@@ -1,7 +1,9 @@
 package math.graph;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A collection of GraphNodes, some of which may be connected by a real-valued weight
@@ -11,6 +13,7 @@ import java.util.List;
 public class Graph {
 
 	protected List<GraphNode> nodes = new ArrayList<GraphNode>();
+	protected Map<String, GraphNode> nodesByLabel = new HashMap<String, GraphNode>();
 	
 	/**
 	 * Create a new node with no edges and the given label and add it to this graph
@@ -21,6 +24,7 @@ public class Graph {
 			throw new IllegalArgumentException("A node with label " + label + " already exists");
 		GenericGraphNode node = new GenericGraphNode(label);
 		nodes.add(node);
+		nodesByLabel.put(label, node);
 		return node;
 	}
 	
@@ -38,11 +42,7 @@ public class Graph {
 	 * @return
 	 */
 	public GraphNode getNodeForLabel(String label) {
-		for(GraphNode node : nodes) {
-			if (node.getLabel().equals(label))
-				return node;
-		}
-		return null;
+		return nodesByLabel.get(label);
 	}
 	
 	/**
@@ -78,4 +78,36 @@ public class GraphFactory {
 		return graph;
 	}
 	
+	/**
+	 * Construct a CompactGraph directly from a file in the same format as constructGraphFromFile,
+	 * without creating a GraphNode for each gene
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static CompactGraph constructCompactGraphFromFile(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		CompactGraph.Builder builder = new CompactGraph.Builder();
+		
+		String line = reader.readLine();
+		while(line != null) {
+			if (line.trim().length()==0 || line.startsWith("#")) {
+				line = reader.readLine();
+				continue;
+			}
+			
+			String[] toks = line.split("\t");
+			if (toks.length < 3) {
+				reader.close();
+				throw new IllegalArgumentException("Incorrect number of tokens on this line: " + line);
+			}
+			
+			builder.addEdge(toks[0].trim(), toks[1].trim(), Double.parseDouble(toks[2]));
+			line = reader.readLine();
+		}
+		reader.close();
+		
+		return builder.build();
+	}
+	
 }
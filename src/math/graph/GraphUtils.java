@@ -3,7 +3,13 @@ package math.graph;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Contains a handful of static methods for computing various statistics from a Graph
@@ -18,14 +24,14 @@ public class GraphUtils {
 	
 	/**
 	 * Use Dijkstra's algorithm to compute the shortest paths connecting all nodes in the graph
-	 * to the given source node 
+	 * to the given source node. The distance from each node reachable from the source is stored
+	 * in the node's "distance.to.<source>" annotation, and reachable nodes are marked as visited.
+	 * To compute distances for many sources, or without annotating the graph, build a CompactGraph
+	 * once and use shortestDistances() 
 	 * @param g
 	 */
 	public static void computeShortestPaths(Graph g, String sourceLabel) {
 		g.clearVisitedFlags();
-		List<GraphNode> unvisited = new ArrayList<GraphNode>(g.getNodeCount());
-		
-		unvisited.addAll(g.getNodes());
 		
 		String distanceKey = "distance.to." + sourceLabel;
 		
@@ -35,48 +41,172 @@ public class GraphUtils {
 			return;
 		}
 
-		unvisited.remove(source);
-		source.addAnnotation(distanceKey, 0.0);
-
-		GraphNode current = source;
-		
+		CompactGraph compact = CompactGraph.fromGraph(g);
+		double[] dists = shortestDistances(compact, compact.indexOf(sourceLabel));
+		List<GraphNode> nodes = g.getNodes();
+		for(int i=0; i<dists.length; i++) {
+			if (dists[i] < Double.POSITIVE_INFINITY) {
+				nodes.get(i).addAnnotation(distanceKey, dists[i]);
+				nodes.get(i).setVisited(true);
+			}
+		}
+	}
+	
+	/**
+	 * Compute the length of the shortest path from each node to the nearest of the given sources using
+	 * Dijkstra's algorithm with a binary heap, which takes O((V+E) log V) time. This is the same as the
+	 * minimum of the distances from each source, but takes a single pass. Nodes that can't be reached
+	 * from any source have distance Double.POSITIVE_INFINITY
+	 * @param g
+	 * @param sources Node numbers of the sources
+	 * @return Distance for each node number
+	 */
+	public static double[] shortestDistances(CompactGraph g, int... sources) {
+		int n = g.getNodeCount();
+		double[] dist = new double[n];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		DistanceHeap heap = new DistanceHeap(dist);
+		for(int source : sources) {
+			dist[source] = 0;
+			heap.update(source);
+		}
 		
-		while(current != null) {
-			Double thisDist = current.getAnnotation(distanceKey);
-			for(int i=0; i<current.getNeighborCount(); i++) {
-				GraphNode neighbor = current.getNeighbor(i);
-				if (neighbor.isVisited())
-					continue;
-				
-				Double currentDist = neighbor.getAnnotation(distanceKey);
-				Double proposedDist = thisDist + weightToDist(current.getWeight(neighbor));
-				if (proposedDist < 0.01)
-					System.out.println("Whoa, dist is : " + proposedDist + " weight is : " + current.getWeight(neighbor));
-				
-				if (currentDist == null || proposedDist < currentDist) {
-					neighbor.addAnnotation(distanceKey, proposedDist);
+		while(! heap.isEmpty()) {
+			int node = heap.poll();
+			double nodeDist = dist[node];
+			int end = g.getEdgeStart(node+1);
+			for(int e=g.getEdgeStart(node); e<end; e++) {
+				int target = g.getTarget(e);
+				double proposed = nodeDist + g.getLength(e);
+				if (proposed < dist[target]) {
+					dist[target] = proposed;
+					heap.update(target);
 				}
-				
 			}
-			
-			current.setVisited(true);
-			unvisited.remove(current);
-			//Next 'current' node is the unvisited one with the smallest distance found so far
-			current = null;
-			double minDist= Double.POSITIVE_INFINITY;
-			
-			for(GraphNode n : unvisited) {
-				Double dist = n.getAnnotation(distanceKey);
-				if (dist != null && dist < minDist) {
-					current = n;
-					minDist = dist;
-				}
+		}
+		return dist;
+	}
+	
+	/**
+	 * Compute the shortest path distances from each source separately, running up to the given number
+	 * of sources at once on separate threads
+	 * @param g
+	 * @param sources Node numbers of the sources
+	 * @param threads
+	 * @return One array of distances for each source, in the same order as the sources
+	 */
+	public static double[][] shortestDistancesFromEach(final CompactGraph g, int[] sources, int threads) {
+		double[][] dists = new double[sources.length][];
+		if (threads <= 1 || sources.length <= 1) {
+			for(int i=0; i<sources.length; i++)
+				dists[i] = shortestDistances(g, sources[i]);
+			return dists;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, sources.length));
+		try {
+			List<Future<double[]>> results = new ArrayList<Future<double[]>>(sources.length);
+			for(final int source : sources) {
+				results.add(pool.submit(new Callable<double[]>() {
+					public double[] call() {
+						return shortestDistances(g, source);
+					}
+				}));
 			}
+			for(int i=0; i<sources.length; i++)
+				dists[i] = results.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while computing shortest paths");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error computing shortest paths : " + e.getCause(), e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return dists;
+	}
+	
+	/**
+	 * A binary min-heap of node numbers ordered by their entries in a distance array, which keeps track
+	 * of where each node is so a node whose distance has dropped can be moved up in place
+	 */
+	static class DistanceHeap {
+		private final double[] dist;
+		private final int[] heap;
+		private final int[] pos; //Position of each node in heap, or -1 if it's not there
+		private int size = 0;
+		
+		DistanceHeap(double[] dist) {
+			this.dist = dist;
+			heap = new int[dist.length];
+			pos = new int[dist.length];
+			Arrays.fill(pos, -1);
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		/**
+		 * Add the node, or if it's already in the heap, move it to reflect its decreased distance
+		 * @param node
+		 */
+		void update(int node) {
+			int i = pos[node];
+			if (i < 0) {
+				i = size++;
+				heap[i] = node;
+				pos[node] = i;
+			}
+			siftUp(i);
+		}
+		
+		int poll() {
+			int top = heap[0];
+			pos[top] = -1;
+			size--;
+			if (size > 0) {
+				heap[0] = heap[size];
+				pos[heap[0]] = 0;
+				siftDown(0);
+			}
+			return top;
 		}
 		
-//		for(GraphNode node : g.getNodes()) {
-//			System.out.println("Node : " + node.getLabel() + " " + distanceKey + " : " + node.getAnnotation(distanceKey));
-//		}
+		private void siftUp(int i) {
+			int node = heap[i];
+			double d = dist[node];
+			while(i > 0) {
+				int parent = (i - 1) >> 1;
+				if (dist[heap[parent]] <= d)
+					break;
+				heap[i] = heap[parent];
+				pos[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = node;
+			pos[node] = i;
+		}
+		
+		private void siftDown(int i) {
+			int node = heap[i];
+			double d = dist[node];
+			while(true) {
+				int child = 2*i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && dist[heap[child+1]] < dist[heap[child]])
+					child++;
+				if (dist[heap[child]] >= d)
+					break;
+				heap[i] = heap[child];
+				pos[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = node;
+			pos[node] = i;
+		}
 	}
 	
 //	public static void main(String[] args) throws IOException {
@@ -6,7 +6,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -20,6 +24,8 @@ import pipeline.Pipeline;
  * of all genes. 
  *  Right now we write all information to the cache file every 10 cache misses, so if we're constantly missing
  * we write a lot, but if we we haven't downloaded any new info then we don't write much.
+ *  Callers that know which genes they'll ask for should call prefetchSummaries() first, which downloads
+ * all missing and expired summaries in a few batched requests and writes the cache once.
  *  
  * @author brendan
  *
@@ -28,13 +34,13 @@ public class CachedGeneSummaryDB {
 	
 	private Map<String, GeneSummary> map = null;
 	private String cacheFilePath = System.getProperty("user.home") + System.getProperty("file.separator") + ".geneinfocache"; 
-	private FetchGeneInfo fetcher = new FetchGeneInfo(); //Fetches gene summaries from ncbi
+	private EutilsClient client = EutilsClient.getClient(); //Fetches gene summaries from ncbi
     private GeneInfoDB geneInfo; //Stores symbol / refgene id information so we can look genes up by symbol
     
     public static int expirationDays = 90; // Force re-downloading of records older than a few months
     private int missesSinceLastWrite = 0; //Number of cache misses since last writeToFile
     
-    public static final int maxToDownload = 19; //Don't ever expire more than this number of records in any single run 
+    public static final int maxToDownload = 1000; //Don't ever expire more than this number of records in any single run 
     //public int newRecordsDownloaded = 0; //Number of new records so far downloaded
     
     private boolean prohibitNewDownloads = false; //If true, nothing new will be downloaded
@@ -65,6 +71,14 @@ public class CachedGeneSummaryDB {
 		this.prohibitNewDownloads = prohibitNewDownloads;
 	}
 
+	/**
+	 * Use the given client to download summaries, instead of the shared one
+	 * @param client
+	 */
+	public void setClient(EutilsClient client) {
+		this.client = client;
+	}
+
 	/**
 	 * Sets the expiration length of records in days. You should always follow 
 	 * this up with a call to buildMapFromFile(), which will discard the current info and
@@ -121,14 +135,11 @@ public class CachedGeneSummaryDB {
 			try {
 
 				System.out.println("Fetching summary from NCBI for gene : " + symbol);
-				GeneRecord rec = fetcher.fetchInfoForGene(id);
-				String summaryString = rec.getSummary();
-
-				summary= new GeneSummary();
-				summary.symbol = symbol;
-				summary.date = "" + System.currentTimeMillis();
-				summary.summary = summaryString;
-				map.put(symbol, summary);
+				List<GeneRecord> recs = client.fetchGenes(Collections.singletonList(id));
+				if (recs.isEmpty())
+					return null;
+				String summaryString = recs.get(0).getSummary();
+				putSummary(symbol, summaryString);
 				missesSinceLastWrite++;
 				if (missesSinceLastWrite > 20)
 					writeMapToFile();
@@ -142,6 +153,63 @@ public class CachedGeneSummaryDB {
 		
 	}
 	
+	/**
+	 * Download summaries for all of the given genes that aren't in the local cache, in batches, and write
+	 * the cache if anything new was found. Does nothing if new downloads are prohibited
+	 * @param syns Gene symbols or synonyms
+	 * @return Number of summaries downloaded
+	 */
+	public int prefetchSummaries(Collection<String> syns) {
+		if (prohibitNewDownloads)
+			return 0;
+		
+		Map<String, String> symbolsForIDs = new HashMap<String, String>();
+		for(String syn : syns) {
+			if (syn==null || syn.length()<2 || syn.length() > 8)
+				continue;
+			String symbol = geneInfo.symbolForSynonym(syn);
+			if (symbol == null || map.containsKey(symbol))
+				continue;
+			String id = geneInfo.idForSymbol(symbol);
+			if (id != null)
+				symbolsForIDs.put(id, symbol);
+		}
+		if (symbolsForIDs.isEmpty())
+			return 0;
+		
+		Logger.getLogger(Pipeline.primaryLoggerName).info("Fetching " + symbolsForIDs.size() + " gene summaries from NCBI");
+		int found = 0;
+		try {
+			List<GeneRecord> recs = client.fetchGenes(new ArrayList<String>(symbolsForIDs.keySet()));
+			for(GeneRecord rec : recs) {
+				String symbol = symbolsForIDs.get(rec.getGeneID());
+				if (symbol != null) {
+					putSummary(symbol, rec.getSummary());
+					found++;
+				}
+			}
+		} catch (IOException e) {
+			Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not fetch gene summaries : " + e.getMessage());
+		}
+		
+		if (found > 0) {
+			try {
+				writeMapToFile();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return found;
+	}
+	
+	private void putSummary(String symbol, String summaryString) {
+		GeneSummary summary = new GeneSummary();
+		summary.symbol = symbol;
+		summary.date = "" + System.currentTimeMillis();
+		summary.summary = summaryString;
+		map.put(symbol, summary);
+	}
+	
 	public void writeMapToFile() throws IOException {
 		System.out.println("Writing cached gene summaries to " + cacheFilePath);
 		if (map == null) //Map may not have been initialized
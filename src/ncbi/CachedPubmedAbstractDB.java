@@ -1,55 +1,63 @@
 package ncbi;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.SAXException;
-
 import pipeline.Pipeline;
 
 /**
  * Analagous to CachedGeneSUmmaryDB, this stores pubmed abstract information locally so we're not always
  * re-downloading it from ncbi, but grabs and stores new IDs as needed. Thus, the first lookup will be slow,
  * but all subsequent lookups should be very fast
+ * 
+ * Records are kept in a PubmedAbstractStore, which is memory-mapped when the db is created and to which
+ * newly downloaded records are appended, so there's no cache file to read in at startup or rewrite
+ * later. Lookups may happen on several threads at once. Missing records are downloaded in batches by an
+ * EutilsClient; while an id is being downloaded, other threads that want it wait for that download
+ * instead of starting another. An old text .pubmedcache file is imported into the store the first time
+ * it's opened.
  * @author brendan
  *
  */
 public class CachedPubmedAbstractDB {
 
-	private Map<Integer, PubMedRecord> map = null;
-	private Set<Integer> brokenIDs = new HashSet<Integer>(); //Stores IDs for which retrieving data 
-	private String cacheFilePath = System.getProperty("user.home") + System.getProperty("file.separator") + ".pubmedcache"; 
-	private PubMedFetcher fetcher = new PubMedFetcher(); //Fetches gene summaries from ncbi
+	public static final String STORE_NAME = ".pubmedstore";
+	public static final String OLD_CACHE_NAME = ".pubmedcache";
+	
+	private PubmedAbstractStore store = null;
+	private final Set<Integer> brokenIDs = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>()); //Stores IDs for which retrieving data failed
+	private final ConcurrentHashMap<Integer, PubMedRecord> unsaved = new ConcurrentHashMap<Integer, PubMedRecord>(); //Downloaded records we were asked not to write to the store
+	private final Map<Integer, CountDownLatch> pending = new HashMap<Integer, CountDownLatch>(); //Ids being downloaded, released when they're done
+	private String cacheFilePath = System.getProperty("user.home") + System.getProperty("file.separator") + STORE_NAME; 
+	private EutilsClient client = EutilsClient.getClient(); //Fetches abstracts from ncbi
     private GenePubMedDB genePubMed; //Stores gene-pubmed id mapping
-    private int missesSinceLastWrite = 0; //Number of cache misses since last writeToFile
     
     public static final String defaultDBPath = System.getProperty("user.home") + "/resources/gene2pubmed_human";
     
-    private boolean prohibitNewDownloads = false; //Prevent new downloads if true
+    private volatile boolean prohibitNewDownloads = false; //Prevent new downloads if true
     
     private static CachedPubmedAbstractDB db = null;
 
-    public static CachedPubmedAbstractDB getDB(String pathToPubmedDB) throws IOException {
+    public static synchronized CachedPubmedAbstractDB getDB(String pathToPubmedDB) throws IOException {
     	if (db == null) {
     		db = new CachedPubmedAbstractDB(pathToPubmedDB);
     	}
     	return db;
     }
     
-    public static CachedPubmedAbstractDB getDB() throws IOException {
+    public static synchronized CachedPubmedAbstractDB getDB() throws IOException {
     	if (db == null) {
     		db = new CachedPubmedAbstractDB(defaultDBPath);
     	}
@@ -63,11 +71,11 @@ public class CachedPubmedAbstractDB {
 	    genePubMed = new GenePubMedDB(new File(pathToGene2PubmedFile));
 	    File pubmedFile = new File(pathToGene2PubmedFile);
 	    File baseDir = pubmedFile.getParentFile(); 
-	    cacheFilePath = baseDir + System.getProperty("file.separator") + ".pubmedcache";
+	    cacheFilePath = baseDir + System.getProperty("file.separator") + STORE_NAME;
 	    
 	    logger.info("Creating pubmed cache from : " + pathToGene2PubmedFile + " and using cache in : " + cacheFilePath);
 	    
-		buildMapFromFile();
+		openStore(new File(baseDir, OLD_CACHE_NAME));
 		logger.info("..done initializing pubmed cache");
 	}
     
@@ -76,14 +84,14 @@ public class CachedPubmedAbstractDB {
 	}
 
 	/**
-	 * Get the number of entries in the map
+	 * Get the number of records in the cache
 	 * @return
 	 */
 	public int getMapSize() {
-		if (map == null)
+		if (store == null)
 			return 0;
 		else 
-			return map.size();
+			return store.size() + unsaved.size();
 	}
 	/**
 	 * Obtain a list of pubmed records for the given ids. If you're downloading lots of records
@@ -91,10 +99,18 @@ public class CachedPubmedAbstractDB {
 	 * @param pubmedIDs
 	 * @return 
 	 */
-	public synchronized List<PubMedRecord> getRecordForIDs(List<Integer> pubmedIDs) {
+	public List<PubMedRecord> getRecordForIDs(List<Integer> pubmedIDs) {
 		return getRecordForIDs(pubmedIDs, false);
 	}
 	
+	/**
+	 * Use the given client to download records, instead of the shared one
+	 * @param client
+	 */
+	public void setClient(EutilsClient client) {
+		this.client = client;
+	}
+	
 	/**
 	 * Whether or not we're set to download new records if there's not one in the local cache
 	 * @return
@@ -118,79 +134,128 @@ public class CachedPubmedAbstractDB {
 	 * @param disableCacheWrites If true we will not write newly downloaded records to local cache
 	 * @return 
 	 */
-	public synchronized List<PubMedRecord> getRecordForIDs(List<Integer> pubmedIDs, boolean disableCacheWrites) {
+	public List<PubMedRecord> getRecordForIDs(List<Integer> pubmedIDs, boolean disableCacheWrites) {
 		
-		//Make a list of all the ids we need to grab
-		List<Integer> idsToGrab = new ArrayList<Integer>();
-		for(Integer recID : pubmedIDs) {
-			if (! map.containsKey(recID) && (!brokenIDs.contains(recID))) {
-				idsToGrab.add(recID);
+		List<PubMedRecord> records = new ArrayList<PubMedRecord>(pubmedIDs.size());
+		List<Integer> idsToGrab = null;
+		for(Integer id : pubmedIDs) {
+			PubMedRecord rec = lookup(id);
+			if (rec != null) {
+				records.add(rec);
+			}
+			else if (! brokenIDs.contains(id)) {
+				if (idsToGrab == null)
+					idsToGrab = new ArrayList<Integer>();
+				idsToGrab.add(id);
 			}
 		}
 		
 		//Grab the list of ids in an efficient way
-		if ((! prohibitNewDownloads) && idsToGrab.size() > 0) {
-			int recordsDownloaded = forceFetchIDs(idsToGrab);
-			missesSinceLastWrite += recordsDownloaded;
-		}
-
-		
-		if (missesSinceLastWrite > 200 && (!disableCacheWrites)) {
-			try {
-				writeMapToFile();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		if ((! prohibitNewDownloads) && idsToGrab != null) {
+			fetchMissing(idsToGrab, disableCacheWrites);
+			
+			//Rebuild the list so records stay in the order requested
+			records.clear();
+			for(Integer id : pubmedIDs) {
+				PubMedRecord rec = lookup(id);
+				if (rec != null) {
+					records.add(rec);
+				}
 			}
 		}
 		
-		
-		List<PubMedRecord> records = new ArrayList<PubMedRecord>(pubmedIDs.size());
-		for(Integer id : pubmedIDs) {
-			PubMedRecord rec = map.get(id);
-			if (rec != null) {
-				records.add(rec);
-			}
-		}
 		return records;
 	}
 	
+	private PubMedRecord lookup(Integer pubmedID) {
+		PubMedRecord rec = store.get(pubmedID);
+		if (rec == null)
+			rec = unsaved.get(pubmedID);
+		return rec;
+	}
+	
 	/**
-	 * Forces re-downloading of all ids in the list. These are then added directly to the map
+	 * Download the ids that aren't already in the cache. Ids another thread is already downloading
+	 * are waited for rather than downloaded again. Ids that NCBI doesn't return are marked as broken,
+	 * but ids in batches that fail entirely are not, so they'll be tried again next time
 	 * @param pubmedIDs
+	 * @param disableCacheWrites
 	 */
-	private int forceFetchIDs(List<Integer> pubmedIDs) {
-		int recordsObtained = 0;
-
-		List<PubMedRecord> records;
+	private void fetchMissing(List<Integer> pubmedIDs, boolean disableCacheWrites) {
+		List<Integer> mine = new ArrayList<Integer>();
+		List<CountDownLatch> others = new ArrayList<CountDownLatch>();
+		CountDownLatch myLatch = new CountDownLatch(1);
+		synchronized(pending) {
+			for(Integer id : pubmedIDs) {
+				if (lookup(id) != null || brokenIDs.contains(id))
+					continue;
+				CountDownLatch latch = pending.get(id);
+				if (latch == null) {
+					pending.put(id, myLatch);
+					mine.add(id);
+				}
+				else if (! others.contains(latch)) {
+					others.add(latch);
+				}
+			}
+		}
+		
 		try {
-			records = fetcher.getPubMedRecordForIDs(pubmedIDs);
-			for(PubMedRecord rec : records) {
-				if (rec != null) {
-					map.put(rec.pubMedID, rec);
-					recordsObtained++;
+			List<Future<List<PubMedRecord>>> batches = client.submitPubMed(mine);
+			int batchSize = client.getBatchSize();
+			for(int i=0; i<batches.size(); i++) {
+				try {
+					addRecords(EutilsClient.getResult(batches.get(i)), disableCacheWrites);
+					for(Integer id : mine.subList(i*batchSize, Math.min(mine.size(), (i+1)*batchSize))) {
+						if (lookup(id) == null)
+							brokenIDs.add(id);
+					}
+				} catch (IOException e) {
+					Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not download pubmed records : " + e.getMessage());
 				}
 			}
-			
-			//We need to determine which, if any, IDs resulted in errors, so see if there are any ids in 
-			//the input list which are not associated with an entry in the map. These are all 'broken'
-			for(Integer id : pubmedIDs) {
-				if (! map.containsKey(id))
-					brokenIDs.add(id);
+		}
+		finally {
+			synchronized(pending) {
+				for(Integer id : mine)
+					pending.remove(id);
 			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (ParserConfigurationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (SAXException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			myLatch.countDown();
+		}
+		
+		try {
+			for(CountDownLatch latch : others)
+				latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Append the records to the store, or keep them in memory if cache writes are disabled or the
+	 * store can't be written
+	 * @return Number of non-null records
+	 */
+	private int addRecords(List<PubMedRecord> records, boolean disableCacheWrites) {
+		List<PubMedRecord> toAdd = new ArrayList<PubMedRecord>(records.size());
+		for(PubMedRecord rec : records) {
+			if (rec != null)
+				toAdd.add(rec);
 		}
 		
+		if (! disableCacheWrites) {
+			try {
+				store.append(toAdd);
+				return toAdd.size();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		
-		return recordsObtained;
+		for(PubMedRecord rec : toAdd) {
+			unsaved.put(rec.pubMedID, rec);
+		}
+		return toAdd.size();
 	}
 	
 	/**
@@ -200,8 +265,8 @@ public class CachedPubmedAbstractDB {
 	 * @param symbol
 	 * @return
 	 */
-	public synchronized PubMedRecord getRecordForID(Integer pubmedID) {
-		PubMedRecord rec = map.get(pubmedID);
+	public PubMedRecord getRecordForID(Integer pubmedID) {
+		PubMedRecord rec = lookup(pubmedID);
 		
 		//Sweet, cache hit. Return the info right away
 		if (rec != null) {
@@ -209,102 +274,86 @@ public class CachedPubmedAbstractDB {
 		}
 
 		if (! prohibitNewDownloads) {
-			try {
-				rec = fetcher.getPubMedRecordForID(pubmedID);
-
-				//Sanity check
-				if (!(rec.pubMedID == pubmedID)) {
-					throw new IllegalArgumentException("Obtained pubmedID does not match requested ID!");
-				}
-
-				map.put(pubmedID, rec);
-				missesSinceLastWrite++;
-				if (missesSinceLastWrite > 100)
-					writeMapToFile();
-				return rec;
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+			fetchMissing(Collections.singletonList(pubmedID), false);
+			return lookup(pubmedID);
 		}
 		return null;        
 		
 	}
 	
-	public synchronized void writeMapToFile() throws IOException {
-		//System.out.println("Writing cached gene summaries to " + cacheFilePath);
-		if (map == null) //Map may not have been initialized
-			return;
-		if (map.size() < 500) {
-			return; 
-		}
-		
-		File cache = new File(cacheFilePath);
-		if (!cache.exists()) {
-			try {
-				cache.createNewFile();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return;
-			}
-		}
-		
-		BufferedWriter writer = new BufferedWriter(new FileWriter(cache));
-		for(Integer id : map.keySet()) {
-			PubMedRecord sum = map.get(id);
-			writer.write(sum.toString() + "\n");
+	/**
+	 * Make sure all records added to the store are written to disk. Records are appended as they're
+	 * downloaded, so there's nothing else to write
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (store != null)
+			store.flush();
+	}
+	
+	/**
+	 * Close the store. The db can't be used afterwards
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (store != null) {
+			store.close();
+			store = null;
 		}
-		System.out.println("Wrote " + map.keySet().size() + " pubmed abstracts to cache");
-		writer.close();
-		missesSinceLastWrite = 0;
+		if (db == this)
+			db = null;
 	}
 	
-	public void buildMapFromFile() throws IOException {
-		map = new HashMap<Integer, PubMedRecord>();
-		//System.out.println("Initializing cached pubmed db");
-		File cache = new File(cacheFilePath);
-		if (!cache.exists()) {
-			try {
-				cache.createNewFile();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	/**
+	 * Open the store, and if it's empty and there's an old text cache file, import its records
+	 * @param oldCache
+	 * @throws IOException
+	 */
+	private void openStore(File oldCache) throws IOException {
+		store = new PubmedAbstractStore(new File(cacheFilePath));
+		if (store.size() > 0 || (! oldCache.exists()))
 			return;
-		}
 		
-		int expiredRecords = 0;
-		BufferedReader reader = new BufferedReader(new FileReader(cache));
-		String line = reader.readLine();
-		while(line != null) {
-			if (line.trim().length() == 0) {
+		List<PubMedRecord> records = new ArrayList<PubMedRecord>();
+		BufferedReader reader = new BufferedReader(new FileReader(oldCache));
+		try {
+			String line = reader.readLine();
+			while(line != null) {
+				if (line.trim().length() == 0) {
+					line = reader.readLine();
+					continue;
+				}
+
+				String[] toks = line.split("\t");
+				PubMedRecord rec = new PubMedRecord();
+				rec.pubMedID = Integer.parseInt(toks[0]);
+				rec.yearCreated = Integer.parseInt(toks[1]);
+				rec.title = toks[2];
+				rec.citation = toks[3];
+				rec.abs = toks[4];
+				records.add(rec);
+				if (records.size() == 10000) {
+					store.append(records);
+					records.clear();
+				}
 				line = reader.readLine();
-				continue;
 			}
-			
-			String[] toks = line.split("\t");
-			Integer id = Integer.parseInt(toks[0]);
-			Integer year = Integer.parseInt(toks[1]);
-			String title = toks[2];
-			String citation = toks[3];
-			String abs = toks[4];
-			
-			PubMedRecord rec = new PubMedRecord();
-			rec.pubMedID = id;
-			rec.yearCreated = year;
-			rec.title = title;
-			rec.citation = citation;
-			rec.abs = abs;
-			map.put(id, rec);
-			line = reader.readLine();
+			store.append(records);
+		}
+		finally {
+			reader.close();
 		}
-		System.out.println("Read in " + map.size() + " cached pubmed abstracts from cache");
+		
+		//Map the imported records instead of keeping them on the heap
+		store.close();
+		store = new PubmedAbstractStore(new File(cacheFilePath));
+		Logger.getLogger(Pipeline.primaryLoggerName).info("Imported " + store.size() + " pubmed abstracts from " + oldCache.getAbsolutePath());
 	}
 	
 	
 	public void finalize() {
 		try {
-			writeMapToFile();
+			flush();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -0,0 +1,314 @@
+package ncbi;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import pipeline.Pipeline;
+
+/**
+ * Fetches pubmed and gene records from NCBI eutils. Lists of ids are split into efetch batches, which are
+ * sent as POST requests on a small pool of threads so a few are in flight at once, and no more than a given
+ * number of requests are started per second (NCBI asks for at most 3 per second without an API key).
+ * Requests that fail with an I/O error or an HTTP 429 or 5xx response are retried a few times with increasing
+ * delays. Other HTTP errors (400, 414, etc.) mean the request itself is bad, so they fail immediately.
+ * Responses are parsed by EutilsXMLParser as they stream in.
+ *
+ * The base URL defaults to NCBI's, but may be set with the eutils.url system property or in the
+ * constructor, so that fetches can be pointed at a local stand-in for testing and benchmarking.
+ * @author brendan
+ *
+ */
+public class EutilsClient {
+
+	public static final String DEFAULT_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+	public static final String URL_PROPERTY = "eutils.url";
+	public static final int DEFAULT_BATCH_SIZE = 200;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 3;
+	public static final double DEFAULT_REQUESTS_PER_SECOND = 3.0;
+	public static final int DEFAULT_MAX_RETRIES = 4;
+	public static final long RETRY_DELAY_MS = 500; //Doubled after each failed attempt
+	public static final int TIMEOUT_MS = 60000;
+
+	private static EutilsClient defaultClient = null;
+
+	private final String baseURL;
+	private final int batchSize;
+	private final int maxRetries;
+	private final long requestIntervalNanos;
+	private final ExecutorService pool;
+	private long nextRequestTime = 0; //Earliest System.nanoTime() at which another request may start
+
+	/**
+	 * A shared client using the default settings, and the URL given by the eutils.url property if
+	 * it's set
+	 * @return
+	 */
+	public static synchronized EutilsClient getClient() {
+		if (defaultClient == null)
+			defaultClient = new EutilsClient(System.getProperty(URL_PROPERTY, DEFAULT_URL));
+		return defaultClient;
+	}
+
+	public EutilsClient(String baseURL) {
+		this(baseURL, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT, DEFAULT_REQUESTS_PER_SECOND, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Create a new client
+	 * @param baseURL eutils URL, to which efetch.fcgi is appended
+	 * @param batchSize Maximum number of ids per request
+	 * @param maxInFlight Maximum number of requests running at once
+	 * @param requestsPerSecond Maximum rate at which requests are started
+	 * @param maxRetries Number of times a failed request is retried before giving up
+	 */
+	public EutilsClient(String baseURL, int batchSize, int maxInFlight, double requestsPerSecond, int maxRetries) {
+		this.baseURL = baseURL.endsWith("/") ? baseURL : baseURL + "/";
+		this.batchSize = batchSize;
+		this.maxRetries = maxRetries;
+		this.requestIntervalNanos = (long)(1e9 / requestsPerSecond);
+		this.pool = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "eutils-fetch");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public String getBaseURL() {
+		return baseURL;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Start fetching pubmed records for the ids. The ids are split into consecutive batches of
+	 * getBatchSize() ids, and the returned list has one future per batch, in order
+	 * @param pubmedIDs
+	 * @return
+	 */
+	public List<Future<List<PubMedRecord>>> submitPubMed(List<Integer> pubmedIDs) {
+		List<Future<List<PubMedRecord>>> futures = new ArrayList<Future<List<PubMedRecord>>>();
+		for(int start=0; start<pubmedIDs.size(); start+=batchSize) {
+			final String ids = joinIDs(pubmedIDs.subList(start, Math.min(pubmedIDs.size(), start + batchSize)));
+			futures.add(pool.submit(new Callable<List<PubMedRecord>>() {
+				public List<PubMedRecord> call() throws Exception {
+					return fetch("pubmed", ids, new ResponseParser<PubMedRecord>() {
+						public List<PubMedRecord> parse(InputStream in) throws XMLStreamException {
+							return EutilsXMLParser.parsePubMed(in);
+						}
+					});
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Start fetching gene records for the NCBI gene ids, in batches as in submitPubMed
+	 * @param geneIDs
+	 * @return
+	 */
+	public List<Future<List<GeneRecord>>> submitGenes(List<String> geneIDs) {
+		List<Future<List<GeneRecord>>> futures = new ArrayList<Future<List<GeneRecord>>>();
+		for(int start=0; start<geneIDs.size(); start+=batchSize) {
+			final String ids = joinIDs(geneIDs.subList(start, Math.min(geneIDs.size(), start + batchSize)));
+			futures.add(pool.submit(new Callable<List<GeneRecord>>() {
+				public List<GeneRecord> call() throws Exception {
+					return fetch("gene", ids, new ResponseParser<GeneRecord>() {
+						public List<GeneRecord> parse(InputStream in) throws XMLStreamException {
+							return EutilsXMLParser.parseGenes(in);
+						}
+					});
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Fetch pubmed records for all the ids, waiting until all batches are done. Ids for which NCBI
+	 * has no record are left out
+	 * @param pubmedIDs
+	 * @return
+	 * @throws IOException If any batch fails after all retries
+	 */
+	public List<PubMedRecord> fetchPubMed(List<Integer> pubmedIDs) throws IOException {
+		return collect(submitPubMed(pubmedIDs));
+	}
+
+	/**
+	 * Fetch gene records for all the gene ids, waiting until all batches are done
+	 * @param geneIDs
+	 * @return
+	 * @throws IOException If any batch fails after all retries
+	 */
+	public List<GeneRecord> fetchGenes(List<String> geneIDs) throws IOException {
+		return collect(submitGenes(geneIDs));
+	}
+
+	/**
+	 * Stop the fetch threads. Any fetches not yet started are abandoned
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Wait for all futures and return all of their records
+	 */
+	public static <T> List<T> collect(List<Future<List<T>>> futures) throws IOException {
+		List<T> records = new ArrayList<T>();
+		try {
+			for(Future<List<T>> future : futures) {
+				records.addAll(getResult(future));
+			}
+		}
+		finally {
+			for(Future<List<T>> future : futures)
+				future.cancel(true);
+		}
+		return records;
+	}
+
+	/**
+	 * Wait for one batch, turning any failure into an IOException
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 */
+	public static <T> List<T> getResult(Future<List<T>> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for eutils fetch");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("Eutils fetch failed : " + e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * POST one efetch request and parse the response, retrying if anything goes wrong
+	 */
+	private <T> List<T> fetch(String db, String ids, ResponseParser<T> parser) throws IOException, InterruptedException {
+		String body = "db=" + db + "&id=" + ids + "&retmode=xml&tool=Pipeline";
+		long delay = RETRY_DELAY_MS;
+		for(int attempt=0; ; attempt++) {
+			waitForTurn();
+			try {
+				return post(body, parser);
+			}
+			catch (HttpStatusException e) {
+				if (attempt == maxRetries || (! e.isRetryable()))
+					throw e;
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Eutils request failed (" + e.getMessage() + "), retrying in " + delay + " ms");
+			}
+			catch (IOException e) {
+				if (attempt == maxRetries)
+					throw e;
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Eutils request failed (" + e.getMessage() + "), retrying in " + delay + " ms");
+			}
+			catch (XMLStreamException e) {
+				if (attempt == maxRetries)
+					throw new IOException("Could not parse eutils response : " + e.getMessage(), e);
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not parse eutils response (" + e.getMessage() + "), retrying in " + delay + " ms");
+			}
+			Thread.sleep(delay);
+			delay *= 2;
+		}
+	}
+
+	private <T> List<T> post(String body, ResponseParser<T> parser) throws IOException, XMLStreamException {
+		HttpURLConnection conn = (HttpURLConnection)new URL(baseURL + "efetch.fcgi").openConnection();
+		try {
+			conn.setConnectTimeout(TIMEOUT_MS);
+			conn.setReadTimeout(TIMEOUT_MS);
+			conn.setDoOutput(true);
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			OutputStream out = conn.getOutputStream();
+			out.write(body.getBytes("UTF-8"));
+			out.close();
+
+			int code = conn.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK)
+				throw new HttpStatusException(code, conn.getURL().toString());
+
+			InputStream in = new BufferedInputStream(conn.getInputStream());
+			try {
+				return parser.parse(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Block until another request may start, keeping requests at least requestIntervalNanos apart
+	 * @throws InterruptedException
+	 */
+	private synchronized void waitForTurn() throws InterruptedException {
+		long now = System.nanoTime();
+		long wait = nextRequestTime - now;
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+			now = nextRequestTime;
+		}
+		nextRequestTime = now + requestIntervalNanos;
+	}
+
+	private static String joinIDs(Collection<?> ids) {
+		StringBuilder strb = new StringBuilder();
+		for(Object id : ids) {
+			if (strb.length() > 0)
+				strb.append(",");
+			strb.append(id);
+		}
+		return strb.toString();
+	}
+
+	/**
+	 * An HTTP error response. Only 429 (too many requests) and server errors are worth retrying
+	 */
+	static class HttpStatusException extends IOException {
+		final int code;
+
+		HttpStatusException(int code, String url) {
+			super("HTTP " + code + " from " + url);
+			this.code = code;
+		}
+
+		boolean isRetryable() {
+			return code == 429 || code >= 500;
+		}
+	}
+
+	interface ResponseParser<T> {
+		public List<T> parse(InputStream in) throws XMLStreamException;
+	}
+}
@@ -0,0 +1,224 @@
+package ncbi;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the XML returned by eutils efetch into PubMedRecords and GeneRecords as the response streams
+ * in, without building a DOM document. The parser keeps track of the path of the current element and
+ * collects the text of the few elements we care about (including the text of any markup inside them,
+ * such as <i> in titles), so memory use doesn't depend on how many records are in the response.
+ *
+ * DTDs are not read, so parsing never reaches out to NCBI for the DOCTYPE's external DTD.
+ * @author brendan
+ *
+ */
+public class EutilsXMLParser {
+
+	static final String ARTICLE_SET = "PubmedArticleSet";
+	static final String PUBMED_ARTICLE = ARTICLE_SET + "/PubmedArticle";
+	static final String CITATION = PUBMED_ARTICLE + "/MedlineCitation";
+	static final String PMID = CITATION + "/PMID";
+	static final String JOURNAL = CITATION + "/Article/Journal";
+	static final String JOURNAL_TITLE = JOURNAL + "/Title";
+	static final String VOLUME = JOURNAL + "/JournalIssue/Volume";
+	static final String ISSUE = JOURNAL + "/JournalIssue/Issue";
+	static final String YEAR = JOURNAL + "/JournalIssue/PubDate/Year";
+	static final String TITLE = CITATION + "/Article/ArticleTitle";
+	static final String ABSTRACT_TEXT = CITATION + "/Article/Abstract/AbstractText";
+
+	static final String GENE_SET = "Entrezgene-Set";
+	static final String GENE = GENE_SET + "/Entrezgene";
+	static final String GENE_ID = GENE + "/Entrezgene_track-info/Gene-track/Gene-track_geneid";
+	static final String GENE_REF = GENE + "/Entrezgene_gene/Gene-ref";
+	static final String GENE_LOCUS = GENE_REF + "/Gene-ref_locus";
+	static final String GENE_DESC = GENE_REF + "/Gene-ref_desc";
+	static final String GENE_SUMMARY = GENE + "/Entrezgene_summary";
+
+	static final String[] PUBMED_FIELDS = new String[]{PMID, JOURNAL_TITLE, VOLUME, ISSUE, YEAR, TITLE, ABSTRACT_TEXT};
+	static final String[] GENE_FIELDS = new String[]{GENE_ID, GENE_LOCUS, GENE_DESC, GENE_SUMMARY};
+
+	private static final XMLInputFactory factory = createFactory();
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/**
+	 * Read all PubmedArticles from an efetch response for db=pubmed. Articles without a PMID are skipped
+	 * @param in
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	public static List<PubMedRecord> parsePubMed(InputStream in) throws XMLStreamException {
+		final List<PubMedRecord> records = new ArrayList<PubMedRecord>();
+		parse(in, ARTICLE_SET, PUBMED_ARTICLE, PUBMED_FIELDS, new RecordHandler() {
+			public void handle(Map<String, String> fields) {
+				PubMedRecord rec = toPubMedRecord(fields);
+				if (rec != null)
+					records.add(rec);
+			}
+		});
+		return records;
+	}
+
+	/**
+	 * Read all Entrezgenes from an efetch response for db=gene
+	 * @param in
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	public static List<GeneRecord> parseGenes(InputStream in) throws XMLStreamException {
+		final List<GeneRecord> records = new ArrayList<GeneRecord>();
+		parse(in, GENE_SET, GENE, GENE_FIELDS, new RecordHandler() {
+			public void handle(Map<String, String> fields) {
+				records.add(toGeneRecord(fields));
+			}
+		});
+		return records;
+	}
+
+	private static PubMedRecord toPubMedRecord(Map<String, String> fields) {
+		Integer id = parseInt(fields.get(PMID));
+		if (id == null)
+			return null;
+
+		Integer year = parseInt(fields.get(YEAR));
+		if (year == null)
+			year = -1;
+		String volume = valueOr(fields.get(VOLUME), "?");
+		String issue = valueOr(fields.get(ISSUE), "?");
+		String citation = fields.get(JOURNAL_TITLE) + " " + volume + ":" + issue + " (" + year + ")";
+
+		PubMedRecord rec = new PubMedRecord();
+		rec.pubMedID = id;
+		rec.yearCreated = year;
+		rec.title = valueOr(fields.get(TITLE), "?").replace("\t", " ");
+		rec.abs = valueOr(fields.get(ABSTRACT_TEXT), "?").replace("\t", " ");
+		rec.citation = citation;
+		return rec;
+	}
+
+	private static GeneRecord toGeneRecord(Map<String, String> fields) {
+		GeneRecord rec = new GeneRecord(valueOr(fields.get(GENE_LOCUS), "unknown"));
+		rec.setID(valueOr(fields.get(GENE_ID), "unknown"));
+		rec.setDescription(fields.get(GENE_DESC));
+		rec.setSummary(fields.get(GENE_SUMMARY));
+		return rec;
+	}
+
+	/**
+	 * Stream through the document, collecting the text of the given fields (elements, identified by path)
+	 * for each record element and passing them to the handler at the end of the record. Repeated fields
+	 * are joined with a space
+	 */
+	private static void parse(InputStream in, String rootName, String recordPath, String[] fieldPaths, RecordHandler handler) throws XMLStreamException {
+		XMLStreamReader reader;
+		synchronized(factory) { //Factories aren't guaranteed to be thread safe, readers are used by one thread
+			reader = factory.createXMLStreamReader(in);
+		}
+		try {
+			StringBuilder path = new StringBuilder();
+			int[] pathLengths = new int[64];
+			int depth = 0;
+			Map<String, String> fields = null;
+			String field = null; //Path of field we're collecting text for
+			int fieldDepth = 0;
+			StringBuilder text = new StringBuilder();
+
+			while(reader.hasNext()) {
+				int event = reader.next();
+				switch(event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (depth == pathLengths.length)
+						pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+					pathLengths[depth++] = path.length();
+					if (path.length() > 0)
+						path.append('/');
+					path.append(reader.getLocalName());
+
+					if (depth == 1 && (! rootName.equals(reader.getLocalName())))
+						throw new XMLStreamException("Expected a " + rootName + " document but found " + reader.getLocalName());
+					if (depth == 2 && pathEquals(path, recordPath))
+						fields = new HashMap<String, String>();
+					if (fields != null && field == null) {
+						for(String fieldPath : fieldPaths) {
+							if (pathEquals(path, fieldPath)) {
+								field = fieldPath;
+								fieldDepth = depth;
+								text.setLength(0);
+								break;
+							}
+						}
+					}
+					break;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (field != null)
+						text.append(reader.getText());
+					break;
+
+				case XMLStreamConstants.END_ELEMENT:
+					if (field != null && depth == fieldDepth) {
+						String prev = fields.get(field);
+						String value = text.toString().trim();
+						fields.put(field, prev == null ? value : prev + " " + value);
+						field = null;
+					}
+					if (depth == 2 && fields != null) {
+						handler.handle(fields);
+						fields = null;
+					}
+					path.setLength(pathLengths[--depth]);
+					break;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static boolean pathEquals(StringBuilder path, String target) {
+		if (path.length() != target.length())
+			return false;
+		for(int i=path.length()-1; i>=0; i--) {
+			if (path.charAt(i) != target.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static Integer parseInt(String str) {
+		if (str == null)
+			return null;
+		try {
+			return Integer.parseInt(str.trim());
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String valueOr(String value, String defaultValue) {
+		return value == null ? defaultValue : value;
+	}
+
+	interface RecordHandler {
+		public void handle(Map<String, String> fields);
+	}
+}
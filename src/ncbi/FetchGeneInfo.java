@@ -3,12 +3,9 @@ package ncbi;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.Collections;
+import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -17,7 +14,6 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 
 
@@ -30,8 +26,6 @@ import org.xml.sax.SAXException;
  */
 public class FetchGeneInfo {
 
-	final String eutilsURL = "http://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?";
-	
 	/**
 	 * Obtain an xml-style String representation of the document 
 	 * @return
@@ -55,21 +49,18 @@ public class FetchGeneInfo {
         return xmlString;
 	}
 	
-	public GeneRecord fetchInfoForGene(String geneID) throws IOException, SAXException, ParserConfigurationException, TransformerException {
-		//Grab information from NCBI using eutils
-		URL eutils = new URL(eutilsURL + "db=gene&id=" + geneID + "&retmode=xml");
-        URLConnection yc = eutils.openConnection();
-        
-        //Create an DOM xml document from the input stream... note that we do not do 
-        //any error checking here
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder;
-		builder = factory.newDocumentBuilder();
-		Document doc = builder.parse( yc.getInputStream() );
-				
-		//From the DOM document construct a gene record object
-        GeneRecord rec = GeneRecordParser.parse(doc);
-        return rec;
+	/**
+	 * Fetch the record for the gene with the given NCBI id, or null if there isn't one. This uses the
+	 * shared EutilsClient, use EutilsClient.fetchGenes to fetch many genes at once
+	 * @param geneID
+	 * @return
+	 * @throws IOException
+	 */
+	public GeneRecord fetchInfoForGene(String geneID) throws IOException {
+		List<GeneRecord> recs = EutilsClient.getClient().fetchGenes(Collections.singletonList(geneID));
+		if (recs.isEmpty())
+			return null;
+		return recs.get(0);
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -100,13 +91,13 @@ public class FetchGeneInfo {
 		CachedPubmedAbstractDB abstractCache = new CachedPubmedAbstractDB();
 		
 		PubMedRecord rec = abstractCache.getRecordForID(16343615);
-		System.out.println("Title: "  + rec.title);
-		System.out.println("Abstract: "  + rec.abs);
+		System.out.println("Title: "  + rec.getTitle());
+		System.out.println("Abstract: "  + rec.getAbstract());
 		System.out.println("Citation: "  + rec.getCitation());
 		
 		
 		
-		abstractCache.writeMapToFile();
+		abstractCache.flush();
 		
     }
 	
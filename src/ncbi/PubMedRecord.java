@@ -40,4 +40,23 @@ public class PubMedRecord {
 		public String getTitle() {
 			return title;
 		}
+		
+		/**
+		 * The title in lower case, for scoring. Records read from a PubmedAbstractStore return
+		 * a view of the stored lower case title rather than a new String
+		 * @return
+		 */
+		public CharSequence getLowerCaseTitle() {
+			String title = getTitle();
+			return title == null ? null : title.toLowerCase();
+		}
+		
+		/**
+		 * The abstract in lower case, for scoring
+		 * @return
+		 */
+		public CharSequence getLowerCaseAbstract() {
+			String abs = getAbstract();
+			return abs == null ? null : abs.toLowerCase();
+		}
 }
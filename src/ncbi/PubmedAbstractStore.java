@@ -0,0 +1,336 @@
+package ncbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import pipeline.Pipeline;
+
+/**
+ * An append-only binary file of pubmed records. The file is memory-mapped when it's opened and an index
+ * of pubmed id to record position is built by hopping over the record headers, which takes a few
+ * milliseconds even for several hundred thousand records, instead of parsing every record into an
+ * object. Records are decoded only when they're asked for, and their title and abstract are also stored
+ * in lower case as UTF-16 chars so they can be scored straight out of the mapped file without creating
+ * any Strings.
+ *
+ * New records are appended to the end of the file, so nothing is ever rewritten. Appends hold a lock on
+ * the file so several processes can share a store, and records appended after the store was opened are
+ * kept in memory until it's opened again. Lookups don't lock anything and may happen on any number of
+ * threads at once.
+ *
+ * Each record is an int giving the number of bytes that follow it, then the pubmed id, the year (or
+ * Integer.MIN_VALUE if unknown), the title, citation and abstract in UTF-8, and the lower case title and
+ * abstract in UTF-16. Each string is preceded by its length in bytes, or -1 if it's null. A record cut
+ * short by a crash is removed the next time the store is opened.
+ * @author brendan
+ *
+ */
+public class PubmedAbstractStore {
+
+	static final int MAGIC = 0x504d5331; //"PMS1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int MAX_SEGMENT = 1 << 30; //Files are mapped in pieces no bigger than this
+	static final String UTF8 = "UTF-8";
+	static final String UTF16 = "UTF-16BE";
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer[] segments;
+	private final int[] ids; //Sorted pubmed ids of mapped records
+	private final int[] recordSegment; //Segment holding the record with ids[i]
+	private final int[] recordPos; //Position of the record with ids[i] in its segment
+	private final ConcurrentHashMap<Integer, PubMedRecord> appended = new ConcurrentHashMap<Integer, PubMedRecord>();
+
+	/**
+	 * Open the store in the given file, creating it if it doesn't exist
+	 * @param file
+	 * @throws IOException
+	 */
+	public PubmedAbstractStore(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+
+		List<ByteBuffer> segmentList = new ArrayList<ByteBuffer>();
+		List<long[]> found = new ArrayList<long[]>();
+		FileLock lock = channel.lock();
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				channel.truncate(0);
+				channel.write(header, 0);
+			}
+
+			long size = channel.size();
+			ByteBuffer first = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (first.getInt(0) != MAGIC || first.getInt(4) != VERSION)
+				throw new IOException("File " + file.getAbsolutePath() + " is not a pubmed abstract store");
+
+			//Map the file a segment at a time, starting a new segment at the first record that doesn't fit
+			long segStart = HEADER_SIZE;
+			long end = HEADER_SIZE;
+			while(segStart < size) {
+				ByteBuffer seg = channel.map(FileChannel.MapMode.READ_ONLY, segStart, Math.min(size - segStart, MAX_SEGMENT));
+				int pos = 0;
+				while(pos + 8 <= seg.capacity()) {
+					int length = seg.getInt(pos);
+					if (length < 4 || (long)pos + 4 + length > seg.capacity())
+						break;
+					found.add(new long[]{seg.getInt(pos + 4), segmentList.size(), pos});
+					pos += 4 + length;
+				}
+				if (pos == 0)
+					break; //Not even one whole record left, the rest is a partial write
+				segmentList.add(seg);
+				end = segStart + pos;
+				segStart = end;
+			}
+			if (end < size) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Removing " + (size - end) + " bytes of incomplete record(s) from the end of " + file.getAbsolutePath());
+				channel.truncate(end);
+			}
+		}
+		finally {
+			lock.release();
+		}
+
+		segments = segmentList.toArray(new ByteBuffer[segmentList.size()]);
+
+		//Sort by id, and among records with the same id keep the one appended last
+		long[] keys = new long[found.size()];
+		for(int i=0; i<keys.length; i++)
+			keys[i] = (found.get(i)[0] << 32) | i;
+		Arrays.sort(keys);
+		int unique = 0;
+		for(int i=0; i<keys.length; i++) {
+			if (i+1 == keys.length || (keys[i] >> 32) != (keys[i+1] >> 32))
+				keys[unique++] = keys[i];
+		}
+		ids = new int[unique];
+		recordSegment = new int[unique];
+		recordPos = new int[unique];
+		for(int i=0; i<unique; i++) {
+			long[] rec = found.get((int)(keys[i] & 0xffffffffL));
+			ids[i] = (int)rec[0];
+			recordSegment[i] = (int)rec[1];
+			recordPos[i] = (int)rec[2];
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Number of distinct records in the store
+	 * @return
+	 */
+	public int size() {
+		return ids.length + appended.size();
+	}
+
+	public boolean contains(int pubmedID) {
+		return Arrays.binarySearch(ids, pubmedID) >= 0 || appended.containsKey(pubmedID);
+	}
+
+	/**
+	 * Obtain the record with the given id, or null if there isn't one in the store
+	 * @param pubmedID
+	 * @return
+	 */
+	public PubMedRecord get(int pubmedID) {
+		PubMedRecord rec = appended.get(pubmedID);
+		if (rec != null)
+			return rec;
+		int index = Arrays.binarySearch(ids, pubmedID);
+		if (index < 0)
+			return null;
+		return new StoredRecord(segments[recordSegment[index]], recordPos[index]);
+	}
+
+	/**
+	 * Append the records to the end of the file in a single write. Records already in the
+	 * store are skipped
+	 * @param records
+	 * @throws IOException
+	 */
+	public void append(List<PubMedRecord> records) throws IOException {
+		List<PubMedRecord> toWrite = new ArrayList<PubMedRecord>(records.size());
+		int bytes = 0;
+		List<byte[]> encoded = new ArrayList<byte[]>(records.size());
+		for(PubMedRecord rec : records) {
+			if (rec == null || contains(rec.pubMedID))
+				continue;
+			byte[] data = encode(rec);
+			encoded.add(data);
+			toWrite.add(rec);
+			bytes += data.length;
+		}
+		if (toWrite.isEmpty())
+			return;
+
+		ByteBuffer buf = ByteBuffer.allocate(bytes);
+		for(byte[] data : encoded)
+			buf.put(data);
+		buf.flip();
+
+		synchronized(this) {
+			FileLock lock = channel.lock();
+			try {
+				long pos = channel.size();
+				while(buf.hasRemaining())
+					pos += channel.write(buf, pos);
+			}
+			finally {
+				lock.release();
+			}
+		}
+		for(PubMedRecord rec : toWrite)
+			appended.put(rec.pubMedID, rec);
+	}
+
+	/**
+	 * Make sure everything appended so far is on disk
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		channel.force(false);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		raf.close();
+	}
+
+	/**
+	 * The record in the store's format, including the leading length
+	 */
+	static byte[] encode(PubMedRecord rec) throws UnsupportedEncodingException {
+		String title = rec.getTitle();
+		String abs = rec.getAbstract();
+		byte[][] strings = new byte[][]{ bytes(title, UTF8),
+										 bytes(rec.getCitation(), UTF8),
+										 bytes(abs, UTF8),
+										 bytes(title == null ? null : title.toLowerCase(), UTF16),
+										 bytes(abs == null ? null : abs.toLowerCase(), UTF16) };
+		int length = 8;
+		for(byte[] str : strings)
+			length += 4 + (str == null ? 0 : str.length);
+
+		ByteBuffer buf = ByteBuffer.allocate(4 + length);
+		buf.putInt(length);
+		buf.putInt(rec.pubMedID);
+		buf.putInt(rec.yearCreated == null ? Integer.MIN_VALUE : rec.yearCreated);
+		for(byte[] str : strings) {
+			if (str == null) {
+				buf.putInt(-1);
+			}
+			else {
+				buf.putInt(str.length);
+				buf.put(str);
+			}
+		}
+		return buf.array();
+	}
+
+	private static byte[] bytes(String str, String charset) throws UnsupportedEncodingException {
+		return str == null ? null : str.getBytes(charset);
+	}
+
+	/**
+	 * A record read from the mapped file. Strings are decoded the first time they're asked for, and the
+	 * lower case title and abstract are views of the mapped file
+	 */
+	static class StoredRecord extends PubMedRecord {
+
+		private final ByteBuffer seg;
+		private final int[] stringStart = new int[5]; //Position of each string's length in seg
+
+		StoredRecord(ByteBuffer seg, int pos) {
+			this.seg = seg;
+			pubMedID = seg.getInt(pos + 4);
+			int year = seg.getInt(pos + 8);
+			yearCreated = year == Integer.MIN_VALUE ? null : year;
+			int p = pos + 12;
+			for(int i=0; i<stringStart.length; i++) {
+				stringStart[i] = p;
+				p += 4 + Math.max(0, seg.getInt(p));
+			}
+		}
+
+		private String decode(int which) {
+			int length = seg.getInt(stringStart[which]);
+			if (length < 0)
+				return null;
+			byte[] bytes = new byte[length];
+			ByteBuffer dup = seg.duplicate();
+			dup.position(stringStart[which] + 4);
+			dup.get(bytes);
+			try {
+				return new String(bytes, UTF8);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private CharBuffer view(int which) {
+			int length = seg.getInt(stringStart[which]);
+			if (length < 0)
+				return null;
+			ByteBuffer dup = seg.duplicate();
+			dup.position(stringStart[which] + 4);
+			dup.limit(stringStart[which] + 4 + length);
+			return dup.slice().asCharBuffer();
+		}
+
+		@Override
+		public String getTitle() {
+			if (title == null)
+				title = decode(0);
+			return title;
+		}
+
+		@Override
+		public String getCitation() {
+			if (citation == null)
+				citation = decode(1);
+			return citation;
+		}
+
+		@Override
+		public String getAbstract() {
+			if (abs == null)
+				abs = decode(2);
+			return abs;
+		}
+
+		@Override
+		public CharSequence getLowerCaseTitle() {
+			return view(3);
+		}
+
+		@Override
+		public CharSequence getLowerCaseAbstract() {
+			return view(4);
+		}
+
+		@Override
+		public String toString() {
+			return pubMedID + "\t" + yearCreated + "\t" + getTitle() + "\t" + getCitation() + "\t" + getAbstract();
+		}
+	}
+}
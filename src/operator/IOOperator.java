@@ -3,12 +3,21 @@ package operator;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Logger;
+
+import operator.process.ProcessPipeline;
+import operator.process.ProcessStats;
+import operator.remote.ExecutionBackend;
+import operator.remote.JobResult;
+import operator.remote.RemoteJob;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import pipeline.Pipeline;
 import pipeline.PipelineObject;
+import pipeline.ResourceScheduler;
 import buffer.FastQFile;
 import buffer.FileBuffer;
 import buffer.ReferenceFile;
@@ -24,6 +33,9 @@ import buffer.ReferenceFile;
  */
 public abstract class IOOperator extends Operator {
 
+	public static final String TIMEOUT = "timeout"; //Max time in seconds external commands may run
+	public static final String CPUS = "cpus"; //CPUs used by each external command, if not given these are estimated from the command
+	public static final String MEMORY = "memory"; //Megabytes of memory used by each external command
 	
 	protected List<FileBuffer> inputBuffers = new ArrayList<FileBuffer>();
 	protected List<FileBuffer> outputBuffers = new ArrayList<FileBuffer>();
@@ -36,6 +48,22 @@ public abstract class IOOperator extends Operator {
 		outputBuffers.add(buff);
 	}
 	
+	/**
+	 * Obtain the list of all buffers this operator reads from
+	 * @return
+	 */
+	public List<FileBuffer> getInputBuffers() {
+		return inputBuffers;
+	}
+	
+	/**
+	 * Obtain the list of all buffers this operator writes to
+	 * @return
+	 */
+	public List<FileBuffer> getOutputBuffers() {
+		return outputBuffers;
+	}
+	
 	public boolean requiresReference() {
 		return false;
 	}
@@ -173,41 +201,145 @@ public abstract class IOOperator extends Operator {
 	 * @throws OperationFailedException
 	 */
 	protected void executeCommand(final String command) throws OperationFailedException {
-		Runtime r = Runtime.getRuntime();
-		final Process p;
-
+		//Processes that emit tons of data to their error stream can hang if the data isn't read. Since BWA and
+		//samtools both have the potential to do this the error stream is always read and copied to System.err,
+		//and its last part is kept for the error message
+		runProcessPipeline(new ProcessPipeline(command));
+	}
+	
+	/**
+	 * Run the given pipeline of processes with the timeout from the TIMEOUT attribute (if any), log the
+	 * resources used by each process, and throw an OperationFailedException with the end of the standard
+	 * error of the failed process if any process exits with a nonzero value or the timeout passes 
+	 * @param pipe
+	 * @return
+	 * @throws OperationFailedException
+	 */
+	protected List<ProcessStats> runProcessPipeline(ProcessPipeline pipe) throws OperationFailedException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		pipe.setTimeout(getTimeoutMillis());
+		
+		List<ProcessStats> stats;
+		ResourceScheduler.Lease lease = null;
 		try {
-			p = r.exec(command);
-			
-			//Weirdly, processes that emits tons of data to their error stream can cause some kind of 
-			//system hang if the data isn't read. Since BWA and samtools both have the potential to do this
-			//we by default capture the error stream here and write it to System.err to avoid hangs. s
-			final Thread errConsumer = new StringPipeHandler(p.getErrorStream(), System.err);
-			errConsumer.start();
-			
-			//If runtime is going down, destroy the process so it won't become orphaned
-			Runtime.getRuntime().addShutdownHook(new Thread() {
-				public void run() {
-					//System.err.println("Invoking shutdown thread, destroying task with command : " + command);
-					p.destroy();
-					errConsumer.interrupt();
-				}
-			});
-
-			
-			
-			try {
-				if (p.waitFor() != 0) {
-					throw new OperationFailedException("Task terminated with nonzero exit value : " + System.err.toString() + " command was: " + command, this);
-				}
-			} catch (InterruptedException e) {
-				throw new OperationFailedException("Task was interrupted : " + System.err.toString() + "\n" + e.getLocalizedMessage(), this);
+			ResourceScheduler resources = getResourceScheduler();
+			if (resources != null) {
+				int cpus = getCommandCPUs(pipe);
+				long memoryMB = getCommandMemoryMB(pipe);
+				if (cpus > resources.getFreeCPUs() || memoryMB > resources.getFreeMemoryMB())
+					logger.info("Operator " + getObjectLabel() + " is waiting for " + cpus + " CPUs and " + memoryMB + " MB memory to run command: " + pipe);
+				lease = resources.acquire(cpus, memoryMB);
 			}
-
-			
+			stats = pipe.run();
+		} catch (IOException e) {
+			throw new OperationFailedException("Task encountered an IO exception : " + e.getLocalizedMessage() + " command was: " + pipe, this);
+		} catch (InterruptedException e) {
+			throw new OperationFailedException("Task was interrupted : " + e.getLocalizedMessage() + " command was: " + pipe, this);
+		}
+		finally {
+			if (lease != null)
+				lease.release();
+		}
+		
+		for(ProcessStats stat : stats) {
+			logger.info("Operator " + getObjectLabel() + " process finished, " + stat);
+		}
+		
+		if (pipe.isTimedOut()) {
+			throw new OperationFailedException("Task did not complete within " + getAttribute(TIMEOUT) + " seconds, command was: " + pipe, this);
+		}
+		ProcessStats failure = pipe.getFailure();
+		if (failure != null) {
+			throw new OperationFailedException("Task terminated with nonzero exit value " + failure.getExitValue() + ", command was: " + failure.getCommand() + "\n" + failure.getErrorTail(), this);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Run the job on the given backend, log the resources used by each process and the worker that ran
+	 * it, and throw an OperationFailedException if it couldn't be run, failed or timed out, in the same
+	 * way as runProcessPipeline(...)
+	 * @param backend
+	 * @param job
+	 * @return
+	 * @throws OperationFailedException
+	 */
+	protected JobResult runRemoteJob(ExecutionBackend backend, RemoteJob job) throws OperationFailedException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		
+		JobResult result;
+		try {
+			result = backend.run(job);
+		} catch (IOException e) {
+			throw new OperationFailedException("Task could not be run by any worker : " + e.getLocalizedMessage(), this);
+		} catch (InterruptedException e) {
+			throw new OperationFailedException("Task was interrupted : " + e.getLocalizedMessage() + " command was: " + job, this);
+		}
+		
+		for(ProcessStats stat : result.getStats()) {
+			logger.info("Operator " + getObjectLabel() + " process finished on worker " + result.getWorkerName() + ", " + stat);
+		}
+		
+		if (result.getError() != null) {
+			throw new OperationFailedException("Task could not be run on worker " + result.getWorkerName() + " : " + result.getError() + " command was: " + job, this);
+		}
+		if (result.isTimedOut()) {
+			throw new OperationFailedException("Task did not complete within " + getAttribute(TIMEOUT) + " seconds, command was: " + job, this);
+		}
+		ProcessStats failure = result.getFailure();
+		if (failure != null) {
+			throw new OperationFailedException("Task terminated with nonzero exit value " + failure.getExitValue() + " on worker " + result.getWorkerName() + ", command was: " + failure.getCommand() + "\n" + failure.getErrorTail(), this);
+		}
+		return result;
+	}
+	
+	/**
+	 * Number of CPUs the given pipeline of commands will use, which is the value of the CPUS attribute
+	 * if it's set, otherwise the sum of the thread counts found in the commands' options
+	 * @param pipe
+	 * @return
+	 */
+	protected int getCommandCPUs(ProcessPipeline pipe) {
+		String cpuStr = getAttribute(CPUS);
+		if (cpuStr != null)
+			return Integer.parseInt(cpuStr);
+		int cpus = 0;
+		for(String command : pipe.getCommandStrings()) {
+			cpus += ResourceScheduler.estimateCPUs(command);
+		}
+		return cpus;
+	}
+	
+	/**
+	 * Megabytes of memory the given pipeline of commands will use, which is the value of the MEMORY
+	 * attribute if it's set, otherwise the sum of the java heap sizes found in the commands
+	 * @param pipe
+	 * @return
+	 */
+	protected long getCommandMemoryMB(ProcessPipeline pipe) {
+		String memStr = getAttribute(MEMORY);
+		if (memStr != null)
+			return Long.parseLong(memStr);
+		long memoryMB = 0;
+		for(String command : pipe.getCommandStrings()) {
+			memoryMB += ResourceScheduler.estimateMemoryMB(command);
+		}
+		return memoryMB;
+	}
+	
+	/**
+	 * The value of the TIMEOUT attribute, which is in seconds, in milliseconds, or 0 if it's not set
+	 * @return
+	 */
+	protected long getTimeoutMillis() {
+		String timeoutStr = getAttribute(TIMEOUT);
+		if (timeoutStr == null)
+			return 0;
+		try {
+			return (long)(Double.parseDouble(timeoutStr) * 1000.0);
 		}
-		catch (IOException e1) {
-			throw new OperationFailedException("Task encountered an IO exception : " + System.err.toString() + "\n" + e1.getLocalizedMessage(), this);
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Could not parse timeout value from : " + timeoutStr);
 		}
 	}
 	
@@ -1,13 +1,21 @@
 package operator;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import operator.remote.ExecutionBackend;
+import operator.remote.RemoteJob;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -36,10 +44,14 @@ public abstract class MultiOperator extends IOOperator {
 	
 	public static final String threads = "threads";
 	public static final String checkcontigs = "checkcontigs";
+	public static final String failfast = "failfast";
 	
 	//If true, make sure that all contigs (except y) are present in input and output files
 	protected boolean checkContigs = false;
 	
+	//If true, cancel all other tasks as soon as one fails
+	protected boolean failFast = true;
+	
 	public MultiOperator() {
 		
 	}
@@ -52,6 +64,18 @@ public abstract class MultiOperator extends IOOperator {
 		outputFiles.addFile(outputFile);
 	}
 	
+	/**
+	 * Output buffers for a MultiOperator also include the output MultiFileBuffer, which
+	 * is not stored in the outputBuffers list
+	 */
+	@Override
+	public List<FileBuffer> getOutputBuffers() {
+		List<FileBuffer> buffers = new ArrayList<FileBuffer>(outputBuffers);
+		if (outputFiles != null)
+			buffers.add(outputFiles);
+		return buffers;
+	}
+	
 	protected abstract String[] getCommand(FileBuffer inputBuffer) throws OperationFailedException;
 	
 	/**
@@ -103,33 +127,11 @@ public abstract class MultiOperator extends IOOperator {
 			FileBuffer inputBuffer = inputFiles.getFile(i);
 			String command[] = getCommand(inputBuffer);
 			if (command != null) {
-				TaskOperator task = new TaskOperator(command, logger);
-				jobs.add(task);
-				threadPool.submit(task);
+				jobs.add(new TaskOperator(command, logger, inputBuffer));
 			}
 		}
 		
-		try {
-			logger.info("All tasks have been submitted to multioperator " + getObjectLabel() + ", now awaiting termination...");
-			threadPool.shutdown(); //No new tasks will be submitted,
-			threadPool.awaitTermination(7, TimeUnit.DAYS); //Wait until all tasks have completed
-			
-			//Check for errors
-			boolean allOK = true;
-			for(TaskOperator job : jobs) {
-				if (job.isError()) {
-					allOK = false;
-					logger.severe("Parallel task in operator " + getObjectLabel() + " encountered error: " + job.getException());
-				}
-			}
-			if (!allOK) {
-				throw new OperationFailedException("One or more tasks in parallel operator " + getObjectLabel() + " encountered an error.", this);
-			}
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
+		runTasks(jobs, logger);
 		
 		if (outputFiles != null && checkContigs) {
 			checkOutputContigs();
@@ -143,6 +145,119 @@ public abstract class MultiOperator extends IOOperator {
 
 	}
 
+	/**
+	 * Run all of the given tasks in the thread pool and return when they have all completed. Tasks are started
+	 * in order of decreasing input file size, so the longest tasks don't end up running alone at the end, and
+	 * are checked as soon as they finish. If failFast is true (the default) the first task to fail causes
+	 * all other tasks to be cancelled, which interrupts them and destroys any processes they're running,
+	 * otherwise all tasks are allowed to finish. In either case an OperationFailedException is thrown
+	 * if any task failed.
+	 * @param jobs
+	 * @param logger
+	 * @throws OperationFailedException
+	 */
+	protected void runTasks(List<TaskOperator> jobs, Logger logger) throws OperationFailedException {
+		if (threadPool == null || threadPool.isShutdown())
+			threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount() );
+		
+		//When tasks run on workers there should be a thread to wait for each worker
+		ExecutionBackend backend = getExecutionBackend();
+		if (backend != null && threadPool.getMaximumPoolSize() < backend.getCapacity()) {
+			threadPool.setMaximumPoolSize(backend.getCapacity());
+			threadPool.setCorePoolSize(backend.getCapacity());
+		}
+		
+		List<TaskOperator> ordered = new ArrayList<TaskOperator>(jobs);
+		Collections.sort(ordered, new Comparator<TaskOperator>() {
+			public int compare(TaskOperator a, TaskOperator b) {
+				long diff = b.getInputSize() - a.getInputSize();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		});
+		
+		ExecutorCompletionService<TaskOperator> completions = new ExecutorCompletionService<TaskOperator>(threadPool);
+		List<Future<TaskOperator>> futures = new ArrayList<Future<TaskOperator>>();
+		for(TaskOperator task : ordered) {
+			futures.add(completions.submit(task, task));
+		}
+		threadPool.shutdown(); //No new tasks will be submitted
+		logger.info("All " + jobs.size() + " tasks have been submitted to multioperator " + getObjectLabel() + ", now awaiting completion...");
+		
+		TaskOperator failed = null;
+		int completed = 0;
+		try {
+			while(completed < ordered.size()) {
+				TaskOperator task;
+				try {
+					task = completions.take().get();
+				} catch (ExecutionException e) {
+					//TaskOperators catch their own exceptions, so this is something unexpected like an Error
+					throw new OperationFailedException("Task in operator " + getObjectLabel() + " encountered an unexpected error: " + e.getCause(), this);
+				}
+				completed++;
+				
+				if (task.isError()) {
+					logger.severe("Parallel task in operator " + getObjectLabel() + " encountered error after " + ElapsedTimeFormatter.getElapsedTime(task.getStartTime(), task.getEndTime()) + " : " + task.getException());
+					if (failed == null)
+						failed = task;
+					if (failFast) {
+						logger.severe("Cancelling " + (ordered.size() - completed) + " remaining tasks in operator " + getObjectLabel());
+						break;
+					}
+				}
+				else {
+					logger.info("Task " + completed + " of " + ordered.size() + " in operator " + getObjectLabel() + " completed in " + ElapsedTimeFormatter.getElapsedTime(task.getStartTime(), task.getEndTime()));
+				}
+			}
+		} catch (InterruptedException e) {
+			cancelAll(futures);
+			throw new OperationFailedException("Operator " + getObjectLabel() + " was interrupted while waiting for tasks to complete", this);
+		}
+		finally {
+			if (completed < ordered.size())
+				cancelAll(futures);
+		}
+		
+		if (failed != null) {
+			throw new OperationFailedException("One or more tasks in parallel operator " + getObjectLabel() + " encountered an error: " + failed.getException().getMessage(), this);
+		}
+	}
+	
+	/**
+	 * Execute a single task command, on a worker if the pipeline has an ExecutionBackend and otherwise
+	 * in a process started by this JVM. Paths in the command must be on a filesystem shared with the workers
+	 * @param command
+	 * @throws OperationFailedException
+	 */
+	protected void executeTaskCommand(String command) throws OperationFailedException {
+		ExecutionBackend backend = getExecutionBackend();
+		if (backend == null) {
+			executeCommand(command);
+			return;
+		}
+		
+		RemoteJob job = new RemoteJob(command);
+		job.setTimeoutMillis(getTimeoutMillis());
+		if (getObjectHandler() != null)
+			job.setWorkingDir(getProjectHome());
+		runRemoteJob(backend, job);
+	}
+	
+	/**
+	 * Cancel all tasks that have not completed, interrupting those that are running so their processes
+	 * are destroyed, and wait briefly for them to stop
+	 */
+	private void cancelAll(List<Future<TaskOperator>> futures) {
+		for(Future<TaskOperator> future : futures) {
+			future.cancel(true);
+		}
+		threadPool.shutdownNow();
+		try {
+			threadPool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			//Don't wait any longer
+		}
+	}
 	
 	@Override
 	public void initialize(NodeList children) {
@@ -152,6 +267,11 @@ public abstract class MultiOperator extends IOOperator {
 			userThreadCount = threads;
 		}
 		
+		String failFastStr = properties.get(failfast);
+		if (failFastStr != null) {
+			failFast = Boolean.parseBoolean(failFastStr);
+		}
+		
 		String checkStr = properties.get(checkcontigs);
 		if (checkStr != null) {
 			Boolean check = Boolean.parseBoolean(checkStr);
@@ -229,22 +349,38 @@ public abstract class MultiOperator extends IOOperator {
 	public class TaskOperator implements Runnable {
 
 		final String[] command;
+		final FileBuffer inputBuffer;
 		Logger logger;
 		boolean isError = false;
 		Exception exception = null;
+		private long startTime = 0;
+		private long endTime = 0;
 		
 		public TaskOperator(String[] command, Logger logger) {
+			this(command, logger, null);
+		}
+		
+		/**
+		 * Create a new task that works on the given input file, the size of the file is used to decide which
+		 * tasks to start first
+		 * @param command
+		 * @param logger
+		 * @param inputBuffer
+		 */
+		public TaskOperator(String[] command, Logger logger, FileBuffer inputBuffer) {
 			this.command = command;
 			this.logger = logger;
+			this.inputBuffer = inputBuffer;
 		}
 		
 		@Override
 		public void run() {
+			startTime = System.currentTimeMillis();
 			try {
 				for (int i=0; i<command.length; i++) {
 					Date begin = new Date();
 					logger.info("Beginning task with command : " + command[i] + "\n Total tasks: " + threadPool.getTaskCount() + "\n Active tasks: " + threadPool.getActiveCount() + "\n Completed tasks: " + threadPool.getCompletedTaskCount() + "\n Pool size: " + threadPool.getCorePoolSize());
-					executeCommand(command[i]);
+					executeTaskCommand(command[i]);
 					Date end = new Date();
 					
 					logger.info("Task with command : " + command[i] + " has completed (elapsed time " + ElapsedTimeFormatter.getElapsedTime(begin.getTime(), end.getTime()) + ")\n Total tasks: " + threadPool.getTaskCount() + "\n Active tasks: " + threadPool.getActiveCount() + "\n Completed tasks: " + threadPool.getCompletedTaskCount() + "\n Pool size: " + threadPool.getCorePoolSize());
@@ -256,6 +392,35 @@ public abstract class MultiOperator extends IOOperator {
 				exception = e;
 				e.printStackTrace();
 			}
+			finally {
+				endTime = System.currentTimeMillis();
+			}
+		}
+		
+		/**
+		 * Size in bytes of the input file of this task, or 0 if it's unknown
+		 * @return
+		 */
+		public long getInputSize() {
+			if (inputBuffer == null || inputBuffer.getFile() == null)
+				return 0;
+			return inputBuffer.getFile().length();
+		}
+		
+		/**
+		 * Time at which this task started running, in milliseconds
+		 * @return
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+		
+		/**
+		 * Time at which this task finished, in milliseconds, or 0 if it hasn't
+		 * @return
+		 */
+		public long getEndTime() {
+			return endTime;
 		}
 		
 		/**
@@ -9,8 +9,11 @@ import java.util.Map;
 
 import java.util.logging.Logger;
 
+import operator.remote.ExecutionBackend;
+
 import pipeline.Pipeline;
 import pipeline.PipelineObject;
+import pipeline.ResourceScheduler;
 
 /**
  * This is the base class of all things that perform an "operation" on some data. There's not a lot
@@ -110,5 +113,27 @@ public abstract class Operator extends PipelineObject {
 		endHooks.add(end);
 	}
 	
+	/**
+	 * The scheduler that tasks started by this operator should acquire CPUs and memory from before
+	 * doing any work, or null if this operator doesn't belong to a Pipeline
+	 * @return
+	 */
+	protected ResourceScheduler getResourceScheduler() {
+		if (getObjectHandler() == null || getPipelineOwner() == null)
+			return null;
+		return getPipelineOwner().getResourceScheduler();
+	}
+	
+	/**
+	 * The backend that should run this operator's task commands, or null if they should be run by this
+	 * JVM (which is the case unless the pipeline's WORKERS property is set)
+	 * @return
+	 */
+	protected ExecutionBackend getExecutionBackend() {
+		if (getObjectHandler() == null || getPipelineOwner() == null)
+			return null;
+		return getPipelineOwner().getExecutionBackend();
+	}
+	
 	public abstract void performOperation() throws OperationFailedException;
 }
@@ -0,0 +1,564 @@
+package operator.annovar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import buffer.variant.VariantRec;
+
+/**
+ * A persistent store of the properties and annotations one annotator added to each variant it has
+ * seen, so that variants that turn up again in later runs don't have to be looked up again. Entries
+ * are keyed by contig, position, ref and alt, and each annotator has its own cache file whose header
+ * records the version of the annotator's data source. A file written for a different version is
+ * ignored and replaced, so updating a data file invalidates everything computed from it.
+ *
+ * The file is a log of records, each of which holds a key and everything the annotator added to that
+ * variant (possibly nothing, which is worth remembering too). Only a hash of each key and the offset of
+ * its record are kept in memory, values are read from disk when needed. New entries are kept in memory
+ * and appended to the file by close(). If the file then exceeds the maximum size it's rewritten keeping
+ * only the most recently used entries. Records are rewritten in order of last use, so recency survives
+ * from one run to the next.
+ *
+ * Lookups only take a shared (read) lock, so annotators running on several threads can read from the
+ * cache at once. Adding entries and closing the cache take the exclusive lock.
+ *
+ * Several pipelines may share a cache directory. Readers take a shared lock on a lock file next to
+ * the cache file while loading the index, and close() takes an exclusive lock while appending,
+ * so entries written by other pipelines in the meantime are kept. Compaction writes a new file and
+ * renames it over the old one, so readers that have the old file open aren't disturbed.
+ * @author brendan
+ *
+ */
+public class AnnotationCache {
+
+	static final int MAGIC = 0x41434331; //"ACC1"
+	static final int MAX_RECORD_BYTES = 1 << 24; //Anything bigger than this must be a corrupt record
+	static final double COMPACTED_FRACTION = 0.75; //Compaction shrinks the file to this fraction of the max size
+
+	//Serializes file locking within this JVM, since the same JVM can't hold two locks on a file
+	private static final Object lockGuard = new Object();
+
+	private final File file;
+	private final File lockFile;
+	private final String version;
+	private final long maxBytes;
+
+	//Guards index, pending, channel and closed. Last-use ticks are written under the read lock, since
+	//an occasionally lost update only makes an entry look a little older than it is
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final KeyTable index = new KeyTable();
+	private RandomAccessFile reader = null;
+	private FileChannel channel = null;
+	private final AtomicInteger clock = new AtomicInteger(0);
+	private int loadedCount = 0; //Ticks above this were assigned in this run
+
+	private final List<byte[]> pending = new ArrayList<byte[]>();
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private boolean closed = false;
+
+	/**
+	 * Open the cache for the given annotator name in the given directory, loading the index of the
+	 * existing file if it was written for the same version
+	 * @param dir
+	 * @param name
+	 * @param version
+	 * @param maxBytes
+	 * @throws IOException
+	 */
+	public AnnotationCache(File dir, String name, String version, long maxBytes) throws IOException {
+		if (! dir.exists() && ! dir.mkdirs() && ! dir.exists())
+			throw new IOException("Could not create annotation cache directory " + dir.getAbsolutePath());
+		this.file = new File(dir, name + ".cache");
+		this.lockFile = new File(dir, name + ".lock");
+		this.version = version;
+		this.maxBytes = maxBytes;
+
+		synchronized(lockGuard) {
+			RandomAccessFile lockRaf = new RandomAccessFile(lockFile, "rw");
+			try {
+				FileLock fileLock = lockRaf.getChannel().lock(0, Long.MAX_VALUE, true);
+				try {
+					if (file.exists()) {
+						reader = new RandomAccessFile(file, "r");
+						channel = reader.getChannel();
+						if (scan(file, version, index) < 0) {
+							index.clear(); //Stale or unreadable, will be replaced by close()
+						}
+						clock.set(index.size());
+						loadedCount = index.size();
+					}
+				}
+				finally {
+					fileLock.release();
+				}
+			}
+			finally {
+				lockRaf.close();
+			}
+		}
+	}
+
+	/**
+	 * The key used for a variant, which is the same regardless of its other properties
+	 * @param var
+	 * @return
+	 */
+	public static String keyFor(VariantRec var) {
+		return var.getContig() + ":" + var.getStart() + ":" + var.getRef() + ":" + var.getAlt();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Number of entries in this cache, including those not yet written to disk
+	 * @return
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * If there's an entry for the key, add its properties and annotations to the variant and return true
+	 * @param key
+	 * @param var
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean apply(String key, VariantRec var) throws IOException {
+		long hash = hash(key);
+		byte[] record;
+		lock.readLock().lock();
+		try {
+			int slot = closed ? -1 : index.find(hash);
+			if (slot < 0) {
+				misses.incrementAndGet();
+				return false;
+			}
+
+			long offset = index.offsets[slot];
+			if (offset < 0)
+				record = pending.get((int)(-offset - 1));
+			else
+				record = readRecord(channel, offset);
+			index.ticks[slot] = clock.incrementAndGet();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		in.readInt();
+		String recordKey = readKey(in);
+		if (! recordKey.equals(key)) {
+			//Hash collision, treat it as a miss
+			misses.incrementAndGet();
+			return false;
+		}
+
+		int propCount = in.readInt();
+		for(int i=0; i<propCount; i++) {
+			String propKey = in.readUTF();
+			boolean isNull = in.readBoolean();
+			double val = in.readDouble();
+			var.addProperty(propKey, isNull ? null : val);
+		}
+		int annoCount = in.readInt();
+		for(int i=0; i<annoCount; i++) {
+			String annoKey = in.readUTF();
+			boolean isNull = in.readBoolean();
+			String val = in.readUTF();
+			var.addAnnotation(annoKey, isNull ? null : val);
+		}
+
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Store all of the properties and annotations of the variant, which should be a fresh record that
+	 * only the annotator has added anything to
+	 * @param key
+	 * @param var
+	 */
+	public void put(String key, VariantRec var) {
+		byte[] record;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0); //Replaced with the length below
+			byte[] keyBytes = key.getBytes("UTF-8");
+			out.writeShort(keyBytes.length);
+			out.write(keyBytes);
+
+			List<String> propKeys = new ArrayList<String>(var.getPropertyKeys());
+			out.writeInt(propKeys.size());
+			for(String propKey : propKeys) {
+				Double val = var.getProperty(propKey);
+				out.writeUTF(propKey);
+				out.writeBoolean(val == null);
+				out.writeDouble(val == null ? 0.0 : val);
+			}
+
+			List<String> annoKeys = new ArrayList<String>(var.getAnnotationKeys());
+			out.writeInt(annoKeys.size());
+			for(String annoKey : annoKeys) {
+				String val = var.getAnnotation(annoKey);
+				out.writeUTF(annoKey);
+				out.writeBoolean(val == null);
+				out.writeUTF(val == null ? "" : val);
+			}
+			out.close();
+			record = bytes.toByteArray();
+		}
+		catch (IOException e) {
+			//Only happens if a string is too long to be written, in which case we just don't cache this one
+			return;
+		}
+		ByteBuffer.wrap(record).putInt(0, record.length - 4);
+
+		long hash = hash(key);
+		lock.writeLock().lock();
+		try {
+			if (closed || index.find(hash) >= 0)
+				return;
+			pending.add(record);
+			int slot = index.insert(hash, -pending.size());
+			index.ticks[slot] = clock.incrementAndGet();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Write new entries to the file, compacting it if it's grown past the maximum size, and release
+	 * the file. The cache can't be used afterwards.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				if (pending.size() > 0)
+					writeEntries();
+			}
+			finally {
+				if (reader != null)
+					reader.close();
+				reader = null;
+				channel = null;
+				pending.clear();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void writeEntries() throws IOException {
+		synchronized(lockGuard) {
+			RandomAccessFile lockRaf = new RandomAccessFile(lockFile, "rw");
+			try {
+				FileLock fileLock = lockRaf.getChannel().lock();
+				try {
+					//Other pipelines may have added entries (or compacted the file) since we loaded it
+					KeyTable current = new KeyTable();
+					long end = file.exists() ? scan(file, version, current) : -1;
+
+					RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					try {
+						if (end < 0) {
+							current.clear();
+							raf.setLength(0);
+							raf.writeInt(MAGIC);
+							raf.writeUTF(version);
+							end = raf.getFilePointer();
+						}
+						raf.setLength(end); //Drops a partial record left by a pipeline that died while writing
+						raf.seek(end);
+
+						ByteArrayOutputStream appended = new ByteArrayOutputStream();
+						for(int i=0; i<pending.size(); i++) {
+							byte[] record = pending.get(i);
+							long hash = hash(readKey(new DataInputStream(new ByteArrayInputStream(record, 4, record.length - 4))));
+							if (current.find(hash) < 0) {
+								current.insert(hash, end + appended.size());
+								appended.write(record);
+							}
+						}
+						raf.write(appended.toByteArray());
+						end += appended.size();
+					}
+					finally {
+						raf.close();
+					}
+
+					if (end > maxBytes)
+						compact(current);
+				}
+				finally {
+					fileLock.release();
+				}
+			}
+			finally {
+				lockRaf.close();
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the file keeping the most recently used entries. Entries used or added in this run
+	 * rank by when that happened, others by their position in the file, which reflects when they
+	 * were last used before
+	 */
+	private void compact(KeyTable current) throws IOException {
+		long[] order = new long[current.size()];
+		int count = 0;
+		for(int slot=0; slot<current.hashes.length; slot++) {
+			if (current.hashes[slot] == 0)
+				continue;
+			long rank = current.ticks[slot];
+			int ours = index.find(current.hashes[slot]);
+			if (ours >= 0 && index.ticks[ours] > loadedCount)
+				rank = (long)current.size() + index.ticks[ours];
+			order[count++] = (rank << 32) | slot;
+		}
+		Arrays.sort(order, 0, count);
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel inChannel = in.getChannel();
+
+			//Keep the most recent entries that fit, then write them oldest first
+			long budget = (long)(maxBytes * COMPACTED_FRACTION);
+			int first = count;
+			long size = 0;
+			while(first > 0) {
+				int slot = (int)order[first-1];
+				int length = readRecordLength(inChannel, current.offsets[slot]);
+				if (size + length > budget)
+					break;
+				size += length;
+				first--;
+			}
+
+			File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeUTF(version);
+				for(int i=first; i<count; i++) {
+					out.write(readRecord(inChannel, current.offsets[(int)order[i]]));
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (! tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Could not replace annotation cache file " + file.getAbsolutePath());
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the index of the given file into the table, returning the offset just past the last complete
+	 * record, or -1 if the file wasn't written for the given version. Entries are given ticks in file order
+	 */
+	private long scan(File source, String expectedVersion, KeyTable table) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source), 1 << 16));
+		try {
+			long pos;
+			try {
+				if (in.readInt() != MAGIC)
+					return -1;
+				String fileVersion = in.readUTF();
+				if (! fileVersion.equals(expectedVersion))
+					return -1;
+				pos = 4 + 2 + fileVersion.getBytes("UTF-8").length;
+			}
+			catch (EOFException e) {
+				return -1;
+			}
+
+			int tick = 0;
+			byte[] recordBytes = new byte[1024];
+			while(true) {
+				try {
+					int length = in.readInt();
+					if (length < 2 || length > MAX_RECORD_BYTES)
+						break;
+					//Read the whole record rather than skipping, since skipping can go past the end of the file
+					if (length > recordBytes.length)
+						recordBytes = new byte[Math.max(length, 2 * recordBytes.length)];
+					in.readFully(recordBytes, 0, length);
+					int keyLength = ((recordBytes[0] & 0xFF) << 8) | (recordBytes[1] & 0xFF);
+					if (keyLength > length - 2)
+						break;
+
+					long hash = hash(new String(recordBytes, 2, keyLength, "UTF-8"));
+					int slot = table.find(hash);
+					if (slot < 0)
+						slot = table.insert(hash, pos);
+					else
+						table.offsets[slot] = pos; //Later records win
+					table.ticks[slot] = ++tick;
+					pos += 4 + length;
+				}
+				catch (EOFException e) {
+					break;
+				}
+			}
+			return pos;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static String readKey(DataInputStream in) throws IOException {
+		byte[] keyBytes = new byte[in.readUnsignedShort()];
+		in.readFully(keyBytes);
+		return new String(keyBytes, "UTF-8");
+	}
+
+	private static int readRecordLength(FileChannel channel, long offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4);
+		readFully(channel, buf, offset);
+		return 4 + buf.getInt(0);
+	}
+
+	private static byte[] readRecord(FileChannel channel, long offset) throws IOException {
+		int length = readRecordLength(channel, offset);
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		readFully(channel, buf, offset);
+		return buf.array();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+		while(buf.hasRemaining()) {
+			int read = channel.read(buf, offset + buf.position());
+			if (read < 0)
+				throw new EOFException("Annotation cache record at " + offset + " is truncated");
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the key, never zero since zero marks an empty slot in the table
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Open-addressing table from key hash to record offset and last-use tick, which takes much less
+	 * memory than a map of strings. Negative offsets refer to records that haven't been written yet
+	 */
+	static class KeyTable {
+		long[] hashes = new long[1024];
+		long[] offsets = new long[1024];
+		int[] ticks = new int[1024];
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			Arrays.fill(hashes, 0);
+			size = 0;
+		}
+
+		int find(long hash) {
+			int mask = hashes.length - 1;
+			int slot = (int)(hash ^ (hash >>> 32)) & mask;
+			while(hashes[slot] != 0) {
+				if (hashes[slot] == hash)
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		int insert(long hash, long offset) {
+			if ((size + 1) * 3 > hashes.length * 2)
+				grow();
+			int mask = hashes.length - 1;
+			int slot = (int)(hash ^ (hash >>> 32)) & mask;
+			while(hashes[slot] != 0)
+				slot = (slot + 1) & mask;
+			hashes[slot] = hash;
+			offsets[slot] = offset;
+			ticks[slot] = 0;
+			size++;
+			return slot;
+		}
+
+		private void grow() {
+			long[] oldHashes = hashes;
+			long[] oldOffsets = offsets;
+			int[] oldTicks = ticks;
+			hashes = new long[oldHashes.length * 2];
+			offsets = new long[oldHashes.length * 2];
+			ticks = new int[oldHashes.length * 2];
+			size = 0;
+			for(int i=0; i<oldHashes.length; i++) {
+				if (oldHashes[i] != 0) {
+					int slot = insert(oldHashes[i], oldOffsets[i]);
+					ticks[slot] = oldTicks[i];
+				}
+			}
+		}
+	}
+}
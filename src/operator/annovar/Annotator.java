@@ -1,6 +1,20 @@
 package operator.annovar;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import operator.OperationFailedException;
 import operator.Operator;
@@ -9,20 +23,41 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import pipeline.Pipeline;
 import pipeline.PipelineObject;
+import pipeline.PipelineXMLConstants;
 import buffer.variant.VariantPool;
 import buffer.variant.VariantRec;
 
 /**
  * Base class for things that can take a variant pool and add an annotation of some sort to
  * the variants
+ * 
+ * Annotators that return true from supportsParallel() may annotate variants on several threads
+ * at once. In this case the variants are split into blocks of consecutive variants from the same
+ * contig, and a pool of workers takes blocks in contig and position order. Each worker calls
+ * prepareWorker() on its own thread before annotating anything and cleanupWorker() when it's done,
+ * so annotators that read from files (tabix readers, etc) can keep one reader per thread. The 
+ * number of threads is the pipeline thread count, unless a threads="x" attribute is given.
+ * 
+ * Annotators whose results depend only on the variant's position and alleles and on a data file
+ * can return the path to that file from getCacheSource(). If the pipeline property annotation.cache
+ * names a directory, what such an annotator adds to each variant is then stored in an AnnotationCache
+ * there, and variants it has seen before (in this run or any earlier one) are annotated from the cache
+ * without calling annotateVariant(). The cache is discarded whenever the data file changes, and is 
+ * kept under annotation.cache.size megabytes (1024 by default). Use cache="false" to turn it off.
  * @author brendan
  *
  */
 public abstract class Annotator extends Operator {
 
-	protected VariantPool variants = null;
+	public static final String THREADS = "threads";
+	public static final String USE_CACHE = "cache";
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+	public static final long DEFAULT_CACHE_MB = 1024;
 	
+	protected VariantPool variants = null;
+	private AnnotationCache cache = null;
 
 	/**
 	 * Compute or obtain an annotation for the given variant and add it to the list of
@@ -32,6 +67,168 @@ public abstract class Annotator extends Operator {
 	 */
 	public abstract void annotateVariant(VariantRec var) throws OperationFailedException;
 	
+	/**
+	 * Set the pool of variants to be annotated
+	 * @param variants
+	 */
+	public void setVariants(VariantPool variants) {
+		this.variants = variants;
+	}
+	
+	/**
+	 * Returns true if this annotator does all of its work in prepare(), annotateVariant(), and
+	 * cleanup(), so that variants can be given to it a batch at a time instead of all at once. 
+	 * Annotators that need the whole pool at once (for instance, because they run an external
+	 * tool on all variants) should override this to return false
+	 * @return
+	 */
+	public boolean supportsBatches() {
+		return true;
+	}
+	
+	/**
+	 * Returns true if annotateVariant() may be called from several threads at once, as long as
+	 * each thread has called prepareWorker() first. False by default, annotators that keep
+	 * per-variant state in fields (or that don't know) should leave it that way
+	 * @return
+	 */
+	protected boolean supportsParallel() {
+		return false;
+	}
+	
+	/**
+	 * Maximum number of variants given to a worker at once when annotating in parallel. Annotators
+	 * whose readers can only move forward through a contig may want to return Integer.MAX_VALUE here,
+	 * so that each contig is handled by a single worker
+	 * @return
+	 */
+	protected int getParallelBlockSize() {
+		return DEFAULT_BLOCK_SIZE;
+	}
+	
+	/**
+	 * Number of threads to use when annotating in parallel. This is Pipeline.getThreadCount()
+	 * unless the user has specified a threads="x" argument to this annotator
+	 * @return
+	 */
+	public int getPreferredThreadCount() {
+		String threadsStr = getAttribute(THREADS);
+		if (threadsStr != null)
+			return Integer.parseInt(threadsStr);
+		if (getPipelineOwner() == null)
+			return 1;
+		return getPipelineOwner().getThreadCount();
+	}
+	
+	/**
+	 * Path to the file or directory this annotator reads its data from, if what it adds to a variant
+	 * depends only on that data and the variant's contig, position, ref and alt. Returning non-null
+	 * allows results to be cached, see AnnotationCache. Null by default, so nothing is cached
+	 * @return
+	 */
+	protected String getCacheSource() {
+		return null;
+	}
+	
+	/**
+	 * Identifies the version of the data this annotator uses, cached results from any other version
+	 * are discarded. By default this is the path, size and modification time of the cache source (or of
+	 * each file in it, if it's a directory)
+	 * @return
+	 */
+	protected String getCacheVersion() {
+		File source = new File(getCacheSource());
+		StringBuilder version = new StringBuilder(source.getAbsolutePath());
+		File[] files = source.isDirectory() ? source.listFiles() : new File[]{source};
+		if (files != null) {
+			Arrays.sort(files);
+			for(File file : files) {
+				version.append(";" + file.getName() + ":" + file.length() + ":" + file.lastModified());
+			}
+		}
+		return version.toString();
+	}
+	
+	/**
+	 * Open the annotation cache if this annotator supports caching and a cache directory has been
+	 * given. If the cache can't be opened we log a warning and annotate everything as usual
+	 */
+	protected void openCache() {
+		if (cache != null || getCacheSource() == null)
+			return;
+		String useCache = getAttribute(USE_CACHE);
+		if (useCache != null && (! Boolean.parseBoolean(useCache)))
+			return;
+		String cacheDir = getPipelineProperty(PipelineXMLConstants.ANNOTATION_CACHE);
+		if (cacheDir == null)
+			return;
+		
+		long maxMB = DEFAULT_CACHE_MB;
+		String sizeStr = getPipelineProperty(PipelineXMLConstants.ANNOTATION_CACHE_SIZE);
+		if (sizeStr != null)
+			maxMB = Long.parseLong(sizeStr);
+		
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		try {
+			cache = new AnnotationCache(new File(cacheDir), getClass().getSimpleName(), getCacheVersion(), maxMB * 1024L * 1024L);
+			logger.info("Annotator " + getObjectLabel() + " is using annotation cache " + cache.getFile().getAbsolutePath() + " with " + cache.size() + " entries");
+		} catch (IOException e) {
+			logger.warning("Could not open annotation cache in " + cacheDir + " for annotator " + getObjectLabel() + ", not caching : " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Write new entries in the annotation cache to disk and close it, if it's open
+	 */
+	protected void closeCache() {
+		if (cache == null)
+			return;
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		logger.info("Annotator " + getObjectLabel() + " found " + cache.getHits() + " of " + (cache.getHits() + cache.getMisses()) + " variants in the annotation cache");
+		try {
+			cache.close();
+		} catch (IOException e) {
+			logger.warning("Could not write annotation cache " + cache.getFile().getAbsolutePath() + " : " + e.getMessage());
+		}
+		cache = null;
+	}
+	
+	/**
+	 * Annotate the variant from the cache if it's there, otherwise call annotateVariant() and store
+	 * what it added in the cache. Without a cache this just calls annotateVariant(). Annotators that
+	 * can be cached must throw from annotateVariant() if a lookup fails, rather than adding nothing,
+	 * or the failure would be remembered
+	 * @param var
+	 * @throws OperationFailedException
+	 */
+	public void annotate(VariantRec var) throws OperationFailedException {
+		AnnotationCache cache = this.cache;
+		if (cache == null) {
+			annotateVariant(var);
+			return;
+		}
+		
+		String key = AnnotationCache.keyFor(var);
+		try {
+			if (cache.apply(key, var))
+				return;
+		} catch (IOException e) {
+			throw new OperationFailedException("Error reading annotation cache " + cache.getFile().getAbsolutePath() + " : " + e.getMessage(), this);
+		}
+		
+		//Annotate a fresh copy so exactly what this annotator adds is cached, regardless of what other
+		//annotators have already added. If annotation fails nothing is cached
+		VariantRec scratch = new VariantRec(var.getContig(), var.getStart(), var.getEnd(), var.getRef(), var.getAlt(), var.getQuality(), var.isHetero());
+		annotateVariant(scratch);
+		cache.put(key, scratch);
+		for(String propKey : scratch.getPropertyKeys()) {
+			var.addProperty(propKey, scratch.getProperty(propKey));
+		}
+		for(String annoKey : scratch.getAnnotationKeys()) {
+			var.addAnnotation(annoKey, scratch.getAnnotation(annoKey));
+		}
+	}
+	
 	/**
 	 * If true, we write some progress indicators to system.out
 	 * @return
@@ -44,27 +241,133 @@ public abstract class Annotator extends Operator {
 		if (variants == null)
 			throw new OperationFailedException("No variant pool specified", this);
 		
+		prepare();
+		
+		openCache();
+		try {
+			int threads = getPreferredThreadCount();
+			if (supportsParallel() && threads > 1) {
+				annotateParallel(threads);
+			}
+			else {
+				annotateSerial();
+			}
+		}
+		finally {
+			closeCache();
+		}
+			
+		cleanup();
+	}
+	
+	private void annotateSerial() throws OperationFailedException {
 		DecimalFormat formatter = new DecimalFormat("#0.00");
 		int tot = variants.size();
+		int varsAnnotated = 0;
 		
+		prepareWorker();
+		try {
+			for(String contig : variants.getContigs()) {
+				for(VariantRec rec : variants.getVariantsForContig(contig)) {
+					annotate(rec);
+
+					varsAnnotated++;
+					double prog = 100 * (double)varsAnnotated  / (double) tot;
+					if (displayProgress() && varsAnnotated % 2000 == 0) {
+						System.out.println("Annotated " + varsAnnotated + " of " + tot + " variants  (" + formatter.format(prog) + "% )");	
+					}
+				}
+			}
+		}
+		finally {
+			cleanupWorker();
+		}
+	}
 	
-		prepare();
+	/**
+	 * Split the variants into blocks and annotate them using the given number of worker threads.
+	 * Blocks are queued in contig and position order, so each worker sees its variants in sorted order.
+	 * If any worker fails the others stop after their current block and the first failure is rethrown
+	 * @param threads
+	 * @throws OperationFailedException
+	 */
+	private void annotateParallel(int threads) throws OperationFailedException {
+		final ConcurrentLinkedQueue<List<VariantRec>> blocks = new ConcurrentLinkedQueue<List<VariantRec>>();
+		int blockSize = Math.max(1, getParallelBlockSize());
+		for(String contig : variants.getContigs()) {
+			List<VariantRec> vars = variants.getVariantsForContig(contig);
+			for(int start=0; start<vars.size(); start+=blockSize) {
+				blocks.add(vars.subList(start, (int)Math.min(vars.size(), (long)start + blockSize)));
+			}
+		}
 		
-		int varsAnnotated = 0;
+		int workers = Math.min(threads, blocks.size());
+		if (workers < 2) {
+			annotateSerial();
+			return;
+		}
 		
-		for(String contig : variants.getContigs()) {
-			for(VariantRec rec : variants.getVariantsForContig(contig)) {
-				annotateVariant(rec);
-				
-				varsAnnotated++;
-				double prog = 100 * (double)varsAnnotated  / (double) tot;
-				if (displayProgress() && varsAnnotated % 2000 == 0) {
-					System.out.println("Annotated " + varsAnnotated + " of " + tot + " variants  (" + formatter.format(prog) + "% )");	
+		Logger.getLogger(Pipeline.primaryLoggerName).info("Annotator " + getObjectLabel() + " is annotating " + variants.size() + " variants in " + blocks.size() + " blocks using " + workers + " threads");
+		
+		final DecimalFormat formatter = new DecimalFormat("#0.00");
+		final int tot = variants.size();
+		final AtomicInteger varsAnnotated = new AtomicInteger(0);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		
+		ExecutorService threadPool = Executors.newFixedThreadPool(workers);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(int i=0; i<workers; i++) {
+			results.add(threadPool.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					try {
+						prepareWorker();
+						List<VariantRec> block = blocks.poll();
+						while(block != null && (! failed.get())) {
+							for(VariantRec rec : block) {
+								annotate(rec);
+							}
+							
+							int prev = varsAnnotated.getAndAdd(block.size());
+							if (displayProgress() && (prev / 2000) != ((prev + block.size()) / 2000)) {
+								double prog = 100 * (double)(prev + block.size()) / (double) tot;
+								System.out.println("Annotated " + (prev + block.size()) + " of " + tot + " variants  (" + formatter.format(prog) + "% )");
+							}
+							block = blocks.poll();
+						}
+					}
+					catch (Exception ex) {
+						failed.set(true);
+						throw ex;
+					}
+					finally {
+						cleanupWorker();
+					}
+					return null;
+				}
+			}));
+		}
+		threadPool.shutdown();
+		
+		OperationFailedException failure = null;
+		for(Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				threadPool.shutdownNow();
+				throw new OperationFailedException("Interrupted while waiting for annotation to complete", this);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					Throwable cause = e.getCause();
+					if (cause instanceof OperationFailedException)
+						failure = (OperationFailedException)cause;
+					else
+						failure = new OperationFailedException("Annotator " + getObjectLabel() + " encountered an error: " + cause, this);
 				}
 			}
 		}
-			
-		cleanup();
+		
+		if (failure != null)
+			throw failure;
 	}
 	
 	/**
@@ -80,6 +383,22 @@ public abstract class Annotator extends Operator {
 		//Blank on purpose, subclasses may override
 	}
 	
+	/**
+	 * Called on each annotating thread before it annotates any variants, after prepare() has been
+	 * called. Annotators that need a separate reader (or other resource) for each thread should 
+	 * create it here. No-op by default
+	 */
+	protected void prepareWorker() throws OperationFailedException {
+		//Blank on purpose, subclasses may override 
+	}
+	
+	/**
+	 * Called on each annotating thread when it has finished annotating, even if it failed. No-op by default
+	 */
+	protected void cleanupWorker() {
+		//Blank on purpose, subclasses may override
+	}
+	
 	@Override
 	public void initialize(NodeList children) {
 		for(int i=0; i<children.getLength(); i++) {
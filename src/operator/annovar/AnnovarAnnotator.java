@@ -45,6 +45,14 @@ public abstract class AnnovarAnnotator extends Annotator {
 		//Blank on purpose, annovar annotators do something else
 	}
 	
+	/**
+	 * Annovar runs on the whole pool at once, so variants can't be handed to us in batches
+	 */
+	@Override
+	public boolean supportsBatches() {
+		return false;
+	}
+	
 	@Override
 	public void performOperation() throws OperationFailedException {
 		if (annovarInputFile == null) {
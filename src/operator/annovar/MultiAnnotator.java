@@ -41,13 +41,15 @@ public class MultiAnnotator extends IOOperator {
 			variants = new VariantPool();
 			try {
 				VCFLineParser vParser = new VCFLineParser(vcfFile);
-				while( vParser.advanceLine()) {
+				while(vParser.hasLine()) {
 					VariantRec rec = vParser.toVariantRec();
 					if (rec != null)
-						variants.addRecord(rec);
-					logger.info("Multi-annotation operator created variant pool with " + getObjectLabel());
-
+						variants.addRecordNoSort(rec);
+					vParser.advanceLine();
 				}
+				//Sorting once at the end is much faster than sorting after every insert
+				variants.sortAllContigs();
+				logger.info("Multi-annotation operator " + getObjectLabel() + " created variant pool with " + variants.size() + " variants");
 			} catch (IOException e) {
 				throw new OperationFailedException("Could not open vcf file for reading : " + e.getMessage(), this);
 			}
@@ -55,7 +57,8 @@ public class MultiAnnotator extends IOOperator {
 		}
 		
 		for(Annotator annotator : annotators) {
-			
+			annotator.setVariants(variants);
+			annotator.performOperation();
 		}
 		
 		
@@ -78,7 +81,7 @@ public class MultiAnnotator extends IOOperator {
 					}
 					else {
 						if (obj instanceof VCFFile) {
-							vcfFile = (VCFFile)vcfFile;
+							vcfFile = (VCFFile)obj;
 						}
 						if (obj instanceof VariantPool) {
 							variants = (VariantPool)obj;
@@ -0,0 +1,218 @@
+package operator.annovar;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import operator.OperationFailedException;
+import operator.Operator;
+import operator.variant.VariantPoolWriter;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import pipeline.Pipeline;
+import pipeline.PipelineObject;
+import util.VCFLineParser;
+import buffer.VCFFile;
+import buffer.variant.VariantPool;
+import buffer.variant.VariantRec;
+
+/**
+ * Annotates the variants in a VCF file without ever reading all of them into memory at once.
+ * Variants are read in batches of batch.size records, each batch is put in its own small VariantPool
+ * and handed to each annotator in turn, and then the annotated variants are written by a
+ * VariantPoolWriter before the next batch is read. Memory use therefore depends only on the batch size,
+ * not on the size of the input file.
+ *
+ * Variants are written in the order they appear in the input file. Annotators that need the whole pool
+ * at once (see Annotator.supportsBatches()) can't be used here, nor can writers that sort the variants.
+ *
+ * Usage looks something like:
+ *  <StreamAnnotate class="operator.annovar.StreamingAnnotator" batch.size="5000">
+ *    <input>
+ *      <inputVCF />
+ *    </input>
+ *    <dbsnp class="operator.variant.DBSNPAnnotator" />
+ *    <nsfp class="operator.variant.DBNSFPAnnotator" />
+ *    <writer class="operator.variant.VariantPoolToFile">
+ *      <annotatedCSV class="buffer.CSVFile" filename="annotated.csv" />
+ *    </writer>
+ *  </StreamAnnotate>
+ * @author brendan
+ *
+ */
+public class StreamingAnnotator extends Operator {
+
+	public static final String BATCH_SIZE = "batch.size";
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	protected VCFFile inputVCF = null;
+	protected List<Annotator> annotators = new ArrayList<Annotator>();
+	protected VariantPoolWriter writer = null;
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+
+	@Override
+	public void performOperation() throws OperationFailedException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		logger.info("Streaming annotator " + getObjectLabel() + " is annotating variants in " + inputVCF.getAbsolutePath() + " in batches of " + batchSize + " using " + annotators.size() + " annotators");
+
+		PrintStream outStream = System.out;
+		try {
+			if (writer.getOutputFile() != null) {
+				outStream = new PrintStream(new FileOutputStream( writer.getOutputFile().getFile()));
+			}
+		} catch (FileNotFoundException e) {
+			throw new OperationFailedException("Could not write to file : " + writer.getOutputFile().getAbsolutePath(), this);
+		}
+
+		long total = 0;
+		int batches = 0;
+		List<Annotator> workersPrepared = new ArrayList<Annotator>();
+		try {
+			VCFLineParser reader = new VCFLineParser(inputVCF);
+
+			List<VariantRec> ordered = new ArrayList<VariantRec>(batchSize);
+			VariantPool batch = readBatch(reader, ordered);
+			for(Annotator annotator : annotators) {
+				annotator.setVariants(batch);
+				annotator.prepare();
+				annotator.openCache();
+				//All batches are annotated on this thread, so it's the only worker
+				annotator.prepareWorker();
+				workersPrepared.add(annotator);
+			}
+
+			writer.writeHeader(outStream);
+
+			while(batch.size() > 0) {
+				for(Annotator annotator : annotators) {
+					annotator.setVariants(batch);
+					for(String contig : batch.getContigs()) {
+						for(VariantRec rec : batch.getVariantsForContig(contig)) {
+							annotator.annotate(rec);
+						}
+					}
+				}
+
+				//Write variants in the order they were read
+				for(VariantRec rec : ordered) {
+					writer.writeVariant(rec, outStream);
+				}
+
+				total += batch.size();
+				batches++;
+				if (batches % 10 == 0) {
+					logger.info("Streaming annotator " + getObjectLabel() + " has annotated " + total + " variants");
+				}
+
+				batch = readBatch(reader, ordered);
+			}
+
+			for(Annotator annotator : workersPrepared) {
+				annotator.cleanupWorker();
+			}
+			workersPrepared.clear();
+			for(Annotator annotator : annotators) {
+				annotator.cleanup();
+			}
+		} catch (IOException e) {
+			throw new OperationFailedException("Error reading variants from " + inputVCF.getAbsolutePath() + " : " + e.getMessage(), this);
+		}
+		finally {
+			for(Annotator annotator : workersPrepared) {
+				annotator.cleanupWorker();
+			}
+			for(Annotator annotator : annotators) {
+				annotator.closeCache();
+			}
+			if (outStream != System.out)
+				outStream.close();
+			else
+				outStream.flush();
+		}
+
+		logger.info("Streaming annotator " + getObjectLabel() + " annotated and wrote " + total + " variants in " + batches + " batches");
+	}
+
+	/**
+	 * Read up to batchSize variants from the reader into a new VariantPool. The pool is empty
+	 * when no more variants can be read. The ordered list is cleared and then filled with the
+	 * same variants in the order they were read
+	 * @param reader
+	 * @param ordered
+	 * @return
+	 * @throws IOException
+	 */
+	private VariantPool readBatch(VCFLineParser reader, List<VariantRec> ordered) throws IOException {
+		VariantPool batch = new VariantPool();
+		ordered.clear();
+		while(ordered.size() < batchSize && reader.hasLine()) {
+			VariantRec rec = reader.toVariantRec();
+			if (rec != null) {
+				batch.addRecordNoSort(rec);
+				ordered.add(rec);
+			}
+			reader.advanceLine();
+		}
+		batch.sortAllContigs();
+		return batch;
+	}
+
+	@Override
+	public void initialize(NodeList children) {
+		String batchStr = getAttribute(BATCH_SIZE);
+		if (batchStr != null) {
+			batchSize = Integer.parseInt(batchStr);
+			if (batchSize < 1)
+				throw new IllegalArgumentException("Batch size must be at least 1 for StreamingAnnotator " + getObjectLabel());
+		}
+
+		Element inputList = getChildForLabel("input", children);
+		if (inputList != null) {
+			NodeList inputChildren = inputList.getChildNodes();
+			for(int i=0; i<inputChildren.getLength(); i++) {
+				Node iChild = inputChildren.item(i);
+				if (iChild.getNodeType() == Node.ELEMENT_NODE) {
+					PipelineObject obj = getObjectFromHandler(iChild.getNodeName());
+					if (obj instanceof VCFFile) {
+						inputVCF = (VCFFile)obj;
+					}
+					else {
+						throw new IllegalArgumentException("Found non-VCF object in input list for StreamingAnnotator " + getObjectLabel());
+					}
+				}
+			}
+		}
+
+		for(int i=0; i<children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				PipelineObject obj = getObjectFromHandler(child.getNodeName());
+				if (obj instanceof Annotator) {
+					Annotator annotator = (Annotator)obj;
+					if (! annotator.supportsBatches()) {
+						throw new IllegalArgumentException("Annotator " + annotator.getObjectLabel() + " needs all variants at once and can't be used with StreamingAnnotator " + getObjectLabel());
+					}
+					annotators.add(annotator);
+				}
+				if (obj instanceof VariantPoolWriter) {
+					writer = (VariantPoolWriter)obj;
+				}
+			}
+		}
+
+		if (inputVCF == null) {
+			throw new IllegalArgumentException("No input VCF file specified for StreamingAnnotator " + getObjectLabel());
+		}
+		if (writer == null) {
+			throw new IllegalArgumentException("No VariantPoolWriter specified for StreamingAnnotator " + getObjectLabel());
+		}
+	}
+
+}
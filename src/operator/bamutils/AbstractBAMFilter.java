@@ -22,18 +22,22 @@ import org.w3c.dom.NodeList;
 
 import pipeline.Pipeline;
 import pipeline.PipelineObject;
+import pipeline.ResourceScheduler;
 import buffer.BAMFile;
 import buffer.FileBuffer;
 import buffer.MultiFileBuffer;
 
 /**
- * Base class for operations that perform filtering of reads in BAM (or SAM) files
+ * Base class for operations that perform filtering of reads in BAM (or SAM) files. Coordinate-sorted,
+ * indexed BAM files are filtered one at a time, each split into genomic shards that are filtered in parallel
+ * (see BAMShardProcessor). All other files are filtered in parallel with one thread per file.
  * @author brendan
  *
  */
 public class AbstractBAMFilter extends IOOperator {
 
 	public static final String threads = "threads";
+	public static final String SHARD_SIZE = "shard.size";
 	protected ThreadPoolExecutor threadPool = null;
 
 	protected Integer userThreadCount = null;
@@ -78,14 +82,30 @@ public class AbstractBAMFilter extends IOOperator {
 			userThreadCount = threads;
 		}
 		
-		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount() );
-		
 		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
 		
+		//Files we can split into shards are filtered first, one at a time, using all threads
+		List<BAMFile> unshardedFiles = new ArrayList<BAMFile>();
+		for(BAMFile inputBAM : inputFiles) {
+			if (getPreferredThreadCount() > 1 && BAMShardProcessor.canShard(inputBAM.getFile())) {
+				File outputFile = getOutputFile(inputBAM);
+				logger.info("Filtering reads from BAM file " + inputBAM.getFilename() + " to " + outputFile.getName() + " in shards using " + getPreferredThreadCount() + " threads");
+				filterInShards(inputBAM, outputFile, logger);
+			}
+			else {
+				unshardedFiles.add(inputBAM);
+			}
+		}
+		
+		if (unshardedFiles.size() == 0)
+			return;
+		
+		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount() );
+		
 		List<FilterTask> jobs = new ArrayList<FilterTask>();
 		
-		for(BAMFile inputBAM : inputFiles) {
-			File outputFile = new File(getProjectHome() + "/"+ inputBAM.getFilename().replace(".bam", "").replace(".sam", "") + ".flt.bam");
+		for(BAMFile inputBAM : unshardedFiles) {
+			File outputFile = getOutputFile(inputBAM);
 			logger.info("Filtering reads from BAM file " + inputBAM.getFilename() + " to " + outputFile.getName());
 			FilterTask task = new FilterTask(inputBAM, logger, filters, outputFile);
 			jobs.add(task);
@@ -115,6 +135,46 @@ public class AbstractBAMFilter extends IOOperator {
 		
 	}
 
+	private File getOutputFile(BAMFile inputBAM) {
+		return new File(getProjectHome() + "/"+ inputBAM.getFilename().replace(".bam", "").replace(".sam", "") + ".flt.bam");
+	}
+	
+	/**
+	 * Filter the reads in a coordinate-sorted, indexed BAM file using a BAMShardProcessor
+	 * @param inputBAM
+	 * @param outputFile
+	 * @param logger
+	 * @throws OperationFailedException
+	 */
+	private void filterInShards(BAMFile inputBAM, File outputFile, Logger logger) throws OperationFailedException {
+		int shardSize = BAMShardProcessor.DEFAULT_SHARD_SIZE;
+		String shardStr = properties.get(SHARD_SIZE);
+		if (shardStr != null) {
+			shardSize = Integer.parseInt(shardStr);
+		}
+		
+		BAMShardProcessor processor = new BAMShardProcessor(inputBAM.getFile(), getPreferredThreadCount(), shardSize);
+		processor.setResourceScheduler(getResourceScheduler());
+		try {
+			processor.process(new BAMShardProcessor.RecordHandler() {
+				public SAMRecord processRecord(SAMRecord samRecord) {
+					for(ReadFilter filter : filters) {
+						if (! filter.readPasses(samRecord)) {
+							return null;
+						}
+					}
+					return samRecord;
+				}
+			}, outputFile);
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new OperationFailedException("Error filtering reads from " + inputBAM.getFilename() + " : " + e.getMessage(), this);
+		}
+		
+		logger.info("Filter task passed " + processor.getRecordsWritten() + " of " + processor.getRecordsRead() + " total reads.");
+		outputFiles.addFile(new BAMFile(outputFile));
+	}
+
 	/**
 	 * Examines the input multibuffer, if it exists, and adds all files identified to the inputFiles list.
 	 */
@@ -209,7 +269,12 @@ public class AbstractBAMFilter extends IOOperator {
 		
 		@Override
 		public void run() {
+			ResourceScheduler.Lease lease = null;
 			try {
+				ResourceScheduler resources = getResourceScheduler();
+				if (resources != null)
+					lease = resources.acquire(1, 0);
+				
 				final SAMFileReader inputSam = new SAMFileReader(inputFile.getFile());
 				inputSam.setValidationStringency(ValidationStringency.LENIENT);		
 
@@ -245,6 +310,10 @@ public class AbstractBAMFilter extends IOOperator {
 				exception = e;
 				e.printStackTrace();
 			}
+			finally {
+				if (lease != null)
+					lease.release();
+			}
 		}
 		
 		/**
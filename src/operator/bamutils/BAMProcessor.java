@@ -14,12 +14,40 @@ import buffer.BAMFile;
 
 /**
  * Base class for operators that read the contents of bam files, do some processing, and emit a new
- * bam file. Right now concurrency has not been implemented, so just one at a time.
+ * bam file. If the subclass supports it (see supportsParallel()) and the input is a coordinate-sorted,
+ * indexed BAM, the file is split into genomic shards that are processed on multiple threads by a
+ * BAMShardProcessor. Otherwise records are processed one at a time.
  * @author brendan
  *
  */
 public abstract class BAMProcessor extends IOOperator {
 
+	public static final String THREADS = "threads";
+	public static final String SHARD_SIZE = "shard.size";
+	
+	/**
+	 * Number of threads to use when processing in shards. This is the value of the threads attribute if
+	 * given, otherwise the pipeline's thread count
+	 * @return
+	 */
+	public int getPreferredThreadCount() {
+		String threadsStr = getAttribute(THREADS);
+		if (threadsStr != null)
+			return Integer.parseInt(threadsStr);
+		if (getPipelineOwner() == null)
+			return 1;
+		return getPipelineOwner().getThreadCount();
+	}
+	
+	/**
+	 * Subclasses should override this to return true if processRecord may be called from several
+	 * threads at once, and never changes the position of a record
+	 * @return
+	 */
+	protected boolean supportsParallel() {
+		return false;
+	}
+
 	@Override
 	public void performOperation() throws OperationFailedException {
 				
@@ -44,11 +72,18 @@ public abstract class BAMProcessor extends IOOperator {
 
 	
 	
-	public void processBAMFile(BAMFile inputBAM, BAMFile outputBAM) {
+	public void processBAMFile(BAMFile inputBAM, BAMFile outputBAM) throws OperationFailedException {
 		SAMFileReader.setDefaultValidationStringency(ValidationStringency.LENIENT);
 		if (inputBAM.getFile() == null) {
 			throw new IllegalArgumentException("File associated with inputBAM " + inputBAM.getAbsolutePath() + " is null");
 		}
+		
+		int threads = getPreferredThreadCount();
+		if (supportsParallel() && threads > 1 && BAMShardProcessor.canShard(inputBAM.getFile())) {
+			processInShards(inputBAM, outputBAM, threads);
+			return;
+		}
+		
 		final SAMFileReader inputSam = new SAMFileReader(inputBAM.getFile());
 		inputSam.setValidationStringency(ValidationStringency.LENIENT);
 		
@@ -75,6 +110,37 @@ public abstract class BAMProcessor extends IOOperator {
 		writer.close();
 	}
 	
+	/**
+	 * Process the records of a coordinate-sorted, indexed BAM file in shards on multiple threads
+	 * @param inputBAM
+	 * @param outputBAM
+	 * @param threads
+	 * @throws OperationFailedException
+	 */
+	protected void processInShards(BAMFile inputBAM, BAMFile outputBAM, int threads) throws OperationFailedException {
+		int shardSize = BAMShardProcessor.DEFAULT_SHARD_SIZE;
+		String shardStr = getAttribute(SHARD_SIZE);
+		if (shardStr != null) {
+			shardSize = Integer.parseInt(shardStr);
+		}
+		
+		Logger.getLogger(Pipeline.primaryLoggerName).info(getObjectLabel() + " is processing " + inputBAM.getAbsolutePath() + " in shards of " + shardSize + " bases using " + threads + " threads");
+		BAMShardProcessor processor = new BAMShardProcessor(inputBAM.getFile(), threads, shardSize);
+		processor.setResourceScheduler(getResourceScheduler());
+		try {
+			processor.process(new BAMShardProcessor.RecordHandler() {
+				public SAMRecord processRecord(SAMRecord samRecord) {
+					return BAMProcessor.this.processRecord(samRecord);
+				}
+			}, outputBAM.getFile());
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new OperationFailedException("Error processing " + inputBAM.getAbsolutePath() + " : " + e.getMessage(), this);
+		}
+		
+		Logger.getLogger(Pipeline.primaryLoggerName).info(getObjectLabel() + " wrote " + processor.getRecordsWritten() + " of " + processor.getRecordsRead() + " from file " + inputBAM.getAbsolutePath());
+	}
+	
 	/**
 	 * Peform processing of single record from bam file, return record to be written to output. Return null
 	 * if read should not be in output file. 
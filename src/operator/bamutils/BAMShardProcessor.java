@@ -0,0 +1,297 @@
+package operator.bamutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.samtools.BAMRecordCodec;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+import pipeline.ResourceScheduler;
+
+/**
+ * Processes the records of a coordinate-sorted, indexed BAM file on several threads by splitting the
+ * genome into shards of shardSize bases. Each shard is read with an indexed query by a worker thread, which
+ * has its own SAMFileReader, and the records it produces are written to a temporary file of compressed BAM
+ * records with no header. When all shards are done the header and the shard files are concatenated, in
+ * genomic order, into a single sorted BAM file, with unmapped reads (which are handled as a final shard)
+ * at the end. Since BGZF blocks can simply be concatenated the records aren't read or compressed a second time.
+ *
+ * A record belongs to the shard containing its alignment start, so reads overlapping the boundary between
+ * two shards are processed once. The handler must be thread-safe, and must not change the position of records.
+ * @author brendan
+ *
+ */
+public class BAMShardProcessor {
+
+	public static final int DEFAULT_SHARD_SIZE = 10000000;
+
+	/**
+	 * Processes a single record, returning the record to write or null if nothing should be written
+	 */
+	public interface RecordHandler {
+		public SAMRecord processRecord(SAMRecord samRecord);
+	}
+
+	private final File inputFile;
+	private final int threads;
+	private final int shardSize;
+	private final AtomicLong recordsRead = new AtomicLong(0);
+	private final AtomicLong recordsWritten = new AtomicLong(0);
+	private ResourceScheduler resources = null;
+
+	//Each worker thread opens its own reader, all are closed when processing is done
+	private final List<SAMFileReader> openReaders = Collections.synchronizedList(new ArrayList<SAMFileReader>());
+	private final ThreadLocal<SAMFileReader> readers = new ThreadLocal<SAMFileReader>() {
+		protected SAMFileReader initialValue() {
+			SAMFileReader reader = new SAMFileReader(inputFile);
+			reader.setValidationStringency(ValidationStringency.LENIENT);
+			openReaders.add(reader);
+			return reader;
+		}
+	};
+
+	public BAMShardProcessor(File inputFile, int threads, int shardSize) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		if (shardSize < 1)
+			throw new IllegalArgumentException("Shard size must be at least 1");
+		this.inputFile = inputFile;
+		this.threads = threads;
+		this.shardSize = shardSize;
+	}
+
+	/**
+	 * True if the given file is a coordinate-sorted BAM file with an index, which is required for
+	 * processing in shards
+	 * @param bamFile
+	 * @return
+	 */
+	public static boolean canShard(File bamFile) {
+		SAMFileReader reader = new SAMFileReader(bamFile);
+		try {
+			reader.setValidationStringency(ValidationStringency.LENIENT);
+			return reader.isBinary() && reader.hasIndex()
+					&& reader.getFileHeader().getSortOrder() == SAMFileHeader.SortOrder.coordinate;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * If set, each shard acquires a CPU from the given scheduler before it's processed
+	 * @param resources
+	 */
+	public void setResourceScheduler(ResourceScheduler resources) {
+		this.resources = resources;
+	}
+
+	public long getRecordsRead() {
+		return recordsRead.get();
+	}
+
+	public long getRecordsWritten() {
+		return recordsWritten.get();
+	}
+
+	/**
+	 * Pass every record in the input file to the handler, and write the records it returns to outputFile
+	 * @param handler
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void process(final RecordHandler handler, File outputFile) throws IOException {
+		final SAMFileHeader header;
+		SAMFileReader headerReader = new SAMFileReader(inputFile);
+		headerReader.setValidationStringency(ValidationStringency.LENIENT);
+		header = headerReader.getFileHeader();
+		headerReader.close();
+
+		List<Shard> shards = new ArrayList<Shard>();
+		for(SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+			for(int start=1; start<=seq.getSequenceLength(); start += shardSize) {
+				int end = (int)Math.min((long)start + shardSize - 1, seq.getSequenceLength());
+				shards.add(new Shard(seq.getSequenceName(), start, end, tempFileFor(outputFile, shards.size())));
+			}
+		}
+		shards.add(new Shard(null, 0, 0, tempFileFor(outputFile, shards.size()))); //Unmapped reads
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for(final Shard shard : shards) {
+				Callable<Object> task = new Callable<Object>() {
+					public Object call() throws Exception {
+						processShard(shard, header, handler);
+						return null;
+					}
+				};
+				if (resources != null)
+					task = resources.withResources(task, 1, 0);
+				results.add(pool.submit(task));
+			}
+
+			for(Future<Object> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException)cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException)cause;
+					throw new IOException("Error processing shard of " + inputFile.getName() + " : " + cause.getMessage(), cause);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while processing shards of " + inputFile.getName());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+			synchronized(openReaders) {
+				for(SAMFileReader reader : openReaders) {
+					reader.close();
+				}
+				openReaders.clear();
+			}
+		}
+
+		try {
+			concatenate(header, shards, outputFile);
+		}
+		finally {
+			for(Shard shard : shards) {
+				shard.tmpFile.delete();
+			}
+		}
+	}
+
+	private static File tempFileFor(File outputFile, int index) {
+		return new File(outputFile.getAbsolutePath() + ".shard" + index + ".tmp");
+	}
+
+	/**
+	 * Read all records whose alignment starts in the shard, or all unmapped reads for the unmapped
+	 * shard, and write the processed records to the shard's temporary file
+	 */
+	private void processShard(Shard shard, SAMFileHeader header, RecordHandler handler) throws IOException {
+		SAMFileReader reader = readers.get();
+		SAMRecordIterator it = shard.contig == null
+				? reader.queryUnmapped()
+				: reader.queryOverlapping(shard.contig, shard.start, shard.end);
+
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(shard.tmpFile);
+		BAMRecordCodec codec = new BAMRecordCodec(header);
+		codec.setOutputStream(out);
+		long read = 0;
+		long written = 0;
+		try {
+			while(it.hasNext()) {
+				SAMRecord samRecord = it.next();
+				//Records starting before this shard belong to the previous one
+				if (shard.contig != null && samRecord.getAlignmentStart() < shard.start)
+					continue;
+
+				read++;
+				SAMRecord outputRecord = handler.processRecord(samRecord);
+				if (outputRecord != null) {
+					codec.encode(outputRecord);
+					written++;
+				}
+			}
+		}
+		finally {
+			it.close();
+			out.close();
+		}
+		recordsRead.addAndGet(read);
+		recordsWritten.addAndGet(written);
+	}
+
+	/**
+	 * Write a BAM file containing the header followed by the records in each shard, in order. Each
+	 * piece is a complete BGZF file, so we just drop the empty block that marks the end of each
+	 * one and add a single end marker after the last
+	 */
+	private static void concatenate(SAMFileHeader header, List<Shard> shards, File outputFile) throws IOException {
+		File headerFile = new File(outputFile.getAbsolutePath() + ".header.tmp");
+		SAMFileWriter headerWriter = new SAMFileWriterFactory().makeBAMWriter(header, true, headerFile);
+		headerWriter.close();
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16);
+		try {
+			appendWithoutTerminator(headerFile, out);
+			for(Shard shard : shards) {
+				appendWithoutTerminator(shard.tmpFile, out);
+			}
+			out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		}
+		finally {
+			out.close();
+			headerFile.delete();
+		}
+	}
+
+	private static void appendWithoutTerminator(File file, OutputStream out) throws IOException {
+		long length = file.length() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+		if (length < 0) {
+			throw new IOException("File " + file.getAbsolutePath() + " is too short to be a BGZF file");
+		}
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			byte[] buf = new byte[1 << 16];
+			long remaining = length;
+			while(remaining > 0) {
+				int read = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+				if (read < 0)
+					throw new IOException("Unexpected end of file reading " + file.getAbsolutePath());
+				out.write(buf, 0, read);
+				remaining -= read;
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * A region of one contig, or all unmapped reads if contig is null
+	 */
+	static class Shard {
+		final String contig;
+		final int start;
+		final int end;
+		final File tmpFile;
+
+		Shard(String contig, int start, int end, File tmpFile) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			this.tmpFile = tmpFile;
+		}
+	}
+}
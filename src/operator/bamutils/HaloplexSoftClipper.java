@@ -10,7 +10,10 @@ import net.sf.samtools.SAMRecord;
 
 public class HaloplexSoftClipper extends BAMProcessor {
 	
-	private byte[] qualsToWrite = null;
+	@Override
+	protected boolean supportsParallel() {
+		return true;
+	}
 	
 	@Override
 	public SAMRecord processRecord(SAMRecord samRecord) {
@@ -33,16 +36,9 @@ public class HaloplexSoftClipper extends BAMProcessor {
 			//clip read by converting base quality to zero
 			//byte[] qualities = samRecord.getBaseQualities();
 			
-			if (qualsToWrite == null || qualsToWrite.length != samRecord.getBaseQualities().length) {
-				qualsToWrite = Arrays.copyOf(samRecord.getBaseQualities(), samRecord.getBaseQualities().length);
-
-			}
-			else {
-				System.arraycopy(samRecord.getBaseQualities(), 0, qualsToWrite, 0, samRecord.getBaseQualities().length);
-			}
-
-
-
+			//Each record gets its own copy, records may be processed on several threads and
+			//the writer may hold on to them for a while
+			byte[] qualsToWrite = Arrays.copyOf(samRecord.getBaseQualities(), samRecord.getBaseQualities().length);
 
 			if (qualsToWrite.length>20) {
 
@@ -3,7 +3,8 @@ package operator.bamutils;
 import net.sf.samtools.SAMRecord;
 
 /**
- * Anything which can perform read filtering
+ * Anything which can perform read filtering. When an indexed BAM file is filtered in shards
+ * readPasses is called from several threads at once, so implementations must be thread-safe
  * @author brendan
  *
  */
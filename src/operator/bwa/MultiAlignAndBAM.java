@@ -1,9 +1,6 @@
 package operator.bwa;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -16,6 +13,7 @@ import java.util.logging.Logger;
 
 import operator.OperationFailedException;
 import operator.PipedCommandOp;
+import operator.process.ProcessPipeline;
 import pipeline.Pipeline;
 import pipeline.PipelineXMLConstants;
 import util.ElapsedTimeFormatter;
@@ -207,8 +205,9 @@ public class MultiAlignAndBAM extends PipedCommandOp {
 		logger.info("Beginning multi-lane alignment with " + files1.getFileCount() + " read pairs");
 
 		
-		//These are done in serial since bwa can parallelize itself
-		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()/threads) );
+		//bwa parallelizes itself, each job declares its thread count to the pipeline's ResourceScheduler,
+		//which only starts it when that many CPUs are free, so the pool doesn't need to divide threads by hand
+		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()) );
 		
 		if (pairedEnd) {
 			runPairedEndAlignment(files1, files2, skipSAIGen);
@@ -235,10 +234,7 @@ public class MultiAlignAndBAM extends PipedCommandOp {
 		}
 		
 		logger.info("All bwa aln steps have completed, now creating SAM files");
-		if (sampeThreads > 1)
-			threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount()/ sampeThreads );
-		else
-			threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount() );
+		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()) );
 		
 		
 		//Now build sam files in parallel since we can do that and bwa can't
@@ -401,24 +397,8 @@ public class MultiAlignAndBAM extends PipedCommandOp {
 			bamPath = bamPath + ".bam";
 			
 			
-			String comStr = pathToBWA + " sampe -r \"" + rgStr + "\" " + referencePath + " " + threadsStr + " " + saiFileOne + " " + saiFileTwo + " " + readsOne + " " + readsTwo + 
-								" | " +  pathToSamTools + " view -Sb - > " + bamPath;
-			String fileName = getProjectHome() + "sambuilder-" + ((1000000.0*Math.random())+"").substring(0, 6).replace(".", "") + ".sh";
-			
-			//System.out.println("Writing command string : " + comStr);
-			//System.out.println("To file : " + fileName);
-			BufferedWriter writer;
-			try {
-				writer = new BufferedWriter(new FileWriter(fileName));
-				writer.write(comStr + "\n");
-				writer.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-
-			
-			command1 = "/bin/bash " + fileName;
+			//The read group is passed as a single argument, so it needs no quoting
+			command1 = pathToBWA + " sampe -r " + rgStr + " " + referencePath + " " + threadsStr + " " + saiFileOne + " " + saiFileTwo + " " + readsOne + " " + readsTwo;
 		}
 		
 		/**
@@ -443,24 +423,7 @@ public class MultiAlignAndBAM extends PipedCommandOp {
 			bamPath = bamPath.replace(".txt", "");
 			bamPath = bamPath + ".bam";
 			
-			String comStr = pathToBWA + " samse -r \"" + rgStr + "\" " + referencePath + " " + threadsStr + " " + saiFileOne + " " + readsOne + 
-								" | " +  pathToSamTools + " view -Sb - > " + bamPath;
-			String fileName = getProjectHome() + "sambuilder-" + ((1000000.0*Math.random())+"").substring(0, 6).replace(".", "") + ".sh";
-			
-			System.out.println("Writing command string : " + comStr);
-			System.out.println("To file : " + fileName);
-			BufferedWriter writer;
-			try {
-				writer = new BufferedWriter(new FileWriter(fileName));
-				writer.write(comStr + "\n");
-				writer.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
-			//command1 = pathToBWA + " samse -r " + defaultRG + " " + referencePath + " " + saiFileOne + " " + readsOne;
-			command1 = "/bin/bash " + fileName;
+			command1 = pathToBWA + " samse -r " + rgStr + " " + referencePath + " " + threadsStr + " " + saiFileOne + " " + readsOne;
 		}
 		
 		@Override
@@ -470,8 +433,10 @@ public class MultiAlignAndBAM extends PipedCommandOp {
 					Date begin = new Date();
 					logger.info("Beginning task with command : " + command1 + " threadpool has " + threadPool.getActiveCount() + " active tasks");
 					
+					//Same as command1 | samtools view -Sb - > bamPath, but without a shell script
 					FileBuffer pipeDestination = new BAMFile(new File(bamPath));
-					runAndCaptureOutput(command1, Logger.getLogger(Pipeline.primaryLoggerName), pipeDestination);
+					ProcessPipeline pipe = new ProcessPipeline(command1, pathToSamTools + " view -Sb -");
+					runPipelineAndCaptureOutput(pipe, Logger.getLogger(Pipeline.primaryLoggerName), pipeDestination);
 					Date end = new Date();
 					synchronized (this) {
 						outputSAMs.addFile(pipeDestination);
@@ -188,8 +188,9 @@ public class MultiLaneAligner extends PipedCommandOp {
 //			logger.info("Setting skip .sai generation to : " + skipSAIGen1);
 //		}
 		
-		//These are done in serial since bwa can parallelize itself
-		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()/threads) );
+		//bwa parallelizes itself, each job declares its thread count to the pipeline's ResourceScheduler,
+		//which only starts it when that many CPUs are free, so the pool doesn't need to divide threads by hand
+		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()) );
 		
 		if (pairedEnd) {
 			runPairedEndAlignment(files1, files2, skipSAIGen1);
@@ -216,7 +217,7 @@ public class MultiLaneAligner extends PipedCommandOp {
 		}
 		
 		logger.info("All bwa aln steps have completed, now creating SAM files");
-		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount()/threads );
+		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( Math.max(1, getPreferredThreadCount()) );
 		//Now build sam files in parallel since we can do that and bwa can't
 		for(StringPair saiFiles : saiFileNames) {
 			SamBuilderJob makeSam = null;
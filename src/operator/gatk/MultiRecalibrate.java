@@ -6,7 +6,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import operator.MultiOperator;
@@ -65,43 +64,10 @@ public class MultiRecalibrate extends MultiOperator {
 			FileBuffer inputBuffer = inputBAMs.get(i);
 			String command[] = getFullCommand(inputBuffer, recalDataFiles.get(i));
 			logger.info("Submitting task with command : " + command[0]);
-			if (command != null) {
-				TaskOperator task = new TaskOperator(command, logger);
-				jobs.add(task);
-				threadPool.submit(task);
-			}
+			jobs.add(new TaskOperator(command, logger, inputBuffer));
 		}
 		
-		try {
-			logger.info("All count-covariate tasks have been submitted to multioperator " + getObjectLabel() + ", now awaiting termination...");
-			threadPool.shutdown(); //No new tasks will be submitted,
-			threadPool.awaitTermination(7, TimeUnit.DAYS); //Wait until all tasks have completed
-			//threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool( getPreferredThreadCount() );
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-				
-		try {
-			logger.info("All tasks have been submitted to multioperator " + getObjectLabel() + ", now awaiting termination...");
-			threadPool.shutdown(); //No new tasks will be submitted,
-			threadPool.awaitTermination(7, TimeUnit.DAYS); //Wait until all tasks have completed
-			
-			//Check for errors
-			boolean allOK = true;
-			for(TaskOperator job : jobs) {
-				if (job.isError()) {
-					allOK = false;
-					logger.severe("Parallel task in operator " + getObjectLabel() + " encountered error: " + job.getException());
-				}
-			}
-			if (!allOK) {
-				throw new OperationFailedException("One or more tasks in parallel operator " + getObjectLabel() + " encountered an error.", this);
-			}
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		runTasks(jobs, logger);
 	
 		Date end = new Date();
 		logger.info("Parallel multi-operation " + getObjectLabel() + " has completed (Total time " + ElapsedTimeFormatter.getElapsedTime(start.getTime(), end.getTime()) + " )");
@@ -1,69 +1,69 @@
 package operator.gatk;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
 import operator.IOOperator;
 import operator.OperationFailedException;
-import operator.StringPipeHandler;
 import pipeline.Pipeline;
-import pipeline.PipelineXMLConstants;
 import buffer.BAMFile;
-import buffer.FileBuffer;
 import buffer.MultiFileBuffer;
-import buffer.ReferenceFile;
 
 /**
  * Splits a single input BAM file into contigs based on chromosome and 
- * emits the result as a MultiFileBuffer
+ * emits the result as a MultiFileBuffer. The input must be indexed: each worker thread opens
+ * the input once and uses the index to copy all reads overlapping a contig into a new, indexed
+ * BAM file, so no external processes are started.
  * @author brendan
  *
  */
 public class SplitByChromosome extends IOOperator {
 
 	protected BAMFile inputBam;
-	protected ThreadPoolExecutor threadPool = null;
-	public static final String JVM_ARGS="jvmargs";
-	public static final String PATH = "path";
 	public static final String CHROMOSOMES = "chromosomes";
-	protected String defaultGATKPath = "~/GenomeAnalysisTK/GenomeAnalysisTK.jar";
-	protected String gatkPath = defaultGATKPath;
-	protected String jvmARGStr = "";
-	protected String referencePath = null;
-	protected MultiFileBuffer multiBAM;
 	protected MultiFileBuffer outputFiles;
 	//Default list of chromosomes to split out, which is all of them
-	static final String[] defaultChrs = new String[]{"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y"}; 
-	
-	@Override
-	public boolean requiresReference() {
-		return true;
-	}
-	
+	static final String[] defaultChrs = new String[]{"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y"};
+
+	//Each worker thread opens its own reader, all are closed when splitting is done
+	private final List<SAMFileReader> openReaders = Collections.synchronizedList(new ArrayList<SAMFileReader>());
+	private final ThreadLocal<SAMFileReader> readers = new ThreadLocal<SAMFileReader>() {
+		protected SAMFileReader initialValue() {
+			SAMFileReader reader = new SAMFileReader(inputBam.getFile());
+			reader.setValidationStringency(ValidationStringency.LENIENT);
+			openReaders.add(reader);
+			return reader;
+		}
+	};
+
 	@Override
 	public void performOperation() throws OperationFailedException {
-		threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(getPipelineOwner().getThreadCount());
-		
 		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
-		logger.info("Beginning splitting operation for operator " + getObjectLabel());		
-		
-		referencePath = ((ReferenceFile) getInputBufferForClass(ReferenceFile.class)).getAbsolutePath();
+		logger.info("Beginning splitting operation for operator " + getObjectLabel());
+
 		inputBam = (BAMFile) getInputBufferForClass(BAMFile.class);
-		
+
 		if (inputBam == null)
 			throw new OperationFailedException("No input BAM file found", this);
-		
+
 		outputFiles = (MultiFileBuffer) getOutputBufferForClass(MultiFileBuffer.class);
-		
-		Object propsPath = getPipelineProperty(PipelineXMLConstants.GATK_PATH);
-		if (propsPath != null)
-			gatkPath = propsPath.toString();
-		
-		String[] chromsToMake = parseChromosomes();		
+
+		String[] chromsToMake = parseChromosomes();
 		if (chromsToMake == null) {
 			chromsToMake = defaultChrs;
 		}
@@ -73,41 +73,68 @@ public class SplitByChromosome extends IOOperator {
 				strB.append(chromsToMake[i] + ", ");
 			logger.info(strB.toString());
 		}
-		
-		//Additional args for jvm
-		jvmARGStr = getPipelineProperty(JVM_ARGS);
-		logger.info(getObjectLabel() + " found jvm argument : " + jvmARGStr);
-		
-		//If it's still null then be sure to make it the empty string
-		if (jvmARGStr == null || jvmARGStr.length()==0) {
-			jvmARGStr = "";
-		}
 
-		//Submit all jobs to the thread pool
-		for(int i=0; i<chromsToMake.length; i++) {
-			String contig = chromsToMake[i];
-			Split job = new Split(contig);
-			threadPool.submit(job);
+		SAMFileReader headerReader = new SAMFileReader(inputBam.getFile());
+		headerReader.setValidationStringency(ValidationStringency.LENIENT);
+		boolean hasIndex = headerReader.hasIndex();
+		SAMFileHeader header = headerReader.getFileHeader();
+		headerReader.close();
+		if (! hasIndex) {
+			throw new OperationFailedException("Input BAM file " + inputBam.getAbsolutePath() + " has no index, cannot split by chromosome", this);
 		}
+		//Indexed files are sorted by coordinate, but the header may not say so, and indexing the output requires it
+		SAMFileHeader outputHeader = header.clone();
+		outputHeader.setSortOrder(SAMFileHeader.SortOrder.coordinate);
 
+		//Submit all jobs to the thread pool
+		ExecutorService threadPool = Executors.newFixedThreadPool(Math.max(1, Math.min(getPipelineOwner().getThreadCount(), chromsToMake.length)));
+		List<Future<BAMFile>> results = new ArrayList<Future<BAMFile>>();
 		try {
-			threadPool.shutdown(); //No new tasks will be submitted,
-			threadPool.awaitTermination(96, TimeUnit.HOURS);
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			for(int i=0; i<chromsToMake.length; i++) {
+				String contig = chromsToMake[i];
+				String sequenceName = findSequenceName(header, contig);
+				if (sequenceName == null) {
+					logger.warning("Contig " + contig + " is not in the header of " + inputBam.getAbsolutePath() + ", not splitting it out");
+					continue;
+				}
+				Callable<BAMFile> split = new Split(contig, sequenceName, outputHeader);
+				if (getResourceScheduler() != null)
+					split = getResourceScheduler().withResources(split, 1, 0);
+				results.add(threadPool.submit(split));
+			}
+
+			//Files are added in the order the chromosomes were given
+			for(Future<BAMFile> result : results) {
+				try {
+					addOutputFile(result.get());
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					throw new OperationFailedException("Error splitting " + inputBam.getAbsolutePath() + " : " + e.getCause().getMessage(), this);
+				} catch (InterruptedException e) {
+					throw new OperationFailedException("Interrupted while splitting " + inputBam.getAbsolutePath(), this);
+				}
+			}
 		}
-		
+		finally {
+			threadPool.shutdownNow();
+			synchronized(openReaders) {
+				for(SAMFileReader reader : openReaders) {
+					reader.close();
+				}
+				openReaders.clear();
+			}
+		}
+
 		if (chromsToMake == defaultChrs)
 			checkContigs(outputFiles.getFileList()); //Ensure all contigs have been created
-		logger.info("Done with splitting operator " + getObjectLabel());		
+		logger.info("Done with splitting operator " + getObjectLabel());
 	}
-	
+
 	/**
 	 * Attempt to read and parse the "chromosomes" property, which specifies exactly which
-	 * chromosomes to split out. We look for a comma-separated list of chrs, such as 
+	 * chromosomes to split out. We look for a comma-separated list of chrs, such as
 	 *   chromosomes="1,2,3,X,Y"
-	 * 
+	 *
 	 * @return
 	 */
 	private String[] parseChromosomes() {
@@ -115,7 +142,7 @@ public class SplitByChromosome extends IOOperator {
 		if (chrStr == null || chrStr.length()==0) {
 			return null;
 		}
-		
+
 		String[] toks = chrStr.split(",");
 		for(int i=0; i<toks.length; i++) {
 			toks[i] = toks[i].trim();
@@ -123,79 +150,67 @@ public class SplitByChromosome extends IOOperator {
 		return toks;
 	}
 
-	protected void addOutputFile(FileBuffer outputFile) {
-		outputFiles.addFile(outputFile);
-	}
-	
 	/**
-	 * Execute the given system command in it's own process
-	 * @param command
-	 * @throws OperationFailedException
+	 * The name of the sequence in the header matching the given contig, which may or may not
+	 * have a 'chr' prefix, or null if there is no such sequence
 	 */
-	protected void executeCommand(String command) throws OperationFailedException {
-		Runtime r = Runtime.getRuntime();
-		Process p;
-
-		try {
-			p = r.exec(command);
-			Thread errorHandler = new StringPipeHandler(p.getErrorStream(), System.err);
-			errorHandler.start();
-
-			try {
-				if (p.waitFor() != 0) {
-					throw new OperationFailedException("Task terminated with nonzero exit value : " + System.err.toString() + " command was: " + command, this);
-				}
-			} catch (InterruptedException e) {
-				throw new OperationFailedException("Task was interrupted : " + System.err.toString() + "\n" + e.getLocalizedMessage(), this);
-			}
-
+	private static String findSequenceName(SAMFileHeader header, String contig) {
+		if (header.getSequence(contig) != null)
+			return contig;
+		if (header.getSequence("chr" + contig) != null)
+			return "chr" + contig;
+		String stripped = contig.replace("chr", "");
+		if (header.getSequence(stripped) != null)
+			return stripped;
+		return null;
+	}
 
-		}
-		catch (IOException e1) {
-			throw new OperationFailedException("Task encountered an IO exception : " + System.err.toString() + "\n" + e1.getLocalizedMessage(), this);
-		}
+	protected void addOutputFile(BAMFile outputFile) {
+		outputFiles.addFile(outputFile);
 	}
-	
 
-	
-	
-	public class Split implements Runnable {
+
+	public class Split implements Callable<BAMFile> {
 
 		final String contig;
-		
-		public Split(String contig) {
+		final String sequenceName;
+		final SAMFileHeader header;
+
+		public Split(String contig, String sequenceName, SAMFileHeader header) {
 			this.contig = contig;
+			this.sequenceName = sequenceName;
+			this.header = header;
 		}
-		
+
 		@Override
-		public void run() {
+		public BAMFile call() throws Exception {
 			String inputPath = inputBam.getAbsolutePath();
 			int index = inputPath.lastIndexOf(".");
 			String prefix = inputPath;
 			if (index>0)
 				prefix = inputPath.substring(0, index);
-			String outputPath = prefix + ".c" + contig + ".bam";
-			
-			String command = "java -Xmx4g " + jvmARGStr + " -jar " + gatkPath + 
-					" -R " + referencePath + 
-					" -I " + inputBam.getAbsolutePath() + 
-					" -T PrintReads " +
-					" -o " + outputPath +
-					" -L " + contig;
-	
-
-			try {
-				Logger.getLogger(Pipeline.primaryLoggerName).info("Split operator is executing command " + command);		
+			File outputFile = new File(prefix + ".c" + contig + ".bam");
 
-				executeCommand(command);
-				addOutputFile(new BAMFile(new File(outputPath), contig));
+			Logger.getLogger(Pipeline.primaryLoggerName).info("Split operator is writing reads from contig " + sequenceName + " to " + outputFile.getAbsolutePath());
 
-			} catch (OperationFailedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			SAMFileWriterFactory factory = new SAMFileWriterFactory();
+			factory.setCreateIndex(true);
+			SAMFileWriter writer = factory.makeBAMWriter(header, true, outputFile);
+			SAMRecordIterator it = readers.get().queryOverlapping(sequenceName, 0, 0);
+			try {
+				while(it.hasNext()) {
+					SAMRecord samRecord = it.next();
+					writer.addAlignment(samRecord);
+				}
+			}
+			finally {
+				it.close();
+				writer.close();
 			}
+
+			return new BAMFile(outputFile, contig);
 		}
-		
+
 	}
 
 }
@@ -3,6 +3,13 @@ package operator.gene;
 import gene.Gene;
 import gene.GeneAnnotator;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import operator.OperationFailedException;
@@ -18,29 +25,112 @@ import buffer.GeneList;
 
 /**
  * Base class for operators that add 
+ * 
+ * Annotators that return true from supportsParallel() annotate several genes at once, using the
+ * pipeline thread count unless a threads="x" attribute is given. prepare() is called once before
+ * any genes are annotated, so annotators can load whatever they share between threads there.
  * @author brendan
  *
  */
 public abstract class AbstractGeneAnnotator extends Operator implements GeneAnnotator {
 
+	public static final String THREADS = "threads";
+	
 	GeneList genes = null;
 	
+	/**
+	 * Returns true if annotateGene() may be called from several threads at once, for different genes.
+	 * False by default
+	 * @return
+	 */
+	protected boolean supportsParallel() {
+		return false;
+	}
+	
+	/**
+	 * Number of threads to use when annotating in parallel. This is Pipeline.getThreadCount()
+	 * unless the user has specified a threads="x" argument to this annotator
+	 * @return
+	 */
+	public int getPreferredThreadCount() {
+		String threadsStr = getAttribute(THREADS);
+		if (threadsStr != null)
+			return Integer.parseInt(threadsStr);
+		if (getPipelineOwner() == null)
+			return 1;
+		return getPipelineOwner().getThreadCount();
+	}
+	
+	/**
+	 * Called before any genes are annotated. No-op by default
+	 * @throws OperationFailedException
+	 */
+	protected void prepare() throws OperationFailedException {
+		//Blank on purpose, subclasses may override
+	}
+	
 	@Override
 	public void performOperation() throws OperationFailedException {
 		if (genes == null) {
 			throw new OperationFailedException("Gene list not initialized", this);
 		}
 		
+		prepare();
+		
 		int count = 0;
-		for(String name : genes.getGeneNames()) {
-			Gene g = genes.getGeneByName(name);
-			annotateGene(g);
-			count++;
+		int threads = getPreferredThreadCount();
+		if (supportsParallel() && threads > 1) {
+			count = annotateParallel(threads);
+		}
+		else {
+			for(String name : genes.getGeneNames()) {
+				Gene g = genes.getGeneByName(name);
+				annotateGene(g);
+				count++;
+			}
 		}
 		
 		Logger.getLogger(Pipeline.primaryLoggerName).info("Gene annotator " + getObjectLabel() + " annotated " + count + " genes");
 	}
 	
+	/**
+	 * Annotate each gene in a separate task on a pool of the given number of threads. If any gene
+	 * fails the remaining tasks are cancelled and the first failure is rethrown
+	 * @param threads
+	 * @return Number of genes annotated
+	 * @throws OperationFailedException
+	 */
+	private int annotateParallel(int threads) throws OperationFailedException {
+		ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(String name : genes.getGeneNames()) {
+			final Gene g = genes.getGeneByName(name);
+			results.add(threadPool.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					annotateGene(g);
+					return null;
+				}
+			}));
+		}
+		threadPool.shutdown();
+		
+		try {
+			for(Future<Void> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			threadPool.shutdownNow();
+			throw new OperationFailedException("Interrupted while waiting for gene annotation to complete", this);
+		} catch (ExecutionException e) {
+			threadPool.shutdownNow();
+			Throwable cause = e.getCause();
+			if (cause instanceof OperationFailedException)
+				throw (OperationFailedException)cause;
+			throw new OperationFailedException("Gene annotator " + getObjectLabel() + " encountered an error: " + cause, this);
+		}
+		return results.size();
+	}
+	
 
 	@Override
 	public void initialize(NodeList children) {
@@ -48,6 +48,19 @@ public class GeneSummaryRanker extends AbstractGeneRelevanceRanker  {
 		return true;
 	}
 	
+	/**
+	 * Download any missing summaries for all genes in a few batches, rather than one at a time
+	 * as genes are annotated
+	 */
+	@Override
+	protected void prepare() {
+		if (summaryDB == null) {
+			initializeDB();
+		}
+		if (summaryDB != null)
+			summaryDB.prefetchSummaries(genes.getGeneNames());
+	}
+	
 	@Override
 	public void annotateGene(Gene g) throws OperationFailedException {
 		if (summaryDB == null) {
@@ -5,27 +5,36 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import pipeline.Pipeline;
+import util.ReferenceTable;
 
 /**
  * A class to read and store entries from the HGMD database file. The file is in a custom, BED-like format, with
  * the first three columns assumed to be chromosome, start, and stop position of a feature, and the remaining
  *  columns describing the feature.
+ *  
+ * Entries are kept in a ReferenceTable, so after the first time a file is read later runs just map
+ * the table's snapshot, and HGMDInfo objects are created only for the records that are looked up
  * @author brendan
  *
  */
 public class HGMDB {
 
-	protected Map<String, List<HGMDInfo>> db = new HashMap<String, List<HGMDInfo>>();
+	//Columns of the reference table
+	static final int CDOT = 0;
+	static final int PDOT = 1;
+	static final int GENE = 2;
+	static final int CONDITION = 3;
+	static final int ASSOC_TYPE = 4;
+	static final int CITATION = 5;
+	static final int PMID = 6;
+	static final int COLUMNS = 7;
+	static final String TABLE_FORMAT = "hgmd.1";
 	
-	protected Map<String, List<HGMDInfo>> geneMap = new HashMap<String, List<HGMDInfo>>();
+	protected ReferenceTable table = null;
 	
 	/**
 	 * Create the db by reading in information from the given db file
@@ -33,31 +42,19 @@ public class HGMDB {
 	 * @throws IOException
 	 */
 	public void initializeMap(File dbFile) throws IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(dbFile));
-		String line = reader.readLine();
-		while(line != null) {
-			importFromLine(line);
-			line = reader.readLine();
-		}
-		reader.close();
-		sortAll();
-		
-		int count = 0;
-		for(String contig : db.keySet()) {
-			count += db.get(contig).size();
-		}
+		table = ReferenceTable.load(dbFile, TABLE_FORMAT, new ReferenceTable.Parser() {
+			public void parse(File source, ReferenceTable.Builder builder) throws IOException {
+				BufferedReader reader = new BufferedReader(new FileReader(source));
+				String line = reader.readLine();
+				while(line != null) {
+					importFromLine(line, builder);
+					line = reader.readLine();
+				}
+				reader.close();
+			}
+		}, COLUMNS, GENE);
 		
-		Logger.getLogger(Pipeline.primaryLoggerName).info("HGMDb initialzed with " + count + " total variants in " + geneMap.size() + " genes");
-	}
-	
-	/**
-	 * Sort all info objects within each contig by starting position for quicker finding
-	 */
-	private void sortAll() {
-		for(String contig : db.keySet()) {
-			List<HGMDInfo> list = db.get(contig);
-			Collections.sort(list, new InfoComparator());
-		}
+		Logger.getLogger(Pipeline.primaryLoggerName).info("HGMDb initialzed with " + table.size() + " total variants in " + table.getValues(GENE).size() + " genes");
 	}
 	
 	/**
@@ -68,16 +65,11 @@ public class HGMDB {
 	 * @return
 	 */
 	public HGMDInfo getRecord(String contig, int pos) {
-		List<HGMDInfo> list = db.get(contig);
-		if (list == null)
-			return null;
-		
-		qInfo.pos = pos;
-		int index = Collections.binarySearch(list, qInfo, new InfoComparator());
-		if (index < 0)
+		int[] rows = table.getRowsAt(contig, pos);
+		if (rows.length == 0)
 			return null;
 		else 
-			return list.get(index);
+			return createInfo(rows[0]);
 		
 	}
 	
@@ -87,113 +79,47 @@ public class HGMDB {
 	 * @return
 	 */
 	public List<HGMDInfo> getRecordsForGene(String geneName) {
-		return geneMap.get(geneName);
+		int[] rows = table.getRows(GENE, geneName);
+		if (rows.length == 0)
+			return null;
+		List<HGMDInfo> infos = new ArrayList<HGMDInfo>(rows.length);
+		for(int row : rows) {
+			infos.add(createInfo(row));
+		}
+		return infos;
 	}
 	
-	private void importFromLine(String line) {
-		String[] toks = line.split("\t");
+	private HGMDInfo createInfo(int row) {
 		HGMDInfo info = new HGMDInfo();
-		info.contig = toks[0];
-		
+		info.contig = table.getContig(row);
+		info.pos = table.getPosition(row);
+		info.cDot = table.get(row, CDOT);
+		info.pDot = table.get(row, PDOT);
+		info.geneName = table.get(row, GENE);
+		info.condition = table.get(row, CONDITION);
+		info.assocType = table.get(row, ASSOC_TYPE);
+		info.citation = table.get(row, CITATION);
+		info.pmid = table.get(row, PMID);
+		return info;
+	}
+	
+	private static void importFromLine(String line, ReferenceTable.Builder builder) {
+		String[] toks = line.split("\t");
+		int pos;
 		try {
-			info.pos = Integer.parseInt(toks[1]);
+			pos = Integer.parseInt(toks[1]);
 		}
 		catch(NumberFormatException nfe) {
 			//Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not import HGMD variant from line: " + line);
 			return;
 		}
-		info.cDot = toks[2];
-		info.pDot = toks[3];
-		info.geneName = toks[4];
-		info.condition = toks[5];
-		info.assocType = toks[6];
-		info.citation = toks[7];
 		
+		String pmid = "";
 		if (toks.length>8) {
-			info.pmid = toks[8];
+			pmid = toks[8];
 		}
-		else {
-			info.pmid = "";
-		}
-
-		List<HGMDInfo> list = db.get(info.contig);
-		if (list == null) {
-			list = new ArrayList<HGMDInfo>(1024);
-			db.put(info.contig, list);
-		}
-		list.add(info);
 
-		List<HGMDInfo> geneList = geneMap.get(info.geneName);
-		if (geneList == null) {
-			geneList = new ArrayList<HGMDInfo>(256);
-			geneMap.put(info.geneName, geneList);
-		}
-		geneList.add(info);
-	}
-	
-	/**
-	 * Read information in this single line into the map that stores all of the data
-	 * @param line
-	 */
-	private void importFromLineOld(String line) {
-		String[] toks = line.split("\t");
-		
-		String contig = toks[0].replace("chr", "");
-		Integer pos = Integer.parseInt(toks[2]); //CRITICAL THAT THIS IS THE THIRD COLUMN, not the second!
-		String id = toks[5];
-		String nmAndCDot = toks[9];
-		String cDot = "?";
-		String pDot = "?";
-		String nm = "?";
-		boolean strand = toks[8].equals("+");
-		if (!nmAndCDot.contains(":")) {
-			//System.err.println("Confusing nm and cdot str..." + nmAndCDot);
-		}
-		else {
-			String[] cToks = nmAndCDot.split(":");
-			nm = cToks[0];
-			cDot = cToks[1];
-		}
-		
-		String npAndPDot = toks[10];
-		if (npAndPDot.contains(":")) {
-			String[] pToks = npAndPDot.split(":");
-			pDot = pToks[1];
-		}
-		String gene = toks[11];
-		String condition = toks[12].replace("$$", " ").trim();
-		HGMDInfo info = new HGMDInfo();
-		info.geneName = gene;
-		info.condition = condition;
-		info.cDot = cDot;
-		//info.hgmdID = id;
-		info.nm = nm;
-		info.pos = pos;
-		//info.strand = strand;
-		
-		//System.out.println(contig + ":" + pos + " " + info.toString());
-		List<HGMDInfo> list = db.get(contig);
-		if (list == null) {
-			list = new ArrayList<HGMDInfo>(1024);
-			db.put(contig, list);
-		}
-		list.add(info);
-		
-		List<HGMDInfo> geneList = geneMap.get(info.geneName);
-		if (geneList == null) {
-			geneList = new ArrayList<HGMDInfo>(256);
-			geneMap.put(info.geneName, geneList);
-		}
-		geneList.add(info);
-	}
-	
-	class InfoComparator implements Comparator<HGMDInfo> {
-
-		@Override
-		public int compare(HGMDInfo a, HGMDInfo b) {
-			return b.pos - a.pos;
-		}
-		
+		builder.add(toks[0], pos, toks[2], toks[3], toks[4], toks[5], toks[6], toks[7], pmid);
 	}
 	
 //	public void emitAsCSV(PrintStream out) {
@@ -261,8 +187,4 @@ public class HGMDB {
 //		}
 //		
 //	}
-	
-	//Used to speed up db lookups
-	private HGMDInfo qInfo = new HGMDInfo();
-	
 }
@@ -4,21 +4,29 @@ import gene.Gene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Logger;
 
-import math.graph.Graph;
-import math.graph.GraphNode;
+import math.graph.CompactGraph;
+import math.graph.DistanceMatrix;
 import math.graph.GraphUtils;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import pipeline.Pipeline;
 import pipeline.PipelineObject;
 import buffer.GeneInteractionGraph;
 
 /**
  * Annotates genes with the InteractionScore annotation which describes how close this
  * gene is to a key gene, given a GeneInteractionGraph
+ * 
+ * The distance from every gene to its nearest source gene is computed once, in a single multi-source
+ * shortest path pass over the compact form of the graph, before any genes are annotated. If the graph
+ * has a precomputed DistanceMatrix with rows for all of the source genes (see VarUtils graphDistances),
+ * the distances are read from it instead and the graph itself is never built
  * @author brendan
  *
  */
@@ -27,49 +35,96 @@ public class InteractionRanker extends AbstractGeneAnnotator {
 	protected GeneInteractionGraph geneGraph = null;
 	public static final String sourceGene = "source";
 	protected List<String> sourceGenes = null;
+	protected CompactGraph graph = null;
+	protected DistanceMatrix matrix = null; //Non-null if distances were read from a precomputed matrix
+	protected double[] distances = null; //Distance from each node in graph (or matrix) to the nearest source gene
 	
-	
+	/**
+	 * Parse the source gene labels and compute the distance from every gene to the nearest one
+	 */
 	@Override
-	public void annotateGene(Gene gene)  {
+	protected synchronized void prepare() {
+		if (distances != null)
+			return;
+		
+		String sourceProp = this.getAttribute(sourceGene);
+		if (sourceProp == null)
+			throw new IllegalArgumentException("No source genes specified");
+		String[] sourceArray = sourceProp.split(",");
+		sourceGenes = new ArrayList<String>();
+		for(int i=0; i<sourceArray.length; i++) {
+			sourceGenes.add(sourceArray[i].trim());
+		}
 		
-		Graph g;
 		try {
-			g = geneGraph.getGraph();
+			distances = distancesFromMatrix(geneGraph.getDistanceMatrix());
+			if (distances != null)
+				return;
+			graph = geneGraph.getCompactGraph();
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Could not read graph from file : " + e.getMessage());
 		}
 		
-		//Parse source gene labels AND compute the shortest path trees for all of them
-		if (sourceGenes == null) {
-			String sourceProp = this.getAttribute(sourceGene);
-			if (sourceProp == null)
-				throw new IllegalArgumentException("No source genes specified");
-			String[] sourceArray = sourceProp.split(",");
-			sourceGenes = new ArrayList<String>();
-			for(int i=0; i<sourceArray.length; i++) {
-				sourceGenes.add(sourceArray[i].trim());
-			}
-			
-			
-			for(String geneLabel : sourceGenes) {
-				GraphUtils.computeShortestPaths(g, geneLabel);	
+		int[] sources = new int[sourceGenes.size()];
+		int found = 0;
+		for(String geneLabel : sourceGenes) {
+			int index = graph.indexOf(geneLabel);
+			if (index < 0) {
+				System.err.println("ERROR : No node found with label : " + geneLabel + " cannot compute shortest paths for this gene");
+				continue;
 			}
-			
+			sources[found++] = index;
 		}
 		
-		//If no gene name then forget it
-		String geneName = gene.getName();
-
-		double shortestPath = Double.POSITIVE_INFINITY;
+		distances = GraphUtils.shortestDistances(graph, Arrays.copyOf(sources, found));
+	}
+	
+	/**
+	 * Distances to the nearest source gene read from the precomputed matrix, or null if there's no
+	 * matrix or some source gene in it has no row
+	 * @param dm
+	 * @return
+	 */
+	private double[] distancesFromMatrix(DistanceMatrix dm) {
+		if (dm == null)
+			return null;
+		
+		int[] sources = new int[sourceGenes.size()];
+		int found = 0;
 		for(String geneLabel : sourceGenes) {
-			GraphNode varNode = g.getNodeForLabel(geneName);
-			if (varNode != null) {
-				Double dist = varNode.getAnnotation("distance.to." + geneLabel);
-				if (dist != null && dist < shortestPath) {
-					shortestPath = dist;
-				}
+			int index = dm.indexOf(geneLabel);
+			if (index < 0) {
+				System.err.println("ERROR : No node found with label : " + geneLabel + " cannot compute shortest paths for this gene");
+				continue;
 			}
+			if (! dm.hasRow(index)) {
+				Logger.getLogger(Pipeline.primaryLoggerName).info("No precomputed distances for source gene " + geneLabel + ", computing distances from graph");
+				return null;
+			}
+			sources[found++] = index;
 		}
+		
+		matrix = dm;
+		return dm.distancesToNearest(Arrays.copyOf(sources, found));
+	}
+	
+	/**
+	 * Genes are just looked up in the distances computed by prepare()
+	 */
+	@Override
+	protected boolean supportsParallel() {
+		return true;
+	}
+	
+	@Override
+	public void annotateGene(Gene gene)  {
+		if (distances == null)
+			prepare();
+		
+		double shortestPath = Double.POSITIVE_INFINITY;
+		int index = matrix != null ? matrix.indexOf(gene.getName()) : graph.indexOf(gene.getName());
+		if (index >= 0)
+			shortestPath = distances[index];
 
 		if (shortestPath < Double.POSITIVE_INFINITY)
 			gene.addProperty(Gene.INTERACTION_SCORE, 1.0/(shortestPath+0.001));
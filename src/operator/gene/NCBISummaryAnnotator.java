@@ -19,6 +19,23 @@ public class NCBISummaryAnnotator extends AbstractGeneAnnotator {
 	public static final String NO_DOWNLOADS = "no.downloads";
 	CachedGeneSummaryDB summaryDB = null;
 	
+	/**
+	 * Download any missing summaries for all genes in a few batches, rather than one at a time
+	 * as genes are annotated
+	 */
+	@Override
+	protected void prepare() {
+		if (summaryDB == null) {
+			try {
+				initializeDB();
+			} catch (IOException e) {
+				Logger.getLogger(Pipeline.primaryLoggerName).severe("Could not create gene summary db : " + e.getMessage());
+				return;
+			}
+		}
+		summaryDB.prefetchSummaries(genes.getGeneNames());
+	}
+	
 	@Override
 	public void annotateGene(Gene g) {
 		if (summaryDB == null) {
@@ -13,6 +13,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import ncbi.CachedPubmedAbstractDB;
@@ -26,6 +28,7 @@ import org.w3c.dom.NodeList;
 
 import pipeline.Pipeline;
 import pipeline.PipelineObject;
+import util.TermMatcher;
 import buffer.TextBuffer;
 
 /**
@@ -48,9 +51,10 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 	GeneInfoDB geneInfo = null; //Look up gene IDs for gene symbols
 	TextBuffer termsFile = null; //Stores key terms we use to score pub med records (abstracts)
 	Map<String, Integer> rankingMap = null;
+	TermMatcher matcher = null; //Finds the terms in rankingMap in titles and abstracts
 	private boolean disableCacheWrites = false; //Disable writing of new variants to cache, useful if we have multiple instances running
-	private int examined = 0;
-	private int scored = 0;
+	private final AtomicInteger examined = new AtomicInteger(0);
+	private final AtomicInteger scored = new AtomicInteger(0);
 	
 	
 	/**
@@ -94,10 +98,10 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 		//Actually annotate the genes
 		super.performOperation();
 		
-		//Write map back to file when were done
-		if (abstractDB != null && abstractDB.getMapSize() > 500) {
+		//New abstracts are appended to the cache as they're downloaded, make sure they're on disk
+		if (abstractDB != null) {
 			try {
-				abstractDB.writeMapToFile();
+				abstractDB.flush();
 			} catch (IOException e) {
 				//Probably not a big deal, some abstracts won't get cached
 				e.printStackTrace();
@@ -108,15 +112,20 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 
 	}
 	
+	/**
+	 * Load the terms and the gene databases before any genes are annotated, since genes may be
+	 * annotated on several threads at once
+	 */
 	@Override
-	public void annotateGene(Gene gene) {
-		if (rankingMap == null) {
+	protected synchronized void prepare() {
+		if (matcher == null) {
 			try {
 				buildRankingMap();
 			} catch (IOException e) {
 				throw new IllegalStateException("IO error reading pubmed terms file : " + e.getMessage());
 
 			}
+			matcher = new TermMatcher(rankingMap);
 		}
 		
 		if (geneInfo == null) {
@@ -135,12 +144,6 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 			}
 		}
 		
-	
-		String geneName = gene.getName();
-		if (geneName == null || geneName.startsWith("HLA-") || geneName.startsWith("MUC")) {
-			return;
-		}
-		
 		if (geneToPubmed == null) {
 			try {
 				String pubmedPath = System.getProperty("user.home") + "/resources/gene2pubmed_human";
@@ -153,8 +156,25 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 				throw new IllegalStateException("Error opening gene2pubmed file : " + e.getMessage());
 			}
 		}
-		
-		
+	}
+	
+	/**
+	 * Abstracts are scored independently for each gene, and the abstract db may be read from several threads
+	 */
+	@Override
+	protected boolean supportsParallel() {
+		return true;
+	}
+	
+	@Override
+	public void annotateGene(Gene gene) {
+		if (matcher == null || geneInfo == null || geneToPubmed == null)
+			prepare();
+	
+		String geneName = gene.getName();
+		if (geneName == null || geneName.startsWith("HLA-") || geneName.startsWith("MUC")) {
+			return;
+		}
 		
 		String idStr = geneInfo.idForSymbolOrSynonym(geneName);
 		if (idStr == null) {
@@ -192,30 +212,36 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 		//System.out.println("Found " + records.size() + " records for " + pubmedIDs.size() + " ids for for gene : " + geneName);
 		//We take the *maximum* score found among all abstracts
 		
+		//Keep the best few records in a heap whose head is the worst of them, so it's the one replaced.
+		//Among equal scores earlier records are kept
 		int recordListSize = 10;
-		List<ScoredRecord> scoredRecs = new ArrayList<ScoredRecord>(recordListSize);
+		PriorityQueue<ScoredRecord> bestRecs = new PriorityQueue<ScoredRecord>(recordListSize, Collections.reverseOrder(new ScoreComparator()));
 		
-		//Double maxScore = 0.0;
-		//String maxHit = "-";
+		int index = 0;
 		for(PubMedRecord rec : records) {
 			if (rec != null) {
-				Double abstractScore = computeScore( rec );
+				double abstractScore = computeScore( rec );
 			
 				if (abstractScore > 0) {
 					ScoredRecord sRec = new ScoredRecord();
 					sRec.score = abstractScore;
 					sRec.rec = rec;
-					scoredRecs.add(sRec);
-					Collections.sort(scoredRecs, new ScoreComparator());
-					while (scoredRecs.size() > recordListSize) {
-						scoredRecs.remove(scoredRecs.size()-1);
+					sRec.index = index++;
+					if (bestRecs.size() < recordListSize) {
+						bestRecs.add(sRec);
+					}
+					else if (abstractScore > bestRecs.peek().score) {
+						bestRecs.poll();
+						bestRecs.add(sRec);
 					}
 				}
 				
 			}
 		}
+		List<ScoredRecord> scoredRecs = new ArrayList<ScoredRecord>(bestRecs);
+		Collections.sort(scoredRecs, new ScoreComparator());
 		 
-		examined++;
+		examined.incrementAndGet();
 		Double finalScore = 0.0;
 		if (scoredRecs.size() > 0) {
 			for(int i=0; i<scoredRecs.size(); i++) {
@@ -227,7 +253,7 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 		}
 		
 		if (finalScore > 0)
-			scored++;
+			scored.incrementAndGet();
 		gene.addProperty(Gene.PUBMED_SCORE, finalScore);
 		if (scoredRecs.size() > 0) {
 			PubMedRecord rec = scoredRecs.get(0).rec;
@@ -237,28 +263,20 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 	}
 
 	/**
-	 * Compute a score 
+	 * Compute a score for the record, which is the sum of the weights of all terms found in the abstract
+	 * plus twice the weights of all terms found in the title
 	 * @param rec
 	 * @return
 	 */
-	private Double computeScore(PubMedRecord rec) {
-		String title = rec.getTitle();
-		String abs = rec.getAbstract();
+	private double computeScore(PubMedRecord rec) {
+		CharSequence title = rec.getLowerCaseTitle();
+		CharSequence abs = rec.getLowerCaseAbstract();
 		
+		double score = 0;
 		if (title != null)
-			title = title.toLowerCase();
+			score += 2.0 * matcher.score(title);
 		if (abs != null)
-			abs = abs.toLowerCase();
-		
-		double score = 0;
-		for(String term : rankingMap.keySet()) {
-			if (title != null && title.contains(term)) {
-				score += 2.0*rankingMap.get(term);
-			}
-			if (abs != null && abs.contains(term)) {
-				score += rankingMap.get(term);
-			}
-		}
+			score += matcher.score(abs);
 		
 		//Discount older papers
 		Double mod = 1.0;
@@ -326,14 +344,18 @@ public class PubmedRanker extends AbstractGeneAnnotator {
 	class ScoredRecord {
 		PubMedRecord rec;
 		double score;
+		int index; //Order in which the record was scored
 	}
 	
+	/**
+	 * Sorts records by decreasing score, and records with equal scores in the order they were scored
+	 */
 	class ScoreComparator implements Comparator<ScoredRecord> {
 
 		@Override
 		public int compare(ScoredRecord arg0, ScoredRecord arg1) {
 			if (arg0.score == arg1.score)
-				return 0;
+				return arg0.index - arg1.index;
 			if (arg0.score < arg1.score)
 				return 1;
 			else 
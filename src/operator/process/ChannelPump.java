@@ -0,0 +1,92 @@
+package operator.process;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A thread that copies everything from one channel to another, for instance from the standard output of
+ * one process to the standard input of the next, or to a file. Data is copied through a single large direct
+ * buffer, or with FileChannel.transferFrom when the destination is a file, so memory use is bounded: if the
+ * destination stops reading, writes block and the source's pipe fills up, which in turn blocks the process
+ * writing to it. Both channels are closed when the source reaches its end or an error occurs, so a process
+ * whose reader has died sees a broken pipe rather than hanging.
+ * @author brendan
+ *
+ */
+public class ChannelPump extends Thread {
+
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	private final ReadableByteChannel source;
+	private final WritableByteChannel destination;
+	private volatile long bytesCopied = 0;
+	private volatile IOException error = null;
+
+	public ChannelPump(String name, ReadableByteChannel source, WritableByteChannel destination) {
+		super(name);
+		this.source = source;
+		this.destination = destination;
+		setDaemon(true);
+	}
+
+	public void run() {
+		try {
+			if (destination instanceof FileChannel)
+				copyToFile((FileChannel)destination);
+			else
+				copy();
+		}
+		catch (IOException e) {
+			error = e;
+		}
+		finally {
+			closeQuietly(source);
+			closeQuietly(destination);
+		}
+	}
+
+	private void copyToFile(FileChannel file) throws IOException {
+		long position = file.position();
+		long transferred = file.transferFrom(source, position, BUFFER_SIZE);
+		while(transferred > 0) {
+			position += transferred;
+			bytesCopied += transferred;
+			transferred = file.transferFrom(source, position, BUFFER_SIZE);
+		}
+	}
+
+	private void copy() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		while(source.read(buffer) >= 0) {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				bytesCopied += destination.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	private static void closeQuietly(Closeable channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//Nothing to do, we're done with the channel anyway
+		}
+	}
+
+	public long getBytesCopied() {
+		return bytesCopied;
+	}
+
+	/**
+	 * The exception that stopped the copy, or null if it completed normally
+	 * @return
+	 */
+	public IOException getError() {
+		return error;
+	}
+}
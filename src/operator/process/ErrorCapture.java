@@ -0,0 +1,88 @@
+package operator.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * A thread that reads the standard error stream of a process so it can never fill up and block the
+ * process. Everything read is optionally forwarded to a PrintStream (usually System.err), and only the
+ * last maxBytes are kept in memory, so a tool that writes gigabytes of warnings can't exhaust the heap
+ * but the end of its output is still available for error messages.
+ * @author brendan
+ *
+ */
+public class ErrorCapture extends Thread {
+
+	private final InputStream stream;
+	private final PrintStream forward;
+	private final byte[] tail;
+	private int tailStart = 0; //Index of the oldest byte in tail
+	private int tailLength = 0;
+	private long totalBytes = 0;
+
+	public ErrorCapture(String name, InputStream stream, PrintStream forward, int maxBytes) {
+		super(name);
+		this.stream = stream;
+		this.forward = forward;
+		this.tail = new byte[Math.max(1, maxBytes)];
+		setDaemon(true);
+	}
+
+	public void run() {
+		byte[] buf = new byte[8192];
+		try {
+			int read = stream.read(buf);
+			while(read >= 0) {
+				if (forward != null)
+					forward.write(buf, 0, read);
+				append(buf, read);
+				read = stream.read(buf);
+			}
+		}
+		catch (IOException e) {
+			//Stream closed because the process was destroyed, nothing else to read
+		}
+		finally {
+			if (forward != null)
+				forward.flush();
+			try {
+				stream.close();
+			} catch (IOException e) {
+				//Ignored
+			}
+		}
+	}
+
+	private synchronized void append(byte[] buf, int length) {
+		totalBytes += length;
+		for(int i=0; i<length; i++) {
+			int index = (tailStart + tailLength) % tail.length;
+			tail[index] = buf[i];
+			if (tailLength < tail.length)
+				tailLength++;
+			else
+				tailStart = (tailStart + 1) % tail.length;
+		}
+	}
+
+	/**
+	 * Total number of bytes written to the stream, including those no longer kept
+	 * @return
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * The last bytes written to the stream, as a string
+	 * @return
+	 */
+	public synchronized String getTail() {
+		byte[] bytes = new byte[tailLength];
+		for(int i=0; i<tailLength; i++) {
+			bytes[i] = tail[(tailStart + i) % tail.length];
+		}
+		return new String(bytes);
+	}
+}
@@ -0,0 +1,503 @@
+package operator.process;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Runs one or more external commands with the standard output of each connected to the standard input
+ * of the next, like a shell pipeline (bwa sampe ... | samtools view -Sb -), but without a shell or any
+ * intermediate files. The input of the first command may come from a file and the output of the last
+ * can be written to a file or stream. Data moves between processes through ChannelPumps, which use
+ * bounded buffers so a slow consumer simply blocks its producer.
+ *
+ * The standard error of every process is read by an ErrorCapture, which forwards it (to System.err by
+ * default) and keeps the last few kilobytes for error messages. While the processes run their CPU time and
+ * resident memory are sampled from /proc, and if a timeout is set all processes are destroyed once it
+ * passes. run() returns a ProcessStats for each command.
+ *
+ * Commands given as single strings are split on whitespace, exactly as Runtime.exec(String) does.
+ * @author brendan
+ *
+ */
+public class ProcessPipeline {
+
+	public static final int DEFAULT_MAX_ERROR_BYTES = 64 * 1024;
+	public static final long DEFAULT_SAMPLE_MILLIS = 1000;
+	public static final int SIGPIPE_EXIT = 128 + 13; //Exit value of a process killed by SIGPIPE
+	static final int CLOCK_TICKS_PER_SECOND = 100; //USER_HZ, which is 100 on essentially all Linux systems
+
+	private final List<String[]> commands = new ArrayList<String[]>();
+	private File inputFile = null;
+	private File outputFile = null;
+	private OutputStream outputStream = null;
+	private File workingDir = null;
+	private PrintStream errorForward = System.err;
+	private int maxErrorBytes = DEFAULT_MAX_ERROR_BYTES;
+	private long timeoutMillis = 0;
+	private long sampleMillis = DEFAULT_SAMPLE_MILLIS;
+
+	private volatile boolean timedOut = false;
+	private List<ProcessStats> stats = null;
+
+	public ProcessPipeline(String... commands) {
+		for(String command : commands) {
+			addCommand(command);
+		}
+	}
+
+	/**
+	 * Add a command to the end of the pipeline, splitting it into arguments on whitespace
+	 * @param command
+	 */
+	public void addCommand(String command) {
+		StringTokenizer toks = new StringTokenizer(command);
+		String[] args = new String[toks.countTokens()];
+		for(int i=0; i<args.length; i++) {
+			args[i] = toks.nextToken();
+		}
+		addCommand(args);
+	}
+
+	/**
+	 * Add a command, given as a program and its arguments, to the end of the pipeline
+	 * @param args
+	 */
+	public void addCommand(String[] args) {
+		if (args.length == 0)
+			throw new IllegalArgumentException("Empty command");
+		commands.add(args);
+	}
+
+	/**
+	 * Read the standard input of the first command from the given file. If not set the first command's
+	 * standard input is closed immediately
+	 * @param inputFile
+	 */
+	public void setInputFile(File inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	/**
+	 * Write the standard output of the last command to the given file
+	 * @param outputFile
+	 */
+	public void setOutputFile(File outputFile) {
+		this.outputFile = outputFile;
+		this.outputStream = null;
+	}
+
+	/**
+	 * Write the standard output of the last command to the given stream, which is closed when the
+	 * pipeline is done. If neither an output file or stream is set the output is discarded
+	 * @param outputStream
+	 */
+	public void setOutputStream(OutputStream outputStream) {
+		this.outputStream = outputStream;
+		this.outputFile = null;
+	}
+
+	public void setWorkingDirectory(File workingDir) {
+		this.workingDir = workingDir;
+	}
+
+	/**
+	 * Stream to which the standard error of all processes is copied, or null to not copy it anywhere
+	 * @param errorForward
+	 */
+	public void setErrorForward(PrintStream errorForward) {
+		this.errorForward = errorForward;
+	}
+
+	/**
+	 * Maximum number of bytes of each process's standard error to keep for ProcessStats.getErrorTail()
+	 * @param maxErrorBytes
+	 */
+	public void setMaxErrorBytes(int maxErrorBytes) {
+		this.maxErrorBytes = maxErrorBytes;
+	}
+
+	/**
+	 * Destroy all processes if they haven't finished after this many milliseconds. Zero means no timeout
+	 * @param timeoutMillis
+	 */
+	public void setTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public void setSampleInterval(long sampleMillis) {
+		if (sampleMillis < 1)
+			throw new IllegalArgumentException("Sample interval must be positive");
+		this.sampleMillis = sampleMillis;
+	}
+
+	/**
+	 * True if the last run was stopped because the timeout passed
+	 * @return
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Stats for each command from the last run, in pipeline order
+	 * @return
+	 */
+	public List<ProcessStats> getStats() {
+		return stats;
+	}
+
+	/**
+	 * The first command in the last run that exited with a nonzero value, or null if all succeeded.
+	 * As in a shell, a process killed by a broken pipe is not considered to have failed on its own,
+	 * since that happens whenever a downstream process quits early (as head does); if the downstream
+	 * process failed that failure is returned instead
+	 * @return
+	 */
+	public ProcessStats getFailure() {
+		if (stats == null)
+			return null;
+		for(ProcessStats stat : stats) {
+			if (stat.exitValue != 0 && stat.exitValue != SIGPIPE_EXIT)
+				return stat;
+		}
+		return null;
+	}
+
+	/**
+	 * True if the last run finished before any timeout and all commands exited with zero
+	 * @return
+	 */
+	public boolean succeeded() {
+		return stats != null && (! timedOut) && getFailure() == null;
+	}
+
+	/**
+	 * Start all commands, wait for them to finish and return their stats. An IOException is thrown
+	 * if a process can't be started or if the output can't be written, but not if a process fails,
+	 * use succeeded() or getFailure() to check for that
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<ProcessStats> run() throws IOException, InterruptedException {
+		if (commands.isEmpty())
+			throw new IllegalStateException("No commands to run");
+
+		timedOut = false;
+		final List<Process> processes = new ArrayList<Process>();
+		List<ProcessStats> results = new ArrayList<ProcessStats>();
+		List<ChannelPump> pumps = new ArrayList<ChannelPump>();
+		List<ErrorCapture> errors = new ArrayList<ErrorCapture>();
+
+		//Destroy all processes if the runtime is shut down so none are orphaned
+		Thread shutdownHook = new Thread() {
+			public void run() {
+				destroyAll(processes);
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+		Monitor monitor = null;
+		boolean completed = false;
+		long start = System.currentTimeMillis();
+		try {
+			for(String[] args : commands) {
+				ProcessBuilder builder = new ProcessBuilder(args);
+				if (workingDir != null)
+					builder.directory(workingDir);
+				Process proc;
+				try {
+					proc = builder.start();
+				}
+				catch (IOException e) {
+					destroyAll(processes);
+					throw new IOException("Could not start command " + join(args) + " : " + e.getMessage(), e);
+				}
+				processes.add(proc);
+				ProcessStats stat = new ProcessStats(join(args));
+				stat.pid = getPid(proc);
+				results.add(stat);
+
+				ErrorCapture err = new ErrorCapture("stderr-" + args[0], proc.getErrorStream(), errorForward, maxErrorBytes);
+				err.start();
+				errors.add(err);
+			}
+
+			//Connect the processes to each other and to the input and output
+			Process first = processes.get(0);
+			if (inputFile != null) {
+				pumps.add(startPump("stdin-pump", Channels.newChannel(new FileInputStream(inputFile)), Channels.newChannel(first.getOutputStream())));
+			}
+			else {
+				first.getOutputStream().close();
+			}
+			for(int i=0; i<processes.size()-1; i++) {
+				pumps.add(startPump("pipe-pump-" + i, Channels.newChannel(processes.get(i).getInputStream()), Channels.newChannel(processes.get(i+1).getOutputStream())));
+			}
+			Process last = processes.get(processes.size()-1);
+			if (outputFile != null) {
+				pumps.add(startPump("stdout-pump", Channels.newChannel(last.getInputStream()), new FileOutputStream(outputFile).getChannel()));
+			}
+			else if (outputStream != null) {
+				pumps.add(startPump("stdout-pump", Channels.newChannel(last.getInputStream()), Channels.newChannel(outputStream)));
+			}
+			else {
+				pumps.add(startPump("stdout-pump", Channels.newChannel(last.getInputStream()), Channels.newChannel(new NullOutputStream())));
+			}
+
+			monitor = new Monitor(processes, results, start);
+			monitor.start();
+
+			for(int i=0; i<processes.size(); i++) {
+				results.get(i).exitValue = processes.get(i).waitFor();
+				results.get(i).elapsedMillis = System.currentTimeMillis() - start;
+			}
+			for(ChannelPump pump : pumps) {
+				pump.join();
+			}
+			for(int i=0; i<errors.size(); i++) {
+				errors.get(i).join();
+				results.get(i).errorTail = errors.get(i).getTail();
+				results.get(i).errorBytes = errors.get(i).getTotalBytes();
+			}
+			completed = true;
+		}
+		finally {
+			//If anything went wrong (interruption, a file that can't be opened, etc.) don't leave any processes running
+			if (! completed)
+				destroyAll(processes);
+			if (monitor != null) {
+				monitor.interrupt();
+				monitor.join();
+			}
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			}
+			catch (IllegalStateException e) {
+				//Already shutting down, the hook will destroy the processes
+			}
+		}
+
+		stats = results;
+
+		//A broken pipe between processes just means a downstream process quit, which shows up in its
+		//exit value, but a failure writing the final output is an error in its own right
+		ChannelPump outputPump = pumps.get(pumps.size()-1);
+		if (outputPump.getError() != null && getFailure() == null && (! timedOut)) {
+			throw new IOException("Error writing output of " + results.get(results.size()-1).command + " : " + outputPump.getError().getMessage(), outputPump.getError());
+		}
+		return results;
+	}
+
+	private static ChannelPump startPump(String name, ReadableByteChannel source, WritableByteChannel dest) {
+		ChannelPump pump = new ChannelPump(name, source, dest);
+		pump.start();
+		return pump;
+	}
+
+	private static void destroyAll(List<Process> processes) {
+		synchronized(processes) {
+			for(Process proc : processes) {
+				proc.destroy();
+			}
+		}
+	}
+
+	private static String join(String[] args) {
+		StringBuilder str = new StringBuilder(args[0]);
+		for(int i=1; i<args.length; i++) {
+			str.append(" ").append(args[i]);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * The operating system id of the process, or -1 if it can't be found. Process.pid() exists in newer
+	 * JVMs, older ones keep the id in a private field of the UNIXProcess class
+	 */
+	static int getPid(Process proc) {
+		try {
+			Method pidMethod = Process.class.getMethod("pid");
+			return ((Number)pidMethod.invoke(proc)).intValue();
+		}
+		catch (Exception e) {
+			//Not available in this JVM
+		}
+		try {
+			Field pidField = proc.getClass().getDeclaredField("pid");
+			pidField.setAccessible(true);
+			return pidField.getInt(proc);
+		}
+		catch (Exception e) {
+			//Not available either
+		}
+		return -1;
+	}
+
+	/**
+	 * Sum of user and system CPU time of the process in milliseconds, read from /proc/pid/stat, or -1
+	 */
+	static long readCPUMillis(int pid) {
+		String stat = readFirstLine(new File("/proc/" + pid + "/stat"));
+		if (stat == null)
+			return -1;
+		//The command name may contain spaces, so fields are counted from the closing parenthesis
+		int paren = stat.lastIndexOf(')');
+		if (paren < 0)
+			return -1;
+		String[] toks = stat.substring(paren + 2).split(" ");
+		if (toks.length < 13)
+			return -1;
+		try {
+			long ticks = Long.parseLong(toks[11]) + Long.parseLong(toks[12]); //utime and stime
+			return ticks * 1000L / CLOCK_TICKS_PER_SECOND;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Resident set size of the process in kilobytes, read from /proc/pid/status, or -1
+	 */
+	static long readRSSKB(int pid) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"));
+			try {
+				String line = reader.readLine();
+				while(line != null) {
+					if (line.startsWith("VmRSS:")) {
+						String[] toks = line.substring(6).trim().split("\\s+");
+						return Long.parseLong(toks[0]);
+					}
+					line = reader.readLine();
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			//Process is gone or there's no /proc
+		}
+		catch (NumberFormatException e) {
+			//Unexpected format
+		}
+		return -1;
+	}
+
+	private static String readFirstLine(File file) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				return reader.readLine();
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Samples the CPU time and memory of running processes and destroys them all if the timeout passes
+	 */
+	class Monitor extends Thread {
+		final List<Process> processes;
+		final List<ProcessStats> results;
+		final long start;
+
+		Monitor(List<Process> processes, List<ProcessStats> results, long start) {
+			super("process-monitor");
+			this.processes = processes;
+			this.results = results;
+			this.start = start;
+			setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					sample();
+					long now = System.currentTimeMillis();
+					long wait = sampleMillis;
+					if (timeoutMillis > 0) {
+						if (now - start >= timeoutMillis) {
+							timedOut = true;
+							destroyAll(processes);
+							return;
+						}
+						wait = Math.min(wait, timeoutMillis - (now - start));
+					}
+					Thread.sleep(wait);
+				}
+			}
+			catch (InterruptedException e) {
+				//Processes are done
+			}
+		}
+
+		private void sample() {
+			for(ProcessStats stat : results) {
+				if (stat.pid < 0)
+					continue;
+				long cpu = readCPUMillis(stat.pid);
+				if (cpu >= 0)
+					stat.cpuMillis = cpu;
+				long rss = readRSSKB(stat.pid);
+				if (rss > stat.peakRSSKB)
+					stat.peakRSSKB = rss;
+			}
+		}
+	}
+
+	/**
+	 * Discards everything written to it
+	 */
+	static class NullOutputStream extends OutputStream {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	/**
+	 * The commands in this pipeline, each as a single string
+	 * @return
+	 */
+	public List<String> getCommandStrings() {
+		List<String> strs = new ArrayList<String>();
+		for(String[] args : commands) {
+			strs.add(join(args));
+		}
+		return strs;
+	}
+
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for(String[] args : commands) {
+			if (str.length() > 0)
+				str.append(" | ");
+			str.append(join(args));
+		}
+		return str.toString() + (outputFile != null ? " > " + outputFile.getAbsolutePath() : "");
+	}
+
+}
@@ -0,0 +1,119 @@
+package operator.process;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The outcome and resource use of one process run by a ProcessPipeline. CPU time and memory are
+ * sampled from /proc while the process runs, so they're approximate, only cover the process itself
+ * (not any children it starts), and are -1 where /proc or the process id isn't available.
+ * @author brendan
+ *
+ */
+public class ProcessStats {
+
+	private static final int MAX_UTF_CHARS = 16000; //writeUTF is limited to 64KB of encoded text
+
+	final String command;
+	int pid = -1;
+	int exitValue = -1;
+	long elapsedMillis = 0;
+	long cpuMillis = -1;
+	long peakRSSKB = -1;
+	String errorTail = "";
+	long errorBytes = 0;
+
+	ProcessStats(String command) {
+		this.command = command;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public int getPid() {
+		return pid;
+	}
+
+	public int getExitValue() {
+		return exitValue;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * User plus system CPU time as of the last sample, or -1 if unknown
+	 * @return
+	 */
+	public long getCPUMillis() {
+		return cpuMillis;
+	}
+
+	/**
+	 * Largest resident set size seen, in kilobytes, or -1 if unknown
+	 * @return
+	 */
+	public long getPeakRSSKB() {
+		return peakRSSKB;
+	}
+
+	/**
+	 * The last part of what the process wrote to standard error
+	 * @return
+	 */
+	public String getErrorTail() {
+		return errorTail;
+	}
+
+	/**
+	 * Total number of bytes written to standard error
+	 * @return
+	 */
+	public long getErrorBytes() {
+		return errorBytes;
+	}
+
+	/**
+	 * Write these stats so they can be read by read(...), for instance to send them from a worker
+	 * process to the pipeline that started the command
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeUTF(command);
+		out.writeInt(pid);
+		out.writeInt(exitValue);
+		out.writeLong(elapsedMillis);
+		out.writeLong(cpuMillis);
+		out.writeLong(peakRSSKB);
+		out.writeUTF(errorTail.length() > MAX_UTF_CHARS ? errorTail.substring(errorTail.length() - MAX_UTF_CHARS) : errorTail);
+		out.writeLong(errorBytes);
+	}
+
+	/**
+	 * Read stats written by write(...)
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static ProcessStats read(DataInput in) throws IOException {
+		ProcessStats stats = new ProcessStats(in.readUTF());
+		stats.pid = in.readInt();
+		stats.exitValue = in.readInt();
+		stats.elapsedMillis = in.readLong();
+		stats.cpuMillis = in.readLong();
+		stats.peakRSSKB = in.readLong();
+		stats.errorTail = in.readUTF();
+		stats.errorBytes = in.readLong();
+		return stats;
+	}
+
+	public String toString() {
+		String cpu = cpuMillis < 0 ? "?" : String.format("%.1fs", cpuMillis / 1000.0);
+		String rss = peakRSSKB < 0 ? "?" : (peakRSSKB / 1024) + "MB";
+		return "exit: " + exitValue + " wall: " + String.format("%.1fs", elapsedMillis / 1000.0) + " cpu: " + cpu + " peak rss: " + rss + " command: " + command;
+	}
+}
@@ -6,26 +6,44 @@ import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.logging.Logger;
 
-import math.Histogram;
-import net.sf.samtools.SAMFileReader;
-import net.sf.samtools.SAMFileReader.ValidationStringency;
-import net.sf.samtools.SAMRecord;
 import operator.IOOperator;
 import operator.OperationFailedException;
 import pipeline.Pipeline;
 import buffer.BAMFile;
 import buffer.BAMMetrics;
+import buffer.BEDFile;
+import buffer.DOCMetrics;
 import buffer.FileBuffer;
 import buffer.TextBuffer;
 
 /**
  * Computes some simple summary metrics for a bam file. BamMetrics means mostly base quality metrics, but also 
  * some general stats like number of aligned reads, duplicates, etc. 
+ * If a DOCMetrics output is given depth of coverage metrics are computed in the same pass, over the intervals
+ * in the input BED file if there is one, so a separate DepthOfCoverage step isn't needed. Metrics are
+ * computed by a BamMetricsEngine, on several threads if the input is indexed.
  * @author brendan
  *
  */
 public class BamMetrics extends IOOperator {
 
+	public static final String THREADS = "threads";
+	public static final String SHARD_SIZE = "shard.size";
+	
+	/**
+	 * Number of threads to use. This is the value of the threads attribute if given, otherwise the
+	 * pipeline's thread count
+	 * @return
+	 */
+	public int getPreferredThreadCount() {
+		String threadsStr = getAttribute(THREADS);
+		if (threadsStr != null)
+			return Integer.parseInt(threadsStr);
+		if (getPipelineOwner() == null)
+			return 1;
+		return getPipelineOwner().getThreadCount();
+	}
+	
 	@Override
 	public void performOperation() throws OperationFailedException {
 		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
@@ -39,13 +57,41 @@ public class BamMetrics extends IOOperator {
 			throw new OperationFailedException("No output BAM metrics object specified", this);
 		}
 		
+		DOCMetrics docMetrics = (DOCMetrics) getOutputBufferForClass(DOCMetrics.class);
+		BEDFile bedFile = (BEDFile) getInputBufferForClass(BEDFile.class);
 		
 		logger.info("Computing summary metrics for input bam file " + inputBAM.getAbsolutePath());
 		
 		FileBuffer outputFile = getOutputBufferForClass(TextBuffer.class);
 		
+		int shardSize = BamMetricsEngine.DEFAULT_SHARD_SIZE;
+		String shardStr = getAttribute(SHARD_SIZE);
+		if (shardStr != null) {
+			shardSize = Integer.parseInt(shardStr);
+		}
 		
-		computeBAMMetrics( (BAMFile)inputBAM, metrics);
+		BamMetricsEngine engine = new BamMetricsEngine(inputBAM.getFile(), getPreferredThreadCount(), shardSize);
+		engine.setResourceScheduler(getResourceScheduler());
+		if (docMetrics != null) {
+			if (bedFile != null)
+				engine.setTargets(bedFile);
+			else
+				engine.setComputeDepth(true);
+		}
+		
+		try {
+			engine.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new OperationFailedException("Error reading bam file " + inputBAM.getAbsolutePath() + " : " + e.getMessage(), this);
+		}
+		engine.fillBAMMetrics(metrics);
+		if (docMetrics != null) {
+			if (! engine.hasDepthMetrics()) {
+				throw new OperationFailedException("Could not compute depth of coverage for " + inputBAM.getAbsolutePath() + ", is it sorted by coordinate?", this);
+			}
+			engine.fillDOCMetrics(docMetrics);
+		}
 		
 		String metricsSummary = getBAMMetricsSummary(metrics);
 		try {
@@ -65,115 +111,20 @@ public class BamMetrics extends IOOperator {
 	}
 	
 	public static BAMMetrics computeBAMMetrics(BAMFile inputBAM, buffer.BAMMetrics metrics) {
-		SAMFileReader.setDefaultValidationStringency(ValidationStringency.LENIENT);
+		return computeBAMMetrics(inputBAM, metrics, 1);
+	}
+	
+	public static BAMMetrics computeBAMMetrics(BAMFile inputBAM, buffer.BAMMetrics metrics, int threads) {
 		if (inputBAM.getFile() == null) {
 			throw new IllegalArgumentException("File associated with inputBAM " + inputBAM.getAbsolutePath() + " is null");
 		}
-		final SAMFileReader inputSam = new SAMFileReader(inputBAM.getFile());
-		inputSam.setValidationStringency(ValidationStringency.LENIENT);		
-
-		int readCount = 0;
-		int unmappedCount = 0;
-		int unmappedMate = 0;
-		Histogram mqHisto = new Histogram(0, 80, 80);
-		Histogram insertSizeHisto = new Histogram(0, 1000, 100);
-		Histogram baseQHisto = new Histogram(0, 51, 51);
-		int dupCount = 0;
-		int failsVendorQuality = 0;
-		int hugeInsertSize = 0;
-		long basesAbove30 = 0;
-		long basesAbove20 = 0;
-		long basesAbove10 = 0;
-		long totalBaseCount = 0;
-		Histogram[] posHisto = null; 
-		
-		final int baseSubSample = 4; //Only count 1 of every this many bases
-		
-		for (final SAMRecord samRecord : inputSam) {
-			readCount++;
-						
-			mqHisto.addValue( samRecord.getMappingQuality() );
-			
-			if (samRecord.getMateUnmappedFlag())
-				unmappedMate++;
-			if (samRecord.getReadUnmappedFlag())
-				unmappedCount++;
-			if (samRecord.getReadFailsVendorQualityCheckFlag())
-				failsVendorQuality++;
-			if (samRecord.getDuplicateReadFlag())
-				dupCount++;
-			
-			byte[] baseQuals = samRecord.getBaseQualities();
-			if (samRecord.getSecondOfPairFlag()) {
-				for(int i=0; i<baseQuals.length/2; i++) {
-					byte tmp = baseQuals[i];
-					int secondPos = baseQuals.length-i-1;
-					baseQuals[i] = baseQuals[secondPos];
-					baseQuals[secondPos] = tmp;
-				}
-			}
-//			int[] baseQuals = new int[rawBaseQuals.length];
-//			for(int i=0; i<baseQuals.length; i++) {
-//				baseQuals[i] = (int)rawBaseQuals[i];
-//			}
-			
-			if (posHisto == null) {
-				posHisto = new Histogram[ Math.max(100, baseQuals.length) ];
-				System.out.println("Creating new position histogram array with length : " + posHisto.length);
-				for(int i=0; i<posHisto.length; i++)
-					posHisto[i] = new Histogram(0, 40, 40);
-			}
-			
-			
-			int start = readCount % baseSubSample;
-			for(int i=start; i<baseQuals.length; i+=baseSubSample) {
-				final int bq = (int) baseQuals[i];
-				if (bq > 30)
-					basesAbove30+=baseSubSample;
-				if (bq > 20)
-					basesAbove20+=baseSubSample;
-				if (bq > 10)
-					basesAbove10+=baseSubSample;
-				//int bq = (int)baseQuals[i];
-				baseQHisto.addValue( bq );
-				
-				if (i < posHisto.length) {
-					int index = i;
-					if (samRecord.getSecondOfPairFlag()) //invert for reverse orientation
-						index = posHisto.length - i -1;
-					posHisto[index].addValue( bq );
-				}
-			}
-			
-			totalBaseCount += baseQuals.length;
-			int insertSize = Math.abs( samRecord.getInferredInsertSize() );
-			if (insertSize > 10000) {
-				hugeInsertSize++;
-			}
-			else {
-				insertSizeHisto.addValue(insertSize);
-			}				
-		} //end loop over all reads
-
-
-		inputSam.close();
-		
-		metrics.path = inputBAM.getFile().getAbsolutePath();
-		metrics.totalReads = readCount;
-		metrics.unmappedReads = unmappedCount;
-		metrics.duplicateReads = dupCount;
-		metrics.unmappedMates = unmappedMate;
-		metrics.lowVendorQualityReads = failsVendorQuality;
-		metrics.insertSizeHistogram = insertSizeHisto;
-		metrics.baseQualityHistogram = baseQHisto;
-		metrics.hugeInsertSize = hugeInsertSize;
-		metrics.basesQAbove10 = basesAbove10;
-		metrics.basesQAbove20 = basesAbove20;
-		metrics.basesQAbove30 = basesAbove30;
-		metrics.mqHistogram = mqHisto;
-		metrics.basesRead = totalBaseCount;
-		metrics.readPosQualHistos = posHisto;
-		return metrics;
+		BamMetricsEngine engine = new BamMetricsEngine(inputBAM.getFile(), threads, BamMetricsEngine.DEFAULT_SHARD_SIZE);
+		try {
+			engine.run();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error reading bam file " + inputBAM.getAbsolutePath() + " : " + e.getMessage(), e);
+		}
+		return engine.fillBAMMetrics(metrics);
 	}
 	
 	public static String getBAMMetricsSummary(BAMMetrics metrics) {
@@ -0,0 +1,638 @@
+package operator.qc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import math.Histogram;
+import math.LongHistogram;
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.SAMSequenceRecord;
+import operator.bamutils.BAMShardProcessor;
+import pipeline.Pipeline;
+import pipeline.ResourceScheduler;
+import util.Interval;
+import buffer.BAMMetrics;
+import buffer.DOCMetrics;
+import buffer.DOCMetrics.FlaggedInterval;
+import buffer.IntervalsFile;
+
+/**
+ * Computes read, base quality and depth of coverage metrics for a BAM file in a single pass over the reads.
+ * If the file is coordinate-sorted and indexed the genome is split into shards which are read with indexed
+ * queries on several threads, each of which tallies counts in LongHistograms and long[] arrays that are
+ * summed when all shards are done. Otherwise the file is read start to finish on one thread. All bases
+ * of all reads are counted, nothing is subsampled.
+ *
+ * Depth is computed over the target intervals, if given, or over the whole genome otherwise. As with
+ * GATK's DepthOfCoverage, duplicate, secondary and vendor-failed reads don't count toward depth, and
+ * deletions aren't counted as coverage. Shard boundaries never fall inside a target, so every target base
+ * is handled by a single shard, which sees all reads overlapping it. Read metrics are counted only by the
+ * shard containing the read's alignment start, so each read is counted once.
+ * @author brendan
+ *
+ */
+public class BamMetricsEngine {
+
+	public static final int DEFAULT_SHARD_SIZE = 1000000;
+	public static final int[] DEFAULT_CUTOFFS = new int[]{5, 8, 10, 15, 20, 50};
+	public static final int MAX_DEPTH = 500; //Depths greater than this are counted as this
+	public static final int HUGE_INSERT_SIZE = 10000;
+	public static final int FLAG_DEPTH = 15; //Targets with too few bases covered to this depth are flagged
+	public static final double FLAG_PERCENT = 80.0;
+
+	static final int CYCLE_HISTO_MAX = 40;
+	static final int MIN_CYCLES = 100;
+
+	private final File inputFile;
+	private final int threads;
+	private final int shardSize;
+	private IntervalsFile targets = null;
+	private boolean computeDepth = false;
+	private ResourceScheduler resources = null;
+
+	private ReadCounts readCounts = null;
+	private DepthCounts depthCounts = null;
+
+	public BamMetricsEngine(File inputFile, int threads, int shardSize) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		if (shardSize < 1)
+			throw new IllegalArgumentException("Shard size must be at least 1");
+		this.inputFile = inputFile;
+		this.threads = threads;
+		this.shardSize = shardSize;
+	}
+
+	/**
+	 * Compute depth of coverage over the given intervals. This also turns on depth computation
+	 * @param targets
+	 */
+	public void setTargets(IntervalsFile targets) {
+		this.targets = targets;
+		this.computeDepth = true;
+	}
+
+	/**
+	 * Whether or not to compute depth of coverage, if no targets are set depth is computed
+	 * over the whole genome
+	 * @param computeDepth
+	 */
+	public void setComputeDepth(boolean computeDepth) {
+		this.computeDepth = computeDepth;
+	}
+
+	/**
+	 * If set, each shard acquires a CPU from the given scheduler before it's processed
+	 * @param resources
+	 */
+	public void setResourceScheduler(ResourceScheduler resources) {
+		this.resources = resources;
+	}
+
+	/**
+	 * True if depth metrics were computed by the last call to run(). This is false if depth wasn't
+	 * requested, or if the input file isn't sorted by coordinate
+	 * @return
+	 */
+	public boolean hasDepthMetrics() {
+		return depthCounts != null;
+	}
+
+	/**
+	 * Read the input file and compute all metrics
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		if (targets != null && (! targets.isMapCreated())) {
+			targets.buildIntervalsMap();
+		}
+
+		SAMFileReader headerReader = new SAMFileReader(inputFile);
+		headerReader.setValidationStringency(ValidationStringency.LENIENT);
+		SAMFileHeader header = headerReader.getFileHeader();
+		headerReader.close();
+
+		if (BAMShardProcessor.canShard(inputFile)) {
+			logger.info("Computing metrics for " + inputFile.getName() + " in shards of " + shardSize + " bases using " + threads + " threads");
+			runInShards(header);
+		}
+		else {
+			logger.info("Computing metrics for " + inputFile.getName() + " on a single thread since it is not an indexed, sorted BAM file");
+			runSerially(header);
+		}
+	}
+
+	/**
+	 * Split each contig into shards of about shardSize bases, moving boundaries that would fall in
+	 * a target to the end of the target
+	 */
+	private List<Shard> createShards(SAMFileHeader header) {
+		List<Shard> shards = new ArrayList<Shard>();
+		for(SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+			int length = seq.getSequenceLength();
+			List<Interval> contigTargets = computeDepth ? targetsForContig(seq.getSequenceName(), length) : null;
+			int t = 0;
+			int start = 1;
+			while(start <= length) {
+				int end = (int)Math.min((long)start + shardSize - 1, length);
+
+				List<Interval> shardTargets = new ArrayList<Interval>();
+				if (contigTargets == null) {
+					if (computeDepth)
+						shardTargets.add(new Interval(start, end));
+				}
+				else {
+					while(t < contigTargets.size() && contigTargets.get(t).begin <= end) {
+						Interval target = contigTargets.get(t);
+						end = Math.max(end, target.end);
+						shardTargets.add(target);
+						t++;
+					}
+				}
+				shards.add(new Shard(seq.getSequenceName(), seq.getSequenceIndex(), start, end, shardTargets, contigTargets != null));
+				start = end + 1;
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * The targets on the given contig as sorted, non-overlapping intervals of 1-based, inclusive
+	 * positions, or null if no targets have been set
+	 */
+	private List<Interval> targetsForContig(String contig, int contigLength) {
+		if (targets == null)
+			return null;
+
+		List<Interval> bedIntervals = targets.getIntervalsForContig(contig);
+		if (bedIntervals == null)
+			bedIntervals = targets.getIntervalsForContig(contig.replace("chr", ""));
+		if (bedIntervals == null)
+			return Collections.emptyList();
+
+		List<Interval> merged = new ArrayList<Interval>();
+		int curStart = -1;
+		int curEnd = -1;
+		for(Interval interval : bedIntervals) {
+			int start = interval.begin + 1;
+			int end = Math.min(interval.end, contigLength);
+			if (end < start)
+				continue;
+			if (curStart > 0 && start <= curEnd) {
+				curEnd = Math.max(curEnd, end);
+				continue;
+			}
+			if (curStart > 0)
+				merged.add(new Interval(curStart, curEnd));
+			curStart = start;
+			curEnd = end;
+		}
+		if (curStart > 0)
+			merged.add(new Interval(curStart, curEnd));
+		return merged;
+	}
+
+	private void runInShards(final SAMFileHeader header) throws IOException {
+		List<Shard> shards = createShards(header);
+		shards.add(new Shard(null, -1, 0, 0, new ArrayList<Interval>(), false)); //Unmapped reads
+
+		final List<SAMFileReader> openReaders = Collections.synchronizedList(new ArrayList<SAMFileReader>());
+		final ThreadLocal<SAMFileReader> readers = new ThreadLocal<SAMFileReader>() {
+			protected SAMFileReader initialValue() {
+				SAMFileReader reader = new SAMFileReader(inputFile);
+				reader.setValidationStringency(ValidationStringency.LENIENT);
+				openReaders.add(reader);
+				return reader;
+			}
+		};
+
+		ReadCounts reads = new ReadCounts();
+		DepthCounts depth = computeDepth ? new DepthCounts() : null;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<ShardResult>> results = new ArrayList<Future<ShardResult>>();
+			for(final Shard shard : shards) {
+				Callable<ShardResult> task = new Callable<ShardResult>() {
+					public ShardResult call() throws Exception {
+						return processShard(readers.get(), shard);
+					}
+				};
+				if (resources != null)
+					task = resources.withResources(task, 1, 0);
+				results.add(pool.submit(task));
+			}
+
+			//Results are merged in shard order so flagged intervals stay sorted
+			for(Future<ShardResult> future : results) {
+				try {
+					ShardResult result = future.get();
+					reads.merge(result.reads);
+					if (depth != null)
+						depth.merge(result.depth);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException)cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException)cause;
+					throw new IOException("Error computing metrics for " + inputFile.getName() + " : " + cause.getMessage(), cause);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while computing metrics for " + inputFile.getName());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+			synchronized(openReaders) {
+				for(SAMFileReader reader : openReaders) {
+					reader.close();
+				}
+				openReaders.clear();
+			}
+		}
+
+		readCounts = reads;
+		depthCounts = depth;
+	}
+
+	private ShardResult processShard(SAMFileReader reader, Shard shard) {
+		ShardResult result = new ShardResult();
+		SAMRecordIterator it = shard.contig == null
+				? reader.queryUnmapped()
+				: reader.queryOverlapping(shard.contig, shard.start, shard.end);
+		try {
+			while(it.hasNext()) {
+				SAMRecord samRecord = it.next();
+				//Reads starting before this shard are counted by the previous one, but still cover its targets
+				if (shard.contig == null || samRecord.getAlignmentStart() >= shard.start)
+					result.reads.add(samRecord);
+				if (computeDepth && countsTowardDepth(samRecord))
+					shard.addCoverage(samRecord);
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		if (computeDepth)
+			shard.finish(result.depth);
+		return result;
+	}
+
+	/**
+	 * Read the whole file on one thread. If it's sorted by coordinate shards are filled in order as the reads
+	 * go by, and each is finished once reads start past its end
+	 */
+	private void runSerially(SAMFileHeader header) throws IOException {
+		boolean sorted = header.getSortOrder() == SAMFileHeader.SortOrder.coordinate;
+		if (computeDepth && (! sorted)) {
+			Logger.getLogger(Pipeline.primaryLoggerName).warning("Not computing depth metrics for " + inputFile.getName() + " since it is not sorted by coordinate");
+		}
+		boolean doDepth = computeDepth && sorted;
+
+		List<Shard> shards = doDepth ? createShards(header) : new ArrayList<Shard>();
+		ReadCounts reads = new ReadCounts();
+		DepthCounts depth = doDepth ? new DepthCounts() : null;
+		int next = 0; //Index of first unfinished shard
+
+		SAMFileReader reader = new SAMFileReader(inputFile);
+		reader.setValidationStringency(ValidationStringency.LENIENT);
+		try {
+			for(final SAMRecord samRecord : reader) {
+				reads.add(samRecord);
+				if (! doDepth || (! countsTowardDepth(samRecord)))
+					continue;
+
+				int refIndex = samRecord.getReferenceIndex();
+				int start = samRecord.getAlignmentStart();
+				//Shards on earlier contigs, or ending before this read, will get no more reads
+				while(next < shards.size() && (shards.get(next).refIndex < refIndex || (shards.get(next).refIndex == refIndex && shards.get(next).end < start))) {
+					shards.get(next).finish(depth);
+					next++;
+				}
+				int end = samRecord.getAlignmentEnd();
+				for(int i=next; i<shards.size() && shards.get(i).refIndex == refIndex && shards.get(i).start <= end; i++) {
+					shards.get(i).addCoverage(samRecord);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		for(int i=next; i<shards.size(); i++) {
+			shards.get(i).finish(depth);
+		}
+		readCounts = reads;
+		depthCounts = depth;
+	}
+
+	private static boolean countsTowardDepth(SAMRecord samRecord) {
+		return (! samRecord.getReadUnmappedFlag())
+				&& (! samRecord.getDuplicateReadFlag())
+				&& (! samRecord.getNotPrimaryAlignmentFlag())
+				&& (! samRecord.getReadFailsVendorQualityCheckFlag());
+	}
+
+	/**
+	 * Store the read and base quality metrics from the last call to run() in the given BAMMetrics
+	 * @param metrics
+	 * @return
+	 */
+	public BAMMetrics fillBAMMetrics(BAMMetrics metrics) {
+		if (readCounts == null)
+			throw new IllegalStateException("Metrics have not been computed yet");
+		ReadCounts counts = readCounts;
+
+		Histogram[] posHisto = new Histogram[ Math.max(MIN_CYCLES, counts.cycles) ];
+		for(int i=0; i<posHisto.length; i++) {
+			posHisto[i] = i < counts.cycles
+					? counts.cycleQuals[i].toHistogram()
+					: new Histogram(0, CYCLE_HISTO_MAX, CYCLE_HISTO_MAX);
+		}
+
+		metrics.path = inputFile.getAbsolutePath();
+		metrics.totalReads = (int)counts.totalReads;
+		metrics.unmappedReads = (int)counts.unmappedReads;
+		metrics.duplicateReads = (int)counts.duplicateReads;
+		metrics.unmappedMates = (int)counts.unmappedMates;
+		metrics.lowVendorQualityReads = (int)counts.lowVendorQualityReads;
+		metrics.insertSizeHistogram = counts.insertSizes.toHistogram();
+		metrics.baseQualityHistogram = counts.baseQuals.toHistogram();
+		metrics.hugeInsertSize = (int)counts.hugeInsertSize;
+		metrics.basesQAbove10 = counts.basesAbove(10);
+		metrics.basesQAbove20 = counts.basesAbove(20);
+		metrics.basesQAbove30 = counts.basesAbove(30);
+		metrics.mqHistogram = counts.mq.toHistogram();
+		metrics.basesRead = counts.basesRead;
+		metrics.readPosQualHistos = posHisto;
+		return metrics;
+	}
+
+	/**
+	 * Store the depth of coverage metrics from the last call to run() in the given DOCMetrics. Fractions
+	 * above each cutoff are percentages and flagged intervals list the targets with less than FLAG_PERCENT
+	 * of bases covered to at least FLAG_DEPTH, as in the GATK summary files
+	 * @param metrics
+	 * @return
+	 */
+	public DOCMetrics fillDOCMetrics(DOCMetrics metrics) {
+		if (depthCounts == null)
+			throw new IllegalStateException("Depth metrics have not been computed");
+		DepthCounts counts = depthCounts;
+
+		//Proportion of bases with depth at least i
+		double[] props = new double[MAX_DEPTH + 1];
+		long atLeast = 0;
+		for(int i=MAX_DEPTH; i>=0; i--) {
+			atLeast += counts.depthCounts[i];
+			props[i] = counts.bases == 0 ? 0 : (double)atLeast / (double)counts.bases;
+		}
+
+		double[] fractions = new double[DEFAULT_CUTOFFS.length];
+		for(int i=0; i<DEFAULT_CUTOFFS.length; i++) {
+			fractions[i] = 100.0 * props[ Math.min(DEFAULT_CUTOFFS[i], MAX_DEPTH) ];
+		}
+
+		metrics.setSourceFile(inputFile.getName());
+		metrics.setMeanCoverage(counts.bases == 0 ? 0 : (double)counts.totalDepth / (double)counts.bases);
+		metrics.setCutoffs(DEFAULT_CUTOFFS);
+		metrics.setFractionAboveCutoff(fractions);
+		metrics.setCoverageProportions(props);
+		metrics.setFlaggedIntervals(counts.flagged);
+		return metrics;
+	}
+
+	/**
+	 * Counts of read level and base quality metrics, in LongHistograms so they can be merged across shards
+	 */
+	static class ReadCounts {
+		long totalReads = 0;
+		long unmappedReads = 0;
+		long unmappedMates = 0;
+		long duplicateReads = 0;
+		long lowVendorQualityReads = 0;
+		long hugeInsertSize = 0;
+		long basesRead = 0;
+		final LongHistogram mq = new LongHistogram(0, 80, 80);
+		final LongHistogram insertSizes = new LongHistogram(0, 1000, 100);
+		final LongHistogram baseQuals = new LongHistogram(0, 51, 51);
+		LongHistogram[] cycleQuals = new LongHistogram[MIN_CYCLES];
+		int cycles = 0;
+
+		void add(SAMRecord samRecord) {
+			totalReads++;
+			mq.addValue( samRecord.getMappingQuality() );
+
+			if (samRecord.getReadPairedFlag() && samRecord.getMateUnmappedFlag())
+				unmappedMates++;
+			if (samRecord.getReadUnmappedFlag())
+				unmappedReads++;
+			if (samRecord.getReadFailsVendorQualityCheckFlag())
+				lowVendorQualityReads++;
+			if (samRecord.getDuplicateReadFlag())
+				duplicateReads++;
+
+			final byte[] quals = samRecord.getBaseQualities();
+			final int length = quals.length;
+			ensureCycles(length);
+
+			//Qualities are stored in reference order, so the first cycle of a reverse strand read is last
+			final boolean reverse = samRecord.getReadNegativeStrandFlag();
+			for(int i=0; i<length; i++) {
+				final int bq = quals[i];
+				baseQuals.addValue(bq);
+				cycleQuals[reverse ? length - i - 1 : i].addValue(bq);
+			}
+			basesRead += length;
+
+			final int insertSize = Math.abs( samRecord.getInferredInsertSize() );
+			if (insertSize > HUGE_INSERT_SIZE)
+				hugeInsertSize++;
+			else
+				insertSizes.addValue(insertSize);
+		}
+
+		private void ensureCycles(int length) {
+			if (length <= cycles)
+				return;
+			if (length > cycleQuals.length) {
+				LongHistogram[] newQuals = new LongHistogram[Math.max(length, 2*cycleQuals.length)];
+				System.arraycopy(cycleQuals, 0, newQuals, 0, cycles);
+				cycleQuals = newQuals;
+			}
+			for(int i=cycles; i<length; i++) {
+				cycleQuals[i] = new LongHistogram(0, CYCLE_HISTO_MAX, CYCLE_HISTO_MAX);
+			}
+			cycles = length;
+		}
+
+		void merge(ReadCounts other) {
+			totalReads += other.totalReads;
+			unmappedReads += other.unmappedReads;
+			unmappedMates += other.unmappedMates;
+			duplicateReads += other.duplicateReads;
+			lowVendorQualityReads += other.lowVendorQualityReads;
+			hugeInsertSize += other.hugeInsertSize;
+			basesRead += other.basesRead;
+			mq.merge(other.mq);
+			insertSizes.merge(other.insertSizes);
+			baseQuals.merge(other.baseQuals);
+			ensureCycles(other.cycles);
+			for(int i=0; i<other.cycles; i++) {
+				cycleQuals[i].merge(other.cycleQuals[i]);
+			}
+		}
+
+		/**
+		 * Number of bases with quality greater than cutoff
+		 */
+		long basesAbove(int cutoff) {
+			long sum = baseQuals.getMoreThanMax();
+			for(int i=cutoff+1; i<baseQuals.getBinCount(); i++) {
+				sum += baseQuals.getCount(i);
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Counts of target bases at each depth, plus the targets flagged as poorly covered
+	 */
+	static class DepthCounts {
+		final long[] depthCounts = new long[MAX_DEPTH + 1];
+		long bases = 0;
+		long totalDepth = 0;
+		final List<FlaggedInterval> flagged = new ArrayList<FlaggedInterval>();
+
+		void merge(DepthCounts other) {
+			for(int i=0; i<depthCounts.length; i++) {
+				depthCounts[i] += other.depthCounts[i];
+			}
+			bases += other.bases;
+			totalDepth += other.totalDepth;
+			flagged.addAll(other.flagged);
+		}
+	}
+
+	static class ShardResult {
+		final ReadCounts reads = new ReadCounts();
+		final DepthCounts depth = new DepthCounts();
+	}
+
+	/**
+	 * A region of one contig, or all unmapped reads if contig is null, along with per-base depths for the
+	 * targets within it. Targets are 1-based, inclusive, sorted and non-overlapping. Depth arrays are
+	 * allocated when a read first covers a target and dropped when the shard is finished
+	 */
+	static class Shard {
+		final String contig;
+		final int refIndex;
+		final int start;
+		final int end;
+		final int[] targetStarts;
+		final int[] targetEnds;
+		final boolean flagTargets;
+		int[][] depths;
+
+		Shard(String contig, int refIndex, int start, int end, List<Interval> targets, boolean flagTargets) {
+			this.contig = contig;
+			this.refIndex = refIndex;
+			this.start = start;
+			this.end = end;
+			this.flagTargets = flagTargets;
+			targetStarts = new int[targets.size()];
+			targetEnds = new int[targets.size()];
+			for(int i=0; i<targets.size(); i++) {
+				targetStarts[i] = targets.get(i).begin;
+				targetEnds[i] = targets.get(i).end;
+			}
+			depths = new int[targets.size()][];
+		}
+
+		void addCoverage(SAMRecord samRecord) {
+			if (targetStarts.length == 0)
+				return;
+			for(AlignmentBlock block : samRecord.getAlignmentBlocks()) {
+				final int blockStart = block.getReferenceStart();
+				final int blockEnd = blockStart + block.getLength() - 1;
+				for(int t=firstTargetEndingAtOrAfter(blockStart); t<targetStarts.length && targetStarts[t] <= blockEnd; t++) {
+					int[] depth = depths[t];
+					if (depth == null) {
+						depth = new int[targetEnds[t] - targetStarts[t] + 1];
+						depths[t] = depth;
+					}
+					final int from = Math.max(blockStart, targetStarts[t]) - targetStarts[t];
+					final int to = Math.min(blockEnd, targetEnds[t]) - targetStarts[t];
+					for(int i=from; i<=to; i++) {
+						depth[i]++;
+					}
+				}
+			}
+		}
+
+		private int firstTargetEndingAtOrAfter(int pos) {
+			int lo = 0;
+			int hi = targetEnds.length;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (targetEnds[mid] < pos)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * Add the depths of all target bases to the given counts and release the depth arrays
+		 */
+		void finish(DepthCounts counts) {
+			for(int t=0; t<targetStarts.length; t++) {
+				final int length = targetEnds[t] - targetStarts[t] + 1;
+				final int[] depth = depths[t];
+				long sum = 0;
+				long covered = 0;
+				if (depth == null) {
+					counts.depthCounts[0] += length;
+				}
+				else {
+					for(int i=0; i<length; i++) {
+						final int d = depth[i];
+						counts.depthCounts[ Math.min(d, MAX_DEPTH) ]++;
+						sum += d;
+						if (d >= FLAG_DEPTH)
+							covered++;
+					}
+				}
+				counts.bases += length;
+				counts.totalDepth += sum;
+
+				double percent = 100.0 * covered / length;
+				if (flagTargets && percent < FLAG_PERCENT) {
+					FlaggedInterval flagged = new FlaggedInterval();
+					flagged.info = contig + ":" + targetStarts[t] + "-" + targetEnds[t];
+					flagged.mean = (double)sum / (double)length;
+					flagged.frac = percent;
+					counts.flagged.add(flagged);
+				}
+			}
+			depths = null;
+		}
+	}
+}
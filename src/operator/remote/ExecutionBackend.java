@@ -0,0 +1,35 @@
+package operator.remote;
+
+import java.io.IOException;
+
+/**
+ * Something that can run external commands somewhere other than the pipeline's own JVM, such as a pool
+ * of worker processes on this and other machines. A pipeline has a backend only if the WORKERS property
+ * is set, see Pipeline.getExecutionBackend(), and MultiOperators send their task commands to it.
+ * @author brendan
+ *
+ */
+public interface ExecutionBackend {
+
+	/**
+	 * Run the job, blocking until it completes, and return the result. Failures of the job itself (nonzero
+	 * exit values or timeouts) are reported in the result, an IOException means the backend couldn't get
+	 * the job run at all
+	 * @param job
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException If the calling thread is interrupted, in which case the job is killed
+	 */
+	public JobResult run(RemoteJob job) throws IOException, InterruptedException;
+
+	/**
+	 * Maximum number of jobs that can run at once
+	 * @return
+	 */
+	public int getCapacity();
+
+	/**
+	 * Stop all workers, this backend can't be used afterwards
+	 */
+	public void shutdown();
+}
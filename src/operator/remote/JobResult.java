@@ -0,0 +1,103 @@
+package operator.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import operator.process.ProcessPipeline;
+import operator.process.ProcessStats;
+
+/**
+ * The outcome of a RemoteJob: the stats of each of its processes, whether it timed out, and the
+ * error message if the worker couldn't run it at all (for instance, if a program doesn't exist)
+ * @author brendan
+ *
+ */
+public class JobResult {
+
+	private final List<ProcessStats> stats;
+	private final boolean timedOut;
+	private final String error;
+	private String workerName = null;
+
+	public JobResult(List<ProcessStats> stats, boolean timedOut, String error) {
+		this.stats = stats;
+		this.timedOut = timedOut;
+		this.error = error;
+	}
+
+	public List<ProcessStats> getStats() {
+		return stats;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Message describing why the job couldn't be run, or null if it was run
+	 * @return
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * The first process that exited with a nonzero value, ignoring those killed by a broken pipe,
+	 * or null if there are none. This uses the same rule as ProcessPipeline.getFailure()
+	 * @return
+	 */
+	public ProcessStats getFailure() {
+		for(ProcessStats stat : stats) {
+			if (stat.getExitValue() != 0 && stat.getExitValue() != ProcessPipeline.SIGPIPE_EXIT)
+				return stat;
+		}
+		return null;
+	}
+
+	/**
+	 * True if the job ran, finished in time, and all processes exited normally
+	 * @return
+	 */
+	public boolean succeeded() {
+		return error == null && (! timedOut) && getFailure() == null;
+	}
+
+	/**
+	 * Name of the worker that ran the job
+	 * @return
+	 */
+	public String getWorkerName() {
+		return workerName;
+	}
+
+	void setWorkerName(String workerName) {
+		this.workerName = workerName;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeBoolean(timedOut);
+		out.writeBoolean(error != null);
+		if (error != null)
+			out.writeUTF(error);
+		out.writeInt(stats.size());
+		for(ProcessStats stat : stats) {
+			stat.write(out);
+		}
+	}
+
+	public static JobResult read(DataInput in) throws IOException {
+		boolean timedOut = in.readBoolean();
+		String error = null;
+		if (in.readBoolean())
+			error = in.readUTF();
+		int count = in.readInt();
+		List<ProcessStats> stats = new ArrayList<ProcessStats>();
+		for(int i=0; i<count; i++) {
+			stats.add(ProcessStats.read(in));
+		}
+		return new JobResult(stats, timedOut, error);
+	}
+}
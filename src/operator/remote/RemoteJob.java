@@ -0,0 +1,123 @@
+package operator.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A unit of work sent to a worker: one or more commands connected by pipes, and optionally files for the
+ * input of the first and the output of the last. Since workers may run on other machines all paths
+ * must be on a filesystem shared by all nodes, and should be absolute.
+ * @author brendan
+ *
+ */
+public class RemoteJob {
+
+	private final List<String> commands = new ArrayList<String>();
+	private String inputPath = null;
+	private String outputPath = null;
+	private String workingDir = null;
+	private long timeoutMillis = 0;
+
+	public RemoteJob(String... commands) {
+		for(String command : commands) {
+			this.commands.add(command);
+		}
+	}
+
+	public List<String> getCommands() {
+		return commands;
+	}
+
+	public String getInputPath() {
+		return inputPath;
+	}
+
+	public void setInputPath(String inputPath) {
+		this.inputPath = inputPath;
+	}
+
+	public String getOutputPath() {
+		return outputPath;
+	}
+
+	/**
+	 * Write the standard output of the last command to this file, if not set it's discarded
+	 * @param outputPath
+	 */
+	public void setOutputPath(String outputPath) {
+		this.outputPath = outputPath;
+	}
+
+	public String getWorkingDir() {
+		return workingDir;
+	}
+
+	public void setWorkingDir(String workingDir) {
+		this.workingDir = workingDir;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Destroy the commands if they haven't finished after this long, zero means no timeout
+	 * @param timeoutMillis
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(commands.size());
+		for(String command : commands) {
+			out.writeUTF(command);
+		}
+		writeNullable(out, inputPath);
+		writeNullable(out, outputPath);
+		writeNullable(out, workingDir);
+		out.writeLong(timeoutMillis);
+	}
+
+	public static RemoteJob read(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 1)
+			throw new IOException("Job has no commands");
+		RemoteJob job = new RemoteJob();
+		for(int i=0; i<count; i++) {
+			job.commands.add(in.readUTF());
+		}
+		job.inputPath = readNullable(in);
+		job.outputPath = readNullable(in);
+		job.workingDir = readNullable(in);
+		job.timeoutMillis = in.readLong();
+		return job;
+	}
+
+	private static void writeNullable(DataOutput out, String str) throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null)
+			out.writeUTF(str);
+	}
+
+	private static String readNullable(DataInput in) throws IOException {
+		if (in.readBoolean())
+			return in.readUTF();
+		return null;
+	}
+
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for(String command : commands) {
+			if (str.length() > 0)
+				str.append(" | ");
+			str.append(command);
+		}
+		if (outputPath != null)
+			str.append(" > " + outputPath);
+		return str.toString();
+	}
+}
@@ -0,0 +1,243 @@
+package operator.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import operator.process.ErrorCapture;
+
+/**
+ * The pipeline's end of a connection to one worker (see WorkerMain). Workers are described by a spec string:
+ *    local           A worker subprocess on this machine, started with the same java and classpath as the pipeline
+ *    ssh:host        A worker on another machine, started through ssh with the same java and classpath,
+ *                    which must therefore be on a shared filesystem
+ *    tcp:host:port   A worker that is already running on host with -listen port
+ * Local and ssh workers talk to the pipeline over their standard input and output, and their standard error
+ * is copied to System.err. A thread reads all messages from the worker and records when each arrives; if
+ * no heartbeat arrives for a few heartbeat intervals while a job is running the worker is presumed dead.
+ * @author brendan
+ *
+ */
+public class WorkerConnection {
+
+	static final int MISSED_HEARTBEATS = 3; //Number of heartbeat intervals without a message before a worker is dead
+
+	private final String spec;
+	private final long heartbeatMillis;
+	private Process process = null;
+	private Socket socket = null;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	private volatile long lastHeard;
+	private JobResult result = null;
+	private IOException readError = null;
+	private boolean closed = false;
+
+	private WorkerConnection(String spec, long heartbeatMillis) {
+		this.spec = spec;
+		this.heartbeatMillis = heartbeatMillis;
+	}
+
+	/**
+	 * Throw an IllegalArgumentException if the spec doesn't describe a worker, so bad specs are caught
+	 * before any jobs are run
+	 * @param spec
+	 */
+	public static void checkSpec(String spec) {
+		if (spec.startsWith("tcp:")) {
+			String[] toks = spec.split(":");
+			if (toks.length != 3 || toks[1].length() == 0)
+				throw new IllegalArgumentException("Worker spec should be tcp:host:port, got : " + spec);
+			int port;
+			try {
+				port = Integer.parseInt(toks[2]);
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid port in worker spec : " + spec);
+			}
+			if (port < 1 || port > 65535)
+				throw new IllegalArgumentException("Invalid port in worker spec : " + spec);
+		}
+		else if (! (spec.equals("local") || (spec.startsWith("ssh:") && spec.length() > 4))) {
+			throw new IllegalArgumentException("Unrecognized worker spec : " + spec);
+		}
+	}
+
+	/**
+	 * Start or connect to the worker described by the spec
+	 * @param spec
+	 * @param heartbeatMillis
+	 * @return
+	 * @throws IOException
+	 */
+	public static WorkerConnection open(String spec, long heartbeatMillis) throws IOException {
+		checkSpec(spec);
+		WorkerConnection conn = new WorkerConnection(spec, heartbeatMillis);
+		InputStream inStream;
+		OutputStream outStream;
+		if (spec.startsWith("tcp:")) {
+			String[] toks = spec.split(":");
+			conn.socket = new Socket(toks[1], Integer.parseInt(toks[2]));
+			conn.socket.setTcpNoDelay(true);
+			inStream = conn.socket.getInputStream();
+			outStream = conn.socket.getOutputStream();
+		}
+		else {
+			List<String> command = new ArrayList<String>();
+			if (spec.startsWith("ssh:")) {
+				command.add("ssh");
+				command.add("-o");
+				command.add("BatchMode=yes");
+				command.add(spec.substring(4));
+			}
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(WorkerMain.class.getName());
+			command.add("-heartbeat");
+			command.add("" + heartbeatMillis);
+			conn.process = new ProcessBuilder(command).start();
+			new ErrorCapture("worker-stderr-" + spec, conn.process.getErrorStream(), System.err, 1024).start();
+			inStream = conn.process.getInputStream();
+			outStream = conn.process.getOutputStream();
+		}
+
+		conn.in = new DataInputStream(new BufferedInputStream(inStream));
+		conn.out = new DataOutputStream(new BufferedOutputStream(outStream));
+		conn.lastHeard = System.currentTimeMillis();
+		conn.startReader();
+		return conn;
+	}
+
+	public String getName() {
+		return spec;
+	}
+
+	private void startReader() {
+		Thread reader = new Thread("worker-reader-" + spec) {
+			public void run() {
+				try {
+					while(true) {
+						byte message = in.readByte();
+						if (message == WorkerMain.HEARTBEAT) {
+							lastHeard = System.currentTimeMillis();
+						}
+						else if (message == WorkerMain.RESULT) {
+							JobResult jobResult = JobResult.read(in);
+							lastHeard = System.currentTimeMillis();
+							synchronized(WorkerConnection.this) {
+								result = jobResult;
+								WorkerConnection.this.notifyAll();
+							}
+						}
+						else {
+							throw new IOException("Unrecognized message from worker : " + message);
+						}
+					}
+				}
+				catch (EOFException e) {
+					synchronized(WorkerConnection.this) {
+						readError = new EOFException("worker closed the connection");
+						WorkerConnection.this.notifyAll();
+					}
+				}
+				catch (IOException e) {
+					synchronized(WorkerConnection.this) {
+						readError = e;
+						WorkerConnection.this.notifyAll();
+					}
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Send the job to the worker and wait for its result. An IOException is thrown if the connection
+	 * is lost or the worker stops sending heartbeats, in which case this connection is closed. If the
+	 * calling thread is interrupted the connection is closed too, which makes the worker kill the job
+	 * @param job
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public synchronized JobResult execute(RemoteJob job) throws IOException, InterruptedException {
+		if (closed)
+			throw new IOException("Connection to worker " + spec + " is closed");
+		if (readError != null)
+			throw new IOException("Lost connection to worker " + spec + " : " + readError.getMessage(), readError);
+
+		result = null;
+		try {
+			out.writeByte(WorkerMain.RUN);
+			job.write(out);
+			out.flush();
+
+			while(result == null) {
+				wait(heartbeatMillis);
+				if (result != null)
+					break;
+				if (readError != null)
+					throw new IOException("Lost connection to worker " + spec + " : " + readError.getMessage(), readError);
+				if (System.currentTimeMillis() - lastHeard > MISSED_HEARTBEATS * heartbeatMillis)
+					throw new IOException("Worker " + spec + " stopped responding");
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+		catch (InterruptedException e) {
+			close();
+			throw e;
+		}
+
+		JobResult jobResult = result;
+		result = null;
+		jobResult.setWorkerName(spec);
+		return jobResult;
+	}
+
+	/**
+	 * Ask the worker to quit and release the connection. A worker subprocess is destroyed
+	 */
+	public void close() {
+		synchronized(this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		try {
+			out.writeByte(WorkerMain.QUIT);
+			out.flush();
+		} catch (IOException e) {
+			//Worker is already gone
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			//Nothing else to do
+		}
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//Nothing else to do
+			}
+		}
+		if (process != null) {
+			process.destroy();
+		}
+	}
+}
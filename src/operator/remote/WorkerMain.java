@@ -0,0 +1,202 @@
+package operator.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import operator.process.ProcessPipeline;
+import operator.process.ProcessStats;
+import pipeline.ArgumentParser;
+
+/**
+ * Entry point for a worker process, which runs RemoteJobs for a WorkerPool. By default the worker
+ * talks to the pool over its standard input and output, which is how local and ssh workers are started:
+ *    java -cp pipeline.jar operator.remote.WorkerMain
+ * With -listen port the worker instead accepts TCP connections on that port, and each connection can
+ * run one job at a time. Workers send a heartbeat every -heartbeat milliseconds so the pool can tell
+ * when one has died, and when the connection to the pool is lost the running job is killed.
+ *
+ * Messages are single bytes followed by data written with DataOutput: RUN and a RemoteJob from the pool,
+ * HEARTBEAT or RESULT and a JobResult from the worker. QUIT asks the worker to close the connection.
+ * @author brendan
+ *
+ */
+public class WorkerMain {
+
+	static final byte RUN = 'R';
+	static final byte QUIT = 'Q';
+	static final byte HEARTBEAT = 'H';
+	static final byte RESULT = 'D';
+
+	public static final long DEFAULT_HEARTBEAT_MILLIS = 5000;
+
+	public static void main(String[] args) throws IOException {
+		ArgumentParser argParser = new ArgumentParser();
+		argParser.parse(args);
+
+		long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+		Long heartbeatArg = argParser.getLongOp("heartbeat");
+		if (heartbeatArg != null)
+			heartbeatMillis = heartbeatArg;
+
+		Integer port = argParser.getIntegerOp("listen");
+		if (port != null) {
+			ServerSocket server = new ServerSocket(port);
+			System.err.println("Worker listening on port " + server.getLocalPort());
+			while(true) {
+				final Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				final Session session = new Session(socket.getInputStream(), socket.getOutputStream(), heartbeatMillis);
+				Thread thread = new Thread("worker-session-" + socket.getRemoteSocketAddress()) {
+					public void run() {
+						session.run();
+						try {
+							socket.close();
+						} catch (IOException e) {
+							//Already gone
+						}
+					}
+				};
+				thread.start();
+			}
+		}
+		else {
+			//Standard output carries the protocol, so anything else printed goes to standard error
+			PrintStream protocolOut = System.out;
+			System.setOut(System.err);
+			new Session(System.in, protocolOut, heartbeatMillis).run();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * A single connection to a WorkerPool
+	 */
+	static class Session {
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final long heartbeatMillis;
+		private volatile boolean done = false;
+
+		Session(InputStream in, OutputStream out, long heartbeatMillis) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			this.heartbeatMillis = heartbeatMillis;
+		}
+
+		public void run() {
+			Thread heartbeat = new Thread("worker-heartbeat") {
+				public void run() {
+					try {
+						while(! done) {
+							send(HEARTBEAT, null);
+							Thread.sleep(heartbeatMillis);
+						}
+					}
+					catch (IOException e) {
+						done = true;
+					}
+					catch (InterruptedException e) {
+						//Session is over
+					}
+				}
+			};
+			heartbeat.setDaemon(true);
+			heartbeat.start();
+
+			Thread jobThread = null;
+			try {
+				while(! done) {
+					byte message = in.readByte();
+					if (message == QUIT)
+						break;
+					if (message != RUN)
+						throw new IOException("Unrecognized message from pipeline : " + message);
+
+					final RemoteJob job = RemoteJob.read(in);
+					if (jobThread != null)
+						jobThread.join(); //The pool only sends a job when the last one is done, but just in case
+					jobThread = new Thread("worker-job") {
+						public void run() {
+							JobResult result = runJob(job);
+							if (result != null) {
+								try {
+									send(RESULT, result);
+								} catch (IOException e) {
+									done = true;
+								}
+							}
+						}
+					};
+					jobThread.start();
+				}
+			}
+			catch (EOFException e) {
+				//Pipeline closed the connection
+			}
+			catch (IOException e) {
+				System.err.println("Worker lost connection to pipeline : " + e.getMessage());
+			}
+			catch (InterruptedException e) {
+				//Shutting down
+			}
+			finally {
+				done = true;
+				heartbeat.interrupt();
+				if (jobThread != null && jobThread.isAlive()) {
+					//Nobody is waiting for the result, so kill the job's processes
+					jobThread.interrupt();
+					try {
+						jobThread.join();
+					} catch (InterruptedException e) {
+						//Exiting anyway
+					}
+				}
+			}
+		}
+
+		private synchronized void send(byte message, JobResult result) throws IOException {
+			out.writeByte(message);
+			if (result != null)
+				result.write(out);
+			out.flush();
+		}
+
+		/**
+		 * Run the job and return its result, or null if it was interrupted
+		 */
+		private JobResult runJob(RemoteJob job) {
+			ProcessPipeline pipe = new ProcessPipeline(job.getCommands().toArray(new String[job.getCommands().size()]));
+			if (job.getInputPath() != null)
+				pipe.setInputFile(new File(job.getInputPath()));
+			if (job.getOutputPath() != null)
+				pipe.setOutputFile(new File(job.getOutputPath()));
+			if (job.getWorkingDir() != null)
+				pipe.setWorkingDirectory(new File(job.getWorkingDir()));
+			pipe.setTimeout(job.getTimeoutMillis());
+
+			try {
+				List<ProcessStats> stats = pipe.run();
+				return new JobResult(stats, pipe.isTimedOut(), null);
+			}
+			catch (IOException e) {
+				List<ProcessStats> stats = pipe.getStats() == null ? new ArrayList<ProcessStats>() : pipe.getStats();
+				return new JobResult(stats, false, e.getMessage() == null ? e.toString() : e.getMessage());
+			}
+			catch (InterruptedException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package operator.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import pipeline.Pipeline;
+
+/**
+ * An ExecutionBackend that runs jobs on a fixed set of workers, one job per worker at a time. Workers
+ * are given as a comma-separated list of specs (see WorkerConnection), each optionally followed by *N
+ * to create N workers of that kind, for instance:
+ *    local*4
+ *    ssh:node1*8,ssh:node2*8,tcp:node3:7000
+ * Workers are started the first time they're needed. If a worker dies or stops sending heartbeats while
+ * running a job the job is retried on another worker, up to maxRetries times, and the dead worker is
+ * restarted for the next job. A worker that fails several times in a row is dropped from the pool.
+ * Jobs that run but fail (nonzero exit values, timeouts) are not retried, since they'd most likely fail again.
+ * @author brendan
+ *
+ */
+public class WorkerPool implements ExecutionBackend {
+
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+	private final List<Slot> slots = new ArrayList<Slot>();
+	private final LinkedBlockingQueue<Slot> idle = new LinkedBlockingQueue<Slot>();
+	private final long heartbeatMillis;
+	private final int maxRetries;
+	private int liveSlots;
+	private volatile boolean shutdown = false;
+
+	public WorkerPool(String workerSpecs, long heartbeatMillis, int maxRetries) {
+		this.heartbeatMillis = heartbeatMillis;
+		this.maxRetries = maxRetries;
+		for(String spec : workerSpecs.split(",")) {
+			spec = spec.trim();
+			if (spec.length() == 0)
+				continue;
+			int count = 1;
+			int star = spec.lastIndexOf('*');
+			if (star > 0) {
+				count = Integer.parseInt(spec.substring(star+1));
+				spec = spec.substring(0, star);
+			}
+			WorkerConnection.checkSpec(spec);
+			for(int i=0; i<count; i++) {
+				Slot slot = new Slot(spec);
+				slots.add(slot);
+				idle.add(slot);
+			}
+		}
+		if (slots.size() == 0)
+			throw new IllegalArgumentException("No workers given in : " + workerSpecs);
+		liveSlots = slots.size();
+	}
+
+	public WorkerPool(String workerSpecs) {
+		this(workerSpecs, WorkerMain.DEFAULT_HEARTBEAT_MILLIS, DEFAULT_MAX_RETRIES);
+	}
+
+	@Override
+	public int getCapacity() {
+		return slots.size();
+	}
+
+	/**
+	 * Number of workers that haven't been dropped because of repeated failures
+	 * @return
+	 */
+	public synchronized int getLiveWorkerCount() {
+		return liveSlots;
+	}
+
+	@Override
+	public JobResult run(RemoteJob job) throws IOException, InterruptedException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		IOException lastError = null;
+		for(int attempt=0; attempt<=maxRetries; attempt++) {
+			Slot slot = takeSlot();
+			try {
+				if (slot.conn == null)
+					slot.conn = WorkerConnection.open(slot.spec, heartbeatMillis);
+				JobResult result = slot.conn.execute(job);
+				slot.failures = 0;
+				idle.add(slot);
+				return result;
+			}
+			catch (IOException e) {
+				lastError = e;
+				logger.warning("Worker " + slot.spec + " failed while running job (attempt " + (attempt+1) + " of " + (maxRetries+1) + ") : " + e.getMessage() + " job was: " + job);
+				discardConnection(slot);
+				slot.failures++;
+				if (slot.failures >= MAX_CONSECUTIVE_FAILURES) {
+					logger.severe("Worker " + slot.spec + " has failed " + slot.failures + " times in a row, removing it from the pool");
+					removeSlot();
+				}
+				else {
+					idle.add(slot);
+				}
+			}
+			catch (InterruptedException e) {
+				//The connection was closed, which kills the job, but the worker can be restarted
+				discardConnection(slot);
+				idle.add(slot);
+				throw e;
+			}
+			catch (RuntimeException e) {
+				//Not something a retry will fix, but the slot must not be lost or waiting jobs would hang
+				logger.severe("Worker " + slot.spec + " could not be used, removing it from the pool : " + e);
+				discardConnection(slot);
+				removeSlot();
+				throw e;
+			}
+		}
+		throw new IOException("Job failed on " + (maxRetries+1) + " workers, last error: " + lastError.getMessage() + " job was: " + job, lastError);
+	}
+
+	/**
+	 * Permanently drop a slot that has been taken from the idle queue
+	 */
+	private synchronized void removeSlot() {
+		liveSlots--;
+		notifyAll();
+	}
+
+	/**
+	 * Wait for a worker to become free
+	 */
+	private Slot takeSlot() throws IOException, InterruptedException {
+		while(true) {
+			if (shutdown)
+				throw new IOException("Worker pool has been shut down");
+			synchronized(this) {
+				if (liveSlots == 0)
+					throw new IOException("No workers are available, all have failed");
+			}
+			Slot slot = idle.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+			if (slot != null)
+				return slot;
+		}
+	}
+
+	private static void discardConnection(Slot slot) {
+		if (slot.conn != null) {
+			slot.conn.close();
+			slot.conn = null;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		for(Slot slot : slots) {
+			WorkerConnection conn = slot.conn;
+			if (conn != null)
+				conn.close();
+		}
+	}
+
+	/**
+	 * One worker, which may be started or not
+	 */
+	static class Slot {
+		final String spec;
+		volatile WorkerConnection conn = null;
+		int failures = 0;
+
+		Slot(String spec) {
+			this.spec = spec;
+		}
+	}
+}
@@ -7,10 +7,14 @@ import java.util.Map;
 
 import org.broad.tribble.readers.TabixReader;
 
+import util.tribble.TabixSweeper;
+
 /**
  * Stores information about variants that have previously been observed at ARUP, right now 
  * this expects things to be in the .csv type flatfile produced by the CompareVarFreqs class.
  * ... and now *MUST* be tabix-compressed and indexed
+ * Lookups are fastest when positions are requested in sorted order, since the file is then
+ * read sequentially instead of being queried separately for each position
  * @author brendan
  *
  */
@@ -19,6 +23,7 @@ public class ARUPDB {
 	private File dbFile;
 	private Map<Integer, String> headerToks = new HashMap<Integer, String>();
 	private TabixReader reader = null;
+	private TabixSweeper sweeper = null;
 	
 	public ARUPDB(File dbFile) throws IOException {
 		if (! dbFile.exists()) {
@@ -39,56 +44,36 @@ public class ARUPDB {
 			headerToks.put(i, headerDesc);
 		}
 		
+		sweeper = new TabixSweeper(reader, TabixSweeper.DEFAULT_SEEK_GAP);
 	}
 
 	
 	public String[] getInfoForPostion(String contig, int pos) throws IOException {
-		String queryStr = contig + ":" + pos + "-" + (pos);
-		
 		try {
-			TabixReader.Iterator iter = reader.query(queryStr);
+			for(String str : sweeper.getLinesAt(contig, pos)) {
+				String[] toks = str.split("\t");
 
-			if(iter != null) {
-					String str = iter.next();
-					while(str != null) {
-						String[] toks = str.split("\t");
-						Integer qPos = Integer.parseInt(toks[1]);
-						
-						
-						if (qPos == pos) {
-							//Found one..
-							
-							String sampleTotalStr = toks[4];
-							String hetsFoundStr = toks[5];
-							String homsFoundStr = toks[6];
-							
-							double totalSamples = Double.parseDouble(sampleTotalStr);
-							double overallHets = Double.parseDouble(hetsFoundStr);
-							double overallHoms = Double.parseDouble(homsFoundStr);
-							double overallAF = (overallHets + 2.0*overallHoms)/(double)(2.0*totalSamples); 
-							String overallStr = "" + overallAF;
-							
-							//Create fancier details string here...
-							String details = "Samples: " + (int)totalSamples + " Hets: " + (int)overallHets + " Homs: " + (int)overallHoms;
-							
-							return new String[]{overallStr, details};
-	
-						}
-						if (qPos > pos) {
-							break;
-						}
-						str = iter.next();
-					}
+				String sampleTotalStr = toks[4];
+				String hetsFoundStr = toks[5];
+				String homsFoundStr = toks[6];
+
+				double totalSamples = Double.parseDouble(sampleTotalStr);
+				double overallHets = Double.parseDouble(hetsFoundStr);
+				double overallHoms = Double.parseDouble(homsFoundStr);
+				double overallAF = (overallHets + 2.0*overallHoms)/(double)(2.0*totalSamples); 
+				String overallStr = "" + overallAF;
+
+				//Create fancier details string here...
+				String details = "Samples: " + (int)totalSamples + " Hets: " + (int)overallHets + " Homs: " + (int)overallHoms;
+
+				return new String[]{overallStr, details};
 			}
 		}
 		catch (RuntimeException rex) {
-			//Bad contigs will cause an array out-of-bounds exception to be thrown by
-			//the tabix reader. There's not much we can do about this since the methods
-			//are private... right now we just ignore it and skip this variant
+			//Malformed lines in the db file may cause exceptions here, right
+			//now we just ignore it and skip this variant
 		}
 		
-		
-		
 		return null;
 	}
 	
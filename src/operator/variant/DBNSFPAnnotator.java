@@ -1,12 +1,15 @@
 package operator.variant;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import operator.OperationFailedException;
 import operator.annovar.Annotator;
 import pipeline.Pipeline;
 import util.flatFilesReader.DBNSFPReader;
+import util.flatFilesReader.PackedFilesReader;
 import buffer.variant.VariantRec;
 
 /**
@@ -17,29 +20,84 @@ import buffer.variant.VariantRec;
 public class DBNSFPAnnotator extends Annotator {
 
 	public static final String DBNSFP_PATH = "dbnsfp.path";
-	private DBNSFPReader reader = null; 
-	private int examined = 0;
-	private int annotated = 0;
+	private String pathToDBNSFP = null;
+	private boolean packed = false;
 	
-	public void performOperation() throws OperationFailedException {
-		String pathToDBNSFP = this.getPipelineProperty(DBNSFP_PATH);
+	//Readers keep track of the current row, so each annotating thread needs its own
+	private final ThreadLocal<DBNSFPReader> readers = new ThreadLocal<DBNSFPReader>();
+	private final AtomicInteger examined = new AtomicInteger(0);
+	private final AtomicInteger annotated = new AtomicInteger(0);
+	
+	@Override
+	protected void prepare() throws OperationFailedException {
+		pathToDBNSFP = this.getPipelineProperty(DBNSFP_PATH);
 		if (pathToDBNSFP != null) {
 			Logger.getLogger(Pipeline.primaryLoggerName).info("dbNSFP reader using directory : " + pathToDBNSFP);
-			reader = new DBNSFPReader(pathToDBNSFP);
 		}
 		else { 
 			Logger.getLogger(Pipeline.primaryLoggerName).info("dbNSFP reader using default base directory");
-			reader = new DBNSFPReader();
 		}
 		
-		super.performOperation();
-		
+		packed = PackedFilesReader.hasPackedFiles(new File(pathToDBNSFP != null ? pathToDBNSFP : DBNSFPReader.defaultPath));
+		if (packed) {
+			Logger.getLogger(Pipeline.primaryLoggerName).info("dbNSFP reader using packed files");
+		}
+	}
+	
+	/**
+	 * Scores depend only on the position and alt allele, so results can be cached
+	 */
+	@Override
+	protected String getCacheSource() {
+		String path = this.getPipelineProperty(DBNSFP_PATH);
+		return path != null ? path : DBNSFPReader.defaultPath;
+	}
+	
+	@Override
+	protected boolean supportsParallel() {
+		return true;
+	}
+	
+	/**
+	 * Text file readers scan through a whole contig file, so in that case give each contig 
+	 * to a single worker. Packed files can be read in any order
+	 */
+	@Override
+	protected int getParallelBlockSize() {
+		if (packed)
+			return DEFAULT_BLOCK_SIZE;
+		return Integer.MAX_VALUE;
+	}
+	
+	@Override
+	protected void cleanupWorker() {
+		DBNSFPReader reader = readers.get();
+		if (reader != null) {
+			reader.close();
+			readers.remove();
+		}
+	}
+	
+	private DBNSFPReader getReader() {
+		DBNSFPReader reader = readers.get();
+		if (reader == null) {
+			if (pathToDBNSFP != null)
+				reader = new DBNSFPReader(pathToDBNSFP);
+			else
+				reader = new DBNSFPReader();
+			readers.set(reader);
+		}
+		return reader;
+	}
+	
+	@Override
+	protected void cleanup() throws OperationFailedException {
 		Logger.getLogger(Pipeline.primaryLoggerName).info("dbNSFP annotator annotated " + annotated + " of " + examined + " variants found");
 	}
 	
 	@Override
-	public void annotateVariant(VariantRec var) {
-		examined++;
+	public void annotateVariant(VariantRec var) throws OperationFailedException {
+		examined.incrementAndGet();
 		if (! var.isSNP()) {
 			return;
 		}
@@ -49,6 +107,7 @@ public class DBNSFPAnnotator extends Annotator {
 		
 		try {
 			//System.out.println("Requesting " + contig + " : " + pos);
+			DBNSFPReader reader = getReader();
 			boolean ok = reader.advanceTo(contig, pos, alt);
 			if (ok) {
 				Double gerp = reader.getValue(DBNSFPReader.GERP);
@@ -112,14 +171,11 @@ public class DBNSFPAnnotator extends Annotator {
 				if (!Double.isNaN(espFreq))
 					var.addProperty(VariantRec.EXOMES_FREQ, espFreq);
 				
-				annotated++;
+				annotated.incrementAndGet();
 			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new OperationFailedException("Error reading dbNSFP data : " + e.getMessage(), this);
 		}
-		
-		
 	}
 
 }
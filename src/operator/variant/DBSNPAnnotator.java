@@ -6,9 +6,8 @@ import java.util.logging.Logger;
 import operator.OperationFailedException;
 import operator.annovar.Annotator;
 
-import org.broad.tribble.readers.TabixReader;
-
 import pipeline.Pipeline;
+import util.tribble.TabixSweeper;
 import buffer.variant.VariantRec;
 
 /**
@@ -21,15 +20,29 @@ import buffer.variant.VariantRec;
 public class DBSNPAnnotator extends Annotator {
 
 	public static final String DBSNP_PATH = "dbsnp.path";
-	private boolean initialized = false;
-	private TabixReader reader = null;
 	
-	private void initializeReader() {
+	//Variants are looked up in sorted order by sweeping through the file, and since sweepers
+	//can't be shared between threads each annotating thread opens its own
+	private final ThreadLocal<TabixSweeper> readers = new ThreadLocal<TabixSweeper>();
+	
+	private String getDataPath() {
 		String filePath = this.getAttribute(DBSNP_PATH);
 		if (filePath == null) {
 			filePath = this.getPipelineProperty(DBSNP_PATH);
 		}
-		
+		return filePath;
+	}
+	
+	/**
+	 * Lookups depend only on the position and alleles, so results can be cached
+	 */
+	@Override
+	protected String getCacheSource() {
+		return getDataPath();
+	}
+	
+	private void initializeReader() {
+		String filePath = getDataPath();
 		if (filePath == null) {
 			throw new IllegalArgumentException("Path to dbSNP data not specified, use " + DBSNP_PATH);
 		}
@@ -37,17 +50,32 @@ public class DBSNPAnnotator extends Annotator {
 		Logger.getLogger(Pipeline.primaryLoggerName).info("Initializing dbSNP annotator using data file: " + filePath);
 		
 		try {
-			reader = new TabixReader(filePath);
+			readers.set(new TabixSweeper(filePath));
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Error opening dbSNP data at path " + filePath + " error : " + e.getMessage());
 		}
-		initialized = true;
+	}
+	
+	@Override
+	protected boolean supportsParallel() {
+		return true;
+	}
+	
+	@Override
+	protected void cleanupWorker() {
+		TabixSweeper reader = readers.get();
+		if (reader != null) {
+			reader.close();
+			readers.remove();
+		}
 	}
 	
 	@Override
 	public void annotateVariant(VariantRec var) throws OperationFailedException {
+		TabixSweeper reader = readers.get();
 		if (reader == null) {
 			initializeReader();
+			reader = readers.get();
 		}
 		
 		if (reader == null) {
@@ -57,30 +85,18 @@ public class DBSNPAnnotator extends Annotator {
 		String contig = var.getContig();
 		Integer pos = var.getStart();
 		
-		String queryStr = contig + ":" + pos + "-" + (pos);
-		//int count = 0;
 		try {
-			TabixReader.Iterator iter = reader.query(queryStr);
-
-			if(iter != null) {
-				try {
-					String val = iter.next();
-					while(val != null) {
-						boolean ok = addAnnotationsFromString(var, val);
-						if (ok) {
-							break;
-						}
-						val = iter.next();
-					}
-				} catch (IOException e) {
-					throw new OperationFailedException("Error reading dbSNP data file: " + e.getMessage(), this);
-				}
+			for(String line : reader.getLinesAt(contig, pos)) {
+				boolean ok = addAnnotationsFromString(var, line);
+				if (ok)
+					break;
 			}
+		} catch (IOException e) {
+			throw new OperationFailedException("Error reading dbSNP data file: " + e.getMessage(), this);
 		}
 		catch (RuntimeException rex) {
-			//Bad contigs will cause an array out-of-bounds exception to be thrown by
-			//the tabix reader. There's not much we can do about this since the methods
-			//are private... right now we just ignore it and skip this variant
+			//Bad contigs are handled by the sweeper, but malformed lines in the data file
+			//may still cause exceptions here. Right now we just ignore it and skip this variant
 		}
 
 	}
@@ -46,6 +46,7 @@ public class FilterVCFByBED extends IOOperator {
 			
 			BufferedWriter writer = new BufferedWriter(new FileWriter(outVCF.getFile()));			
 			int varsRetained = doFilter(inVCF, bedFile, writer);
+			writer.close();
 			
 			logger.info("Done filtering input vcf " + inVCF.getFilename() + " resulting file has " + varsRetained + " variants") ;
 			
@@ -83,6 +84,7 @@ public class FilterVCFByBED extends IOOperator {
 		}
 
 		VCFLineParser vParser = new VCFLineParser(inFile.getFile());
+		IntervalsFile.Sweep sweep = bedFile.sweep();
 		int totVars = 0;
 		int varsFound = 0;
 //		int varsNotFound = 0;
@@ -91,7 +93,7 @@ public class FilterVCFByBED extends IOOperator {
 			totVars++;
 			String contig = vParser.getContig().replace("chr", "")	;
 			int pos = vParser.getPosition();
-			if (bedFile.contains(contig, pos)) {
+			if (sweep.contains(contig, pos)) {
 				varsFound++;
 				writer.write(vParser.getCurrentLine() + "\n");
 			}
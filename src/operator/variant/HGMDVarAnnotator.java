@@ -24,6 +24,14 @@ public class HGMDVarAnnotator extends Annotator {
 	
 	HGMDB db = null;
 	
+	/**
+	 * Hits depend only on the position, so results can be cached
+	 */
+	@Override
+	protected String getCacheSource() {
+		return getPipelineProperty(HGMDB_PATH);
+	}
+	
 	@Override
 	public void annotateVariant(VariantRec var) throws OperationFailedException {
 		if (db == null) {
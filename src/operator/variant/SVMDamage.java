@@ -26,6 +26,14 @@ public class SVMDamage extends Annotator {
 		
 	}
 	
+	/**
+	 * All variants are scored at once by an external svm tool, so variants can't be handed to us in batches
+	 */
+	@Override
+	public boolean supportsBatches() {
+		return false;
+	}
+	
 	public void performOperation() throws OperationFailedException {
 		if (variants == null)
 			throw new OperationFailedException("No variant pool specified", this);
@@ -32,6 +32,14 @@ public class VarBinAnnotator extends Annotator {
 	
 	private File varbinFinalTable = null; //Gets set after varbin execution in prepare()
 	
+	/**
+	 * Varbin is run on all variants in prepare(), so variants can't be handed to us in batches
+	 */
+	@Override
+	public boolean supportsBatches() {
+		return false;
+	}
+	
 	protected void prepare() throws OperationFailedException {
 		if (varbinScriptPath == null) {
 			throw new OperationFailedException("Varbin path not specified", this);
@@ -69,6 +69,14 @@ public abstract class VariantPoolWriter extends Operator {
 	 */
 	public abstract void writeVariant(VariantRec rec, PrintStream outputStream);
 	
+	/**
+	 * Obtain the file variants will be written to, or null if they will be written to System.out
+	 * @return
+	 */
+	public CSVFile getOutputFile() {
+		return outputFile;
+	}
+	
 	/**
 	 * Provide a sorting mechanism for records
 	 * @param sorter
@@ -159,9 +167,8 @@ public abstract class VariantPoolWriter extends Operator {
 //			throw new IllegalArgumentException("Output CSV file not specified");
 //		}
 
-		if (variants == null) {
-			throw new IllegalArgumentException("Variant pool not specified");
-		}
+		//Variant pool may be null if the writer is being used by a StreamingAnnotator, 
+		//performOperation checks to make sure it's not null
 		
 		if (requiresGeneList() && genes == null) {
 			throw new IllegalArgumentException("GeneList required but not provided");
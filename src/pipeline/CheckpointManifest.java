@@ -0,0 +1,227 @@
+package pipeline;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import operator.IOOperator;
+import operator.Operator;
+import buffer.FileBuffer;
+import buffer.MultiFileBuffer;
+
+/**
+ * Keeps track of which operators have already completed successfully in a previous run, so that
+ * a resumed pipeline can skip them. After an operator completes we store a fingerprint of the operator
+ * (its class, label, and attributes, plus the size and modification time of each input file) along
+ * with the size and modification time of each output file. When the pipeline is re-run an operator is
+ * skipped only if its fingerprint is the same and all of its output files still exist and haven't changed.
+ * Since re-running an operator changes the modification times of its outputs, anything downstream
+ * of an operator that was re-run will be re-run as well.
+ *
+ * Only IOOperators whose outputs are all regular files are eligible for skipping. Operators that write
+ * to MultiFileBuffers or to in-memory objects always run, since the objects they produce would
+ * otherwise not exist.
+ *
+ * The manifest is stored as an xml properties file in the project home directory.
+ * @author brendan
+ *
+ */
+public class CheckpointManifest {
+
+	public static final String MANIFEST_FILENAME = ".pipeline_checkpoints.xml";
+
+	private final File manifestFile;
+	private final Properties entries = new Properties();
+
+	public CheckpointManifest(File manifestFile) {
+		this.manifestFile = manifestFile;
+		if (manifestFile.exists()) {
+			try {
+				FileInputStream stream = new FileInputStream(manifestFile);
+				entries.loadFromXML(stream);
+				stream.close();
+				Logger.getLogger(Pipeline.primaryLoggerName).info("Loaded " + entries.size() + " checkpoint entries from " + manifestFile.getAbsolutePath());
+			} catch (IOException e) {
+				Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not read checkpoint manifest " + manifestFile.getAbsolutePath() + ", all operators will be run. Reason: " + e.getMessage());
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the given operator completed in a previous run with the same fingerprint
+	 * and its outputs are unchanged since then
+	 * @param op
+	 * @return
+	 */
+	public synchronized boolean isUpToDate(Operator op) {
+		if (! isCheckpointable(op))
+			return false;
+
+		String stored = entries.getProperty(op.getObjectLabel());
+		if (stored == null)
+			return false;
+
+		String outputStamp = computeOutputStamp(op);
+		if (outputStamp == null)
+			return false;
+		return stored.startsWith(computeFingerprint(op) + "\t" + outputStamp + "\t");
+	}
+
+	/**
+	 * Returns the start and end times recorded when the operator last completed, or null
+	 * if there's no record for the operator
+	 * @param op
+	 * @return
+	 */
+	public synchronized String[] getRecordedTimes(Operator op) {
+		String stored = entries.getProperty(op.getObjectLabel());
+		if (stored == null)
+			return null;
+		String[] toks = stored.split("\t");
+		if (toks.length < 4)
+			return null;
+		return new String[]{toks[2], toks[3]};
+	}
+
+	/**
+	 * Record that the given operator has just completed and write the manifest to disk. If any of
+	 * its output files don't exist nothing is recorded (and any old record is removed), so the
+	 * operator will run again next time
+	 * @param op
+	 */
+	public synchronized void recordCompletion(Operator op) {
+		if (! isCheckpointable(op))
+			return;
+
+		String outputStamp = computeOutputStamp(op);
+		if (outputStamp == null) {
+			Logger.getLogger(Pipeline.primaryLoggerName).warning("Not recording checkpoint for " + op.getObjectLabel() + ", some of its output files do not exist");
+			clear(op);
+			return;
+		}
+		String entry = computeFingerprint(op) + "\t" + outputStamp + "\t" + op.getAttribute(Pipeline.START_TIME) + "\t" + op.getAttribute(Pipeline.END_TIME);
+		entries.setProperty(op.getObjectLabel(), entry);
+		write();
+	}
+
+	/**
+	 * Remove any record of the given operator, so it is not skipped in future runs
+	 * @param op
+	 */
+	public synchronized void clear(Operator op) {
+		if (entries.remove(op.getObjectLabel()) != null)
+			write();
+	}
+
+	private void write() {
+		try {
+			FileOutputStream stream = new FileOutputStream(manifestFile);
+			entries.storeToXML(stream, "Pipeline checkpoints, written by Pipeline version " + Pipeline.PIPELINE_VERSION);
+			stream.close();
+		} catch (IOException e) {
+			Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not write checkpoint manifest " + manifestFile.getAbsolutePath() + " : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * True if the operator produces only files whose existence we can check
+	 * @param op
+	 * @return
+	 */
+	private static boolean isCheckpointable(Operator op) {
+		if (! (op instanceof IOOperator))
+			return false;
+
+		List<FileBuffer> outputs = ((IOOperator)op).getOutputBuffers();
+		if (outputs.size()==0)
+			return false;
+
+		for(FileBuffer buf : outputs) {
+			if (buf instanceof MultiFileBuffer || buf.getFile() == null)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute a digest of the operator class, label, attributes, and input file sizes and modification times
+	 * @param op
+	 * @return
+	 */
+	private static String computeFingerprint(Operator op) {
+		StringBuilder str = new StringBuilder();
+		str.append(op.getClass().getCanonicalName() + "\n");
+		str.append(op.getObjectLabel() + "\n");
+
+		List<String> keys = new ArrayList<String>(op.getAttributeKeys());
+		Collections.sort(keys);
+		for(String key : keys) {
+			if (key.equals(Pipeline.START_TIME) || key.equals(Pipeline.END_TIME))
+				continue;
+			str.append(key + "=" + op.getAttribute(key) + "\n");
+		}
+
+		for(FileBuffer buf : ((IOOperator)op).getInputBuffers()) {
+			appendFileStamp(buf, str);
+		}
+
+		return digest(str.toString());
+	}
+
+	/**
+	 * Compute a digest of the output file paths, sizes, and modification times, or null if
+	 * any output file doesn't exist
+	 * @param op
+	 * @return
+	 */
+	private static String computeOutputStamp(Operator op) {
+		StringBuilder str = new StringBuilder();
+		for(FileBuffer buf : ((IOOperator)op).getOutputBuffers()) {
+			if (! buf.getFile().exists())
+				return null;
+			appendFileStamp(buf, str);
+		}
+		return digest(str.toString());
+	}
+
+	private static void appendFileStamp(FileBuffer buf, StringBuilder str) {
+		if (buf instanceof MultiFileBuffer) {
+			for(FileBuffer sub : ((MultiFileBuffer)buf).getFileList()) {
+				appendFileStamp(sub, str);
+			}
+			return;
+		}
+
+		File file = buf.getFile();
+		if (file == null) {
+			str.append(buf.getObjectLabel() + "\n");
+		}
+		else {
+			str.append(file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified() + "\n");
+		}
+	}
+
+	private static String digest(String str) {
+		try {
+			MessageDigest digestor = MessageDigest.getInstance("MD5");
+			byte[] bytes = digestor.digest(str.getBytes());
+			StringBuilder hex = new StringBuilder();
+			for(byte b : bytes) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			//Should never happen, but fall back to the full string if it does
+			return str.replace('\t', ' ').replace('\n', ';');
+		}
+	}
+}
@@ -31,6 +31,9 @@ public class ObjectHandler {
 	protected List<OperatorHook> hookList = null;
 	
 	protected Map<String, PipelineObject> objectMap = new HashMap<String, PipelineObject>();
+	
+	//For each top-level operator, all objects referenced somewhere beneath its element
+	protected Map<Operator, List<PipelineObject>> operatorReferences = new HashMap<Operator, List<PipelineObject>>();
 
 	private final boolean verbose = false;
 	private Pipeline pipelineOwner = null;
@@ -93,6 +96,53 @@ public class ObjectHandler {
 			}
 			addObjectToList(child, Operator.class, operatorList);
 		}
+		
+		//Record which objects each top-level operator refers to, so schedulers can
+		//figure out which operators depend on each other
+		for(int i=0; i<children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				PipelineObject obj = objectMap.get(child.getNodeName());
+				if (obj instanceof Operator && (! operatorReferences.containsKey(obj))) {
+					List<PipelineObject> refs = new ArrayList<PipelineObject>();
+					collectReferences(child.getChildNodes(), obj, refs);
+					operatorReferences.put( (Operator)obj, refs);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Recursively add all objects whose labels appear as element names among the given
+	 * nodes (or their descendants) to the list of references
+	 * @param nodes
+	 * @param owner Object whose element we're examining, this is never added to the list
+	 * @param refs
+	 */
+	private void collectReferences(NodeList nodes, PipelineObject owner, List<PipelineObject> refs) {
+		for(int i=0; i<nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				PipelineObject obj = objectMap.get(node.getNodeName());
+				if (obj != null && obj != owner && (! refs.contains(obj))) {
+					refs.add(obj);
+				}
+				collectReferences(node.getChildNodes(), owner, refs);
+			}
+		}
+	}
+	
+	/**
+	 * Returns all objects referenced (by label) somewhere within the XML element that defines
+	 * the given top-level operator, or an empty list if the operator is not a top-level operator 
+	 * @param op
+	 * @return
+	 */
+	public List<PipelineObject> getReferencedObjects(Operator op) {
+		List<PipelineObject> refs = operatorReferences.get(op);
+		if (refs == null)
+			return new ArrayList<PipelineObject>();
+		return refs;
 	}
 	
 	public void addObjectToList(Node n, Class<?> c, List list) throws ObjectCreationException{
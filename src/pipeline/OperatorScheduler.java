@@ -0,0 +1,249 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import operator.IOOperator;
+import operator.OperationFailedException;
+import operator.Operator;
+import buffer.FileBuffer;
+
+/**
+ * Executes the top-level operators of a pipeline concurrently, respecting the dependencies
+ * between them. Dependencies are inferred from the objects each operator refers to in the
+ * input document: if two operators touch the same file or object and at least one of them
+ * writes to it, the one that appears later in the document waits for the earlier one to finish.
+ * For IOOperators we know which buffers are written to (the output buffers); for all other
+ * operators every referenced object is assumed to be both read and written. Operators that
+ * don't refer to any objects, or that refer to other operators (ParallelOperator, for instance),
+ * are treated as barriers and run only when everything before them has finished.
+ *
+ * Operators that are ready to run are started in document order, at most threadCount at a time.
+ * The first failure stops any new operators from being started, and the exception is rethrown
+ * once the running operators have finished.
+ * @author brendan
+ *
+ */
+public class OperatorScheduler {
+
+	private final Pipeline pipeline;
+	private final List<Operator> operators;
+	private final List<Node> nodes = new ArrayList<Node>();
+
+	public OperatorScheduler(Pipeline pipeline, List<Operator> operators) {
+		this.pipeline = pipeline;
+		this.operators = operators;
+		buildGraph();
+	}
+
+	/**
+	 * Returns the operators that must complete before the given operator can start
+	 * @param op
+	 * @return
+	 */
+	public List<Operator> getDependencies(Operator op) {
+		List<Operator> deps = new ArrayList<Operator>();
+		for(Node node : nodes) {
+			if (node.op == op) {
+				for(Node pred : node.predecessors) {
+					deps.add(pred.op);
+				}
+			}
+		}
+		return deps;
+	}
+
+	/**
+	 * Run all operators, using at most threadCount threads at once. This returns only when
+	 * all operators have completed or one has failed and all others that were running have finished
+	 * @param threadCount
+	 * @throws OperationFailedException
+	 */
+	public void execute(int threadCount) throws OperationFailedException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		if (nodes.size()==0)
+			return;
+
+		ExecutorService threadPool = Executors.newFixedThreadPool( Math.max(1, threadCount) );
+		ExecutorCompletionService<Node> completions = new ExecutorCompletionService<Node>(threadPool);
+
+		PriorityQueue<Node> ready = new PriorityQueue<Node>();
+		for(Node node : nodes) {
+			if (node.remaining == 0)
+				ready.add(node);
+		}
+
+		logger.info("Scheduling " + nodes.size() + " operators for dependency-ordered execution with up to " + threadCount + " concurrent operators");
+
+		int running = 0;
+		int completed = 0;
+		OperationFailedException failure = null;
+
+		try {
+			while(completed < nodes.size()) {
+				while(failure == null && running < threadCount && (! ready.isEmpty())) {
+					final Node node = ready.poll();
+					completions.submit(new Callable<Node>() {
+						public Node call() throws Exception {
+							try {
+								pipeline.executeOperator(node.op);
+							}
+							catch (RuntimeException ex) {
+								ex.printStackTrace();
+								throw new OperationFailedException("Operator " + node.op.getObjectLabel() + " encountered an unexpected error: " + ex, node.op);
+							}
+							return node;
+						}
+					});
+					running++;
+				}
+
+				if (running == 0)
+					break;
+
+				Node done = null;
+				try {
+					done = completions.take().get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (failure == null) {
+						if (cause instanceof OperationFailedException)
+							failure = (OperationFailedException)cause;
+						else
+							failure = new OperationFailedException("Operator encountered an unexpected error: " + cause, pipeline.getCurrentOperator());
+					}
+				}
+				running--;
+				completed++;
+
+				if (done != null) {
+					for(Node succ : done.successors) {
+						succ.remaining--;
+						if (succ.remaining == 0)
+							ready.add(succ);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			threadPool.shutdownNow();
+			throw new OperationFailedException("Pipeline was interrupted while waiting for operators to complete", pipeline.getCurrentOperator());
+		}
+
+		threadPool.shutdown();
+		try {
+			threadPool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			//Don't care, all tasks have returned anyway
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Examine the objects referred to by each operator and add an edge from every earlier
+	 * operator that conflicts with a later one
+	 */
+	private void buildGraph() {
+		ObjectHandler handler = pipeline.getObjectHandler();
+		for(int i=0; i<operators.size(); i++) {
+			Operator op = operators.get(i);
+			Node node = new Node(op, i);
+
+			List<PipelineObject> refs = handler == null ? new ArrayList<PipelineObject>() : handler.getReferencedObjects(op);
+			Set<FileBuffer> outputs = new HashSet<FileBuffer>();
+			if (op instanceof IOOperator) {
+				outputs.addAll( ((IOOperator)op).getOutputBuffers() );
+			}
+
+			if (refs.size()==0)
+				node.barrier = true;
+
+			for(PipelineObject obj : refs) {
+				if (obj instanceof Operator) {
+					node.barrier = true;
+				}
+
+				String key = keyForObject(obj);
+				if (op instanceof IOOperator && (! outputs.contains(obj))) {
+					node.reads.add(key);
+				}
+				else {
+					node.writes.add(key);
+				}
+			}
+
+			for(Node prev : nodes) {
+				if (node.barrier || prev.barrier || node.conflictsWith(prev)) {
+					prev.successors.add(node);
+					node.predecessors.add(prev);
+				}
+			}
+			node.remaining = node.predecessors.size();
+			nodes.add(node);
+		}
+	}
+
+	/**
+	 * Files are identified by their path, so that two buffers that refer to the same
+	 * file are treated as the same resource. Everything else is identified by label.
+	 * @param obj
+	 * @return
+	 */
+	private static String keyForObject(PipelineObject obj) {
+		if (obj instanceof FileBuffer && ((FileBuffer)obj).getAbsolutePath() != null) {
+			return "file:" + ((FileBuffer)obj).getAbsolutePath();
+		}
+		return "obj:" + obj.getObjectLabel();
+	}
+
+	/**
+	 * A single operator in the dependency graph
+	 */
+	class Node implements Comparable<Node> {
+		final Operator op;
+		final int index; //Position in document, used to break ties among ready operators
+		boolean barrier = false;
+		Set<String> reads = new HashSet<String>();
+		Set<String> writes = new HashSet<String>();
+		List<Node> predecessors = new ArrayList<Node>();
+		List<Node> successors = new ArrayList<Node>();
+		int remaining = 0; //Number of predecessors that have not yet completed
+
+		Node(Operator op, int index) {
+			this.op = op;
+			this.index = index;
+		}
+
+		/**
+		 * True if either operator writes something the other reads or writes
+		 */
+		boolean conflictsWith(Node other) {
+			for(String key : writes) {
+				if (other.reads.contains(key) || other.writes.contains(key))
+					return true;
+			}
+			for(String key : other.writes) {
+				if (reads.contains(key))
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public int compareTo(Node o) {
+			return index - o.index;
+		}
+	}
+}
@@ -28,6 +28,9 @@ import operator.Operator;
 import operator.hook.OperatorHook;
 import operator.hook.OperatorStartHook;
 import operator.hook.OperatorEndHook;
+import operator.remote.ExecutionBackend;
+import operator.remote.WorkerMain;
+import operator.remote.WorkerPool;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -64,6 +67,8 @@ public class Pipeline {
 	
 	//Default number of threads to use
 	protected int threadCount = 8;
+	private ResourceScheduler resources = null; //Created when first needed, see getResourceScheduler()
+	private ExecutionBackend backend = null; //Created when first needed, see getExecutionBackend()
 	
 	
 	//Right now DEBUG just emits all log messages to std out
@@ -133,6 +138,45 @@ public class Pipeline {
 		return threadCount;
 	}
 	
+	/**
+	 * Get the scheduler that hands out CPU slots and memory to the tasks of all operators in this pipeline.
+	 * It has getThreadCount() CPU slots and the amount of memory given by the MEMORY_ATTR property (in
+	 * megabytes), or all physical memory if that isn't set
+	 * @return
+	 */
+	/**
+	 * Get the backend that runs MultiOperator tasks on worker processes, or null if the WORKERS
+	 * property isn't set, in which case tasks are run by this JVM 
+	 * @return
+	 */
+	public synchronized ExecutionBackend getExecutionBackend() {
+		if (backend == null) {
+			String workers = (String)getProperty(PipelineXMLConstants.WORKERS);
+			if (workers == null)
+				return null;
+			int retries = WorkerPool.DEFAULT_MAX_RETRIES;
+			String retriesStr = (String)getProperty(PipelineXMLConstants.WORKER_RETRIES);
+			if (retriesStr != null)
+				retries = Integer.parseInt(retriesStr);
+			backend = new WorkerPool(workers, WorkerMain.DEFAULT_HEARTBEAT_MILLIS, retries);
+			primaryLogger.info("Tasks will be run by " + backend.getCapacity() + " workers : " + workers);
+		}
+		return backend;
+	}
+	
+	public synchronized ResourceScheduler getResourceScheduler() {
+		if (resources == null) {
+			long memoryMB = ResourceScheduler.getPhysicalMemoryMB();
+			String memAttr = (String)getProperty(PipelineXMLConstants.MEMORY_ATTR);
+			if (memAttr != null) {
+				memoryMB = Long.parseLong(memAttr);
+			}
+			resources = new ResourceScheduler(Math.max(1, getThreadCount()), memoryMB);
+			primaryLogger.info("Tasks will be scheduled with " + resources.getTotalCPUs() + " CPUs and " + (memoryMB == ResourceScheduler.UNLIMITED_MEMORY ? "unlimited" : memoryMB + " MB") + " memory");
+		}
+		return resources;
+	}
+	
 	public ObjectHandler getObjectHandler() {
 		return handler;
 	}
@@ -426,15 +470,90 @@ public class Pipeline {
 		primaryLogger.info("Executing pipeline");
 		executeStarted = true;
 		
-		for(Operator op : handler.getOperatorList()) {
-			try {
-				currentOperator = op;
-				Date opStart = new Date();
-				fireOperatorBeginning(op);
-				op.setAttribute(START_TIME, "" + opStart.getTime());
-				
-				// Add the hooks to each operator
-				// NOTE: OperatorHook.initHook must be called
+		//Completed operators are always recorded, but only skipped when resuming
+		String projHome = getProjectHome();
+		if (projHome != null) {
+			if (! projHome.endsWith("/"))
+				projHome = projHome + "/";
+			checkpoints = new CheckpointManifest(new File(projHome + CheckpointManifest.MANIFEST_FILENAME));
+		}
+		
+		try {
+			if (isDAGScheduling()) {
+				OperatorScheduler scheduler = new OperatorScheduler(this, handler.getOperatorList());
+				scheduler.execute(getThreadCount());
+			}
+			else {
+				for(Operator op : handler.getOperatorList()) {
+					executeOperator(op);
+				}
+			}
+		}
+		finally {
+			synchronized(this) {
+				if (backend != null) {
+					backend.shutdown();
+					backend = null;
+				}
+			}
+		}
+		
+		executeCompleted = true;
+		firePipelineFinished();
+		long endTime = System.currentTimeMillis();
+		
+		primaryLogger.info("Finished executing all operators, pipeline is done. \n Total elapsed time " + ElapsedTimeFormatter.getElapsedTime(startTime.getTime(), endTime ));
+	}
+	
+	/**
+	 * True if the SCHEDULER property has been set to DAG_SCHEDULER, in which case operators
+	 * whose inputs and outputs don't overlap are run concurrently by an OperatorScheduler,
+	 * instead of one at a time in document order
+	 * @return
+	 */
+	public boolean isDAGScheduling() {
+		String scheduler = (String)getProperty(PipelineXMLConstants.SCHEDULER);
+		return scheduler != null && scheduler.equalsIgnoreCase(PipelineXMLConstants.DAG_SCHEDULER);
+	}
+	
+	/**
+	 * True if the RESUME property has been set to true, in which case operators whose
+	 * outputs are up to date with respect to a previous run are not executed again 
+	 * @return
+	 */
+	public boolean isResuming() {
+		String resume = (String)getProperty(PipelineXMLConstants.RESUME);
+		return resume != null && Boolean.parseBoolean(resume);
+	}
+	
+	/**
+	 * Attach hooks to and run a single operator, notifying listeners when it begins and ends. 
+	 * This may be called from multiple threads at once when operators are scheduled concurrently
+	 * @param op
+	 * @throws OperationFailedException
+	 */
+	protected void executeOperator(Operator op) throws OperationFailedException {
+		if (isResuming() && checkpoints != null && checkpoints.isUpToDate(op)) {
+			String[] times = checkpoints.getRecordedTimes(op);
+			primaryLogger.info("Skipping operator : " + op.getObjectLabel() + " class: " + op.getClass() + " since its outputs are up to date with a previous run");
+			fireOperatorBeginning(op);
+			if (times != null) {
+				op.setAttribute(START_TIME, times[0]);
+				op.setAttribute(END_TIME, times[1]);
+			}
+			fireOperatorCompleted(op);
+			return;
+		}
+		
+		try {
+			currentOperator = op;
+			Date opStart = new Date();
+			fireOperatorBeginning(op);
+			op.setAttribute(START_TIME, "" + opStart.getTime());
+			
+			// Add the hooks to each operator
+			// NOTE: OperatorHook.initHook must be called
+			synchronized(handler) {
 				for(OperatorHook osh : handler.getHookList()){
 					osh.initHook(op);
 					if(osh instanceof OperatorStartHook){
@@ -444,34 +563,33 @@ public class Pipeline {
 						op.addEndHook((OperatorEndHook)osh);
 					}
 				}
-				primaryLogger.info("Executing operator : " + op.getObjectLabel() + " class: " + op.getClass());
-				op.operate();
-				System.err.flush(); //Make sure info is written to logger if necessary
-				Date end = new Date();
-				primaryLogger.info("Operator : " + op.getObjectLabel() + " class: " + op.getClass() + " has completed, operator elapsed time: " + ElapsedTimeFormatter.getElapsedTime(opStart.getTime(), end.getTime()) + "\n Pipeline elapsed time: " + ElapsedTimeFormatter.getElapsedTime(startTime.getTime(), end.getTime()));
-				fireOperatorCompleted(op);
-				op.setAttribute(END_TIME, "" + end.getTime());
-			} catch (OperationFailedException e) {
-				fireOperatorError(e);
-				//fireMessage("Operator failed : " + e);
-				e.printStackTrace();
-				primaryLogger.severe("ERROR : Operator : " + op.getObjectLabel() + " (class " + op.getClass() + ") failed \n Cause : " + e.getMessage());
-				
-				//We want to throw it again so other objects will be notified of this event besides
-				//through the weak 'fireMessage' avenue
-				throw e;
 			}
+			primaryLogger.info("Executing operator : " + op.getObjectLabel() + " class: " + op.getClass());
+			op.operate();
+			System.err.flush(); //Make sure info is written to logger if necessary
+			Date end = new Date();
+			primaryLogger.info("Operator : " + op.getObjectLabel() + " class: " + op.getClass() + " has completed, operator elapsed time: " + ElapsedTimeFormatter.getElapsedTime(opStart.getTime(), end.getTime()) + "\n Pipeline elapsed time: " + ElapsedTimeFormatter.getElapsedTime(startTime.getTime(), end.getTime()));
+			fireOperatorCompleted(op);
+			op.setAttribute(END_TIME, "" + end.getTime());
+			if (checkpoints != null)
+				checkpoints.recordCompletion(op);
+		} catch (OperationFailedException e) {
+			if (checkpoints != null)
+				checkpoints.clear(op);
+			fireOperatorError(e);
+			//fireMessage("Operator failed : " + e);
+			e.printStackTrace();
+			primaryLogger.severe("ERROR : Operator : " + op.getObjectLabel() + " (class " + op.getClass() + ") failed \n Cause : " + e.getMessage());
+			
+			//We want to throw it again so other objects will be notified of this event besides
+			//through the weak 'fireMessage' avenue
+			throw e;
 		}
-		
-		executeCompleted = true;
-		firePipelineFinished();
-		long endTime = System.currentTimeMillis();
-		
-		primaryLogger.info("Finished executing all operators, pipeline is done. \n Total elapsed time " + ElapsedTimeFormatter.getElapsedTime(startTime.getTime(), endTime ));
 	}
 	
 	/**
-	 * Obtain the currently executing operator. This is null until .execute() is called. 
+	 * Obtain the currently executing operator. This is null until .execute() is called. If
+	 * operators are being run concurrently this is the one that started most recently
 	 * @return
 	 */
 	public Operator getCurrentOperator() {
@@ -523,7 +641,7 @@ public class Pipeline {
 	 * Notify all listeners that the given operator has completed its job
 	 * @param op
 	 */
-	public void fireOperatorCompleted(Operator op) {
+	public synchronized void fireOperatorCompleted(Operator op) {
 		for(PipelineListener listener : listeners) {
 			listener.operatorCompleted(op);
 		}
@@ -533,7 +651,7 @@ public class Pipeline {
 	 * Notify all listeners that the given operator has begun to work
 	 * @param op
 	 */
-	public void fireOperatorBeginning(Operator op) {
+	public synchronized void fireOperatorBeginning(Operator op) {
 		for(PipelineListener listener : listeners) {
 			listener.operatorBeginning(op);
 		}
@@ -543,7 +661,7 @@ public class Pipeline {
 	 * Notify all listeners that an error has been encountered in the given operator
 	 * @param op
 	 */
-	public void fireOperatorError(OperationFailedException op) {
+	public synchronized void fireOperatorError(OperationFailedException op) {
 		for(PipelineListener listener : listeners) {
 			listener.errorEncountered(op);
 		}
@@ -553,7 +671,7 @@ public class Pipeline {
 	 * Notify all listeners that all operators have completed and the pipeline has finished
 	 * @param op
 	 */
-	public void firePipelineFinished() {
+	public synchronized void firePipelineFinished() {
 		for(PipelineListener listener : listeners) {
 			listener.pipelineFinished();
 		}
@@ -563,7 +681,7 @@ public class Pipeline {
 	 * Send a text message to all listeners
 	 * @param message
 	 */
-	public void fireMessage(String message) {
+	public synchronized void fireMessage(String message) {
 		for(PipelineListener listener : listeners) {
 			listener.message(message);
 		}
@@ -608,6 +726,12 @@ public class Pipeline {
 		String propsPath = argParser.getStringOp("props");
 		
 		
+		//Set to 'true' to skip operators that completed in a previous run
+		String resume = argParser.getStringOp("resume");
+		
+		//Set to 'dag' to run independent operators concurrently
+		String scheduler = argParser.getStringOp("scheduler");
+		
 		String threadCountStr = argParser.getStringOp("threads");
 		int threads = -1; //Use value from properties file if possible
 		if (threadCountStr != null) {
@@ -624,6 +748,14 @@ public class Pipeline {
 				if (projHome != null && projHome.length()>0)
 					pipeline.setProperty(Pipeline.PROJECT_HOME, projHome);
 				
+				if (resume != null) {
+					pipeline.setProperty(PipelineXMLConstants.RESUME, resume);
+				}
+				
+				if (scheduler != null) {
+					pipeline.setProperty(PipelineXMLConstants.SCHEDULER, scheduler);
+				}
+				
 				//Set preferred thread count
 				if (threads > -1) {
 					pipeline.setProperty(PipelineXMLConstants.THREADS_ATTR, "" + threads);
@@ -660,7 +792,8 @@ public class Pipeline {
 	
 	
 	private List<PipelineListener> listeners = new ArrayList<PipelineListener>();
-	private Operator currentOperator = null;
+	private volatile Operator currentOperator = null;
+	private CheckpointManifest checkpoints = null;
 	private boolean initialized = false;
 	private boolean executeStarted = false;
 	private boolean executeCompleted = false;
@@ -19,5 +19,13 @@ public class PipelineXMLConstants {
 	public static final String DOCUMENT_ROOT = "Pipeline";
 	public static final String CLASS_ATTR = "class";
 	public static final String THREADS_ATTR = "threads";
+	public static final String MEMORY_ATTR = "memory"; //Megabytes of memory tasks may use in total
+	public static final String WORKERS = "workers"; //Worker processes that run MultiOperator tasks, see WorkerPool
+	public static final String WORKER_RETRIES = "worker.retries";
+	public static final String ANNOTATION_CACHE = "annotation.cache"; //Directory of annotation caches, see Annotator
+	public static final String ANNOTATION_CACHE_SIZE = "annotation.cache.size"; //Maximum size of each annotation cache in megabytes
+	public static final String SCHEDULER = "scheduler";
+	public static final String DAG_SCHEDULER = "dag";
+	public static final String RESUME = "resume";
 	public static final String MAIL_RECIPIENT = "brendan.d.ofallon@aruplab.com";
 }
@@ -0,0 +1,270 @@
+package pipeline;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the CPU slots and memory available to a pipeline and hands them out to tasks, so that work
+ * started by different operators (for instance, several MultiOperators running at once under a
+ * ParallelOperator or the DAG scheduler) doesn't oversubscribe the machine. There's one of these per
+ * Pipeline, see Pipeline.getResourceScheduler().
+ *
+ * Before doing any real work a task calls acquire(...) with the number of CPUs and megabytes of memory
+ * it needs, which blocks until they are free, and releases them with release() on the returned Lease
+ * when done. Requests are granted in the order they're made, so a large task can't be starved by a
+ * stream of small ones, and a request larger than the whole machine is reduced to the whole machine
+ * so it can still run (alone). Only tasks that do work should acquire resources: threads that
+ * just wait for other tasks (the thread pools in MultiOperators, for instance) must not hold any
+ * while they wait. A thread that already holds a lease gets further requests granted immediately
+ * without counting them, so nested calls can't deadlock.
+ *
+ * estimateCPUs(...) and estimateMemoryMB(...) guess the cost of an external command from common
+ * options such as bwa's -t, GATK's -nt and java's -Xmx.
+ * @author brendan
+ *
+ */
+public class ResourceScheduler {
+
+	public static final long UNLIMITED_MEMORY = Long.MAX_VALUE;
+
+	private static final Pattern XMX = Pattern.compile("-Xmx(\\d+)([kKmMgGtT]?)");
+	private static final Pattern THREAD_OPTS = Pattern.compile("(?:^|\\s)(?:-t|-nt|-nct|-@|--threads|--num_threads)[\\s=](\\d+)");
+	private static final long DEFAULT_JVM_MEMORY_MB = 1024; //Memory assumed for java commands without -Xmx
+
+	private final int totalCPUs;
+	private final long totalMemoryMB;
+	private int freeCPUs;
+	private long freeMemoryMB;
+	private final LinkedList<Lease> waiting = new LinkedList<Lease>();
+	private final ThreadLocal<Lease> heldLease = new ThreadLocal<Lease>();
+
+	/**
+	 * Create a new scheduler with the given number of CPU slots and megabytes of memory
+	 * @param cpus
+	 * @param memoryMB Memory available, or UNLIMITED_MEMORY to not track memory
+	 */
+	public ResourceScheduler(int cpus, long memoryMB) {
+		if (cpus < 1)
+			throw new IllegalArgumentException("Must have at least one CPU slot");
+		if (memoryMB < 1)
+			throw new IllegalArgumentException("Must have some memory available");
+		this.totalCPUs = cpus;
+		this.totalMemoryMB = memoryMB;
+		this.freeCPUs = cpus;
+		this.freeMemoryMB = memoryMB;
+	}
+
+	public int getTotalCPUs() {
+		return totalCPUs;
+	}
+
+	public long getTotalMemoryMB() {
+		return totalMemoryMB;
+	}
+
+	public synchronized int getFreeCPUs() {
+		return freeCPUs;
+	}
+
+	public synchronized long getFreeMemoryMB() {
+		return freeMemoryMB;
+	}
+
+	/**
+	 * Number of requests waiting for resources to be freed
+	 * @return
+	 */
+	public synchronized int getWaitingCount() {
+		return waiting.size();
+	}
+
+	/**
+	 * Block until the given number of CPUs and megabytes of memory are free, then reserve them
+	 * for the calling task. The returned Lease must be released when the task is done, even if
+	 * it fails
+	 * @param cpus
+	 * @param memoryMB
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Lease acquire(int cpus, long memoryMB) throws InterruptedException {
+		if (heldLease.get() != null) {
+			//Already covered by the lease this thread holds
+			return new Lease(0, 0, true);
+		}
+
+		Lease lease = new Lease(Math.max(0, Math.min(cpus, totalCPUs)), Math.max(0, Math.min(memoryMB, totalMemoryMB)), false);
+		synchronized(this) {
+			waiting.add(lease);
+			try {
+				while(waiting.getFirst() != lease || lease.cpus > freeCPUs || lease.memoryMB > freeMemoryMB) {
+					wait();
+				}
+			}
+			catch (InterruptedException e) {
+				waiting.remove(lease);
+				notifyAll();
+				throw e;
+			}
+			waiting.removeFirst();
+			freeCPUs -= lease.cpus;
+			if (totalMemoryMB != UNLIMITED_MEMORY)
+				freeMemoryMB -= lease.memoryMB;
+			notifyAll(); //The next request in line may fit too
+		}
+		heldLease.set(lease);
+		return lease;
+	}
+
+	/**
+	 * Wrap the given task so that it acquires the given resources before it runs and releases them
+	 * when it's done. This is a convenient way to limit tasks submitted to a thread pool
+	 * @param task
+	 * @param cpus
+	 * @param memoryMB
+	 * @return
+	 */
+	public <T> Callable<T> withResources(final Callable<T> task, final int cpus, final long memoryMB) {
+		return new Callable<T>() {
+			public T call() throws Exception {
+				Lease lease = acquire(cpus, memoryMB);
+				try {
+					return task.call();
+				}
+				finally {
+					lease.release();
+				}
+			}
+		};
+	}
+
+	private synchronized void release(Lease lease) {
+		freeCPUs += lease.cpus;
+		if (totalMemoryMB != UNLIMITED_MEMORY)
+			freeMemoryMB += lease.memoryMB;
+		notifyAll();
+	}
+
+	/**
+	 * Resources reserved by one call to acquire(...)
+	 */
+	public class Lease {
+		final int cpus;
+		final long memoryMB;
+		final boolean nested;
+		private boolean released = false;
+
+		Lease(int cpus, long memoryMB, boolean nested) {
+			this.cpus = cpus;
+			this.memoryMB = memoryMB;
+			this.nested = nested;
+		}
+
+		public int getCPUs() {
+			return cpus;
+		}
+
+		public long getMemoryMB() {
+			return memoryMB;
+		}
+
+		/**
+		 * Return the resources to the scheduler. This must be called from the thread that acquired
+		 * the lease, and calling it more than once has no effect
+		 */
+		public void release() {
+			if (released)
+				return;
+			released = true;
+			if (nested)
+				return;
+			if (heldLease.get() == this)
+				heldLease.remove();
+			ResourceScheduler.this.release(this);
+		}
+	}
+
+	/**
+	 * Guess how many CPUs an external command will use from its thread count option, such as bwa's
+	 * or samtools' -t, samtools' -@ or GATK's -nt and -nct. Returns 1 if no such option is found
+	 * @param command
+	 * @return
+	 */
+	public static int estimateCPUs(String command) {
+		int cpus = 1;
+		Matcher matcher = THREAD_OPTS.matcher(command);
+		while(matcher.find()) {
+			try {
+				cpus = Math.max(cpus, Integer.parseInt(matcher.group(1)));
+			}
+			catch (NumberFormatException e) {
+				//Too big to be sensible, ignore it
+			}
+		}
+		return cpus;
+	}
+
+	/**
+	 * Guess how much memory an external command will use, in megabytes. For java commands this is the
+	 * -Xmx value (or a default if there's none), for everything else it's 0
+	 * @param command
+	 * @return
+	 */
+	public static long estimateMemoryMB(String command) {
+		Matcher matcher = XMX.matcher(command);
+		if (matcher.find()) {
+			long size = Long.parseLong(matcher.group(1));
+			String unit = matcher.group(2).toLowerCase();
+			if (unit.equals("t"))
+				return size * 1024L * 1024L;
+			if (unit.equals("g"))
+				return size * 1024L;
+			if (unit.equals("m"))
+				return size;
+			if (unit.equals("k"))
+				return Math.max(1, size / 1024L);
+			return Math.max(1, size / (1024L * 1024L));
+		}
+		String[] toks = command.trim().split("\\s+");
+		if (toks.length > 0 && (toks[0].equals("java") || toks[0].endsWith("/java")))
+			return DEFAULT_JVM_MEMORY_MB;
+		return 0;
+	}
+
+	/**
+	 * Total physical memory of this machine in megabytes, read from /proc/meminfo, or UNLIMITED_MEMORY
+	 * if it can't be determined
+	 * @return
+	 */
+	public static long getPhysicalMemoryMB() {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/meminfo"));
+			try {
+				String line = reader.readLine();
+				while(line != null) {
+					if (line.startsWith("MemTotal:")) {
+						String[] toks = line.substring(9).trim().split("\\s+");
+						return Long.parseLong(toks[0]) / 1024L;
+					}
+					line = reader.readLine();
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			Logger.getLogger(Pipeline.primaryLoggerName).info("Could not read physical memory size, memory use of tasks will not be limited");
+		}
+		catch (NumberFormatException e) {
+			Logger.getLogger(Pipeline.primaryLoggerName).info("Could not parse physical memory size, memory use of tasks will not be limited");
+		}
+		return UNLIMITED_MEMORY;
+	}
+}
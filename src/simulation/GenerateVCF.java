@@ -31,6 +31,15 @@ public class GenerateVCF {
 	//Order is A, G, T (all others are C)
 	static final double[] baseFreqs = new double[]{0.3, 0.55, 0.78};
 	
+	/**
+	 * Reseed the random number generator so that the same sites are generated on every run,
+	 * used when generating fixtures for benchmarks
+	 * @param seed
+	 */
+	public static void setSeed(int seed) {
+		rng = new MersenneTwister(seed);
+	}
+	
 	//Probability that new mutation is a transition, ttRatio is x/(1-x) 
 	//static final double transitionProb = 0.72; //0.72 makes ttRatio about 2.57
 	
@@ -344,6 +353,18 @@ public class GenerateVCF {
 		String ref;
 		String alt;
 		
+		public int getPos() {
+			return pos;
+		}
+		
+		public String getRef() {
+			return ref;
+		}
+		
+		public String getAlt() {
+			return alt;
+		}
+		
 		/**
 		 * Emits position in vcf-like, 1-indexed format
 		 */
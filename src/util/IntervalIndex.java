@@ -0,0 +1,249 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable index of the intervals on a single contig that finds all intervals overlapping
+ * a position or range in O(log n + k) time, even when the intervals overlap each other.
+ *
+ * Intervals are kept in an array sorted by start position, which is treated as an implicit, balanced
+ * binary tree: the node at index i is at level k if the k lowest bits of i are all 1, and its children
+ * are at i - 2^(k-1) and i + 2^(k-1). Each node stores the largest end of any interval in its
+ * subtree, so subtrees that can't contain overlapping intervals are skipped. This is the layout used
+ * by Heng Li's cgranges library.
+ *
+ * For many queries in increasing order, such as all variants in a sorted contig, a Cursor is faster still,
+ * since it only looks at each interval a constant number of times over all queries.
+ * @author brendan
+ *
+ */
+public class IntervalIndex {
+
+	private final Interval[] intervals;
+	private final int[] maxEnds;
+	private final int maxLevel;
+
+	public IntervalIndex(Collection<Interval> source) {
+		List<Interval> sorted = new ArrayList<Interval>(source);
+		Collections.sort(sorted);
+		intervals = sorted.toArray(new Interval[sorted.size()]);
+		maxEnds = new int[intervals.length];
+		maxLevel = buildTree();
+	}
+
+	/**
+	 * Number of intervals in this index
+	 * @return
+	 */
+	public int size() {
+		return intervals.length;
+	}
+
+	/**
+	 * Return all intervals overlapping the half-open range [start, end), sorted by start position
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public List<Interval> getOverlapping(int start, int end) {
+		List<Interval> results = new ArrayList<Interval>(4);
+		query(start, end, results);
+		return results;
+	}
+
+	/**
+	 * Return all intervals containing the given position, sorted by start position
+	 * @param pos
+	 * @return
+	 */
+	public List<Interval> getOverlapping(int pos) {
+		return getOverlapping(pos, pos+1);
+	}
+
+	/**
+	 * True if any interval contains the given position
+	 * @param pos
+	 * @return
+	 */
+	public boolean contains(int pos) {
+		return query(pos, pos+1, null);
+	}
+
+	/**
+	 * True if any interval overlaps the half-open range [start, end)
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public boolean overlaps(int start, int end) {
+		return query(start, end, null);
+	}
+
+	/**
+	 * Create a new cursor for queries with non-decreasing positions
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Compute the max end of every subtree and return the level of the root
+	 */
+	private int buildTree() {
+		int n = intervals.length;
+		if (n == 0)
+			return -1;
+
+		int lastIndex = 0;
+		int lastMax = 0;
+		for(int i=0; i<n; i+=2) {
+			lastIndex = i;
+			lastMax = maxEnds[i] = intervals[i].end;
+		}
+
+		int k;
+		for(k=1; (1L << k) <= n; k++) {
+			int x = 1 << (k-1);
+			int i0 = (x << 1) - 1;
+			int step = x << 2;
+			for(int i=i0; i<n; i+=step) {
+				int leftMax = maxEnds[i - x];
+				int rightMax = i + x < n ? maxEnds[i + x] : lastMax;
+				maxEnds[i] = Math.max(intervals[i].end, Math.max(leftMax, rightMax));
+			}
+			//Move to the parent of the last node so the max of the incomplete right edge is carried up
+			lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+			if (lastIndex < n && maxEnds[lastIndex] > lastMax)
+				lastMax = maxEnds[lastIndex];
+		}
+		return k - 1;
+	}
+
+	/**
+	 * Find intervals overlapping [start, end), adding them to results if results is not null. If
+	 * results is null we return as soon as any overlapping interval is found
+	 * @return True if any overlapping interval was found
+	 */
+	private boolean query(int start, int end, List<Interval> results) {
+		int n = intervals.length;
+		if (n == 0)
+			return false;
+
+		boolean found = false;
+		//Each entry is a node index, its level, and whether its left subtree has been visited
+		long[] stackX = new long[64];
+		int[] stackK = new int[64];
+		boolean[] stackW = new boolean[64];
+		int t = 0;
+		stackX[t] = (1L << maxLevel) - 1;
+		stackK[t] = maxLevel;
+		stackW[t] = false;
+		t++;
+
+		while(t > 0) {
+			t--;
+			long x = stackX[t];
+			int k = stackK[t];
+			boolean w = stackW[t];
+
+			if (k <= 3) {
+				//Small subtree, just scan all of it
+				long i0 = (x >> k) << k;
+				long i1 = Math.min(i0 + (1L << (k+1)) - 1, n);
+				for(long i=i0; i<i1 && intervals[(int)i].begin < end; i++) {
+					if (start < intervals[(int)i].end) {
+						if (results == null)
+							return true;
+						results.add(intervals[(int)i]);
+						found = true;
+					}
+				}
+			}
+			else if (! w) {
+				//Revisit this node after its left subtree
+				long y = x - (1L << (k-1));
+				stackX[t] = x;
+				stackK[t] = k;
+				stackW[t] = true;
+				t++;
+				if (y >= n || maxEnds[(int)y] > start) {
+					stackX[t] = y;
+					stackK[t] = k-1;
+					stackW[t] = false;
+					t++;
+				}
+			}
+			else if (x < n && intervals[(int)x].begin < end) {
+				if (start < intervals[(int)x].end) {
+					if (results == null)
+						return true;
+					results.add(intervals[(int)x]);
+					found = true;
+				}
+				stackX[t] = x + (1L << (k-1));
+				stackK[t] = k-1;
+				stackW[t] = false;
+				t++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Answers point queries whose positions never decrease, by sweeping through the intervals in
+	 * order of start and keeping track of those that contain the current position. If a position
+	 * less than the previous one is given the cursor falls back to an indexed query.
+	 */
+	public class Cursor {
+
+		private int next = 0; //Index of the first interval not yet added to active
+		private int lastPos = Integer.MIN_VALUE;
+		private final List<Interval> active = new ArrayList<Interval>();
+
+		/**
+		 * Return all intervals containing the given position. The list is only valid until
+		 * the next call to this method
+		 * @param pos
+		 * @return
+		 */
+		public List<Interval> getOverlapping(int pos) {
+			if (pos < lastPos) {
+				return IntervalIndex.this.getOverlapping(pos);
+			}
+			lastPos = pos;
+
+			while(next < intervals.length && intervals[next].begin <= pos) {
+				active.add(intervals[next]);
+				next++;
+			}
+
+			//Drop intervals that end before pos, these can't contain any later positions either
+			int kept = 0;
+			for(int i=0; i<active.size(); i++) {
+				Interval inter = active.get(i);
+				if (inter.end > pos) {
+					active.set(kept, inter);
+					kept++;
+				}
+			}
+			while(active.size() > kept) {
+				active.remove(active.size()-1);
+			}
+
+			return active;
+		}
+
+		/**
+		 * True if any interval contains the given position
+		 * @param pos
+		 * @return
+		 */
+		public boolean contains(int pos) {
+			return getOverlapping(pos).size() > 0;
+		}
+	}
+}
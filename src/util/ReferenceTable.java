@@ -0,0 +1,521 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import pipeline.Pipeline;
+
+/**
+ * A read-only table of records from a reference source such as the HGMD or OMIM files. Each row has a
+ * contig, a position, and a fixed number of string columns. Rows can be found by contig and position, or
+ * by the value of any column that was indexed when the table was built.
+ *
+ * Instead of objects for each record the table holds a few int arrays: every distinct string is stored
+ * once in a sorted pool, rows refer to strings by their number in the pool, and indexes are arrays of row
+ * numbers sorted by position or by column value, which are searched with binary searches. Strings are
+ * only decoded when they're asked for.
+ *
+ * Parsing a large source file takes a while, so load() saves the table in a binary snapshot next to the
+ * source file, and later loads just map the snapshot into memory, which is nearly instantaneous and
+ * doesn't use any heap. The snapshot records the size and modification time of the source and a format
+ * string given by the caller, and is rebuilt if any of these change. If the snapshot can't be written
+ * (because the source is in a read-only directory, say) the table is kept on the heap instead.
+ * @author brendan
+ *
+ */
+public class ReferenceTable {
+
+	static final int MAGIC = 0x52544231; //"RTB1"
+	static final int SNAPSHOT_VERSION = 1;
+	public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	/**
+	 * Reads a reference source into a Builder
+	 */
+	public interface Parser {
+		public void parse(File source, Builder builder) throws IOException;
+	}
+
+	private final ByteBuffer buf;
+	private final IntBuffer ints;
+	private final int rows;
+	private final int columns;
+	private final int poolSize;
+	private final int[] indexedColumns;
+	private final int poolOffsetsStart;
+	private final int contigsStart;
+	private final int positionsStart;
+	private final int valuesStart;
+	private final int positionOrderStart;
+	private final int columnOrdersStart;
+	private final int poolBytesStart;
+
+	/**
+	 * Load the table for the given source, from its snapshot if there's a current one, otherwise by
+	 * parsing the source and saving a new snapshot. The format string should change whenever the
+	 * parser changes what it puts in the table, so that old snapshots aren't used
+	 * @param source
+	 * @param format
+	 * @param parser
+	 * @param columns
+	 * @param indexedColumns
+	 * @return
+	 * @throws IOException
+	 */
+	public static ReferenceTable load(File source, String format, Parser parser, int columns, int... indexedColumns) throws IOException {
+		Logger logger = Logger.getLogger(Pipeline.primaryLoggerName);
+		File snapshot = new File(source.getAbsolutePath() + SNAPSHOT_SUFFIX);
+		if (snapshot.exists()) {
+			ReferenceTable table = map(snapshot, source, format);
+			if (table != null) {
+				logger.info("Loaded " + table.size() + " records from snapshot " + snapshot.getAbsolutePath());
+				return table;
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		Builder builder = new Builder(columns, indexedColumns);
+		parser.parse(source, builder);
+		ByteBuffer data = builder.toBytes(source, format);
+		logger.info("Parsed " + builder.size() + " records from " + source.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + " ms");
+
+		try {
+			File tmp = File.createTempFile(source.getName(), ".tmp", snapshot.getAbsoluteFile().getParentFile());
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.getChannel().write(data.duplicate());
+			}
+			finally {
+				out.close();
+			}
+			if (tmp.renameTo(snapshot)) {
+				ReferenceTable table = map(snapshot, source, format);
+				if (table != null)
+					return table;
+			}
+			else {
+				tmp.delete();
+			}
+		}
+		catch (IOException e) {
+			logger.info("Could not write snapshot " + snapshot.getAbsolutePath() + ", keeping records in memory : " + e.getMessage());
+		}
+		return new ReferenceTable(data);
+	}
+
+	/**
+	 * Map the snapshot, or return null if it's not a current snapshot for the source
+	 */
+	private static ReferenceTable map(File snapshot, File source, String format) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (! isCurrent(data, source, format))
+				return null;
+			return new ReferenceTable(data);
+		}
+		catch (RuntimeException e) {
+			//Truncated or otherwise damaged, it'll be rebuilt
+			return null;
+		}
+		finally {
+			raf.close(); //The mapping stays valid after the file is closed
+		}
+	}
+
+	private static boolean isCurrent(ByteBuffer data, File source, String format) {
+		if (data.capacity() < 32 || data.getInt(0) != MAGIC || data.getInt(4) != SNAPSHOT_VERSION)
+			return false;
+		if (data.getLong(8) != source.length() || data.getLong(16) != source.lastModified())
+			return false;
+		return format.equals(readFormat(data));
+	}
+
+	private static String readFormat(ByteBuffer data) {
+		byte[] bytes = new byte[data.getInt(24)];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = data.get(28 + i);
+		return Builder.decode(bytes);
+	}
+
+	private ReferenceTable(ByteBuffer data) {
+		this.buf = data;
+		int formatLength = data.getInt(24);
+		int headerStart = 28 + ((formatLength + 3) & ~3);
+		rows = data.getInt(headerStart);
+		columns = data.getInt(headerStart + 4);
+		poolSize = data.getInt(headerStart + 8);
+		int indexCount = data.getInt(headerStart + 12);
+		indexedColumns = new int[indexCount];
+		for(int i=0; i<indexCount; i++)
+			indexedColumns[i] = data.getInt(headerStart + 16 + 4*i);
+
+		ByteBuffer intBytes = data.duplicate();
+		intBytes.position(headerStart + 16 + 4*indexCount);
+		ints = intBytes.slice().asIntBuffer();
+
+		poolOffsetsStart = 0;
+		contigsStart = poolOffsetsStart + poolSize + 1;
+		positionsStart = contigsStart + rows;
+		valuesStart = positionsStart + rows;
+		positionOrderStart = valuesStart + rows * columns;
+		columnOrdersStart = positionOrderStart + rows;
+		poolBytesStart = headerStart + 16 + 4*indexCount + 4*(columnOrdersStart + indexCount * rows);
+		if (poolBytesStart + ints.get(poolSize) != data.capacity())
+			throw new IllegalArgumentException("Reference table data has the wrong length");
+	}
+
+	/**
+	 * Number of rows in this table
+	 * @return
+	 */
+	public int size() {
+		return rows;
+	}
+
+	public String getContig(int row) {
+		return getString(ints.get(contigsStart + row));
+	}
+
+	public int getPosition(int row) {
+		return ints.get(positionsStart + row);
+	}
+
+	/**
+	 * Value of the given column in the given row, which may be null
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public String get(int row, int column) {
+		return getString(ints.get(valuesStart + row * columns + column));
+	}
+
+	/**
+	 * All rows at the given contig and position, in the order they were added
+	 * @param contig
+	 * @param pos
+	 * @return
+	 */
+	public int[] getRowsAt(String contig, int pos) {
+		int contigId = findString(contig);
+		if (contigId < 0)
+			return new int[0];
+
+		//Find the first entry at or after contig:pos, then read forward
+		int lo = 0;
+		int hi = rows;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int row = ints.get(positionOrderStart + mid);
+			int c = ints.get(contigsStart + row);
+			if (c < contigId || (c == contigId && ints.get(positionsStart + row) < pos))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int end = lo;
+		while(end < rows) {
+			int row = ints.get(positionOrderStart + end);
+			if (ints.get(contigsStart + row) != contigId || ints.get(positionsStart + row) != pos)
+				break;
+			end++;
+		}
+		return readOrder(positionOrderStart, lo, end);
+	}
+
+	/**
+	 * All rows whose value in the given column equals the given value, in the order they were added.
+	 * The column must have been indexed when the table was built
+	 * @param column
+	 * @param value
+	 * @return
+	 */
+	public int[] getRows(int column, String value) {
+		int orderStart = getColumnOrderStart(column);
+		int id = findString(value);
+		if (id < 0)
+			return new int[0];
+
+		int lo = lowerBound(orderStart, column, id);
+		int end = lowerBound(orderStart, column, id + 1);
+		return readOrder(orderStart, lo, end);
+	}
+
+	/**
+	 * The distinct values of the given indexed column, in sorted order
+	 * @param column
+	 * @return
+	 */
+	public List<String> getValues(int column) {
+		int orderStart = getColumnOrderStart(column);
+		List<String> values = new ArrayList<String>();
+		int prev = -2;
+		for(int i=0; i<rows; i++) {
+			int id = ints.get(valuesStart + ints.get(orderStart + i) * columns + column);
+			if (id != prev && id >= 0)
+				values.add(getString(id));
+			prev = id;
+		}
+		return values;
+	}
+
+	private int getColumnOrderStart(int column) {
+		for(int i=0; i<indexedColumns.length; i++) {
+			if (indexedColumns[i] == column)
+				return columnOrdersStart + i * rows;
+		}
+		throw new IllegalArgumentException("Column " + column + " is not indexed");
+	}
+
+	/**
+	 * First index in the column order whose row has a string number at least id
+	 */
+	private int lowerBound(int orderStart, int column, int id) {
+		int lo = 0;
+		int hi = rows;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int row = ints.get(orderStart + mid);
+			if (ints.get(valuesStart + row * columns + column) < id)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private int[] readOrder(int orderStart, int from, int to) {
+		int[] result = new int[to - from];
+		for(int i=from; i<to; i++)
+			result[i - from] = ints.get(orderStart + i);
+		return result;
+	}
+
+	/**
+	 * Number of the string in the pool, or -1 if it's not there. Since the pool is sorted this is a binary search
+	 */
+	private int findString(String str) {
+		if (str == null)
+			return -1;
+		int lo = 0;
+		int hi = poolSize - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = getString(mid).compareTo(str);
+			if (cmp < 0)
+				lo = mid + 1;
+			else if (cmp > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private String getString(int id) {
+		if (id < 0)
+			return null;
+		int start = ints.get(poolOffsetsStart + id);
+		int end = ints.get(poolOffsetsStart + id + 1);
+		byte[] bytes = new byte[end - start];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = buf.get(poolBytesStart + start + i);
+		return Builder.decode(bytes);
+	}
+
+	/**
+	 * Collects rows for a table. Rows are kept in the order they're added
+	 */
+	public static class Builder {
+
+		private final int columns;
+		private final int[] indexedColumns;
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+		private final List<String> pool = new ArrayList<String>();
+		private int[] contigs = new int[1024];
+		private int[] positions = new int[1024];
+		private int[] values;
+		private int rows = 0;
+
+		public Builder(int columns, int... indexedColumns) {
+			this.columns = columns;
+			this.indexedColumns = indexedColumns;
+			for(int column : indexedColumns) {
+				if (column < 0 || column >= columns)
+					throw new IllegalArgumentException("Can't index column " + column + " of " + columns);
+			}
+			values = new int[1024 * columns];
+		}
+
+		/**
+		 * Add a row, there must be one value for each column but values may be null
+		 * @param contig
+		 * @param pos
+		 * @param rowValues
+		 */
+		public void add(String contig, int pos, String... rowValues) {
+			if (rowValues.length != columns)
+				throw new IllegalArgumentException("Expected " + columns + " values but got " + rowValues.length);
+			if (rows == contigs.length) {
+				contigs = Arrays.copyOf(contigs, rows * 2);
+				positions = Arrays.copyOf(positions, rows * 2);
+				values = Arrays.copyOf(values, rows * 2 * columns);
+			}
+			contigs[rows] = intern(contig);
+			positions[rows] = pos;
+			for(int i=0; i<columns; i++)
+				values[rows * columns + i] = intern(rowValues[i]);
+			rows++;
+		}
+
+		public int size() {
+			return rows;
+		}
+
+		private int intern(String str) {
+			if (str == null)
+				return -1;
+			Integer id = strings.get(str);
+			if (id == null) {
+				id = pool.size();
+				strings.put(str, id);
+				pool.add(str);
+			}
+			return id;
+		}
+
+		/**
+		 * Sort the string pool, renumber everything to match, build the indexes, and lay it all out
+		 * in the snapshot format
+		 */
+		ByteBuffer toBytes(File source, String format) throws IOException {
+			List<String> sorted = new ArrayList<String>(pool);
+			Collections.sort(sorted);
+			final int[] renumber = new int[pool.size()];
+			for(int i=0; i<sorted.size(); i++)
+				renumber[strings.get(sorted.get(i))] = i;
+			for(int i=0; i<rows; i++)
+				contigs[i] = renumber(renumber, contigs[i]);
+			for(int i=0; i<rows * columns; i++)
+				values[i] = renumber(renumber, values[i]);
+
+			int[] positionOrder = sortRows(new RowKey() {
+				public long key(int row) {
+					return ((long)contigs[row] << 32) | (positions[row] & 0xFFFFFFFFL);
+				}
+			});
+			int[][] columnOrders = new int[indexedColumns.length][];
+			for(int i=0; i<indexedColumns.length; i++) {
+				final int column = indexedColumns[i];
+				columnOrders[i] = sortRows(new RowKey() {
+					public long key(int row) {
+						return values[row * columns + column];
+					}
+				});
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes));
+			out.writeInt(MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			byte[] formatBytes = format.getBytes("UTF-8");
+			out.writeInt(formatBytes.length);
+			out.write(formatBytes);
+			for(int i=formatBytes.length; i%4 != 0; i++)
+				out.writeByte(0);
+
+			out.writeInt(rows);
+			out.writeInt(columns);
+			out.writeInt(sorted.size());
+			out.writeInt(indexedColumns.length);
+			for(int column : indexedColumns)
+				out.writeInt(column);
+
+			List<byte[]> encoded = new ArrayList<byte[]>(sorted.size());
+			int offset = 0;
+			out.writeInt(offset);
+			for(String str : sorted) {
+				byte[] strBytes = str.getBytes("UTF-8");
+				encoded.add(strBytes);
+				offset += strBytes.length;
+				out.writeInt(offset);
+			}
+			for(int i=0; i<rows; i++)
+				out.writeInt(contigs[i]);
+			for(int i=0; i<rows; i++)
+				out.writeInt(positions[i]);
+			for(int i=0; i<rows * columns; i++)
+				out.writeInt(values[i]);
+			for(int i=0; i<rows; i++)
+				out.writeInt(positionOrder[i]);
+			for(int[] order : columnOrders) {
+				for(int i=0; i<rows; i++)
+					out.writeInt(order[i]);
+			}
+			for(byte[] strBytes : encoded)
+				out.write(strBytes);
+			out.close();
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+
+		private static int renumber(int[] renumber, int id) {
+			return id < 0 ? id : renumber[id];
+		}
+
+		/**
+		 * Row numbers sorted by key, ties in the order the rows were added
+		 */
+		private int[] sortRows(RowKey rowKey) {
+			Integer[] order = new Integer[rows];
+			final long[] keys = new long[rows];
+			for(int i=0; i<rows; i++) {
+				keys[i] = rowKey.key(i);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					if (keys[a] != keys[b])
+						return keys[a] < keys[b] ? -1 : 1;
+					return a - b;
+				}
+			});
+			int[] result = new int[rows];
+			for(int i=0; i<rows; i++)
+				result[i] = order[i];
+			return result;
+		}
+
+		interface RowKey {
+			long key(int row);
+		}
+
+		static String decode(byte[] bytes) {
+			try {
+				return new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
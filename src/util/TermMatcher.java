@@ -0,0 +1,181 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds which of a fixed set of terms occur in a text, ignoring case, in a single pass over the text.
+ * This is an Aho-Corasick automaton: a trie of the terms in which each node also knows the node for the
+ * longest suffix of its string that is a prefix of some term, so that matching never backs up. The
+ * transitions for every node and character are computed when the matcher is built, which makes
+ * matching one array lookup per character of text.
+ *
+ * Characters are first mapped to classes, with all characters that don't appear in any term (in upper
+ * or lower case) sharing class 0, so the transition table has one column per distinct term character.
+ * Matchers are immutable and may be used from several threads at once.
+ * @author brendan
+ *
+ */
+public class TermMatcher {
+
+	private final String[] terms;
+	private final int[] weights;
+	private final char[] charClass = new char[Character.MAX_VALUE + 1];
+	private final int classes;
+	private final int[] transitions; //Next state for each state and character class
+	private final int[] outputStart; //Terms ending at state s are outputs[outputStart[s]] .. outputs[outputStart[s+1]-1]
+	private final int[] outputs;
+
+	/**
+	 * Build a matcher for the terms given as keys of the map, with the values as their weights.
+	 * Terms are matched without regard to case
+	 * @param termWeights
+	 */
+	public TermMatcher(Map<String, Integer> termWeights) {
+		terms = new String[termWeights.size()];
+		weights = new int[termWeights.size()];
+		int t = 0;
+		for(String term : termWeights.keySet()) {
+			terms[t] = term.toLowerCase();
+			weights[t] = termWeights.get(term);
+			t++;
+		}
+
+		//Number the characters used in terms, and have their other cases map to the same class
+		char[] lowerClass = new char[Character.MAX_VALUE + 1];
+		int classCount = 1;
+		for(String term : terms) {
+			for(int i=0; i<term.length(); i++) {
+				char c = term.charAt(i);
+				if (lowerClass[c] == 0)
+					lowerClass[c] = (char)classCount++;
+			}
+		}
+		for(int c=0; c<=Character.MAX_VALUE; c++) {
+			charClass[c] = lowerClass[Character.toLowerCase((char)c)];
+		}
+		classes = classCount;
+
+		//Build the trie, with child transitions stored in a growing table
+		List<int[]> children = new ArrayList<int[]>();
+		List<List<Integer>> ending = new ArrayList<List<Integer>>();
+		children.add(new int[classes]);
+		ending.add(new ArrayList<Integer>(1));
+		for(t=0; t<terms.length; t++) {
+			int state = 0;
+			for(int i=0; i<terms[t].length(); i++) {
+				int cls = lowerClass[terms[t].charAt(i)];
+				if (children.get(state)[cls] == 0) {
+					children.get(state)[cls] = children.size();
+					children.add(new int[classes]);
+					ending.add(new ArrayList<Integer>(1));
+				}
+				state = children.get(state)[cls];
+			}
+			ending.get(state).add(t);
+		}
+
+		//Breadth-first, fill in missing transitions from the fail state's transitions and
+		//add the fail state's outputs to each state's outputs
+		int states = children.size();
+		transitions = new int[states * classes];
+		int[] fail = new int[states];
+		List<List<Integer>> out = new ArrayList<List<Integer>>(ending);
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for(int cls=1; cls<classes; cls++) {
+			int child = children.get(0)[cls];
+			transitions[cls] = child;
+			if (child != 0) {
+				fail[child] = 0;
+				queue.add(child);
+			}
+		}
+		while(! queue.isEmpty()) {
+			int state = queue.removeFirst();
+			if (! out.get(fail[state]).isEmpty()) {
+				List<Integer> merged = new ArrayList<Integer>(out.get(state));
+				merged.addAll(out.get(fail[state]));
+				out.set(state, merged);
+			}
+			for(int cls=0; cls<classes; cls++) {
+				int child = cls == 0 ? 0 : children.get(state)[cls];
+				if (child != 0) {
+					fail[child] = transitions[fail[state] * classes + cls];
+					transitions[state * classes + cls] = child;
+					queue.add(child);
+				}
+				else {
+					transitions[state * classes + cls] = transitions[fail[state] * classes + cls];
+				}
+			}
+		}
+
+		outputStart = new int[states + 1];
+		int total = 0;
+		for(int s=0; s<states; s++) {
+			outputStart[s] = total;
+			total += out.get(s).size();
+		}
+		outputStart[states] = total;
+		outputs = new int[total];
+		for(int s=0; s<states; s++) {
+			int pos = outputStart[s];
+			for(Integer term : out.get(s))
+				outputs[pos++] = term;
+		}
+	}
+
+	/**
+	 * Number of terms
+	 * @return
+	 */
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	/**
+	 * The term with the given number, in lower case
+	 * @param term
+	 * @return
+	 */
+	public String getTerm(int term) {
+		return terms[term];
+	}
+
+	public int getWeight(int term) {
+		return weights[term];
+	}
+
+	/**
+	 * The numbers of all terms that occur anywhere in the text
+	 * @param text
+	 * @return
+	 */
+	public BitSet findTerms(CharSequence text) {
+		BitSet found = new BitSet(terms.length);
+		int state = 0;
+		for(int i=0; i<text.length(); i++) {
+			state = transitions[state * classes + charClass[text.charAt(i)]];
+			for(int j=outputStart[state]; j<outputStart[state+1]; j++)
+				found.set(outputs[j]);
+		}
+		return found;
+	}
+
+	/**
+	 * Sum of the weights of all distinct terms that occur in the text. Each term counts
+	 * once no matter how many times it occurs
+	 * @param text
+	 * @return
+	 */
+	public int score(CharSequence text) {
+		BitSet found = findTerms(text);
+		int score = 0;
+		for(int t=found.nextSetBit(0); t>=0; t=found.nextSetBit(t+1))
+			score += weights[t];
+		return score;
+	}
+}
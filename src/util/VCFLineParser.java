@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 
 import buffer.VCFFile;
 import buffer.variant.VariantLineReader;
@@ -15,68 +17,111 @@ import buffer.variant.VariantRec;
  * This class provides a uniform interface for extracting values from a single line of a vcf file.
  * Right now this makes several assumptions regarding the format of the VCF which
  * work well with the GaTK's vcfs, but may break with other vcf types. Use
- * GenericVCFParser for a more flexible version.  
+ * GenericVCFParser for a more flexible version.
+ *
+ * Lines are read into a reusable character buffer and split into tab-separated fields just once, by
+ * recording the offsets of each field. Nothing else is computed until it's asked for: the FORMAT column
+ * is only re-read when it differs from the previous line's, the subfields of the sample column and the
+ * entries of the INFO column are found at most once per line, and numbers are parsed directly from the
+ * buffer. Strings, including the current line itself, are only created if a getter returns one.
  * @author brendan
  *
  */
 public class VCFLineParser implements VariantLineReader {
 
-		private BufferedReader reader;
+		//INFO keys we always look for, these are given the first ids in the key index
+		private static final String[] BUILTIN_INFO_KEYS = new String[]{"DP", "VQSLOD", "LOGFS", "ReadPosRankSum", "TAUFP", "FS"};
+		private static final int DP_KEY = 0;
+		private static final int VQSLOD_KEY = 1;
+		private static final int LOGFS_KEY = 2;
+		private static final int RPRS_KEY = 3;
+		private static final int TAUFP_KEY = 4;
+		private static final int FS_KEY = 5;
+		private static final String INFO_HEADER_PREFIX = "##INFO=<ID=";
+
+		private static final double[] POWERS_OF_TEN = new double[]{1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+		private final Reader reader;
+		private final char[] readBuf = new char[1 << 16];
+		private int readPos = 0;
+		private int readLen = 0;
 		private int currentLineNumber = -1;
+
+		//The current line and the offsets of its fields, reused for every line
+		private char[] line = new char[1024];
+		private int lineLength = -1; //-1 when there is no current line
+		private int[] fieldStarts = new int[16];
+		private int[] fieldEnds = new int[16];
+		private int fieldCount = 0;
+
+		//Values created from the current line when first asked for
 		private String currentLine = null;
-		protected String[] lineToks = null;
-		private String[] formatToks = null; //Tokenized format string, produced as needed
+		private String contig = null;
+		private String ref = null;
+		private String alt = null;
+
+		private char[] formatChars = new char[64]; //Most recently seen format string
+		private int formatLength = -1;
+		private boolean formatChecked = false; //True once the format of the current line has been compared to formatChars
+		private boolean hasFormat = false; //True if the current line has a format column
 		private int gtCol = -1; //Format column which contains genotype info
-		private int gqCol = -1; //Format column which contains genotype quality info 
-		private int adCol = -1; //Format column which contains allele depth info 
+		private int gqCol = -1; //Format column which contains genotype quality info
+		private int adCol = -1; //Format column which contains allele depth info
 		private int dpCol = -1; //Format column which contains depth info
-				
+
+		//Offsets of the ':'-separated subfields of the sample column of the current line
+		private int[] sampleStarts = new int[16];
+		private int[] sampleEnds = new int[16];
+		private int sampleFieldCount = -1; //-1 until the sample column of the current line is split
+
+		//Offsets of the value of each INFO key in the current line, indexed by key id, -1 if absent
+		private final KeyIndex infoKeys = new KeyIndex();
+		private int[] infoStarts = new int[0];
+		private int[] infoEnds = new int[0];
+		private int[] infoFound = new int[16]; //Ids of keys found in the current line, so we can reset them
+		private int infoFoundCount = 0;
+		private boolean infoParsed = false;
+
 		private String sample = null; //Emit information for only this sample if specified (when not given, defaults to first sample)
 		private int sampleColumn = -1; //Column that stores information for the given sample
 		protected final File sourceFile;
-		
-		private String currentFormatStr = null;
-		
+
 		public VCFLineParser(File file, String sample) throws IOException {
-			this.reader = new BufferedReader(new FileReader(file));
+			this.reader = new FileReader(file);
 			this.sourceFile = file;
-			currentLine = reader.readLine();
 			this.sample = sample; //Sample must be specified before header is read
 			readHeader();
 		}
-		
+
 		/**
 		 * Create a VCFLineReader to read variants from the given input stream
 		 * @param stream
 		 * @throws IOException
 		 */
 		public VCFLineParser(InputStream stream) throws IOException {
-			this.reader = new BufferedReader(new InputStreamReader(stream));
+			this.reader = new InputStreamReader(stream);
 			sourceFile = null;
-			currentLine = reader.readLine();
-			sampleColumn = 9; //First column with info, this is the default when no sample is specified
 			readHeader();
 		}
-		
+
 		public VCFLineParser(File file) throws IOException {
-			this.reader = new BufferedReader(new FileReader(file));
+			this.reader = new FileReader(file);
 			this.sourceFile = file;
-			currentLine = reader.readLine();
-			sampleColumn = 9; //First column with info, this is the default when no sample is specified
 			readHeader();
 		}
 
-		
-		
+
+
 		public VCFLineParser(VCFFile file) throws IOException {
 			this(file.getFile());
 		}
-		
+
 		public String getHeader() throws IOException {
 			if (sourceFile == null) {
 				return null;
 			}
-			
+
 			BufferedReader headReader = new BufferedReader(new FileReader(sourceFile));
 			String line = headReader.readLine();
 			StringBuilder strB = new StringBuilder();
@@ -87,27 +132,44 @@ public class VCFLineParser implements VariantLineReader {
 			headReader.close();
 			return strB.toString();
 		}
-		
+
+		/**
+		 * Read all header lines, registering the INFO keys they declare and finding the column
+		 * for the sample, and leave the first data line as the current line
+		 * @throws IOException
+		 */
 		private void readHeader() throws IOException {
-			while (currentLine != null && currentLine.startsWith("#")) {
-				advanceLine();
-				
-				if (currentLine == null) {
-					throw new IOException("Could not find start of data");
+			for(int i=0; i<BUILTIN_INFO_KEYS.length; i++) {
+				infoKeys.add(BUILTIN_INFO_KEYS[i]);
+			}
+
+			boolean sawHeader = false;
+			while(readLine()) {
+				if (lineLength == 0 || line[0] != '#') {
+					break;
 				}
-				
-				if (currentLine.startsWith("#CHROM")) {
-					String[] toks = currentLine.split("\t");
+				sawHeader = true;
+
+				if (lineStartsWith(INFO_HEADER_PREFIX)) {
+					int end = INFO_HEADER_PREFIX.length();
+					while(end < lineLength && line[end] != ',' && line[end] != '>') {
+						end++;
+					}
+					infoKeys.add(new String(line, INFO_HEADER_PREFIX.length(), end - INFO_HEADER_PREFIX.length()));
+				}
+
+				if (lineStartsWith("#CHROM")) {
+					tokenize();
 					if (sample == null) {
 						sampleColumn = 9;
-						if (toks.length > 9)
-							sample = toks[9];
-						else 
+						if (fieldCount > 9)
+							sample = getField(9);
+						else
 							sample = "unknown";
 					}
 					else {
-						for(int col = 0; col<toks.length; col++) {
-							if (toks[col].equals(sample)) {
+						for(int col = 0; col<fieldCount; col++) {
+							if (fieldEquals(col, sample)) {
 								sampleColumn = col;
 							}
 						}
@@ -116,20 +178,33 @@ public class VCFLineParser implements VariantLineReader {
 						throw new IllegalArgumentException("Cannot find column for sample " + sample);
 					}
 				}
-				
-				
+			}
+
+			if (sampleColumn < 0) {
+				if (sample != null) {
+					throw new IllegalArgumentException("Cannot find column for sample " + sample + ", no #CHROM header line found");
+				}
+				sampleColumn = 9; //First column with info, this is the default when no sample is specified
+			}
+
+			if (lineLength < 0) {
+				if (sawHeader)
+					throw new IOException("Could not find start of data");
+			}
+			else {
+				tokenize();
 			}
 		}
-		
+
 		public String getSampleName() {
 			return sample;
 		}
-		
+
 		/**
 		 * Advance the current line until the contig found is the given contig. If
 		 * already at the given contig, do nothing
 		 * @param contig
-		 * @throws IOException 
+		 * @throws IOException
 		 */
 		public void advanceToContig(String contig) throws IOException {
 			while (hasLine() && (!getContig().equals(contig))) {
@@ -139,11 +214,11 @@ public class VCFLineParser implements VariantLineReader {
 				throw new IllegalArgumentException("Could not find contig " + contig + " in vcf");
 			}
 		}
-		
+
 		/**
 		 * Advance the current line until we reach a contig whose name matches the contig arg,
 		 * and we find a variant whose position is equal to or greater than the given position
-		 * @throws IOException 
+		 * @throws IOException
 		 */
 		public void advanceTo(String contig, int pos) throws IOException {
 			advanceToContig(contig);
@@ -157,12 +232,20 @@ public class VCFLineParser implements VariantLineReader {
 				}
 			}
 		}
-		
+
+		/**
+		 * True if the current line contains the string PASS
+		 * @return
+		 */
 		public boolean isPassing() {
-			return currentLine.contains("PASS");
+			for(int i=0; i+3<lineLength; i++) {
+				if (line[i]=='P' && line[i+1]=='A' && line[i+2]=='S' && line[i+3]=='S')
+					return true;
+			}
+			return false;
 		}
-		
-		
+
+
 		/**
 		 * Converts the information in the current line to a VariantRec, by default this
 		 * will strip 'chr' from all contig names
@@ -172,17 +255,17 @@ public class VCFLineParser implements VariantLineReader {
 			return toVariantRec(true);
 		}
 
-		
+
 		/**
 		 * Convert current line into a variant record
 		 * @param stripChr If true, strip 'chr' from contig name, if false do not alter contig name
 		 * @return A new variant record containing the information in this vcf line
 		 */
 		public VariantRec toVariantRec(boolean stripChr) {
-			if (currentLine == null || currentLine.trim().length()==0)
+			if (isBlankLine())
 				return null;
 			else {
-				
+
 				VariantRec rec = null;
 				try {
 					String contig = getContig();
@@ -190,7 +273,6 @@ public class VCFLineParser implements VariantLineReader {
 						return null;
 					if (stripChr)
 						contig = contig.replace("chr", "");
-					//System.out.println(currentLine);
 					String ref = getRef();
 					String alt = getAlt();
 					int start = getStart();
@@ -230,142 +312,126 @@ public class VCFLineParser implements VariantLineReader {
 							rec.addProperty(VariantRec.VAR2_DEPTH, new Double(altDepth2));
 						}
 					}
-					
+
 					Double genotypeQuality = getGenotypeQuality();
-					if (genotypeQuality != null) 
+					if (genotypeQuality != null)
 						rec.addProperty(VariantRec.GENOTYPE_QUALITY, genotypeQuality);
 
-					Double vqsrScore = getVQSR();
-					if (vqsrScore != null)
-						rec.addProperty(VariantRec.VQSR, vqsrScore);
-
-					Double fsScore = getStrandBiasScore();
-					if (fsScore != null)
-						rec.addProperty(VariantRec.FS_SCORE, fsScore);
-					
-					Double rpScore = getRPScore();
-					if (rpScore != null)
-						rec.addProperty(VariantRec.RP_SCORE, rpScore);
-					
-					
-					Double logFSScore = getLogFSScore();
-					if (logFSScore != null)
-						rec.addProperty(VariantRec.LOGFS_SCORE, logFSScore);
-					
-					
+					if (findInfo(VQSLOD_KEY))
+						rec.addProperty(VariantRec.VQSR, infoDouble(VQSLOD_KEY));
+
+					if (findInfo(FS_KEY))
+						rec.addProperty(VariantRec.FS_SCORE, infoDouble(FS_KEY));
+
+					if (findInfo(RPRS_KEY))
+						rec.addProperty(VariantRec.RP_SCORE, infoDouble(RPRS_KEY));
+
+					if (findInfo(LOGFS_KEY))
+						rec.addProperty(VariantRec.LOGFS_SCORE, infoDouble(LOGFS_KEY));
+
 				}
 				catch (Exception ex) {
-					System.err.println("ERROR: could not parse variant from line : " + currentLine + "\n Exception: " + ex.getCause() + " " + ex.getMessage());
-					
+					System.err.println("ERROR: could not parse variant from line : " + getCurrentLine() + "\n Exception: " + ex.getCause() + " " + ex.getMessage());
+
 					return null;
 				}
 				return rec;
 			}
 		}
-		
 
 
-
-
-		
-
 		/**
 		 * Read one more line of input, returns false if line cannot be read
 		 * @return
 		 * @throws IOException
 		 */
 		public boolean advanceLine() throws IOException {
-			currentLine = reader.readLine();
-			while(currentLine != null && currentLine.startsWith("#")) {
-				currentLine = reader.readLine();
-				currentLineNumber++;
-			}
-			
-			if (currentLine == null)
-				lineToks = null;
-			else
-				lineToks = currentLine.split("\\t");
-
-			return currentLine != null;
+			while(readLine()) {
+				if (lineLength == 0 || line[0] != '#') {
+					tokenize();
+					return true;
+				}
+			}
+			tokenize();
+			return false;
 		}
 
 		/**
-		 * Returns true if the current line is not null. 
+		 * Returns true if the current line is not null.
 		 * @return
 		 */
 		public boolean hasLine() {
-			return currentLine != null;
+			return lineLength >= 0;
 		}
-		
+
 		public String getContig() {
-			if (lineToks != null) {
-				return lineToks[0];
+			if (hasLine()) {
+				if (contig == null)
+					contig = getField(0);
+				return contig;
 			}
 			else
 				return null;
 		}
-		
+
 		/**
 		 * Return the (starting) position item for current line
 		 * @return
 		 */
 		public int getPosition() {
-			if (lineToks != null) {
-				return Integer.parseInt(lineToks[1]);
+			if (hasLine()) {
+				checkField(1);
+				return parseInt(line, fieldStarts[1], fieldEnds[1]);
 			}
 			else
 				return -1;
 		}
-		
+
 		/**
-		 * Read depth from INFO column, tries to identify depth by looking for a DP string, then reading
-		 * the following number
+		 * Read depth from the DP entry of the INFO column, or if there is no such entry, from the
+		 * DP field of the sample
 		 * @return
 		 */
 		public Integer getDepth() {
-			String info = lineToks[7];
-			
-			String target = "DP";
-			int index = info.indexOf(target);
-			if (index < 0) {
-				//Attempt to get DP from INFO tokens...
+			if (! findInfo(DP_KEY)) {
+				//Attempt to get DP from the sample's fields...
 				Integer dp = getDepthFromInfo();
 				return dp;
 			}
-			
-			//System.out.println( info.substring(index, index+10) + " ...... " + info.substring(index+target.length()+1, info.indexOf(';', index)));
+
 			try {
-				Integer value = Integer.parseInt(info.substring(index+target.length()+1, info.indexOf(';', index)));
-				return value;
+				return parseInt(line, infoStarts[DP_KEY], infoEnds[DP_KEY]);
 			}
 			catch (NumberFormatException nfe) {
 				//Logger.getLogger(Pipeline.primaryLoggerName).warning("Could not parse depth from vcf line: " );
 			}
 			return null;
 		}
-		
 
-		
+
+
 		public int getStart() {
 			return getPosition();
 		}
-		
+
 		/**
 		 * Return the end of this variant
 		 * @return
 		 */
 		public int getEnd() {
-			if (lineToks != null) {
-				return Integer.parseInt(lineToks[2]);
+			if (hasLine()) {
+				checkField(2);
+				return parseInt(line, fieldStarts[2], fieldEnds[2]);
 			}
 			else
 				return -1;
 		}
-		
+
 		public Double getQuality() {
-			if (lineToks != null) {
+			if (hasLine()) {
 				try {
-					return Double.parseDouble(lineToks[5]);
+					checkField(5);
+					return parseDouble(line, fieldStarts[5], fieldEnds[5]);
 				}
 				catch (NumberFormatException nfe) {
 					return -1.0;
@@ -374,241 +440,163 @@ public class VCFLineParser implements VariantLineReader {
 			else
 				return -1.0;
 		}
-		
+
 		public String getRef() {
-			if (lineToks != null) {
-				return lineToks[3];
+			if (hasLine()) {
+				if (ref == null)
+					ref = getField(3);
+				return ref;
 			}
 			else
 				return "?";
 		}
-		
+
 		public String getAlt() {
-			if (lineToks != null) {
-				return lineToks[4];
+			if (hasLine()) {
+				if (alt == null)
+					alt = getField(4);
+				return alt;
 			}
 			else
 				return "?";
 		}
-		
+
 		public int getLineNumber() {
 			return currentLineNumber;
 		}
-		
-		private void updateFormatIfNeeded() {
-			if (lineToks.length > 7) {
-				if (formatToks == null) {
-					createFormatString(lineToks);
-				}
-				else {
-					if (! currentFormatStr.equals(lineToks[8]))
-						createFormatString(lineToks);
-				}
+
+		/**
+		 * Return the value of the given key in the INFO column of the current line, or null
+		 * if the key isn't there or has no value
+		 * @param key
+		 * @return
+		 */
+		public String getInfoValue(String key) {
+			int id = infoKeys.find(key);
+			if (id < 0) {
+				id = infoKeys.add(key);
+				infoParsed = false; //Key is new, so it wasn't looked for in the current line
 			}
+			if (! findInfo(id))
+				return null;
+			return new String(line, infoStarts[id], infoEnds[id] - infoStarts[id]);
 		}
-		
+
 		/**
-		 * 
+		 *
 		 */
 		public boolean isHetero() {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null)
+
+			if (! hasFormat)
 				return false;
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String GTStr = formatValues[gtCol];
-			
-			if (GTStr.length() != 3) {
-				throw new IllegalStateException("Wrong number of characters in string for is hetero... (got " + GTStr + ", but length should be 3)");
+
+			int gt = getSampleFieldStart(gtCol);
+			int gtLength = sampleEnds[gtCol] - gt;
+
+			if (gtLength != 3) {
+				throw new IllegalStateException("Wrong number of characters in string for is hetero... (got " + getSampleField(gtCol) + ", but length should be 3)");
 			}
 
-			if (GTStr.charAt(1) == '/' || GTStr.charAt(1) == '|') {
-				if (GTStr.charAt(0) != GTStr.charAt(2))
+			if (line[gt+1] == '/' || line[gt+1] == '|') {
+				if (line[gt] != line[gt+2])
 					 return true;
 				else
 					return false;
 			}
 			else {
-				throw new IllegalStateException("Genotype separator char does not seem to be normal (found " + GTStr.charAt(1) + ")");
+				throw new IllegalStateException("Genotype separator char does not seem to be normal (found " + line[gt+1] + ")");
 			}
-			
+
 		}
-		
+
 		public boolean isHomo() {
 			return ! isHetero();
 		}
 
 		public String getCurrentLine() {
+			if (currentLine == null && hasLine())
+				currentLine = new String(line, 0, lineLength);
 			return currentLine;
 		}
-		
+
 		/**
-		 * Returns true if the phasing separator is "|" and not "/" 
+		 * Returns true if the phasing separator is "|" and not "/"
 		 * @return
 		 */
 		public boolean isPhased() {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null)
-				return false;
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String GTStr = formatValues[gtCol];
-			if (GTStr.charAt(1) == '|') {
-				return true;
-			}
-			else {
+
+			if (! hasFormat)
 				return false;
-			}
+
+			return genotypeChar(1) == '|';
 		}
-		
+
 		/**
 		 * True if the first item in the genotype string indicates an 'alt' allele
 		 * @return
 		 */
 		public boolean firstIsAlt() {
 			updateFormatIfNeeded();
-			if (formatToks == null)
-				return false;
-			
-			String[] formatValues = lineToks[sampleColumn].split("\t");
-			String GTStr = formatValues[gtCol];
-			if (GTStr.charAt(0) == '1') {
-				return true;
-			}
-			else {
+			if (! hasFormat)
 				return false;
-			}
+
+			return genotypeChar(0) == '1';
 		}
-		
+
 		/**
 		 * True if the second item in the genotype string indicates an 'alt' allele
 		 * @return
 		 */
 		public boolean secondIsAlt() {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null)
-				return false;
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String GTStr = formatValues[gtCol];
-			if (GTStr.charAt(2) == '1') {
-				return true;
-			}
-			else {
+
+			if (! hasFormat)
 				return false;
-			}
+
+			return genotypeChar(2) == '1';
 		}
-		
+
 		/**
 		 * Obtain the genotype quality score for this variant
 		 * @return
 		 */
 		public Double getGenotypeQuality() {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null || gqCol < 0)
+
+			if ((! hasFormat) || gqCol < 0)
 				return 0.0;
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String GQStr = formatValues[gqCol];
+
+			int gq = getSampleFieldStart(gqCol);
 			try {
-				Double gq = Double.parseDouble(GQStr);
-				return gq;
+				return parseDouble(line, gq, sampleEnds[gqCol]);
 			}
 			catch (NumberFormatException ex) {
-				System.err.println("Could not parse genotype quality from " + GQStr);
+				System.err.println("Could not parse genotype quality from " + getSampleField(gqCol));
 				return null;
 			}
-			
-		}
-		
-		private Double getVQSR() {
-			String[] infoToks = lineToks[7].split(";");
-			for(int i=0; i<infoToks.length; i++) {
-				String tok = infoToks[i];
-				if (tok.startsWith("VQSLOD=")) {
-					Double val = Double.parseDouble(tok.replace("VQSLOD=", ""));
-					return val;
-				}
-			}
-					
-			return null;
-		}
-		
-		private Double getLogFSScore() {
-			String[] infoToks = lineToks[7].split(";");
-			for(int i=0; i<infoToks.length; i++) {
-				String tok = infoToks[i];
-				if (tok.startsWith("LOGFS=")) {
-					Double val = Double.parseDouble(tok.replace("LOGFS=", ""));
-					return val;
-				}
-			}
-			return null;
-		}
-
-		private Double getRPScore() {
-			String[] infoToks = lineToks[7].split(";");
-			for(int i=0; i<infoToks.length; i++) {
-				String tok = infoToks[i];
-				if (tok.startsWith("ReadPosRankSum=")) {
-					Double val = Double.parseDouble(tok.replace("ReadPosRankSum=", ""));
-					return val;
-				}
-			}
-			return null;
-		}
-		
-		private Double getTauFPScore() {
-			String[] infoToks = lineToks[7].split(";");
-			for(int i=0; i<infoToks.length; i++) {
-				String tok = infoToks[i];
-				if (tok.startsWith("TAUFP=")) {
-					Double val = Double.parseDouble(tok.replace("TAUFP=", ""));
-					return val;
-				}
-			}
-					
-			return null;
-		}
-		
-		
-		private Double getStrandBiasScore() {
-			String[] infoToks = lineToks[7].split(";");
-			for(int i=0; i<infoToks.length; i++) {
-				String tok = infoToks[i];
-				if (tok.startsWith("FS=")) {
-					Double val = Double.parseDouble(tok.replace("FS=", ""));
-					return val;
-				}
-			}
-					
-			return null;
 
 		}
 
 		/**
-		 * Depth may appear in format OR INFO fields, this searches the latter for depth
+		 * Depth may appear in format OR INFO fields, this searches the former for depth
 		 * @return
 		 */
 		public Integer getDepthFromInfo() {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null)
+
+			if (! hasFormat)
 				return 1;
-			
+
 			if (dpCol < 0)
 				return null;
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String dpStr = formatValues[dpCol];
-			return Integer.parseInt(dpStr);
+
+			int dp = getSampleFieldStart(dpCol);
+			return parseInt(line, dp, sampleEnds[dpCol]);
 		}
-		
-		
+
+
 		/**
 		 * Returns the depth of the first variant allele, as parsed from the INFO string for this sample
 		 * @return
@@ -616,84 +604,531 @@ public class VCFLineParser implements VariantLineReader {
 		public Integer getVariantDepth() {
 			return getVariantDepth(0);
 		}
-		
+
 		/**
 		 * Returns the depth of the whichth variant allele, as parsed from the INFO string for this sample
 		 * @return
 		 */
 		public Integer getVariantDepth(int which) {
 			updateFormatIfNeeded();
-			
-			if (formatToks == null)
+
+			if (! hasFormat)
 				return 1;
-			
+
 			if (adCol < 0)
 				return null;
-				
-			
-			String[] formatValues = lineToks[sampleColumn].split(":");
-			String adStr = formatValues[adCol];
+
+			int start = getSampleFieldStart(adCol);
+			int end = sampleEnds[adCol];
+
+			//Find the (which+1)th comma-separated value, the first is the depth of the reference allele
+			int depthStart = start;
+			int depthIndex = 0;
+			while(depthIndex < which+1 && depthStart < end) {
+				if (line[depthStart] == ',')
+					depthIndex++;
+				depthStart++;
+			}
+			if (depthIndex < which+1) {
+				if (depthIndex == 0)
+					return 0; //Only the reference depth is given
+				throw new ArrayIndexOutOfBoundsException("No depth for allele " + which + " in " + getSampleField(adCol));
+			}
+			int depthEnd = depthStart;
+			while(depthEnd < end && line[depthEnd] != ',') {
+				depthEnd++;
+			}
+
 			try {
-				String[] depths = adStr.split(",");
-				if (depths.length==1)
-					return 0;
-				Integer altReadDepth = Integer.parseInt(depths[which+1]);
-				return altReadDepth;
+				return parseInt(line, depthStart, depthEnd);
 			}
 			catch (NumberFormatException ex) {
-				System.err.println("Could not parse alt depth from " + adStr);
+				System.err.println("Could not parse alt depth from " + getSampleField(adCol));
 				return null;
 			}
 		}
-		
+
+		/**
+		 * Return the given field of the current line as a new String
+		 * @param field
+		 * @return
+		 */
+		protected String getField(int field) {
+			checkField(field);
+			return new String(line, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+		}
+
+		private void checkField(int field) {
+			if (field < 0 || field >= fieldCount) {
+				throw new ArrayIndexOutOfBoundsException("No field " + field + " in line " + getCurrentLine());
+			}
+		}
+
+		private boolean fieldEquals(int field, String str) {
+			int start = fieldStarts[field];
+			if (fieldEnds[field] - start != str.length())
+				return false;
+			for(int i=0; i<str.length(); i++) {
+				if (line[start+i] != str.charAt(i))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean lineStartsWith(String prefix) {
+			if (lineLength < prefix.length())
+				return false;
+			for(int i=0; i<prefix.length(); i++) {
+				if (line[i] != prefix.charAt(i))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean isBlankLine() {
+			for(int i=0; i<lineLength; i++) {
+				if (line[i] > ' ')
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Read the next line of input, header or not, into the line buffer. Returns false and sets the
+		 * line length to -1 if there are no more lines
+		 * @return
+		 * @throws IOException
+		 */
+		private boolean readLine() throws IOException {
+			int length = 0;
+			boolean readAny = false;
+			while(true) {
+				if (readPos == readLen) {
+					readLen = reader.read(readBuf, 0, readBuf.length);
+					readPos = 0;
+					if (readLen <= 0) {
+						readLen = 0;
+						if (! readAny) {
+							lineLength = -1;
+							return false;
+						}
+						break;
+					}
+				}
+				readAny = true;
+
+				int start = readPos;
+				while(readPos < readLen && readBuf[readPos] != '\n') {
+					readPos++;
+				}
+				int count = readPos - start;
+				if (length + count > line.length) {
+					char[] newLine = new char[Math.max(2*line.length, length + count)];
+					System.arraycopy(line, 0, newLine, 0, length);
+					line = newLine;
+				}
+				System.arraycopy(readBuf, start, line, length, count);
+				length += count;
+				if (readPos < readLen) {
+					readPos++; //Skip the newline
+					break;
+				}
+			}
+
+			if (length > 0 && line[length-1] == '\r')
+				length--;
+			lineLength = length;
+			currentLineNumber++;
+			return true;
+		}
+
+		/**
+		 * Find the offsets of the tab-separated fields of the current line and forget everything
+		 * computed from the previous line
+		 */
+		private void tokenize() {
+			currentLine = null;
+			contig = null;
+			ref = null;
+			alt = null;
+			formatChecked = false;
+			sampleFieldCount = -1;
+			infoParsed = false;
+			fieldCount = 0;
+			if (lineLength < 0)
+				return;
+
+			int start = 0;
+			for(int i=0; i<=lineLength; i++) {
+				if (i == lineLength || line[i] == '\t') {
+					if (fieldCount == fieldStarts.length) {
+						fieldStarts = grow(fieldStarts);
+						fieldEnds = grow(fieldEnds);
+					}
+					fieldStarts[fieldCount] = start;
+					fieldEnds[fieldCount] = i;
+					fieldCount++;
+					start = i+1;
+				}
+			}
+
+			fieldCount = trimEmpty(fieldStarts, fieldEnds, fieldCount);
+		}
+
 		/**
-		 * Create the string array representing elements in the 'format' column, which
-		 * we assume is always column 8. Right now we use this info to figure out which portion
-		 * of the format string is the genotype and genotype quality part, and we ignore the
-		 * rest
+		 * Like String.split(), ignore trailing empty fields, but keep the single empty field of an empty string
 		 */
-		private void createFormatString(String[] toks) {
-			if (toks.length <= 8) {
-				formatToks = null;
+		private static int trimEmpty(int[] starts, int[] ends, int count) {
+			int fields = count;
+			while(fields > 0 && starts[fields-1] == ends[fields-1]) {
+				fields--;
+			}
+			if (count == 1)
+				return 1;
+			return fields;
+		}
+
+		private static int[] grow(int[] arr) {
+			int[] newArr = new int[arr.length*2];
+			System.arraycopy(arr, 0, newArr, 0, arr.length);
+			return newArr;
+		}
+
+		/**
+		 * Compare the format column of the current line to the last format we've seen, and if they
+		 * differ find the columns of the fields we're interested in
+		 */
+		private void updateFormatIfNeeded() {
+			if (formatChecked)
+				return;
+			formatChecked = true;
+
+			hasFormat = fieldCount > 8;
+			if (! hasFormat)
 				return;
+
+			int start = fieldStarts[8];
+			int length = fieldEnds[8] - start;
+			if (length == formatLength) {
+				boolean same = true;
+				for(int i=0; i<length && same; i++) {
+					same = formatChars[i] == line[start+i];
+				}
+				if (same)
+					return;
+			}
+
+			if (length > formatChars.length)
+				formatChars = new char[length];
+			System.arraycopy(line, start, formatChars, 0, length);
+			formatLength = length;
+
+			gtCol = -1;
+			gqCol = -1;
+			adCol = -1;
+			dpCol = -1;
+			int col = 0;
+			int keyStart = 0;
+			for(int i=0; i<=length; i++) {
+				if (i == length || formatChars[i] == ':') {
+					if (i - keyStart == 2) {
+						char a = formatChars[keyStart];
+						char b = formatChars[keyStart+1];
+						if (a=='G' && b=='T')
+							gtCol = col;
+						if (a=='G' && b=='Q')
+							gqCol = col;
+						if (a=='A' && b=='D')
+							adCol = col;
+						if (a=='D' && b=='P')
+							dpCol = col;
+					}
+					col++;
+					keyStart = i+1;
+				}
+			}
+		}
+
+		/**
+		 * Return the offset in the line of the given subfield of the sample column, splitting
+		 * the sample column if it hasn't been split yet
+		 * @param subfield
+		 * @return
+		 */
+		private int getSampleFieldStart(int subfield) {
+			if (sampleFieldCount < 0) {
+				checkField(sampleColumn);
+				int start = fieldStarts[sampleColumn];
+				int end = fieldEnds[sampleColumn];
+				int count = 0;
+				for(int i=start; i<=end; i++) {
+					if (i == end || line[i] == ':') {
+						if (count == sampleStarts.length) {
+							sampleStarts = grow(sampleStarts);
+							sampleEnds = grow(sampleEnds);
+						}
+						sampleStarts[count] = start;
+						sampleEnds[count] = i;
+						count++;
+						start = i+1;
+					}
+				}
+				sampleFieldCount = trimEmpty(sampleStarts, sampleEnds, count);
+			}
+
+			if (subfield < 0 || subfield >= sampleFieldCount) {
+				throw new ArrayIndexOutOfBoundsException("No subfield " + subfield + " in sample column of line " + getCurrentLine());
 			}
-			
-			String formatStr = toks[8];
-			
-			formatToks = formatStr.split(":");
-			for(int i=0; i<formatToks.length; i++) {
-				if (formatToks[i].equals("GT")) {
-					gtCol = i;
+			return sampleStarts[subfield];
+		}
+
+		private String getSampleField(int subfield) {
+			int start = getSampleFieldStart(subfield);
+			return new String(line, start, sampleEnds[subfield] - start);
+		}
+
+		/**
+		 * The character at the given index of the genotype of the sample
+		 */
+		private char genotypeChar(int index) {
+			int gt = getSampleFieldStart(gtCol);
+			if (gt + index >= sampleEnds[gtCol])
+				throw new StringIndexOutOfBoundsException(index);
+			return line[gt + index];
+		}
+
+		/**
+		 * True if the INFO column of the current line has a value for the key with the given id. If so, the
+		 * value is at infoStarts[id] to infoEnds[id]. Only the first entry for a key is used
+		 * @param id
+		 * @return
+		 */
+		private boolean findInfo(int id) {
+			if (! infoParsed) {
+				parseInfo();
+			}
+			return infoStarts[id] >= 0;
+		}
+
+		private double infoDouble(int id) {
+			return parseDouble(line, infoStarts[id], infoEnds[id]);
+		}
+
+		private void parseInfo() {
+			if (infoStarts.length < infoKeys.size()) {
+				int size = Math.max(infoKeys.size(), 2*infoStarts.length);
+				infoStarts = new int[size];
+				infoEnds = new int[size];
+				Arrays.fill(infoStarts, -1);
+			}
+			else {
+				for(int i=0; i<infoFoundCount; i++) {
+					infoStarts[infoFound[i]] = -1;
+				}
+			}
+			infoFoundCount = 0;
+
+			checkField(7);
+			infoParsed = true;
+			int end = fieldEnds[7];
+			int entryStart = fieldStarts[7];
+			for(int i=entryStart; i<=end; i++) {
+				if (i == end || line[i] == ';') {
+					int eq = entryStart;
+					while(eq < i && line[eq] != '=') {
+						eq++;
+					}
+					if (eq < i) {
+						int id = infoKeys.find(line, entryStart, eq);
+						if (id >= 0 && infoStarts[id] < 0) {
+							infoStarts[id] = eq+1;
+							infoEnds[id] = i;
+							if (infoFoundCount == infoFound.length)
+								infoFound = grow(infoFound);
+							infoFound[infoFoundCount] = id;
+							infoFoundCount++;
+						}
+					}
+					entryStart = i+1;
+				}
+			}
+		}
+
+		/**
+		 * Parse an integer from the given range of characters without creating a String, throwing
+		 * a NumberFormatException just as Integer.parseInt would if it's not an integer
+		 */
+		private static int parseInt(char[] buf, int start, int end) {
+			int i = start;
+			boolean negative = false;
+			if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+				negative = buf[i] == '-';
+				i++;
+			}
+			//Anything long enough to overflow is left to Integer.parseInt
+			if (i == end || end - i > 9)
+				return Integer.parseInt(new String(buf, start, end - start));
+
+			int value = 0;
+			for(; i<end; i++) {
+				int digit = buf[i] - '0';
+				if (digit < 0 || digit > 9)
+					return Integer.parseInt(new String(buf, start, end - start));
+				value = value*10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Parse a double from the given range of characters. Ordinary decimals with at most 15 or so significant
+		 * digits and small exponents are computed directly, since both the digits (as a long) and the power of
+		 * ten are then exactly representable as doubles, so a single multiplication or division gives the
+		 * correctly rounded result. Everything else, including malformed numbers, is handed to Double.parseDouble
+		 */
+		private static double parseDouble(char[] buf, int start, int end) {
+			int i = start;
+			boolean negative = false;
+			if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+				negative = buf[i] == '-';
+				i++;
+			}
+
+			long digits = 0;
+			int digitCount = 0;
+			int exponent = 0;
+			boolean sawPoint = false;
+			for(; i<end; i++) {
+				char c = buf[i];
+				if (c >= '0' && c <= '9') {
+					if (digitCount == 18)
+						return Double.parseDouble(new String(buf, start, end - start));
+					digits = digits*10 + (c - '0');
+					digitCount++;
+					if (sawPoint)
+						exponent--;
+				}
+				else if (c == '.' && (! sawPoint)) {
+					sawPoint = true;
+				}
+				else if ((c == 'e' || c == 'E') && digitCount > 0 && i+1 < end) {
+					i++;
+					boolean negativeExp = false;
+					if (buf[i] == '-' || buf[i] == '+') {
+						negativeExp = buf[i] == '-';
+						i++;
+					}
+					if (i == end || end - i > 3)
+						return Double.parseDouble(new String(buf, start, end - start));
+					int exp = 0;
+					for(; i<end; i++) {
+						int digit = buf[i] - '0';
+						if (digit < 0 || digit > 9)
+							return Double.parseDouble(new String(buf, start, end - start));
+						exp = exp*10 + digit;
+					}
+					exponent += negativeExp ? -exp : exp;
+				}
+				else {
+					return Double.parseDouble(new String(buf, start, end - start));
+				}
+			}
+
+			if (digitCount == 0 || digits >= (1L << 53) || exponent < -22 || exponent > 22)
+				return Double.parseDouble(new String(buf, start, end - start));
+
+			double value = exponent < 0 ? digits / POWERS_OF_TEN[-exponent] : digits * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Assigns a small integer id to each INFO key, and finds the id of a key given as a range of
+		 * characters without creating a String. This is a simple open-addressing hash table
+		 */
+		private static class KeyIndex {
+
+			private String[] keys = new String[64];
+			private int[] ids = new int[64];
+			private int size = 0;
+
+			public int size() {
+				return size;
+			}
+
+			/**
+			 * Add the key if it's not already present, and return its id
+			 */
+			public int add(String key) {
+				int id = find(key);
+				if (id >= 0)
+					return id;
+
+				if (2*(size+1) > keys.length) {
+					String[] oldKeys = keys;
+					int[] oldIds = ids;
+					keys = new String[2*oldKeys.length];
+					ids = new int[2*oldKeys.length];
+					for(int i=0; i<oldKeys.length; i++) {
+						if (oldKeys[i] != null)
+							insert(oldKeys[i], oldIds[i]);
+					}
 				}
-				
-				if (formatToks[i].equals("GQ")) {
-					gqCol = i;
+				insert(key, size);
+				size++;
+				return size-1;
+			}
+
+			public int find(String key) {
+				int mask = keys.length-1;
+				int slot = spread(key.hashCode()) & mask;
+				while(keys[slot] != null) {
+					if (keys[slot].equals(key))
+						return ids[slot];
+					slot = (slot+1) & mask;
 				}
-				
-				if (formatToks[i].equals("AD")) {
-					adCol = i;
+				return -1;
+			}
+
+			/**
+			 * Return the id of the key in buf[start] to buf[end], or -1 if it's not present
+			 */
+			public int find(char[] buf, int start, int end) {
+				int hash = 0;
+				for(int i=start; i<end; i++) {
+					hash = 31*hash + buf[i]; //Same as String.hashCode()
 				}
-				if (formatToks[i].equals("DP")) {
-					dpCol = i;
+				int mask = keys.length-1;
+				int slot = spread(hash) & mask;
+				while(keys[slot] != null) {
+					if (matches(keys[slot], buf, start, end))
+						return ids[slot];
+					slot = (slot+1) & mask;
 				}
+				return -1;
+			}
 
+			private void insert(String key, int id) {
+				int mask = keys.length-1;
+				int slot = spread(key.hashCode()) & mask;
+				while(keys[slot] != null) {
+					slot = (slot+1) & mask;
+				}
+				keys[slot] = key;
+				ids[slot] = id;
 			}
-			
-			currentFormatStr = formatStr;
-		}
-		
-//		public static void main(String[] args) {
-//			File file = new File("/media/DATA/exome_compare/ex1.cap.pass.vcf");
-//			try {
-//				VCFLineParser vParser = new VCFLineParser(file);
-//				for(int i=0; i<10;i++) {
-//					System.out.println(vParser.getLineNumber() + " : " + vParser.getContig() + "\t" + vParser.getPosition() + "\t" + vParser.getQuality() + "\t het: " + vParser.isHetero());
-//					vParser.advanceLine();
-//				}
-//			} catch (IOException e) {
-//				// TODO Auto-generated catch block
-//				e.printStackTrace();
-//			}
-//			
-//		}
+
+			private static int spread(int hash) {
+				return hash ^ (hash >>> 16);
+			}
+
+			private static boolean matches(String key, char[] buf, int start, int end) {
+				if (key.length() != end - start)
+					return false;
+				for(int i=0; i<key.length(); i++) {
+					if (key.charAt(i) != buf[start+i])
+						return false;
+				}
+				return true;
+			}
+		}
+
 }
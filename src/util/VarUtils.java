@@ -19,6 +19,9 @@ import java.util.Set;
 import math.Histogram;
 import math.Integration;
 import math.LazyHistogram;
+import math.graph.CompactGraph;
+import math.graph.DistanceMatrix;
+import math.graph.GraphFactory;
 import operator.qc.BamMetrics;
 import operator.variant.CompareVCF;
 import operator.variant.CompoundHetFinder;
@@ -94,6 +97,10 @@ public class VarUtils {
 		System.out.println("			Emit only those variants in genes given in genelistfile.txt");
 		System.out.println("			** VARIANTS MUST HAVE GENE ANNOTATIONS **");
 
+		System.out.println(" java -jar varUtils.jar graphDistances interactions.txt [genelistfile.txt] [output]");
+		System.out.println("			Precompute gene interaction distances from the genes in genelistfile.txt (or all genes) to all genes,");
+		System.out.println("			by default into interactions.txt" + DistanceMatrix.SUFFIX + ", where InteractionRanker will find them");
+
 	}
 	
 	/**
@@ -913,6 +920,11 @@ public class VarUtils {
 		}
 		
 		
+		if (firstArg.equals("graphDistances")) {
+			performGraphDistances(args);
+			return;
+		}
+		
 		if (firstArg.startsWith("hist")) {
 			performHistogram(args);
 			return;
@@ -924,6 +936,49 @@ public class VarUtils {
 		emitUsage();
 	}
 
+	/**
+	 * Write a DistanceMatrix with rows for the genes in the gene list file, or for every gene in
+	 * the graph if no list is given
+	 * @param args
+	 */
+	private static void performGraphDistances(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Enter the name of the gene interaction file, then (optionally) a file containing gene names and the output file");
+			return;
+		}
+		try {
+			File graphFile = new File(args[1]);
+			CompactGraph graph = GraphFactory.constructCompactGraphFromFile(graphFile);
+			
+			int[] rows;
+			if (args.length > 2) {
+				GenePool genes = new GenePool(new File(args[2]));
+				List<Integer> found = new ArrayList<Integer>();
+				for(String gene : genes.getGenes()) {
+					int index = graph.indexOf(gene);
+					if (index < 0)
+						System.err.println("No node found for gene " + gene + ", skipping it");
+					else
+						found.add(index);
+				}
+				rows = new int[found.size()];
+				for(int i=0; i<rows.length; i++)
+					rows[i] = found.get(i);
+			}
+			else {
+				rows = new int[graph.getNodeCount()];
+				for(int i=0; i<rows.length; i++)
+					rows[i] = i;
+			}
+			
+			File output = args.length > 3 ? new File(args[3]) : DistanceMatrix.defaultFileFor(graphFile);
+			DistanceMatrix.write(graph, graphFile, rows, output, Runtime.getRuntime().availableProcessors());
+			System.out.println("Wrote distances from " + rows.length + " of " + graph.getNodeCount() + " genes to " + output.getAbsolutePath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	private static void performTKGComp(String[] args) {
 		if (args.length != 6) {
 			System.out.println("Please enter the gene pool, the score, the threshold, the population (e.g. afr.freq, amr.freq, etc.) and the tkg data file");
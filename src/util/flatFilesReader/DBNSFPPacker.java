@@ -0,0 +1,230 @@
+package util.flatFilesReader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-time converter from the per-contig dbNSFP text files to the packed binary format read
+ * by PackedFilesReader. Each file is read twice, once to figure out the type of each column and
+ * once to write the packed file. A column is stored as INT if every value is an integer, as FLOAT
+ * if every value survives conversion to a float and back, and as a dictionary-encoded STRING otherwise.
+ *
+ * Usage: java util.flatFilesReader.DBNSFPPacker dbNSFP.dir [output.dir]
+ * @author brendan
+ *
+ */
+public class DBNSFPPacker {
+
+	/**
+	 * Pack all dbNSFP contig files in sourceDir, writing packed files to destDir
+	 * @param sourceDir
+	 * @param destDir
+	 * @throws IOException
+	 */
+	public static void packAll(File sourceDir, File destDir) throws IOException {
+		File[] files = sourceDir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot read directory : " + sourceDir.getAbsolutePath());
+		}
+		for(File file : files) {
+			String name = file.getName();
+			if (name.startsWith(FlatFilesReader.FILENAME_BASE) && (! name.endsWith(PackedFilesReader.PACKED_SUFFIX))) {
+				File dest = new File(destDir, name + PackedFilesReader.PACKED_SUFFIX);
+				System.out.println("Packing " + file.getAbsolutePath() + " to " + dest.getAbsolutePath());
+				pack(file, dest);
+			}
+		}
+	}
+
+	/**
+	 * Pack a single dbNSFP contig file
+	 * @param source
+	 * @param dest
+	 * @throws IOException
+	 */
+	public static void pack(File source, File dest) throws IOException {
+		//First pass, count rows and columns and find the narrowest type for each column
+		int rows = 0;
+		List<Byte> typeList = new ArrayList<Byte>();
+		int prevPos = -1;
+		BufferedReader reader = new BufferedReader(new FileReader(source));
+		String line = reader.readLine();
+		while(line != null) {
+			if (line.length() > 0 && (! line.startsWith("#"))) {
+				String[] toks = line.split("\t", -1);
+				int pos = Integer.parseInt(toks[DBNSFPReader.POS].trim());
+				if (pos < prevPos) {
+					reader.close();
+					throw new IOException("Positions are not sorted in " + source.getAbsolutePath() + " at position " + pos);
+				}
+				prevPos = pos;
+
+				for(int i=0; i<toks.length; i++) {
+					if (i == typeList.size())
+						typeList.add(PackedFilesReader.INT); //Rows without this column count as missing values
+					typeList.set(i, narrowestType(typeList.get(i), toks[i]));
+				}
+				rows++;
+			}
+			line = reader.readLine();
+		}
+		reader.close();
+
+		int cols = typeList.size();
+		byte[] types = new byte[cols];
+		for(int i=0; i<cols; i++) {
+			types[i] = typeList.get(i);
+		}
+		//These are stored separately, but are also kept as strings so getText() works as before
+		types[DBNSFPReader.CHR] = PackedFilesReader.STRING;
+		types[DBNSFPReader.REF] = PackedFilesReader.STRING;
+		types[DBNSFPReader.ALT] = PackedFilesReader.STRING;
+
+		//Second pass, write positions to the packed file and cells to a temporary file, then append the alts, cells, and dictionaries
+		List<Map<String, Integer>> dictionaries = new ArrayList<Map<String, Integer>>();
+		List<List<String>> dictionaryEntries = new ArrayList<List<String>>();
+		for(int i=0; i<cols; i++) {
+			dictionaries.add(new HashMap<String, Integer>());
+			dictionaryEntries.add(new ArrayList<String>());
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dest), 1 << 16));
+		out.writeInt(PackedFilesReader.MAGIC);
+		out.writeInt(PackedFilesReader.VERSION);
+		out.writeInt(rows);
+		out.writeInt(cols);
+		out.write(types);
+
+		File cellFile = File.createTempFile("dbnsfp_cells", ".tmp", dest.getAbsoluteFile().getParentFile());
+		DataOutputStream cellOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cellFile), 1 << 16));
+		byte[] alts = new byte[rows];
+		int row = 0;
+		reader = new BufferedReader(new FileReader(source));
+		line = reader.readLine();
+		while(line != null) {
+			if (line.length() > 0 && (! line.startsWith("#"))) {
+				String[] toks = line.split("\t", -1);
+				out.writeInt(Integer.parseInt(toks[DBNSFPReader.POS].trim()));
+				String alt = toks[DBNSFPReader.ALT];
+				alts[row] = alt.length() > 0 ? (byte)alt.charAt(0) : 0;
+
+				for(int i=0; i<cols; i++) {
+					String tok = i < toks.length ? toks[i] : ".";
+					cellOut.writeInt(encode(types[i], tok, dictionaries.get(i), dictionaryEntries.get(i)));
+				}
+				row++;
+			}
+			line = reader.readLine();
+		}
+		reader.close();
+		cellOut.close();
+
+		out.write(alts);
+		alts = null;
+
+		FileInputStream cellIn = new FileInputStream(cellFile);
+		byte[] buf = new byte[1 << 16];
+		int read = cellIn.read(buf);
+		while(read >= 0) {
+			out.write(buf, 0, read);
+			read = cellIn.read(buf);
+		}
+		cellIn.close();
+		cellFile.delete();
+
+		for(int i=0; i<cols; i++) {
+			if (types[i] != PackedFilesReader.STRING)
+				continue;
+			List<String> entries = dictionaryEntries.get(i);
+			out.writeInt(entries.size());
+			for(String entry : entries) {
+				byte[] bytes = entry.getBytes(PackedFilesReader.UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Index of the token in PackedFilesReader.MISSING, or -1 if it isn't a missing value marker
+	 */
+	private static int missingIndex(String tok) {
+		for(int i=0; i<PackedFilesReader.MISSING.length; i++) {
+			if (PackedFilesReader.MISSING[i].equals(tok))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the narrowest type that can hold both the given token and all tokens seen so far
+	 */
+	private static byte narrowestType(byte type, String tok) {
+		if (type == PackedFilesReader.STRING || missingIndex(tok) >= 0)
+			return type;
+		if (type == PackedFilesReader.INT) {
+			try {
+				if (Integer.parseInt(tok) >= PackedFilesReader.MISSING_INT + PackedFilesReader.MISSING.length)
+					return PackedFilesReader.INT;
+			}
+			catch (NumberFormatException nfe) {
+				type = PackedFilesReader.FLOAT;
+			}
+		}
+		try {
+			double val = Double.parseDouble(tok);
+			float f = Float.parseFloat(tok);
+			if ((! Float.isNaN(f)) && Double.parseDouble(Float.toString(f)) == val)
+				return PackedFilesReader.FLOAT;
+		}
+		catch (NumberFormatException nfe) {
+			//Not a number, fall through
+		}
+		return PackedFilesReader.STRING;
+	}
+
+	private static int encode(byte type, String tok, Map<String, Integer> dictionary, List<String> entries) {
+		switch(type) {
+		case PackedFilesReader.INT:
+			int missing = missingIndex(tok);
+			return missing >= 0 ? PackedFilesReader.MISSING_INT + missing : Integer.parseInt(tok);
+		case PackedFilesReader.FLOAT:
+			missing = missingIndex(tok);
+			return missing >= 0 ? PackedFilesReader.MISSING_FLOAT_BITS + missing : Float.floatToIntBits(Float.parseFloat(tok));
+		default:
+			Integer index = dictionary.get(tok);
+			if (index == null) {
+				index = entries.size();
+				dictionary.put(tok, index);
+				entries.add(tok);
+			}
+			return index;
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: java util.flatFilesReader.DBNSFPPacker dbNSFP.dir [output.dir]");
+			return;
+		}
+
+		File sourceDir = new File(args[0]);
+		File destDir = args.length > 1 ? new File(args[1]) : sourceDir;
+		try {
+			packAll(sourceDir, destDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -4,23 +4,41 @@ import java.io.File;
 import java.io.IOException;
 
 /**
- * Reads values from a dbNSFP database 
+ * Reads values from a dbNSFP database. If the directory contains packed files created by 
+ * DBNSFPPacker they are used instead of the text files, which makes lookups much faster
+ * and allows positions to be requested in any order
  * @author brendan
  *
  */
 public class DBNSFPReader {
 
 	public static final String defaultPath = System.getProperty("user.home") + "/resources/dbNSFP2.0b4";
-	private FlatFilesReader reader;
+	private FlatFilesReader reader = null;
+	private PackedFilesReader packed = null;
 	private String[] curToks = null;
 
 	
 	public DBNSFPReader(String pathToDBNSFP) {
-		reader = new FlatFilesReader(new File(pathToDBNSFP));
+		this(new File(pathToDBNSFP));
 	}
 	
 	public DBNSFPReader() {
-		reader = new FlatFilesReader(new File(defaultPath));
+		this(new File(defaultPath));
+	}
+	
+	private DBNSFPReader(File baseDir) {
+		if (PackedFilesReader.hasPackedFiles(baseDir))
+			packed = new PackedFilesReader(baseDir);
+		else
+			reader = new FlatFilesReader(baseDir);
+	}
+	
+	/**
+	 * True if this reader is using packed files, in which case positions may be requested in any order
+	 * @return
+	 */
+	public boolean isPacked() {
+		return packed != null;
 	}
 	
 	/**
@@ -28,6 +46,9 @@ public class DBNSFPReader {
 	 * @return
 	 */
 	public boolean advanceLine() {
+		if (packed != null)
+			return packed.advanceLine();
+		
 		boolean hasNext = reader.advanceLine();
 		if (hasNext) {
 			curToks = reader.getCurrentLine().split("\t");
@@ -39,6 +60,9 @@ public class DBNSFPReader {
 	}
 	
 	public boolean advanceTo(String contig, int pos) throws IOException {
+		if (packed != null)
+			return packed.advanceTo(contig, pos);
+		
 		if (reader.getCurrentContig() != null && reader.getCurrentContig().equals(contig) && pos < reader.getCurrentPos()) {
 			//System.out.println("requested pos " + pos + " is earlier than readers current pos, " + reader.getCurrentPos() + ", skipping");
 			return false;
@@ -63,6 +87,9 @@ public class DBNSFPReader {
 	 * @throws IOException
 	 */
 	public boolean advanceTo(String contig, int pos, char alt) throws IOException {
+		if (packed != null)
+			return packed.advanceTo(contig, pos, alt);
+		
 		if (reader.getCurrentContig() != null && reader.getCurrentContig().equals(contig) && pos < reader.getCurrentPos()) {
 			//System.out.println("requested pos " + pos + " is earlier than readers current pos, " + reader.getCurrentPos() + ", skipping");
 			return false;
@@ -78,9 +105,10 @@ public class DBNSFPReader {
 	}
 
 	public boolean hasValue(int col) {
-		if (curToks == null)
+		String text = getText(col);
+		if (text == null)
 			return false;
-		if (curToks[col].equals("-") || curToks[col].equals("."))
+		if (text.equals("-") || text.equals("."))
 			return false;
 		return true;
 	}
@@ -93,15 +121,11 @@ public class DBNSFPReader {
 	}
 	
 	public String getRef() {
-		if (curToks == null)
-			return null;
-		return curToks[2];
+		return getText(REF);
 	}
 	
 	public String getAlt() {
-		if (curToks == null)
-			return null;
-		return curToks[3];
+		return getText(ALT);
 	}
 	
 	/**
@@ -110,6 +134,9 @@ public class DBNSFPReader {
 	 * @return
 	 */
 	public Double getValue(int col) {
+		if (packed != null)
+			return packed.hasCurrentRow() ? packed.getValue(col) : null;
+		
 		if (curToks == null)
 			return null;
 		
@@ -128,6 +155,9 @@ public class DBNSFPReader {
 	 * @return
 	 */
 	public String getText(int col) {
+		if (packed != null)
+			return packed.getText(col);
+		
 		if (curToks == null)
 			return null;
 		
@@ -136,14 +166,25 @@ public class DBNSFPReader {
 	}
 	
 	public int getCurrentPos() {
+		if (packed != null)
+			return packed.getCurrentPos();
 		return reader.getCurrentPos();
 	}
 	
 	
 	public String getString(int col) {
-		if (curToks == null)
-			return null;
-		return curToks[col];
+		return getText(col);
+	}
+	
+	/**
+	 * Close any open dbNSFP files
+	 */
+	public void close() {
+		if (packed != null)
+			packed.close();
+		if (reader != null)
+			reader.close();
+		curToks = null;
 	}
 	
 	
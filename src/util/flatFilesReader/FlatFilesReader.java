@@ -20,7 +20,7 @@ public class FlatFilesReader {
 	private int currentPos = 0;
 	private String currentLine = null;
 	
-	private String filenameBase = "dbNSFP2.0b4_variant.chr";
+	public static final String FILENAME_BASE = "dbNSFP2.0b4_variant.chr";
 	
 	
 	public FlatFilesReader(File baseDir) {
@@ -170,11 +170,12 @@ public class FlatFilesReader {
 	 */
 	public void resetToContig(String contig) throws IOException {
 		//System.out.println("Loading contig : " +contig);
-		File contigFile = new File(baseDir.getAbsolutePath() + "/" + filenameBase + contig);
+		File contigFile = new File(baseDir.getAbsolutePath() + "/" + FILENAME_BASE + contig);
 		if (! contigFile.exists()) {
 			throw new IOException("Cannot find contig file : " + contigFile.getAbsolutePath());
 		}
 		
+		close();
 		reader = new BufferedReader(new FileReader(contigFile));
 		currentLine = reader.readLine();
 		while(currentLine != null && currentLine.trim().startsWith("#")) {
@@ -184,6 +185,23 @@ public class FlatFilesReader {
 		currentPos = getPositionFromLine(currentLine);
 	}
 	
+	/**
+	 * Close the file currently being read, if any. Reading may resume by requesting another row
+	 */
+	public void close() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				//Nothing useful to do, the file was only being read
+			}
+			reader = null;
+		}
+		currentContig = null;
+		currentLine = null;
+		currentPos = 0;
+	}
+	
 	/**
 	 * If contig is equal to current contig, do nothing. Otherwise begin reading
 	 * the given contig
@@ -0,0 +1,345 @@
+package util.flatFilesReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads rows from the packed, binary versions of the per-contig dbNSFP files created by DBNSFPPacker.
+ * Each contig file is memory-mapped, rows are found by binary search on position, and values are read
+ * directly from fixed-width columns, so there's no need to read through the file or split lines. Unlike
+ * the FlatFilesReader, rows may be requested in any order.
+ *
+ * Each packed file contains:
+ *   A header : magic number, version, row count, column count, and a type for each column
+ *   The position of every row, in ascending order
+ *   The first character of the alt allele of every row
+ *   The cells of every row, four bytes each : ints for INT columns, float bits for FLOAT columns,
+ *     and indices into the column's dictionary for STRING columns
+ *   A dictionary of distinct values for each STRING column
+ *
+ * Missing values (".", "-", or empty) are stored as reserved values near Integer.MIN_VALUE in INT columns
+ * and as NaNs with different payloads in FLOAT columns, so getText() returns the same missing value marker
+ * that was in the original file. Numbers in INT and FLOAT columns are returned by getText() in Java's
+ * standard format, which may differ from the original text (5.0 instead of 5, for instance) but always
+ * parses to the same value.
+ * @author brendan
+ *
+ */
+public class PackedFilesReader {
+
+	public static final String PACKED_SUFFIX = ".packed";
+	public static final int MAGIC = 0x444e5346; //'DNSF'
+	public static final int VERSION = 1;
+
+	public static final byte INT = 0;
+	public static final byte FLOAT = 1;
+	public static final byte STRING = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	//Markers for missing values, these are encoded by their index in INT and FLOAT columns
+	static final String[] MISSING = new String[]{".", "-", ""};
+	static final int MISSING_INT = Integer.MIN_VALUE;
+	static final int MISSING_FLOAT_BITS = 0x7fc00000; //Float.NaN
+
+	private final File baseDir;
+	private final Map<String, ContigFile> openFiles = new HashMap<String, ContigFile>();
+	private ContigFile current = null;
+	private int row = -1; //Index of current row in current contig, or -1 if none
+	private boolean rowMatched = false; //True if the last request found a row
+
+	public PackedFilesReader(File baseDir) {
+		if (! baseDir.exists() || (! baseDir.isDirectory())) {
+			throw new IllegalArgumentException("Bad base dir : " + baseDir.getAbsolutePath());
+		}
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Returns true if the given directory contains at least one packed contig file
+	 * @param baseDir
+	 * @return
+	 */
+	public static boolean hasPackedFiles(File baseDir) {
+		File[] files = baseDir.listFiles();
+		if (files == null)
+			return false;
+		for(File file : files) {
+			if (file.getName().startsWith(FlatFilesReader.FILENAME_BASE) && file.getName().endsWith(PACKED_SUFFIX))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the first row in the given contig at or after the given position. Returns false
+	 * if there is no such row
+	 * @param contig
+	 * @param pos
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean advanceTo(String contig, int pos) throws IOException {
+		openContig(contig);
+		row = current.lowerBound(pos);
+		rowMatched = row < current.rows;
+		return rowMatched;
+	}
+
+	/**
+	 * Move to the row with the given contig, position and alt base. Returns false if there
+	 * is no such row, in which case there are no current values until the next successful call
+	 * @param contig
+	 * @param pos
+	 * @param alt
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean advanceTo(String contig, int pos, char alt) throws IOException {
+		openContig(contig);
+		row = current.lowerBound(pos);
+		while(row < current.rows && current.positions.get(row) == pos) {
+			if (current.alts.get(row) == (byte)alt) {
+				rowMatched = true;
+				return true;
+			}
+			row++;
+		}
+		rowMatched = false;
+		return false;
+	}
+
+	/**
+	 * Move to the next row in the current contig, returns false if there are no more rows
+	 * @return
+	 */
+	public boolean advanceLine() {
+		if (current == null)
+			return false;
+		if (row < current.rows)
+			row++;
+		rowMatched = row < current.rows;
+		return rowMatched;
+	}
+
+	public boolean hasCurrentRow() {
+		return rowMatched;
+	}
+
+	/**
+	 * Position of the current row, or -1 if we're past the end of the contig
+	 * @return
+	 */
+	public int getCurrentPos() {
+		if (current == null || row < 0 || row >= current.rows)
+			return -1;
+		return current.positions.get(row);
+	}
+
+	public String getCurrentContig() {
+		return current == null ? null : current.contig;
+	}
+
+	/**
+	 * Release the mapped contig files. Files are closed as soon as they're mapped, so this just drops
+	 * the references to the mappings so they can be unmapped
+	 */
+	public void close() {
+		openFiles.clear();
+		current = null;
+		row = -1;
+		rowMatched = false;
+	}
+
+	/**
+	 * Text of the given column in the current row, or null if there is no current row
+	 * @param col
+	 * @return
+	 */
+	public String getText(int col) {
+		if (! rowMatched)
+			return null;
+		return current.getText(row, col);
+	}
+
+	/**
+	 * Numeric value of the given column in the current row, or NaN if the value is missing
+	 * or not a number
+	 * @param col
+	 * @return
+	 */
+	public double getValue(int col) {
+		if (! rowMatched)
+			return Double.NaN;
+		return current.getValue(row, col);
+	}
+
+	private void openContig(String contig) throws IOException {
+		if (current != null && current.contig.equals(contig))
+			return;
+
+		//Mapped files are kept open, since switching between contigs is common when rows are requested in any order
+		ContigFile contigFile = openFiles.get(contig);
+		if (contigFile == null) {
+			File file = new File(baseDir, FlatFilesReader.FILENAME_BASE + contig + PACKED_SUFFIX);
+			if (! file.exists()) {
+				throw new IOException("Cannot find contig file : " + file.getAbsolutePath());
+			}
+			contigFile = new ContigFile(contig, file);
+			openFiles.put(contig, contigFile);
+		}
+		current = contigFile;
+		row = -1;
+		rowMatched = false;
+	}
+
+	/**
+	 * A single memory-mapped contig file
+	 */
+	static class ContigFile {
+		final String contig;
+		final int rows;
+		final int cols;
+		final byte[] types;
+		final IntBuffer positions;
+		final ByteBuffer alts;
+		final IntBuffer[] cellSegments;
+		final int rowsPerSegment;
+		final String[][] dictionaries;
+		final double[][] dictionaryValues; //Numeric values of dictionary entries, NaN if not a number
+
+		ContigFile(String contig, File file) throws IOException {
+			this.contig = contig;
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16);
+				if (header.getInt() != MAGIC) {
+					throw new IOException("File " + file.getAbsolutePath() + " is not a packed dbNSFP file");
+				}
+				int version = header.getInt();
+				if (version != VERSION) {
+					throw new IOException("File " + file.getAbsolutePath() + " has unsupported version " + version);
+				}
+				rows = header.getInt();
+				cols = header.getInt();
+
+				long offset = 16;
+				types = new byte[cols];
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, cols).get(types);
+				offset += cols;
+
+				positions = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L*rows).asIntBuffer();
+				offset += 4L*rows;
+
+				alts = channel.map(FileChannel.MapMode.READ_ONLY, offset, rows);
+				offset += rows;
+
+				//A single mapping can't exceed 2GB, so map the cells in segments of whole rows
+				rowsPerSegment = Math.max(1, Integer.MAX_VALUE / (4*cols));
+				int segments = rows == 0 ? 0 : (rows - 1) / rowsPerSegment + 1;
+				cellSegments = new IntBuffer[segments];
+				for(int i=0; i<segments; i++) {
+					int segRows = Math.min(rowsPerSegment, rows - i*rowsPerSegment);
+					cellSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L*cols*segRows).asIntBuffer();
+					offset += 4L*cols*segRows;
+				}
+
+				MappedByteBuffer dictBuf = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
+				dictionaries = new String[cols][];
+				dictionaryValues = new double[cols][];
+				for(int col=0; col<cols; col++) {
+					if (types[col] != STRING)
+						continue;
+					int count = dictBuf.getInt();
+					String[] dict = new String[count];
+					double[] vals = new double[count];
+					for(int i=0; i<count; i++) {
+						byte[] bytes = new byte[dictBuf.getInt()];
+						dictBuf.get(bytes);
+						dict[i] = new String(bytes, UTF8);
+						vals[i] = parseDouble(dict[i]);
+					}
+					dictionaries[col] = dict;
+					dictionaryValues[col] = vals;
+				}
+			}
+			finally {
+				//Mappings remain valid after the channel is closed
+				raf.close();
+			}
+		}
+
+		/**
+		 * Index of the first row whose position is at least pos, or rows if there is no such row
+		 */
+		int lowerBound(int pos) {
+			int lo = 0;
+			int hi = rows;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (positions.get(mid) < pos)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		int getCell(int row, int col) {
+			return cellSegments[row / rowsPerSegment].get( (row % rowsPerSegment)*cols + col);
+		}
+
+		String getText(int row, int col) {
+			if (col >= cols)
+				return ".";
+			int cell = getCell(row, col);
+			switch(types[col]) {
+			case INT:
+				if (cell < MISSING_INT + MISSING.length)
+					return MISSING[cell - MISSING_INT];
+				return Integer.toString(cell);
+			case FLOAT:
+				if (cell - MISSING_FLOAT_BITS >= 0 && cell - MISSING_FLOAT_BITS < MISSING.length)
+					return MISSING[cell - MISSING_FLOAT_BITS];
+				return Float.toString(Float.intBitsToFloat(cell));
+			default:
+				return dictionaries[col][cell];
+			}
+		}
+
+		double getValue(int row, int col) {
+			if (col >= cols)
+				return Double.NaN;
+			int cell = getCell(row, col);
+			switch(types[col]) {
+			case INT:
+				return cell < MISSING_INT + MISSING.length ? Double.NaN : cell;
+			case FLOAT:
+				float f = Float.intBitsToFloat(cell);
+				//Go through the shortest decimal representation so we get back the same
+				//value that was parsed from the original text, not the nearest float
+				return Float.isNaN(f) ? Double.NaN : Double.parseDouble(Float.toString(f));
+			default:
+				return dictionaryValues[col][cell];
+			}
+		}
+
+		private static double parseDouble(String str) {
+			try {
+				return Double.parseDouble(str);
+			}
+			catch (NumberFormatException nfe) {
+				return Double.NaN;
+			}
+		}
+	}
+}
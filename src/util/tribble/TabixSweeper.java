@@ -0,0 +1,144 @@
+package util.tribble;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.broad.tribble.readers.TabixReader;
+
+/**
+ * Reads lines from a tabix-indexed file for a series of positions given in sorted order, for instance
+ * all of the variants on a contig in a VariantPool. Instead of performing one indexed query for each
+ * position (which re-seeks and re-decompresses a BGZF block each time) we open a single query per contig
+ * and read forward through it, matching lines to the requested positions as we go. If the next requested
+ * position is more than seekGap bases beyond the current line in the file, or if positions are requested
+ * out of order, we seek to the new position using the index.
+ *
+ * The position of each line is read from the second column, as it is in VCF files. Only lines whose position
+ * is exactly equal to the requested position are returned.
+ *
+ * Instances are not thread-safe, each thread should have its own.
+ * @author brendan
+ *
+ */
+public class TabixSweeper {
+
+	public static final int DEFAULT_SEEK_GAP = 50000;
+	private static final int MAX_POS = 1 << 29; //Largest position tabix can index
+
+	private final TabixReader reader;
+	private final int seekGap;
+
+	private String contig = null;
+	private TabixReader.Iterator iter = null;
+	private boolean exhausted = true; //True if there are no more lines in the current contig
+
+	private String pending = null; //Next line in the file that hasn't been matched to a position yet
+	private int pendingPos = -1;
+
+	private int currentPos = -1; //Most recently requested position, and the lines found for it
+	private final List<String> currentLines = new ArrayList<String>();
+
+	private int seeks = 0;
+
+	public TabixSweeper(String path) throws IOException {
+		this(new TabixReader(path), DEFAULT_SEEK_GAP);
+	}
+
+	public TabixSweeper(String path, int seekGap) throws IOException {
+		this(new TabixReader(path), seekGap);
+	}
+
+	public TabixSweeper(TabixReader reader, int seekGap) {
+		this.reader = reader;
+		this.seekGap = seekGap;
+	}
+
+	/**
+	 * Return all lines in the file from the given contig whose position is equal to pos. The list
+	 * is empty if there are no such lines, and is only valid until the next call to this method
+	 * @param contig
+	 * @param pos
+	 * @return
+	 * @throws IOException
+	 */
+	public List<String> getLinesAt(String contig, int pos) throws IOException {
+		if (contig.equals(this.contig) && pos == currentPos) {
+			return currentLines;
+		}
+
+		currentLines.clear();
+		if ((! contig.equals(this.contig)) || pos < currentPos || (pending != null && pos - pendingPos > seekGap)) {
+			seek(contig, pos);
+		}
+		currentPos = pos;
+
+		while (pending != null && pendingPos <= pos) {
+			if (pendingPos == pos) {
+				currentLines.add(pending);
+			}
+			advance();
+		}
+
+		if (currentLines.size()==0)
+			return Collections.emptyList();
+		return currentLines;
+	}
+
+	/**
+	 * Number of indexed seeks performed so far
+	 * @return
+	 */
+	public int getSeekCount() {
+		return seeks;
+	}
+
+	public void close() {
+		reader.close();
+	}
+
+	/**
+	 * Begin reading lines in the given contig at the given position
+	 */
+	private void seek(String contig, int pos) throws IOException {
+		this.contig = contig;
+		seeks++;
+		try {
+			iter = reader.query(contig + ":" + pos + "-" + MAX_POS);
+		}
+		catch (RuntimeException rex) {
+			//Bad contigs will cause an array out-of-bounds exception to be thrown by
+			//the tabix reader, we treat them as if they contained no lines
+			iter = null;
+		}
+		exhausted = iter == null;
+		advance();
+	}
+
+	/**
+	 * Read the next line of the current query into pending, or set pending to null if there are no more
+	 */
+	private void advance() throws IOException {
+		pending = null;
+		if (exhausted)
+			return;
+
+		String line = iter.next();
+		if (line == null) {
+			exhausted = true;
+			return;
+		}
+		pending = line;
+		pendingPos = parsePosition(line);
+	}
+
+	private static int parsePosition(String line) {
+		int first = line.indexOf('\t');
+		int second = line.indexOf('\t', first+1);
+		if (first < 0 || second < 0) {
+			throw new IllegalArgumentException("Could not read position from tabix line : " + line);
+		}
+		return Integer.parseInt(line.substring(first+1, second));
+	}
+}